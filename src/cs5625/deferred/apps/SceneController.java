@@ -15,6 +15,7 @@ import javax.media.opengl.GLAutoDrawable;
 import javax.swing.Timer;
 
 import cs5625.deferred.physics.ParticleSystem;
+import cs5625.deferred.physicsGeometry.SubdivisionLOD;
 import cs5625.deferred.rendering.Camera;
 import cs5625.deferred.rendering.Renderer;
 import cs5625.deferred.scenegraph.SceneObject;
@@ -56,9 +57,9 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 	
 	protected static Timer timer;
 	protected boolean isAnimate = false;
-	private static int N_STEPS_PER_FRAME = 60;
 	public static  float DT = 0.03f;
-	public static float dt = 2 *  DT /  N_STEPS_PER_FRAME ;
+	/** Simulated time per frame (the simulation runs at twice real time). */
+	public static float FRAME_DT = 2 * DT;
 	
 	public ParticleSystem PS;
 	
@@ -138,11 +139,9 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 	        mSceneRoot.addToParticleSystem(PS);
 		}
 
-		//Perform several small time steps per iteration
-		//float dt = DT / N_STEPS_PER_FRAME ;
-		for(int i =0; i< N_STEPS_PER_FRAME; i++){
-			PS.advanceTime(dt);
-		}
+		//Perform one frame of substeps (the particle system picks how many)
+		PS.advanceFrame(FRAME_DT);
+		SubdivisionLOD.setCamera(isShadowCamMode ? mShadowCamera : mCamera);
 		mSceneRoot.animate(DT);
 		requiresRender();
 		
@@ -196,6 +195,7 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 	public void resizeGL(GLAutoDrawable drawable, int width, int height)
 	{
 		mRenderer.resize(drawable, width, height);
+		SubdivisionLOD.setViewportHeight(height);
 	}
 
 	/**
@@ -230,6 +230,9 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 	 * 'v'/'V': Decrease/Increase the bloom variance.
 	 * 'c'/'C': Decrease/Increase the bloom threshold.
 	 * 'x'/'X': Decrease/Increase the bloom width.
+	 * 'u': Toggle view frustum culling, and print how many meshes the last frame drew and culled.
+	 * 'U': Print how many meshes the last frame drew and culled, how many shader and material binds it made, 
+	 *      and how many bytes of dynamic vertex data it streamed.
 	 */
 	@Override
 	public void keyTyped(KeyEvent key)
@@ -369,6 +372,19 @@ public abstract class SceneController implements MouseListener, MouseMotionListe
 				stopAnimation();
 			}
 		}
+		else if (c == 'u')
+		{
+			mRenderer.setFrustumCulling(!mRenderer.getFrustumCulling());
+			System.out.println("Frustum culling: " + mRenderer.getFrustumCulling() + " (last frame: " + 
+					mRenderer.getMeshesDrawn() + " meshes drawn, " + mRenderer.getMeshesCulled() + " culled)");
+			requiresRender();
+		}
+		else if (c == 'U')
+		{
+			System.out.println("Last frame: " + mRenderer.getMeshesDrawn() + " meshes drawn, " + mRenderer.getMeshesCulled() + 
+					" culled, " + mRenderer.getShaderBinds() + " shader binds, " + mRenderer.getMaterialBinds() + " material binds, " + 
+					mRenderer.getBytesStreamed() + " bytes streamed (" + mRenderer.getStreamingBufferOrphans() + " buffer orphans)");
+		}
 		else if (c == '.'){
 			mRenderer.setFog(!mRenderer.getFog());
 			requiresRender();
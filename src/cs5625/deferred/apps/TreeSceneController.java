@@ -19,6 +19,7 @@ import cs5625.deferred.misc.OpenGLException;
 import cs5625.deferred.misc.ScenegraphException;
 import cs5625.deferred.misc.Util;
 import cs5625.deferred.physics.Constants;
+import cs5625.deferred.physics.ParticleSystem;
 import cs5625.deferred.physicsGeometry.Ground;
 import cs5625.deferred.physicsGeometry.PalmTree;
 import cs5625.deferred.physicsGeometry.SkyBox;
@@ -141,6 +142,7 @@ public class TreeSceneController extends SceneController{
 			mCamera.setPosition(new Point3f(0.0f, 0.0f, mCameraRadius));			
 			Util.rotateTuple(mCamera.getOrientation(), mCamera.getPosition());
 			mCamera.getPosition().set(offset);
+			mCamera.markTransformDirty();
 	}
 	
 	@Override
@@ -164,6 +166,8 @@ public class TreeSceneController extends SceneController{
 	 * 'b': add ball.
 	 * 'B': select ball
 	 * 'v'/'V': Decrease/Increase the wind velocity.
+	 * 'i': Cycle through the symplectic, implicit (backward-Euler) and XPBD integrators.
+	 * 'k': Toggle skinned (rather than re-subdivided) tree meshes.
 	 */
 	@Override
 	public void keyPressed(KeyEvent key)
@@ -227,6 +231,20 @@ public class TreeSceneController extends SceneController{
 		else if (c == 'V'){
 			Constants.set_WIND_STRENGTH(Constants.WIND_STRENGTH +0.1);
 		}
+		else if (c == 'i' && PS != null){
+			if (PS.getIntegrator() == ParticleSystem.Integrator.SYMPLECTIC_EULER){
+				PS.setIntegrator(ParticleSystem.Integrator.BACKWARD_EULER);
+			}
+			else if (PS.getIntegrator() == ParticleSystem.Integrator.BACKWARD_EULER){
+				PS.setIntegrator(ParticleSystem.Integrator.XPBD);
+			}
+			else PS.setIntegrator(ParticleSystem.Integrator.SYMPLECTIC_EULER);
+			System.out.println("Integrator: " + PS.getIntegrator());
+		}
+		else if (c == 'k'){
+			tree.setSkinned(!tree.isSkinned());
+			System.out.println("Skinned tree meshes: " + tree.isSkinned());
+		}
 
 		
 		updateCamera();
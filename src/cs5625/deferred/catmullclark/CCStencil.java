@@ -0,0 +1,154 @@
+package cs5625.deferred.catmullclark;
+
+import java.nio.FloatBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cs5625.deferred.datastruct.HalfEdgeMesh;
+import cs5625.deferred.datastruct.Stencil;
+import cs5625.deferred.scenegraph.Quadmesh;
+
+/**
+ * CCStencil.java
+ *
+ * Builds (and caches, per control mesh topology) the Stencil of a number of
+ * levels of Catmull-Clark subdivision. The weights follow CCSubdiv exactly;
+ * the refined topology is produced by running CCSubdiv itself on a copy of
+ * the control mesh's connectivity. At most MAX_CACHED stencils are kept,
+ * the least recently used being dropped first.
+ */
+public class CCStencil {
+
+	/** Number of stencils kept in the cache. */
+	public static int MAX_CACHED = 32;
+
+	private static final LinkedHashMap<Stencil.Key, Stencil> cache = new LinkedHashMap<Stencil.Key, Stencil>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Stencil.Key, Stencil> eldest)
+		{
+			return size() > MAX_CACHED;
+		}
+	};
+
+	/**
+	 * Returns the stencil of `levels` levels of subdivision of cage,
+	 * building it the first time this topology is seen.
+	 */
+	public static synchronized Stencil get(Quadmesh cage, int levels)
+	{
+		Stencil.Key key = new Stencil.Key(cage, levels);
+		Stencil stencil = cache.get(key);
+		if (stencil == null){
+			stencil = build(cage, levels);
+			cache.put(key, stencil);
+		}
+		return stencil;
+	}
+
+	/**
+	 * Forgets all cached stencils.
+	 */
+	public static synchronized void clearCache()
+	{
+		cache.clear();
+	}
+
+	private static Stencil build(Quadmesh cage, int levels)
+	{
+		int n = cage.getVertexCount();
+		Stencil stencil = Stencil.identity(n);
+		stencil.setTopology(cage.getPolygonData(), cage.getEdgeData());
+
+		//CONNECTIVITY ONLY; CCSubdiv REFINES IT IN PLACE
+		Quadmesh mesh = new Quadmesh();
+		mesh.setVertexData(FloatBuffer.allocate(3*n));
+		mesh.setNormalData(FloatBuffer.allocate(3*n));
+		mesh.setTexCoordData(FloatBuffer.allocate(2*n));
+		mesh.setPolygonData(cage.getPolygonData());
+		mesh.setEdgeData(cage.getEdgeData());
+
+		for (int i = 0; i < levels; i++){
+			HalfEdgeMesh hem = new HalfEdgeMesh(mesh);
+			Stencil level = level(hem);
+			new CCSubdiv(hem);
+			level.setTopology(mesh.getPolygonData(), mesh.getEdgeData());
+			stencil = stencil.then(level);
+		}
+		stencil.trim();
+		return stencil;
+	}
+
+	/**
+	 * Returns the stencil of one level of subdivision, with refined vertices
+	 * in CCSubdiv's order: face points, edge points, then vertex points.
+	 */
+	private static Stencil level(HalfEdgeMesh hem)
+	{
+		int nF = hem.getFaceCount(), nE = hem.getEdgeCount(), nV = hem.getVertexCount();
+		Stencil s = new Stencil(nV);
+
+		// FACE POINTS
+		for (int f = 0; f < nF; f++){
+			addFacePoint(s, hem, f, 1.0);
+			s.endRow();
+		}
+
+		// EDGE POINTS
+		for (int e = 0; e < nE; e++){
+			if (!hem.isBoundaryEdge(e) && !hem.isCreaseEdge(e)){
+				int h = hem.edgeHalf[e];
+				s.add(hem.edgeVertex0(e), 0.25);
+				s.add(hem.edgeVertex1(e), 0.25);
+				addFacePoint(s, hem, hem.face(h), 0.25);
+				addFacePoint(s, hem, hem.face(hem.twin[h]), 0.25);
+			}
+			else{ // IF ON A CREASE EDGE OR A BOUNDARY
+				s.add(hem.edgeVertex0(e), 0.5);
+				s.add(hem.edgeVertex1(e), 0.5);
+			}
+			s.endRow();
+		}
+
+		// VERTEX POINTS
+		int[] sharp = new int[2];
+		for (int v = 0; v < nV; v++){
+			int nSharp = hem.sharpEdges(v, sharp);
+			int n = hem.valence(v);
+
+			// Not on an crease/edge
+			if (nSharp <= 1 && n > 0){
+				double beta = 1.0/(n*n);
+				s.add(v, 1.0 - 2.0/n);
+				for (int k = hem.vertexEdgeStart[v]; k < hem.vertexEdgeStart[v+1]; k++){
+					s.add(hem.otherVertex(hem.vertexEdges[k], v), beta);
+				}
+				for (int k = hem.outgoingStart[v]; k < hem.outgoingStart[v+1]; k++){
+					addFacePoint(s, hem, hem.face(hem.outgoing[k]), beta);
+				}
+			}
+			// On an edge
+			else if (nSharp == 2){
+				s.add(v, 0.75);
+				s.add(hem.otherVertex(sharp[0], v), 0.125);
+				s.add(hem.otherVertex(sharp[1], v), 0.125);
+			}
+			else{
+				// corner: more than 2 creases, the vertex stays put
+				s.add(v, 1.0);
+			}
+			s.endRow();
+		}
+
+		return s;
+	}
+
+	/** Adds w times the face point (centroid) of face f. */
+	private static void addFacePoint(Stencil s, HalfEdgeMesh hem, int f, double w)
+	{
+		int sides = hem.getSides();
+		for (int c = 0; c < sides; c++){
+			s.add(hem.faceVertex(f, c), w / sides);
+		}
+	}
+}
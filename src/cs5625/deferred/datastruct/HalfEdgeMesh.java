@@ -0,0 +1,299 @@
+package cs5625.deferred.datastruct;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.Quadmesh;
+import cs5625.deferred.scenegraph.Trimesh;
+
+/**
+ * HalfEdgeMesh.java
+ *
+ * Compact half-edge connectivity of a Trimesh or Quadmesh, stored in flat
+ * int arrays, for subdivision. Replaces EdgeDS in CCSubdiv and LoopSubdiv.
+ *
+ * Every polygon has `sides` corners, so half-edges are implicit: half-edge
+ * h = sides*f + c leaves corner c of face f, and its face, next and previous
+ * half-edges are arithmetic. Only each half-edge's origin vertex, twin and
+ * undirected edge are stored. Edges are numbered 0..getEdgeCount()-1 in the
+ * order they are first met walking the polygon buffer; each records one of
+ * its half-edges and whether it is a crease (listed in the mesh's edge
+ * buffer). The edges and outgoing half-edges around each vertex are stored
+ * in compressed rows, so vertex rules never search.
+ *
+ * Vertex, face and edge IDs are plain array indices: vertex IDs are the
+ * mesh's own indices (including any vertex no polygon uses), face IDs are
+ * polygon buffer order. Building takes time linear in the size of the mesh
+ * for bounded valence.
+ */
+public class HalfEdgeMesh {
+
+	private final Mesh mMesh;
+
+	private final int nVertices, nFaces, nHalfEdges, sides;
+	private int nEdges;
+
+	//per half-edge: origin vertex, opposite half-edge (-1 on a boundary) and undirected edge
+	public final int[] origin, twin, edge;
+	//per edge: one of its half-edges, and the crease flag
+	public final int[] edgeHalf;
+	public final boolean[] crease;
+	//edges around vertex v: vertexEdges[vertexEdgeStart[v] .. vertexEdgeStart[v+1]-1]
+	public final int[] vertexEdgeStart, vertexEdges;
+	//half-edges leaving vertex v (one per face around v): outgoing[outgoingStart[v] .. outgoingStart[v+1]-1]
+	public final int[] outgoingStart, outgoing;
+
+	public HalfEdgeMesh(Trimesh trimesh)
+	{
+		this(trimesh, 3);
+	}
+
+	public HalfEdgeMesh(Quadmesh quadmesh)
+	{
+		this(quadmesh, 4);
+	}
+
+	private HalfEdgeMesh(Mesh mesh, int sides)
+	{
+		this.mMesh = mesh;
+		this.sides = sides;
+		this.nVertices = mesh.getVertexCount();
+		this.nFaces = mesh.getPolygonCount();
+		this.nHalfEdges = sides * nFaces;
+
+		IntBuffer polygons = mesh.getPolygonData();
+		origin = new int[nHalfEdges];
+		for (int h = 0; h < nHalfEdges; h++){
+			origin[h] = polygons.get(h);
+		}
+
+		//OUTGOING HALF-EDGES PER VERTEX (COUNTING SORT)
+		outgoingStart = new int[nVertices + 1];
+		for (int h = 0; h < nHalfEdges; h++) outgoingStart[origin[h] + 1]++;
+		for (int v = 0; v < nVertices; v++) outgoingStart[v+1] += outgoingStart[v];
+		outgoing = new int[nHalfEdges];
+		int[] fill = new int[nVertices];
+		for (int h = 0; h < nHalfEdges; h++){
+			int v = origin[h];
+			outgoing[outgoingStart[v] + fill[v]++] = h;
+		}
+
+		//TWINS AND EDGES: THE TWIN OF a->b IS THE b->a AMONG b'S OUTGOING HALF-EDGES
+		//(OR, WHERE NEIGHBORING FACES DISAGREE ON WINDING, ANOTHER a->b)
+		twin = new int[nHalfEdges];
+		edge = new int[nHalfEdges];
+		int[] halves = new int[nHalfEdges];
+		Arrays.fill(twin, -1);
+		Arrays.fill(edge, -1);
+		for (int h = 0; h < nHalfEdges; h++){
+			if (edge[h] >= 0) continue;
+			int a = origin[h], b = dest(h);
+			int g = findUnpaired(b, a, h);
+			if (g < 0) g = findUnpaired(a, b, h);
+			if (g >= 0){
+				twin[h] = g;
+				twin[g] = h;
+				edge[g] = nEdges;
+			}
+			edge[h] = nEdges;
+			halves[nEdges] = h;
+			nEdges++;
+		}
+		edgeHalf = Arrays.copyOf(halves, nEdges);
+
+		//EDGES PER VERTEX
+		vertexEdgeStart = new int[nVertices + 1];
+		for (int e = 0; e < nEdges; e++){
+			vertexEdgeStart[edgeVertex0(e) + 1]++;
+			vertexEdgeStart[edgeVertex1(e) + 1]++;
+		}
+		for (int v = 0; v < nVertices; v++) vertexEdgeStart[v+1] += vertexEdgeStart[v];
+		vertexEdges = new int[2 * nEdges];
+		Arrays.fill(fill, 0);
+		for (int e = 0; e < nEdges; e++){
+			int v0 = edgeVertex0(e), v1 = edgeVertex1(e);
+			vertexEdges[vertexEdgeStart[v0] + fill[v0]++] = e;
+			vertexEdges[vertexEdgeStart[v1] + fill[v1]++] = e;
+		}
+
+		//CREASES
+		crease = new boolean[nEdges];
+		IntBuffer creaseData = mesh.getEdgeData();
+		int nCreases = (creaseData == null) ? 0 : creaseData.capacity() / 2;
+		for (int i = 0; i < nCreases; i++){
+			int e = findEdge(creaseData.get(2*i), creaseData.get(2*i + 1));
+			if (e >= 0) crease[e] = true;
+		}
+	}
+
+	/**
+	 * Returns a half-edge from a to b, other than h, with no edge assigned yet; or -1.
+	 */
+	private int findUnpaired(int a, int b, int h)
+	{
+		for (int k = outgoingStart[a]; k < outgoingStart[a+1]; k++){
+			int g = outgoing[k];
+			if (g != h && edge[g] < 0 && dest(g) == b) return g;
+		}
+		return -1;
+	}
+
+	public Mesh getMesh()
+	{
+		return mMesh;
+	}
+
+	public int getVertexCount()
+	{
+		return nVertices;
+	}
+
+	public int getFaceCount()
+	{
+		return nFaces;
+	}
+
+	public int getHalfEdgeCount()
+	{
+		return nHalfEdges;
+	}
+
+	public int getEdgeCount()
+	{
+		return nEdges;
+	}
+
+	/**
+	 * Number of corners (and half-edges) of every face.
+	 */
+	public int getSides()
+	{
+		return sides;
+	}
+
+	/*
+	 * Half-edge navigation.
+	 */
+
+	public int face(int h)
+	{
+		return h / sides;
+	}
+
+	public int next(int h)
+	{
+		return (h % sides == sides - 1) ? h - sides + 1 : h + 1;
+	}
+
+	public int prev(int h)
+	{
+		return (h % sides == 0) ? h + sides - 1 : h - 1;
+	}
+
+	public int dest(int h)
+	{
+		return origin[next(h)];
+	}
+
+	/**
+	 * Half-edge leaving corner c of face f.
+	 */
+	public int halfEdge(int f, int c)
+	{
+		return sides * f + c;
+	}
+
+	/**
+	 * Vertex at corner c of face f.
+	 */
+	public int faceVertex(int f, int c)
+	{
+		return origin[sides * f + c];
+	}
+
+	/*
+	 * Edges.
+	 */
+
+	public int edgeVertex0(int e)
+	{
+		return origin[edgeHalf[e]];
+	}
+
+	public int edgeVertex1(int e)
+	{
+		return dest(edgeHalf[e]);
+	}
+
+	/**
+	 * The end of edge e that is not v.
+	 */
+	public int otherVertex(int e, int v)
+	{
+		int v0 = edgeVertex0(e);
+		return (v0 == v) ? edgeVertex1(e) : v0;
+	}
+
+	/**
+	 * True if edge e has a polygon on one side only.
+	 */
+	public boolean isBoundaryEdge(int e)
+	{
+		return twin[edgeHalf[e]] < 0;
+	}
+
+	public boolean isCreaseEdge(int e)
+	{
+		return crease[e];
+	}
+
+	/**
+	 * Returns the edge between vertices a and b, or -1 if there is none.
+	 */
+	public int findEdge(int a, int b)
+	{
+		for (int k = vertexEdgeStart[a]; k < vertexEdgeStart[a+1]; k++){
+			int e = vertexEdges[k];
+			if (otherVertex(e, a) == b) return e;
+		}
+		return -1;
+	}
+
+	/*
+	 * Vertices.
+	 */
+
+	/**
+	 * Number of edges around vertex v.
+	 */
+	public int valence(int v)
+	{
+		return vertexEdgeStart[v+1] - vertexEdgeStart[v];
+	}
+
+	/**
+	 * Number of crease edges plus number of boundary edges around vertex v
+	 * (an edge that is both counts twice), as used by the subdivision rules.
+	 * The first two such edges (creases first) are stored in sharp[0..1].
+	 */
+	public int sharpEdges(int v, int[] sharp)
+	{
+		int count = 0;
+		for (int k = vertexEdgeStart[v]; k < vertexEdgeStart[v+1]; k++){
+			int e = vertexEdges[k];
+			if (crease[e]){
+				if (count < 2) sharp[count] = e;
+				count++;
+			}
+		}
+		for (int k = vertexEdgeStart[v]; k < vertexEdgeStart[v+1]; k++){
+			int e = vertexEdges[k];
+			if (isBoundaryEdge(e)){
+				if (count < 2) sharp[count] = e;
+				count++;
+			}
+		}
+		return count;
+	}
+}
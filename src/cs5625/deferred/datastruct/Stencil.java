@@ -0,0 +1,301 @@
+package cs5625.deferred.datastruct;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import com.jogamp.common.nio.Buffers;
+
+import cs5625.deferred.scenegraph.Mesh;
+
+/**
+ * Stencil.java
+ *
+ * A subdivision stencil: a sparse matrix (compressed rows) that gives every
+ * vertex of a refined mesh as a weighted sum of the vertices of its control
+ * mesh, together with the refined mesh's polygon and crease edge buffers.
+ *
+ * Subdivision rules are linear, so a stencil depends only on the topology of
+ * the control mesh. It is built once (see CCStencil and LoopStencil), and an
+ * animated mesh whose topology does not change is then refined every frame
+ * by refine(), a single sparse matrix-vector product per vertex attribute,
+ * into buffers that are reused from frame to frame.
+ */
+public class Stencil {
+
+	//number of control (source) and refined (target) vertices
+	private int nSource, nTarget;
+	//row r holds (column[k], weight[k]) for rowStart[r] <= k < rowStart[r+1]
+	private int[] rowStart, column;
+	private float[] weight;
+	private int nEntries;
+
+	//refined topology, shared by every mesh refined with this stencil
+	private IntBuffer mPolygonData, mEdgeData;
+
+	//row being built: dense accumulator over the source vertices, and the columns it touches
+	private double[] acc;
+	private int[] touched;
+	private int nTouched;
+
+	/**
+	 * Creates an empty stencil over nSource control vertices. Rows are then
+	 * built one at a time with add() and endRow().
+	 */
+	public Stencil(int nSource)
+	{
+		this.nSource = nSource;
+		this.nTarget = 0;
+		this.rowStart = new int[17];
+		this.column = new int[64];
+		this.weight = new float[64];
+		this.acc = new double[nSource];
+		this.touched = new int[16];
+	}
+
+	/**
+	 * Returns the identity stencil over n vertices (no subdivision).
+	 */
+	public static Stencil identity(int n)
+	{
+		Stencil s = new Stencil(n);
+		for (int i = 0; i < n; i++){
+			s.add(i, 1f);
+			s.endRow();
+		}
+		return s;
+	}
+
+	/**
+	 * Adds w times control vertex `source` to the row being built.
+	 */
+	public void add(int source, double w)
+	{
+		if (acc[source] == 0){
+			if (nTouched == touched.length) touched = Arrays.copyOf(touched, 2*touched.length);
+			touched[nTouched++] = source;
+		}
+		acc[source] += w;
+		//keep the column even if the weights cancel out exactly
+		if (acc[source] == 0) acc[source] = Double.MIN_VALUE;
+	}
+
+	/**
+	 * Finishes the row being built; it becomes refined vertex getTargetCount()-1.
+	 */
+	public void endRow()
+	{
+		Arrays.sort(touched, 0, nTouched);
+		if (nEntries + nTouched > column.length){
+			int c = Math.max(nEntries + nTouched, 2*column.length);
+			column = Arrays.copyOf(column, c);
+			weight = Arrays.copyOf(weight, c);
+		}
+		for (int k = 0; k < nTouched; k++){
+			int j = touched[k];
+			column[nEntries] = j;
+			weight[nEntries] = (float) acc[j];
+			nEntries++;
+			acc[j] = 0;
+		}
+		nTouched = 0;
+
+		nTarget++;
+		if (nTarget + 1 > rowStart.length) rowStart = Arrays.copyOf(rowStart, 2*rowStart.length);
+		rowStart[nTarget] = nEntries;
+	}
+
+	/**
+	 * Returns the stencil that applies this one, then `next` (whose source
+	 * vertices are this stencil's target vertices).
+	 */
+	public Stencil then(Stencil next)
+	{
+		if (next.nSource != nTarget){
+			throw new IllegalArgumentException("Stencil of " + next.nSource + " source vertices cannot follow one of " + nTarget + " target vertices.");
+		}
+
+		Stencil s = new Stencil(nSource);
+		for (int r = 0; r < next.nTarget; r++){
+			for (int k = next.rowStart[r]; k < next.rowStart[r+1]; k++){
+				int c = next.column[k];
+				double w = next.weight[k];
+				for (int kk = rowStart[c]; kk < rowStart[c+1]; kk++){
+					s.add(column[kk], w * weight[kk]);
+				}
+			}
+			s.endRow();
+		}
+		s.mPolygonData = next.mPolygonData;
+		s.mEdgeData = next.mEdgeData;
+		return s;
+	}
+
+	/**
+	 * Sets the refined polygon and crease edge buffers. They are copied into
+	 * direct buffers owned by this stencil.
+	 */
+	public void setTopology(IntBuffer polygons, IntBuffer edges)
+	{
+		mPolygonData = copy(polygons);
+		mEdgeData = copy(edges);
+	}
+
+	/**
+	 * Releases the scratch space used while building. Called once the stencil
+	 * is complete.
+	 */
+	public void trim()
+	{
+		acc = null;
+		touched = null;
+		column = Arrays.copyOf(column, nEntries);
+		weight = Arrays.copyOf(weight, nEntries);
+		rowStart = Arrays.copyOf(rowStart, nTarget + 1);
+	}
+
+	public int getSourceCount()
+	{
+		return nSource;
+	}
+
+	public int getTargetCount()
+	{
+		return nTarget;
+	}
+
+	/**
+	 * Refines `cage` into `target`: positions, texture coordinates and normals
+	 * are each one sparse matrix-vector product (normals are then
+	 * normalized), and target gets this stencil's polygon and edge buffers.
+	 * Target's vertex buffers are reused when they already have the refined
+	 * size, and reallocated otherwise; target may be cage itself.
+	 * 
+	 * Texture coordinates and topology are taken to be fixed: once target has
+	 * them, they are neither refined nor set again, so only positions and
+	 * normals are marked modified (and uploaded to the GPU again).
+	 */
+	public void refine(Mesh cage, Mesh target)
+	{
+		if (cage.getVertexCount() != nSource){
+			throw new IllegalArgumentException("Stencil expects " + nSource + " control vertices, mesh has " + cage.getVertexCount() + ".");
+		}
+
+		FloatBuffer vertices = reuse(target.getVertexData(), 3, cage.getVertexData());
+		FloatBuffer normals = reuse(target.getNormalData(), 3, cage.getNormalData());
+		FloatBuffer texCoords = reuse(target.getTexCoordData(), 2, cage.getTexCoordData());
+
+		apply(cage.getVertexData(), vertices, 3);
+		if (cage.getNormalData() != null){
+			apply(cage.getNormalData(), normals, 3);
+			normalize(normals);
+		}
+		if (cage.getTexCoordData() != null && texCoords != target.getTexCoordData()){
+			apply(cage.getTexCoordData(), texCoords, 2);
+			target.setTexCoordData(texCoords);
+		}
+
+		target.setVertexData(vertices);
+		target.setNormalData(normals);
+		if (target.getPolygonData() != mPolygonData) target.setPolygonData(mPolygonData);
+		if (target.getEdgeData() != mEdgeData) target.setEdgeData(mEdgeData);
+	}
+
+	/**
+	 * dst = S src, where src holds `dim` floats per control vertex and dst
+	 * `dim` floats per refined vertex.
+	 */
+	public void apply(FloatBuffer src, FloatBuffer dst, int dim)
+	{
+		if (dst == src){
+			throw new IllegalArgumentException("Stencil cannot be applied in place.");
+		}
+
+		for (int r = 0; r < nTarget; r++){
+			int o = dim * r;
+			for (int d = 0; d < dim; d++){
+				float sum = 0f;
+				for (int k = rowStart[r]; k < rowStart[r+1]; k++){
+					sum += weight[k] * src.get(dim * column[k] + d);
+				}
+				dst.put(o + d, sum);
+			}
+		}
+	}
+
+	/**
+	 * Returns buf if it holds exactly `dim` floats per refined vertex and is
+	 * not the source itself, or a new direct buffer that does.
+	 */
+	private FloatBuffer reuse(FloatBuffer buf, int dim, FloatBuffer src)
+	{
+		if (src == null) return buf;
+		if (buf != null && buf != src && buf.capacity() == dim * nTarget) return buf;
+		return Buffers.newDirectFloatBuffer(dim * nTarget);
+	}
+
+	private static void normalize(FloatBuffer n)
+	{
+		for (int i = 0; i + 2 < n.capacity(); i += 3){
+			float x = n.get(i), y = n.get(i+1), z = n.get(i+2);
+			float l = (float) Math.sqrt(x*x + y*y + z*z);
+			if (l > 0f){
+				n.put(i, x / l);
+				n.put(i+1, y / l);
+				n.put(i+2, z / l);
+			}
+		}
+	}
+
+	private static IntBuffer copy(IntBuffer buf)
+	{
+		if (buf == null) return null;
+		IntBuffer copy = Buffers.newDirectIntBuffer(buf.capacity());
+		for (int i = 0; i < buf.capacity(); i++){
+			copy.put(i, buf.get(i));
+		}
+		return copy;
+	}
+
+	/**
+	 * Identifies a control mesh topology (vertex count, polygons, creases)
+	 * and a number of subdivision levels, for caching stencils.
+	 */
+	public static final class Key {
+		private final int nVertices, levels;
+		private final int[] polygons, edges;
+		private final int hash;
+
+		public Key(Mesh cage, int levels)
+		{
+			this.nVertices = cage.getVertexCount();
+			this.levels = levels;
+			this.polygons = toArray(cage.getPolygonData());
+			this.edges = toArray(cage.getEdgeData());
+			this.hash = 31 * (31 * (31 * nVertices + levels) + Arrays.hashCode(polygons)) + Arrays.hashCode(edges);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return hash == k.hash && nVertices == k.nVertices && levels == k.levels
+					&& Arrays.equals(polygons, k.polygons) && Arrays.equals(edges, k.edges);
+		}
+
+		private static int[] toArray(IntBuffer buf)
+		{
+			if (buf == null) return new int[0];
+			int[] a = new int[buf.capacity()];
+			for (int i = 0; i < a.length; i++) a[i] = buf.get(i);
+			return a;
+		}
+	}
+}
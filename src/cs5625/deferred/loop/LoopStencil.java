@@ -0,0 +1,137 @@
+package cs5625.deferred.loop;
+
+import java.nio.FloatBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cs5625.deferred.datastruct.HalfEdgeMesh;
+import cs5625.deferred.datastruct.Stencil;
+import cs5625.deferred.scenegraph.Trimesh;
+
+/**
+ * LoopStencil.java
+ *
+ * Builds (and caches, per control mesh topology) the Stencil of a number of
+ * levels of Loop subdivision. The weights follow LoopSubdiv exactly; the
+ * refined topology is produced by running LoopSubdiv itself on a copy of the
+ * control mesh's connectivity. At most MAX_CACHED stencils are kept,
+ * the least recently used being dropped first.
+ */
+public class LoopStencil {
+
+	/** Number of stencils kept in the cache. */
+	public static int MAX_CACHED = 32;
+
+	private static final LinkedHashMap<Stencil.Key, Stencil> cache = new LinkedHashMap<Stencil.Key, Stencil>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Stencil.Key, Stencil> eldest)
+		{
+			return size() > MAX_CACHED;
+		}
+	};
+
+	/**
+	 * Returns the stencil of `levels` levels of subdivision of cage,
+	 * building it the first time this topology is seen.
+	 */
+	public static synchronized Stencil get(Trimesh cage, int levels)
+	{
+		Stencil.Key key = new Stencil.Key(cage, levels);
+		Stencil stencil = cache.get(key);
+		if (stencil == null){
+			stencil = build(cage, levels);
+			cache.put(key, stencil);
+		}
+		return stencil;
+	}
+
+	/**
+	 * Forgets all cached stencils.
+	 */
+	public static synchronized void clearCache()
+	{
+		cache.clear();
+	}
+
+	private static Stencil build(Trimesh cage, int levels)
+	{
+		int n = cage.getVertexCount();
+		Stencil stencil = Stencil.identity(n);
+		stencil.setTopology(cage.getPolygonData(), cage.getEdgeData());
+
+		//CONNECTIVITY ONLY; LoopSubdiv REFINES IT IN PLACE
+		Trimesh mesh = new Trimesh();
+		mesh.setVertexData(FloatBuffer.allocate(3*n));
+		mesh.setNormalData(FloatBuffer.allocate(3*n));
+		mesh.setTexCoordData(FloatBuffer.allocate(2*n));
+		mesh.setPolygonData(cage.getPolygonData());
+		mesh.setEdgeData(cage.getEdgeData());
+
+		for (int i = 0; i < levels; i++){
+			HalfEdgeMesh hem = new HalfEdgeMesh(mesh);
+			Stencil level = level(hem);
+			new LoopSubdiv(hem);
+			level.setTopology(mesh.getPolygonData(), mesh.getEdgeData());
+			stencil = stencil.then(level);
+		}
+		stencil.trim();
+		return stencil;
+	}
+
+	/**
+	 * Returns the stencil of one level of subdivision, with refined vertices
+	 * in LoopSubdiv's order: odd (edge) vertices, then even vertices.
+	 */
+	private static Stencil level(HalfEdgeMesh hem)
+	{
+		int nE = hem.getEdgeCount(), nV = hem.getVertexCount();
+		Stencil s = new Stencil(nV);
+
+		// ODD VERTICES
+		for (int e = 0; e < nE; e++){
+			int v1 = hem.edgeVertex0(e), v2 = hem.edgeVertex1(e);
+			if (!hem.isCreaseEdge(e) && !hem.isBoundaryEdge(e)){
+				int h = hem.edgeHalf[e];
+				s.add(v1, 0.375);
+				s.add(v2, 0.375);
+				s.add(hem.origin[hem.prev(h)], 0.125);
+				s.add(hem.origin[hem.prev(hem.twin[h])], 0.125);
+			}
+			else{
+				s.add(v1, 0.5);
+				s.add(v2, 0.5);
+			}
+			s.endRow();
+		}
+
+		// EVEN VERTICES
+		int[] sharp = new int[2];
+		for (int v = 0; v < nV; v++){
+			int nSharp = hem.sharpEdges(v, sharp);
+
+			// Not on an edge
+			if (nSharp <= 1){
+				int numberConnectedEdges = hem.valence(v);
+				double beta = (numberConnectedEdges > 3) ? 3.0/(numberConnectedEdges*8.0) : 0.1875;
+				s.add(v, 1.0 - numberConnectedEdges*beta);
+				for (int k = hem.vertexEdgeStart[v]; k < hem.vertexEdgeStart[v+1]; k++){
+					s.add(hem.otherVertex(hem.vertexEdges[k], v), beta);
+				}
+			}
+			// On an edge
+			else if (nSharp == 2){
+				s.add(v, 0.75);
+				s.add(hem.otherVertex(sharp[0], v), 0.125);
+				s.add(hem.otherVertex(sharp[1], v), 0.125);
+			}
+			else{
+				// corner: more than 2 creases, the vertex stays put
+				s.add(v, 1.0);
+			}
+			s.endRow();
+		}
+
+		return s;
+	}
+}
@@ -2,23 +2,22 @@ package cs5625.deferred.loop;
 
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
 
-import javax.vecmath.Point2f;
-import javax.vecmath.Point3f;
-import javax.vecmath.Vector2f;
-import javax.vecmath.Vector3f;
+import com.jogamp.common.nio.Buffers;
 
-import cs5625.deferred.datastruct.EdgeDS;
-import cs5625.deferred.datastruct.EdgeData;
-import cs5625.deferred.datastruct.PolygonData;
-import cs5625.deferred.datastruct.VertexAttributeData;
+import cs5625.deferred.datastruct.HalfEdgeMesh;
+import cs5625.deferred.misc.ParallelLoop;
 import cs5625.deferred.scenegraph.Mesh;
 
 /**
  * LoopSubdiv.java
  * 
- * Perform the subdivision in this class/package 
+ * One level of Loop subdivision of a triangle mesh, over a HalfEdgeMesh.
+ * The refined mesh replaces the data of the HalfEdgeMesh's mesh. Odd and
+ * even vertices are each computed in parallel (see ParallelLoop), straight
+ * into newly allocated direct buffers. Refined vertices are numbered: odd (edge) vertices first (edge e is vertex e),
+ * then even vertices (vertex v is vertex nEdges + v). LoopStencil relies
+ * on this order.
  * 
  * Written for Cornell CS 5625 (Interactive Computer Graphics).
  * Copyright (c) 2012, Computer Science Department, Cornell University.
@@ -31,270 +30,170 @@ public class LoopSubdiv {
 	
 	private Mesh mMesh;
 	
-	public LoopSubdiv(EdgeDS edgeDS)
+	public LoopSubdiv(final HalfEdgeMesh hem)
 	{
-		// TODO PA5: Fill in this function to perform loop subdivision
-		
 		//COMPUTE SIZES OF NEW MESH GEOMETRY
-		int nVertices = edgeDS.getVertexIDs().size() + edgeDS.getEdgeIDs().size();
-		int nCreaseEdges = 2*edgeDS.getCreaseEdgeIDs().size();
-		int nFaces = 4*edgeDS.getPolygonIDs().size();
-		
+		final int nE = hem.getEdgeCount(), nV = hem.getVertexCount();
+		int nVertices = nE + nV;
+		int nFaces = 4*hem.getFaceCount();
+		int nCreaseEdges = 0;
+		for (int e = 0; e < nE; e++){
+			if (hem.isCreaseEdge(e)) nCreaseEdges += 2;
+		}
+
+		this.mMesh = hem.getMesh();
+
 		//INITIALIZE NEW BUFFERS FOR NEW MESH
-		FloatBuffer vertexBuf = FloatBuffer.allocate(nVertices*3);
-		FloatBuffer normalBuf = FloatBuffer.allocate(nVertices*3);
-		FloatBuffer texCoordBuf = FloatBuffer.allocate(nVertices*2);
-		IntBuffer edgeBuf = IntBuffer.allocate(nCreaseEdges*2);
-		IntBuffer faceBuf = IntBuffer.allocate(nFaces*3);
+		FloatBuffer vertexBuf = Buffers.newDirectFloatBuffer(nVertices*3);
+		FloatBuffer normalBuf = Buffers.newDirectFloatBuffer(nVertices*3);
+		FloatBuffer texCoordBuf = Buffers.newDirectFloatBuffer(nVertices*2);
+		IntBuffer edgeBuf = Buffers.newDirectIntBuffer(nCreaseEdges*2);
+		final IntBuffer faceBuf = Buffers.newDirectIntBuffer(nFaces*3);
 
-		int oddVertexCounter = 0;
-		for (int edgeID:edgeDS.getEdgeIDs()){
+		refine(hem, toArray(mMesh.getVertexData(), 3*nV), vertexBuf, 3);
+		refine(hem, toArray(mMesh.getNormalData(), 3*nV), normalBuf, 3);
+		refine(hem, toArray(mMesh.getTexCoordData(), 2*nV), texCoordBuf, 2);
 
-			EdgeData edge = edgeDS.getEdgeData(edgeID);
-			int v1 = edge.getVertex0();
-			int v2 = edge.getVertex1();
-			
-			Point3f targetPosition = new Point3f();
-			Point2f targetTexture = new Point2f();
-			Vector3f targetNormal = new Vector3f();
-			
-			// edge cases
-			if (!edgeDS.isCreaseEdge(edgeID) && !edgeDS.isBoundaryEdge(edgeID)){
-				int v3;
-				EdgeData oneofleftedges = edgeDS.getEdgeData(edgeDS.getOtherEdgesOfLeftFace(edgeID).get(0));
-				if (oneofleftedges.getVertex0()==v1){
-					v3 = oneofleftedges.getVertex1();
-				}
-				else{
-					v3 = oneofleftedges.getVertex0();
-				}
-				
-				int v4;
-				EdgeData oneofrightedges = edgeDS.getEdgeData(edgeDS.getOtherEdgesOfRightFace(edgeID).get(0));
-				if (oneofrightedges.getVertex0()==v1){
-					v4 = oneofrightedges.getVertex1();
-				}
-				else{
-					v4 = oneofrightedges.getVertex0();
+		//adding external edges
+		for (int e = 0; e < nE; e++){
+			// for each edge, add four points for two new edges
+			if (hem.isCreaseEdge(e)){
+				edgeBuf.put(nE + hem.edgeVertex0(e));
+				edgeBuf.put(e);
+				edgeBuf.put(e);
+				edgeBuf.put(nE + hem.edgeVertex1(e));
+			}
+		}
+		edgeBuf.rewind();
+
+		//adding internal edges and faces (4 sub faces for each faces)
+		ParallelLoop.run(hem.getFaceCount(), new ParallelLoop.Body() {
+			public void run(int lo, int hi) {
+				for (int f = lo; f < hi; f++){
+					int h0 = hem.halfEdge(f, 0), h1 = h0 + 1, h2 = h0 + 2;
+					int m0 = hem.edge[h0], m1 = hem.edge[h1], m2 = hem.edge[h2];
+					int o = 12*f;
+
+					// sub face 1
+					faceBuf.put(o,      nE + hem.origin[h1]);
+					faceBuf.put(o + 1,  m1);
+					faceBuf.put(o + 2,  m0);
+
+					// sub face 2
+					faceBuf.put(o + 3,  m1);
+					faceBuf.put(o + 4,  nE + hem.origin[h2]);
+					faceBuf.put(o + 5,  m2);
+
+					// sub face 3
+					faceBuf.put(o + 6,  m0);
+					faceBuf.put(o + 7,  m2);
+					faceBuf.put(o + 8,  nE + hem.origin[h0]);
+
+					// sub face 4 (internal triangle)
+					faceBuf.put(o + 9,  m0);
+					faceBuf.put(o + 10, m1);
+					faceBuf.put(o + 11, m2);
 				}
-				
-				VertexAttributeData vDatav1 = edgeDS.getVertexData(v1).mData;
-				VertexAttributeData vDatav2 = edgeDS.getVertexData(v2).mData;
-				VertexAttributeData vDatav3 = edgeDS.getVertexData(v3).mData;
-				VertexAttributeData vDatav4 = edgeDS.getVertexData(v4).mData;
-				
-				targetPosition.set(vDatav1.getPosition());
-				targetPosition.add(vDatav2.getPosition());
-				targetPosition.scale(0.375f);
-				targetPosition.scaleAdd(0.125f, vDatav3.getPosition(), targetPosition);
-				targetPosition.scaleAdd(0.125f, vDatav4.getPosition(), targetPosition);
-				
-				targetTexture.set(vDatav1.getTexCoord());
-				targetTexture.add(vDatav2.getTexCoord());
-				targetTexture.scale(0.375f);
-				targetTexture.scaleAdd(0.125f, vDatav3.getTexCoord(), targetTexture);
-				targetTexture.scaleAdd(0.125f, vDatav4.getTexCoord(), targetTexture);
+			}
+		});
+
+		this.mMesh.setVertexData(vertexBuf);
+		this.mMesh.setTexCoordData(texCoordBuf);
+		this.mMesh.setEdgeData(edgeBuf);
+		this.mMesh.setPolygonData(faceBuf);
+		this.mMesh.setNormalData(normalBuf);
+	}
 
-				targetNormal.set(vDatav1.getNormal());
-				targetNormal.add(vDatav2.getNormal());
-				targetNormal.scale(0.375f);
-				targetNormal.scaleAdd(0.125f, vDatav3.getNormal(), targetNormal);
-				targetNormal.scaleAdd(0.125f, vDatav4.getNormal(), targetNormal);
+	/**
+	 * Computes odd and even vertices of one vertex attribute with `dim`
+	 * components per vertex, each of the two phases in parallel.
+	 */
+	private static void refine(final HalfEdgeMesh hem, final float[] src, final FloatBuffer dst, final int dim)
+	{
+		ParallelLoop.run(hem.getEdgeCount(), new ParallelLoop.Body() {
+			public void run(int lo, int hi) { oddVertices(hem, src, dst, dim, lo, hi); }
+		});
+		ParallelLoop.run(hem.getVertexCount(), new ParallelLoop.Body() {
+			public void run(int lo, int hi) { evenVertices(hem, src, dst, dim, lo, hi); }
+		});
+	}
+
+	// ODD VERTICES
+	private static void oddVertices(HalfEdgeMesh hem, float[] src, FloatBuffer dst, int dim, int lo, int hi)
+	{
+		int[] origin = hem.origin;
+		for (int e = lo; e < hi; e++){
+			int o = dim*e;
+			int h = hem.edgeHalf[e];
+			int s1 = dim*hem.edgeVertex0(e), s2 = dim*hem.edgeVertex1(e);
+
+			if (!hem.isCreaseEdge(e) && !hem.isBoundaryEdge(e)){
+				// the vertices opposite the edge in its two triangles
+				int s3 = dim*origin[hem.prev(h)];
+				int s4 = dim*origin[hem.prev(hem.twin[h])];
+				for (int d = 0; d < dim; d++){
+					dst.put(o+d, 0.375f*(src[s1+d] + src[s2+d]) + 0.125f*(src[s3+d] + src[s4+d]));
+				}
 			}
 			else{
-				VertexAttributeData vDatav1 = edgeDS.getVertexData(v1).mData;
-				VertexAttributeData vDatav2 = edgeDS.getVertexData(v2).mData;
-				
-				targetPosition.set(vDatav1.getPosition());
-				targetPosition.add(vDatav2.getPosition());
-				targetPosition.scale(0.5f);
-				
-				targetTexture.set(vDatav1.getTexCoord());
-				targetTexture.add(vDatav2.getTexCoord());
-				targetTexture.scale(0.5f);
-				
-				targetNormal.set(vDatav1.getNormal());
-				targetNormal.add(vDatav2.getNormal());
-				targetNormal.scale(0.5f);
-				
+				for (int d = 0; d < dim; d++){
+					dst.put(o+d, 0.5f*(src[s1+d] + src[s2+d]));
+				}
 			}
-			//SAVE NEW POINT TO BUFFER
-			vertexBuf.put(targetPosition.x);
-			vertexBuf.put(targetPosition.y);
-			vertexBuf.put(targetPosition.z);
-			
-			texCoordBuf.put(targetTexture.x);
-			texCoordBuf.put(targetTexture.y);	
-			
-			normalBuf.put(targetNormal.x);
-			normalBuf.put(targetNormal.y);
-			normalBuf.put(targetNormal.z);
-			
-			edge.setVertexIDNew(oddVertexCounter);
-			oddVertexCounter +=1;
 		}
-		
-		for(int vertexID:edgeDS.getVertexIDs()){
-			float beta;
-			
-			ArrayList<Integer>creaseEdges = edgeDS.getCreaseEdges(vertexID);
-			creaseEdges.addAll(edgeDS.getBoundaryEdges(vertexID));
+	}
 
-			Point3f targetPosition = new Point3f(edgeDS.getVertexData(vertexID).mData.getPosition());
-			Point2f targetTexture = new Point2f(edgeDS.getVertexData(vertexID).mData.getTexCoord());
-			Vector3f targetNormal = new Vector3f(edgeDS.getVertexData(vertexID).mData.getNormal());
+	// EVEN VERTICES
+	private static void evenVertices(HalfEdgeMesh hem, float[] src, FloatBuffer dst, int dim, int lo, int hi)
+	{
+		int nE = hem.getEdgeCount();
+		float[] p = new float[dim];
+		int[] sharp = new int[2];
+		for (int v = lo; v < hi; v++){
+			int s = dim*v;
+			int nSharp = hem.sharpEdges(v, sharp);
 
 			// Not on an edge
-			if (creaseEdges.size() <= 1 ){
-				int numberConnectedEdges = edgeDS.getVertexData(vertexID).getConnectedEdges().size();
-
-				if (numberConnectedEdges > 3){
-					beta = 3f/(numberConnectedEdges*8f);
-					//beta = 3f/(numberConnectedEdges*(numberConnectedEdges+2f));
-					//beta = (5f/8f - (float) Math.pow(3 + 2 * Math.cos(2*Math.PI /numberConnectedEdges ), 2)/64f )/numberConnectedEdges;
-				}
-				else{//numberConnectedEdges = 3
-					beta = 0.1875f;
-				}
+			if (nSharp <= 1){
+				int numberConnectedEdges = hem.valence(v);
+				float beta = (numberConnectedEdges > 3) ? 3f/(numberConnectedEdges*8f) : 0.1875f;
 				// 1-n*beta
-				targetPosition.scale(1f - numberConnectedEdges*beta);
-				targetTexture.scale(1f - numberConnectedEdges*beta);
-				targetNormal.scale(1f - numberConnectedEdges*beta);
-
+				for (int d = 0; d < dim; d++) p[d] = (1f - numberConnectedEdges*beta)*src[s+d];
 				// beta
-				for (int edgeID :edgeDS.getVertexData(vertexID).getConnectedEdges()){
-					int newVertexId = edgeDS.getEdgeData(edgeID).getVertex0();
-					if (newVertexId == vertexID) newVertexId = edgeDS.getEdgeData(edgeID).getVertex1();
-					Vector3f tempPos = new Vector3f(edgeDS.getVertexData(newVertexId).mData.getPosition());  
-					Vector2f tempTexCoord = new Vector2f(edgeDS.getVertexData(newVertexId).mData.getTexCoord());  
-					Vector3f tempNorm = new Vector3f(edgeDS.getVertexData(newVertexId).mData.getNormal());  
-
-					targetPosition.scaleAdd(beta, tempPos, targetPosition);
-					targetTexture.scaleAdd(beta, tempTexCoord, targetTexture);
-					targetNormal.scaleAdd(beta, tempNorm, targetNormal);
+				for (int k = hem.vertexEdgeStart[v]; k < hem.vertexEdgeStart[v+1]; k++){
+					int w = dim*hem.otherVertex(hem.vertexEdges[k], v);
+					for (int d = 0; d < dim; d++) p[d] += beta*src[w+d];
 				}
 			}
 			// On an edge
-			else if (creaseEdges.size() == 2){
-				targetPosition.scale(0.75f);
-				targetTexture.scale(0.75f);
-				
-				//NEW VERTEX 1
-				int newVertexId = edgeDS.getEdgeData(creaseEdges.get(0)).getVertex0();
-				if (newVertexId == vertexID) newVertexId = edgeDS.getEdgeData(creaseEdges.get(0)).getVertex1();
-				Vector3f tempPos = new Vector3f(edgeDS.getVertexData(newVertexId).mData.getPosition());  
-				Vector2f tempTexCoord = new Vector2f(edgeDS.getVertexData(newVertexId).mData.getTexCoord()); 
-				Vector3f tempNorm = new Vector3f(edgeDS.getVertexData(newVertexId).mData.getNormal());  
-
-				targetPosition.scaleAdd(0.125f,tempPos, targetPosition);
-				targetTexture.scaleAdd(0.125f, tempTexCoord, targetTexture);
-				targetNormal.scaleAdd(0.125f,tempNorm, targetNormal);
-				
-				//NEW VERTEX 2
-				newVertexId = edgeDS.getEdgeData(creaseEdges.get(1)).getVertex0();
-				if (newVertexId == vertexID) newVertexId = edgeDS.getEdgeData(creaseEdges.get(1)).getVertex1();
-				tempPos = new Vector3f(edgeDS.getVertexData(newVertexId).mData.getPosition());  
-				tempTexCoord = new Vector2f(edgeDS.getVertexData(newVertexId).mData.getTexCoord()); 
-				tempNorm = new Vector3f(edgeDS.getVertexData(newVertexId).mData.getNormal());  
-
-				targetPosition.scaleAdd(0.125f,tempPos, targetPosition);
-				targetTexture.scaleAdd(0.125f, tempTexCoord, targetTexture);
-				targetNormal.scaleAdd(0.125f,tempNorm, targetNormal);
+			else if (nSharp == 2){
+				int w0 = dim*hem.otherVertex(sharp[0], v), w1 = dim*hem.otherVertex(sharp[1], v);
+				for (int d = 0; d < dim; d++){
+					p[d] = 0.75f*src[s+d] + 0.125f*(src[w0+d] + src[w1+d]);
+				}
 			}
-			
 			else {
 				// do nothing if more than 2 creases
+				for (int d = 0; d < dim; d++) p[d] = src[s+d];
 			}
-						
-			//SAVE NEW POINT TO BUFFER
-			vertexBuf.put(targetPosition.x);
-			vertexBuf.put(targetPosition.y);
-			vertexBuf.put(targetPosition.z);
-			
-			texCoordBuf.put(targetTexture.x);
-			texCoordBuf.put(targetTexture.y);
-			
-			normalBuf.put(targetNormal.x);
-			normalBuf.put(targetNormal.y);
-			normalBuf.put(targetNormal.z);
-
-			edgeDS.getVertexData(vertexID).setNewVertexID(oddVertexCounter);
-			oddVertexCounter +=1;
-		}
-		
-		//adding external edges
-		for (int edgeID:edgeDS.getEdgeIDs()){
-			EdgeData edge = edgeDS.getEdgeData(edgeID);
-			// for each edge, add four points for two new edges
-			if (edgeDS.isCreaseEdge(edgeID)){
-				edgeBuf.put(edgeDS.getVertexData(edge.getVertex0()).getNewVertexID());
-				edgeBuf.put(edge.getNewVertexID());
-				edgeBuf.put(edge.getNewVertexID());			
-				edgeBuf.put(edgeDS.getVertexData(edge.getVertex1()).getNewVertexID());
-			}
-		}
-		
-		//adding internal edges and faces
-		for (int faceID:edgeDS.getPolygonIDs()){
-			PolygonData face = edgeDS.getPolygonData(faceID);
-			EdgeData edge0 = edgeDS.getEdgeData(face.getAllEdges().get(0));
-			EdgeData edge1 = edgeDS.getEdgeData(face.getAllEdges().get(1));
-			EdgeData edge2 = edgeDS.getEdgeData(face.getAllEdges().get(2));
-			
-			// adding faces (4 sub faces for each faces)
-			// sub face 1
-			if(edge0.getVertex0() == edge1.getVertex0() || edge0.getVertex0() == edge1.getVertex1()){
-				faceBuf.put(edgeDS.getVertexData(edge0.getVertex0()).getNewVertexID());
-			}
-			else{
-				faceBuf.put(edgeDS.getVertexData(edge0.getVertex1()).getNewVertexID());
-			}
-			faceBuf.put(edge1.getNewVertexID());
-			faceBuf.put(edge0.getNewVertexID());
-			
-			// sub face 2
-			faceBuf.put(edge1.getNewVertexID());
-			if(edge1.getVertex0() == edge2.getVertex0() || edge1.getVertex0() == edge2.getVertex1()){
-				faceBuf.put(edgeDS.getVertexData(edge1.getVertex0()).getNewVertexID());
-			}
-			else{
-				faceBuf.put(edgeDS.getVertexData(edge1.getVertex1()).getNewVertexID());
-			}
-			faceBuf.put(edge2.getNewVertexID());
-			
-			// sub face 3
-			faceBuf.put(edge0.getNewVertexID());
-			faceBuf.put(edge2.getNewVertexID());
-			if(edge2.getVertex0() == edge0.getVertex0() || edge2.getVertex0() == edge0.getVertex1()){
-				faceBuf.put(edgeDS.getVertexData(edge2.getVertex0()).getNewVertexID());
-			}
-			else{
-				faceBuf.put(edgeDS.getVertexData(edge2.getVertex1()).getNewVertexID());
-			}
-			
-			// sub face 4 (internal triangle)
-			faceBuf.put(edge0.getNewVertexID());
-			faceBuf.put(edge1.getNewVertexID());
-			faceBuf.put(edge2.getNewVertexID());
+			for (int d = 0; d < dim; d++) dst.put(dim*(nE + v) + d, p[d]);
 		}
-		
-		vertexBuf.rewind();
-		normalBuf.rewind();
-		texCoordBuf.rewind();
-		edgeBuf.rewind();
-		faceBuf.rewind();
-		
-		this.mMesh = edgeDS.getMesh();
-		this.mMesh.setVertexData(vertexBuf);
-		this.mMesh.setTexCoordData(texCoordBuf);
-		this.mMesh.setEdgeData(edgeBuf);
-		this.mMesh.setPolygonData(faceBuf);
-		this.mMesh.setNormalData(normalBuf);		
 	}
-	
+
+	/** Copies buf (zeros if it is missing) into an array of the given size. */
+	private static float[] toArray(FloatBuffer buf, int size)
+	{
+		float[] a = new float[size];
+		if (buf == null) return a;
+		FloatBuffer b = buf.duplicate();
+		b.rewind();
+		b.get(a, 0, size);
+		return a;
+	}
+
 	public Mesh getNewMesh()
 	{
 		return this.mMesh;
 	}
 	
-}
\ No newline at end of file
+}
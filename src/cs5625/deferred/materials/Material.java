@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.media.opengl.GL2;
 import javax.media.opengl.glu.GLU;
@@ -33,6 +34,20 @@ public abstract class Material implements OpenGLResourceObject
 	/** This material's shader, if any. */
 	private ShaderProgram mShaderProgram = null;
 	
+	/** Ids handed out so far, and this material's (see getId()). */
+	private static final AtomicInteger sLastId = new AtomicInteger();
+	private final int mId = sLastId.incrementAndGet();
+	
+	/**
+	 * Returns a positive id, unique to this material and fixed for its lifetime, in order of creation.
+	 * The renderer sorts meshes by it, so the draw order does not depend on where objects happen to be 
+	 * in memory.
+	 */
+	public int getId()
+	{
+		return mId;
+	}
+	
 	/**
 	 * Activates this material, causing it to be applied to all subsequent rendering until deactivated.
 	 * 
@@ -0,0 +1,91 @@
+package cs5625.deferred.misc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelLoop.java
+ *
+ * Runs a loop over 0..n-1 as contiguous ranges spread across a shared
+ * ForkJoinPool, for data-parallel mesh kernels (see CCSubdiv, LoopSubdiv).
+ * Ranges never overlap, so a body that only writes to the indices of its own
+ * range needs no synchronization. Loops shorter than GRAIN, or any loop when
+ * only one thread is configured, run on the calling thread.
+ */
+public class ParallelLoop
+{
+	/** Loop body over the range [lo, hi). */
+	public interface Body
+	{
+		public void run(int lo, int hi);
+	}
+
+	/** Iterations per range; shorter loops are not split. */
+	public static int GRAIN = 4096;
+
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	private static ForkJoinPool pool = null;
+
+	/**
+	 * Sets the number of threads loops are spread over (1 runs them serially).
+	 */
+	public static synchronized void setThreads(int n)
+	{
+		n = Math.max(n, 1);
+		if (n == threads) return;
+		threads = n;
+		if (pool != null) pool.shutdown();
+		pool = null;
+	}
+
+	public static synchronized int getThreads()
+	{
+		return threads;
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (pool == null) pool = new ForkJoinPool(threads);
+		return pool;
+	}
+
+	/**
+	 * Runs body over [0, n), returning once every range is done.
+	 */
+	public static void run(int n, Body body)
+	{
+		if (n <= GRAIN || getThreads() == 1)
+		{
+			body.run(0, n);
+			return;
+		}
+		getPool().invoke(new Range(body, 0, n));
+	}
+
+	/** Splits its range in halves down to GRAIN iterations. */
+	private static class Range extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Body body;
+		private final int lo, hi;
+
+		Range(Body body, int lo, int hi)
+		{
+			this.body = body;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		protected void compute()
+		{
+			if (hi - lo <= GRAIN)
+			{
+				body.run(lo, hi);
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new Range(body, lo, mid), new Range(body, mid, hi));
+		}
+	}
+}
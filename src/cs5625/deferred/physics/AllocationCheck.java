@@ -0,0 +1,179 @@
+package cs5625.deferred.physics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.vecmath.Point3f;
+import javax.vecmath.Vector3d;
+
+import cs5625.deferred.physicsGeometry.PalmTree;
+import cs5625.deferred.physicsGeometry.Sphere;
+import cs5625.deferred.scenegraph.SceneObject;
+
+/**
+ * AllocationCheck.java
+ *
+ * Allocation-rate regression check for the force kernels: builds the tree,
+ * ball and ground scene of TreeSceneController (without rendering), lets it
+ * settle, then runs WINDOWS measured windows and fails if any of them
+ * allocated memory. It does so twice:
+ * <pre>
+ * - serial: symplectic Euler in fixed substeps, forces applied on the
+ *   calling thread (setForceThreads(1)), sleeping off, so every kernel
+ *   runs in every substep;
+ * - default: a ParticleSystem as TreeSceneController sets it up (parallel
+ *   scheduler, islands and sleeping on), advanced a frame at a time.
+ * </pre>
+ * Allocations are counted on the calling thread and on the other threads
+ * of its group (the scheduler's workers), as they are when measuring
+ * starts. The ground is the flat HeightField Ground collides as (Ground
+ * itself needs a Renderer for its material).
+ *
+ * Run from the directory holding the models, e.g.
+ * `java cs5625.deferred.physics.AllocationCheck`; exits with status 1 on
+ * failure.
+ */
+public class AllocationCheck
+{
+	/** Substeps run before measuring, and per measured window, in the serial run. */
+	public static int WARMUP_SUBSTEPS = 12000;
+	public static int SUBSTEPS = 6000;
+
+	/** Frames run before measuring, and per measured window, in the default run. */
+	public static int WARMUP_FRAMES = 600;
+	public static int FRAMES = 600;
+
+	/** Number of measured windows per run. */
+	public static int WINDOWS = 3;
+
+	private static com.sun.management.ThreadMXBean threads;
+
+	public static void main(String[] args) throws Exception
+	{
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported())
+		{
+			System.out.println("AllocationCheck: allocated-bytes counter not supported by this JVM, skipped.");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		boolean passed = checkSerial();
+		passed &= checkDefault();
+
+		if (!passed)
+		{
+			System.out.println("AllocationCheck: FAILED, substeps must not allocate.");
+			System.exit(1);
+		}
+		System.out.println("AllocationCheck: passed.");
+	}
+
+	/** Serial forces, no sleeping, fixed symplectic-Euler substeps. */
+	private static boolean checkSerial() throws Exception
+	{
+		ParticleSystem PS = new ParticleSystem();
+		PS.setIntegrator(ParticleSystem.Integrator.SYMPLECTIC_EULER);
+		PS.setForceThreads(1);
+		PS.setSleeping(false);
+		buildScene(PS);
+
+		/* Let caches, scratch buffers and the JIT settle, then measure. */
+		double h = 1.0 / (60 * 60);
+		for (int i = 0; i < WARMUP_SUBSTEPS; i++) PS.advanceTime(h);
+
+		long[] ids = threadIds();
+		boolean passed = true;
+		for (int w = 0; w < WINDOWS; w++)
+		{
+			long before = allocatedBytes(ids);
+			for (int i = 0; i < SUBSTEPS; i++) PS.advanceTime(h);
+			long allocated = allocatedBytes(ids) - before;
+
+			report("serial", PS, allocated, SUBSTEPS + " substeps");
+			passed &= (allocated == 0);
+		}
+		return passed;
+	}
+
+	/** The default configuration, advanced a frame at a time. */
+	private static boolean checkDefault() throws Exception
+	{
+		ParticleSystem PS = new ParticleSystem();
+		PS.setIntegrator(ParticleSystem.Integrator.SYMPLECTIC_EULER);
+		buildScene(PS);
+
+		double frameDt = 1.0 / 60;
+		for (int i = 0; i < WARMUP_FRAMES; i++) PS.advanceFrame(frameDt);
+
+		long[] ids = threadIds();
+		boolean passed = true;
+		for (int w = 0; w < WINDOWS; w++)
+		{
+			long before = allocatedBytes(ids);
+			int substeps = 0;
+			for (int i = 0; i < FRAMES; i++) substeps += PS.advanceFrame(frameDt);
+			long allocated = allocatedBytes(ids) - before;
+
+			report("default", PS, allocated, FRAMES + " frames (" + substeps + " substeps, " +
+					PS.getIslands().getSleepingCount() + "/" + PS.getIslands().getIslandCount() + " islands asleep)");
+			passed &= (allocated == 0);
+		}
+		return passed;
+	}
+
+	/** Adds the scene of TreeSceneController: ground, palm tree and one ball. */
+	private static void buildScene(ParticleSystem PS) throws Exception
+	{
+		SceneObject root = new SceneObject();
+		PalmTree tree = new PalmTree(10f, 0.7f, 0.4f, 0f, 10f, 1, 10, 2, null);
+		root.addChild(tree);
+		Sphere ball = new Sphere(new Point3f(-10.0f, 10.0f, -10.0f));
+		ball.setIsPinned(false);
+		root.addChild(ball);
+
+		root.addToParticleSystem(PS);
+		PS.addGround(new HeightField() {
+			public double getHeight(double x, double z)
+			{
+				return (Math.abs(x) > 60 || Math.abs(z) > 60) ? Double.NaN : 0;
+			}
+
+			public void getNormal(double x, double z, Vector3d normal)
+			{
+				normal.set(0, 1, 0);
+			}
+		});
+	}
+
+	/** Returns the ids of the threads in the calling thread's group, the calling thread first. */
+	private static long[] threadIds()
+	{
+		Thread[] group = new Thread[Thread.activeCount() + 16];
+		int n = Thread.currentThread().getThreadGroup().enumerate(group, false);
+		long[] ids = new long[n];
+		ids[0] = Thread.currentThread().getId();
+		for (int i = 0, k = 1; i < n && k < n; i++)
+		{
+			if (group[i] != Thread.currentThread()) ids[k++] = group[i].getId();
+		}
+		return ids;
+	}
+
+	/** Total bytes allocated by the given threads (those that have ended count as 0). */
+	private static long allocatedBytes(long[] ids)
+	{
+		long total = 0;
+		for (int i = 0; i < ids.length; i++)
+		{
+			long bytes = threads.getThreadAllocatedBytes(ids[i]);
+			if (bytes > 0) total += bytes;
+		}
+		return total;
+	}
+
+	private static void report(String run, ParticleSystem PS, long allocated, String what)
+	{
+		System.out.println("AllocationCheck (" + run + "): " + PS.P.size() + " particles, " + PS.F.size() + " forces, " +
+				allocated + " bytes allocated in " + what + ".");
+	}
+}
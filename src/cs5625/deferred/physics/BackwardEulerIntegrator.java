@@ -0,0 +1,221 @@
+package cs5625.deferred.physics;
+
+import java.util.ArrayList;
+
+/**
+ * Linearized backward-Euler time step (Baraff and Witkin 1998).
+ * <pre>
+ * Solves
+ *     (M - h D - h^2 K) dv = h (f + h K v)
+ * for the velocity change dv, then sets v += dv and x += h v. K = df/dx and
+ * D = df/dv are assembled, as a SparseBlockMatrix, from every ImplicitForce,
+ * from the ground contacts and from mass-proportional damping; all other
+ * forces only enter through f. The system is solved by conjugate gradients,
+ * preconditioned by a BlockIncompleteCholesky factorization and started
+ * from the previous step's dv. Pinned particles are held fixed by filtering
+ * their rows and columns out of the solve.
+ * </pre>
+ */
+public class BackwardEulerIntegrator
+{
+	/** Relative residual at which CG stops. */
+	public static double CG_TOLERANCE = 1e-3;
+
+	/** Maximum number of CG iterations per step. */
+	public static int CG_MAX_ITERATIONS = 200;
+
+	/** System matrix, A = M - h D - h^2 K. */
+	final SparseBlockMatrix A = new SparseBlockMatrix();
+
+	/** Right-hand side, velocity change, and CG work vectors (3 per particle). */
+	private double[] b = new double[0], dv = b, r = b, z = b, p = b, q = b;
+
+	/** Preconditioner. */
+	private final BlockIncompleteCholesky preconditioner = new BlockIncompleteCholesky();
+
+	/** Scratch blocks for force Jacobians (see SpringForce2Particle, SpringForceBending). */
+	final double[] block = new double[9];
+	final double[] u = new double[3], w = new double[3], Pu = new double[9], Pw = new double[9];
+	final double[] Xa = new double[9], Xb = new double[9], Y = new double[9];
+
+	/** State of the step being assembled. */
+	private ParticleStore store;
+	private double h;
+
+	/** Number of CG iterations taken by the last step. */
+	private int lastIterations = 0;
+
+	/** Number of particles in the last step (dv is reused as the initial guess if unchanged). */
+	private int lastN = -1;
+
+	/** Returns the number of CG iterations taken by the last step. */
+	public int getLastIterations() { return lastIterations; }
+
+	/**
+	 * Advances the system by h. Expects the forces at the current state to
+	 * be accumulated in the store already (see ParticleSystem.computeForces()).
+	 */
+	void step(ParticleSystem PS, double h)
+	{
+		this.store = PS.store;
+		this.h = h;
+		int n = store.n;
+		double[] x = store.x, v = store.v, f = store.f, m = store.m;
+		boolean[] pin = store.pin;
+
+		if (b.length < 3*n) {
+			int c = Math.max(3*n, 2*b.length);
+			b = new double[c];  dv = new double[c];  r = new double[c];
+			z = new double[c];  p = new double[c];   q = new double[c];
+		}
+
+		/// MASS, MASS-PROPORTIONAL DAMPING AND EXPLICIT FORCE TERMS:
+		A.clear(n);
+		for (int i = 0, k = 0; i < n; i++, k += 3) {
+			if (pin[i]) v[k] = v[k+1] = v[k+2] = 0;
+			A.addDiagonal(i, m[i] * (1 + h*Constants.DAMPING_MASS));
+			b[k] = h*f[k];  b[k+1] = h*f[k+1];  b[k+2] = h*f[k+2];
+		}
+
+		/// FORCE JACOBIANS:
+		ArrayList<Force> F = PS.F;
+		for (int i = 0; i < F.size(); i++) {
+			Force force = F.get(i);
+			if (force instanceof ImplicitForce) ((ImplicitForce) force).addJacobian(this);
+		}
+		PS.addGroundJacobian(this);
+
+		solve(n, pin);
+
+		for (int i = 0, k = 0; i < n; i++, k += 3) {
+			if (pin[i]) continue;
+			v[k] += dv[k];  v[k+1] += dv[k+1];  v[k+2] += dv[k+2];
+		}
+		for (int k = 0; k < 3*n; k++) {
+			x[k] += h * v[k];
+		}
+		store = null;
+	}
+
+	/**
+	 * Adds the position Jacobian block B = df_a/dx_b (and, implicitly, its
+	 * transpose as df_b/dx_a). Blocks involving particles outside the system
+	 * are dropped; those particles are treated as fixed.
+	 */
+	public void addStiffness(Particle a, Particle bp, double[] B)
+	{
+		if (a.store != store || bp.store != store) return;
+		int i = a.index, j = bp.index;
+		A.add(i, j, B, -h*h);
+
+		/// RHS TERM h^2 K v:
+		double[] v = store.v;
+		double s = h*h;
+		int ki = 3*i, kj = 3*j;
+		b[ki]   += s * (B[0]*v[kj] + B[1]*v[kj+1] + B[2]*v[kj+2]);
+		b[ki+1] += s * (B[3]*v[kj] + B[4]*v[kj+1] + B[5]*v[kj+2]);
+		b[ki+2] += s * (B[6]*v[kj] + B[7]*v[kj+1] + B[8]*v[kj+2]);
+		if (i != j) {
+			b[kj]   += s * (B[0]*v[ki] + B[3]*v[ki+1] + B[6]*v[ki+2]);
+			b[kj+1] += s * (B[1]*v[ki] + B[4]*v[ki+1] + B[7]*v[ki+2]);
+			b[kj+2] += s * (B[2]*v[ki] + B[5]*v[ki+1] + B[8]*v[ki+2]);
+		}
+	}
+
+	/** Adds the velocity Jacobian block B = df_a/dv_b (and its transpose). */
+	public void addDamping(Particle a, Particle bp, double[] B)
+	{
+		if (a.store != store || bp.store != store) return;
+		A.add(a.index, bp.index, B, -h);
+	}
+
+	/**
+	 * Adds the Jacobian of a force that depends only on x_b - x_a, and
+	 * pushes a and b equally and oppositely: J = df_a/dx_a.
+	 */
+	public void addPairStiffness(Particle a, Particle bp, double[] J)
+	{
+		addStiffness(a, a, J);
+		addStiffness(bp, bp, J);
+		for (int k = 0; k < 9; k++) J[k] = -J[k];
+		addStiffness(a, bp, J);
+		for (int k = 0; k < 9; k++) J[k] = -J[k];
+	}
+
+	/** Same as addPairStiffness(), for a velocity Jacobian. */
+	public void addPairDamping(Particle a, Particle bp, double[] J)
+	{
+		addDamping(a, a, J);
+		addDamping(bp, bp, J);
+		for (int k = 0; k < 9; k++) J[k] = -J[k];
+		addDamping(a, bp, J);
+		for (int k = 0; k < 9; k++) J[k] = -J[k];
+	}
+
+	/** Preconditioned CG on A dv = b, with pinned particles filtered out. */
+	private void solve(int n, boolean[] pin)
+	{
+		int N = 3*n;
+
+		/// START FROM THE LAST STEP'S VELOCITY CHANGE, IF THE SYSTEM IS THE SAME SIZE:
+		if (n != lastN) {
+			for (int k = 0; k < N; k++) dv[k] = 0;
+			lastN = n;
+		}
+		filter(dv, n, pin);
+		filter(b, n, pin);
+		A.multiply(dv, r);
+		for (int k = 0; k < N; k++) r[k] = b[k] - r[k];
+		filter(r, n, pin);
+
+		double bNorm2 = dot(b, b, N);
+		lastIterations = 0;
+		if (bNorm2 == 0) {
+			for (int k = 0; k < N; k++) dv[k] = 0;
+			return;
+		}
+		double tol2 = CG_TOLERANCE * CG_TOLERANCE * bNorm2;
+		if (dot(r, r, N) <= tol2) return;
+
+		preconditioner.factor(A, pin);
+
+		preconditioner.apply(r, z);
+		for (int k = 0; k < N; k++) p[k] = z[k];
+		double rz = dot(r, z, N);
+
+		while (lastIterations < CG_MAX_ITERATIONS) {
+			A.multiply(p, q);
+			filter(q, n, pin);
+			double pq = dot(p, q, N);
+			if (pq <= 0) break;/// A IS NOT POSITIVE DEFINITE ALONG p
+
+			double alpha = rz / pq;
+			for (int k = 0; k < N; k++) {
+				dv[k] += alpha * p[k];
+				r[k]  -= alpha * q[k];
+			}
+			lastIterations++;
+			if (dot(r, r, N) <= tol2) break;
+
+			preconditioner.apply(r, z);
+			double rzNew = dot(r, z, N);
+			double beta = rzNew / rz;
+			rz = rzNew;
+			for (int k = 0; k < N; k++) p[k] = z[k] + beta * p[k];
+		}
+	}
+
+	private static void filter(double[] u, int n, boolean[] pin)
+	{
+		for (int i = 0, k = 0; i < n; i++, k += 3) {
+			if (pin[i]) u[k] = u[k+1] = u[k+2] = 0;
+		}
+	}
+
+	private static double dot(double[] u, double[] w, int N)
+	{
+		double s = 0;
+		for (int k = 0; k < N; k++) s += u[k] * w[k];
+		return s;
+	}
+}
@@ -0,0 +1,131 @@
+package cs5625.deferred.physics;
+
+import javax.vecmath.Vector3d;
+
+/**
+ * XPBD bending constraint standing in for a SpringForceBendingTheta.
+ * <pre>
+ * With a = x1-x0-v and b = x2-x1, the constraint is the 3-vector
+ *     C = a/|a| - b/|b| = 0,
+ * whose energy |C|^2/(2 compliance) equals the force's bending energy
+ * (k/2)(1 - cos theta) when compliance = 2/k. Unlike the angle itself, C
+ * is smooth at the straight configuration. Each projection solves the
+ * 3x3 XPBD system for the multiplier update.
+ * </pre>
+ */
+public class BendingConstraint implements Constraint
+{
+	Particle p0;
+	Particle p1;
+	Particle p2;
+	Vector3d v;
+
+	/** Compliance (inverse bending stiffness). */
+	public double compliance;
+
+	/** Force this constraint stands in for. */
+	SpringForceBendingTheta f;
+
+	/** Lagrange multiplier, and time-step-scaled compliance. */
+	private final double[] lambda = new double[3];
+	private double alpha = 0;
+
+	/** Scratch storage (avoids per-call allocation). */
+	private final double[] Pu = new double[9], Pw = new double[9], S = new double[9], Sinv = new double[9];
+
+	/**
+	 * Constructs a constraint on the particles and rest offset of f. The
+	 * compliance is Constants.COMPLIANCE_BEND per unit rest length, scaled
+	 * for forces stiffer or softer than Constants.STIFFNESS_BEND; with the
+	 * default COMPLIANCE_BEND it matches the force's stiffness.
+	 */
+	public BendingConstraint(SpringForceBendingTheta f)
+	{
+		this.f = f;
+		this.p0 = f.p0;
+		this.p1 = f.p1;
+		this.p2 = f.p2;
+		this.v = f.v;
+		this.compliance = Constants.COMPLIANCE_BEND * f.L * Constants.STIFFNESS_BEND / f.STIFFNESS;
+	}
+
+	public void initialize(double dt)
+	{
+		lambda[0] = lambda[1] = lambda[2] = 0;
+		alpha = compliance / (dt*dt);
+	}
+
+	public void project()
+	{
+		ParticleStore s0 = p0.store, s1 = p1.store, s2 = p2.store;
+		int k0 = p0.index, k1 = p1.index, k2 = p2.index;
+		double w0 = s0.pin[k0] ? 0 : 1/s0.m[k0];
+		double w1 = s1.pin[k1] ? 0 : 1/s1.m[k1];
+		double w2 = s2.pin[k2] ? 0 : 1/s2.m[k2];
+		if (w0 + w1 + w2 == 0) return;
+
+		double[] x0 = s0.x, x1 = s1.x, x2 = s2.x;
+		int i0 = 3*k0, i1 = 3*k1, i2 = 3*k2;
+		double ax = x1[i1]-x0[i0]-v.x, ay = x1[i1+1]-x0[i0+1]-v.y, az = x1[i1+2]-x0[i0+2]-v.z;
+		double bx = x2[i2]-x1[i1], by = x2[i2+1]-x1[i1+1], bz = x2[i2+2]-x1[i1+2];
+		double A = Math.sqrt(ax*ax + ay*ay + az*az);
+		double B = Math.sqrt(bx*bx + by*by + bz*bz);
+		if (A == 0 || B == 0) return;
+		double ux = ax/A, uy = ay/A, uz = az/A;
+		double wx = bx/B, wy = by/B, wz = bz/B;
+
+		/// JACOBIANS: dC/dx0 = -Pu/A, dC/dx1 = Pu/A + Pw/B, dC/dx2 = -Pw/B (ALL SYMMETRIC)
+		projector(ux, uy, uz, Pu);
+		projector(wx, wy, wz, Pw);
+
+		/// S = sum_i w_i J_i J_i^T + alpha I, USING Pu^2 = Pu AND Pw^2 = Pw:
+		double ca = (w0 + w1) / (A*A), cb = (w1 + w2) / (B*B), cab = w1 / (A*B);
+		double trace = 0;
+		for (int r = 0; r < 3; r++) {
+			for (int c = 0; c < 3; c++) {
+				double PuPw = Pu[3*r]*Pw[c] + Pu[3*r+1]*Pw[3+c] + Pu[3*r+2]*Pw[6+c];
+				double PwPu = Pw[3*r]*Pu[c] + Pw[3*r+1]*Pu[3+c] + Pw[3*r+2]*Pu[6+c];
+				S[3*r+c] = ca*Pu[3*r+c] + cb*Pw[3*r+c] + cab*(PuPw + PwPu);
+			}
+			trace += S[4*r];
+		}
+		/// (S IS SINGULAR ALONG u WHEN STRAIGHT; REGULARIZE SLIGHTLY)
+		double reg = alpha + 1e-9*trace;
+		S[0] += reg;  S[4] += reg;  S[8] += reg;
+		if (!Utils.invert3(S, 0, Sinv, 0)) return;
+
+		/// dLambda = S^-1 (-C - alpha lambda)
+		double rx = -(ux - wx) - alpha*lambda[0];
+		double ry = -(uy - wy) - alpha*lambda[1];
+		double rz = -(uz - wz) - alpha*lambda[2];
+		double dx = Sinv[0]*rx + Sinv[1]*ry + Sinv[2]*rz;
+		double dy = Sinv[3]*rx + Sinv[4]*ry + Sinv[5]*rz;
+		double dz = Sinv[6]*rx + Sinv[7]*ry + Sinv[8]*rz;
+		lambda[0] += dx;  lambda[1] += dy;  lambda[2] += dz;
+
+		/// POSITION UPDATES, w_i J_i dLambda:
+		double pax = (Pu[0]*dx + Pu[1]*dy + Pu[2]*dz) / A;
+		double pay = (Pu[3]*dx + Pu[4]*dy + Pu[5]*dz) / A;
+		double paz = (Pu[6]*dx + Pu[7]*dy + Pu[8]*dz) / A;
+		double pbx = (Pw[0]*dx + Pw[1]*dy + Pw[2]*dz) / B;
+		double pby = (Pw[3]*dx + Pw[4]*dy + Pw[5]*dz) / B;
+		double pbz = (Pw[6]*dx + Pw[7]*dy + Pw[8]*dz) / B;
+		x0[i0] -= w0*pax;          x0[i0+1] -= w0*pay;          x0[i0+2] -= w0*paz;
+		x1[i1] += w1*(pax + pbx);  x1[i1+1] += w1*(pay + pby);  x1[i1+2] += w1*(paz + pbz);
+		x2[i2] -= w2*pbx;          x2[i2+1] -= w2*pby;          x2[i2+2] -= w2*pbz;
+	}
+
+	/** P = I - u u^T. */
+	private static void projector(double ux, double uy, double uz, double[] P)
+	{
+		P[0] = 1 - ux*ux;  P[1] = -ux*uy;     P[2] = -ux*uz;
+		P[3] = -uy*ux;     P[4] = 1 - uy*uy;  P[5] = -uy*uz;
+		P[6] = -uz*ux;     P[7] = -uz*uy;     P[8] = 1 - uz*uz;
+	}
+
+	public boolean contains(Particle p) { return p == p0 || p == p1 || p == p2; }
+
+	public Force getForce() { return f; }
+
+	public void setCompliance(double c) { this.compliance = c; }
+}
@@ -0,0 +1,192 @@
+package cs5625.deferred.physics;
+
+import java.util.Arrays;
+
+/**
+ * Block incomplete Cholesky (IC(0)) preconditioner for a SparseBlockMatrix.
+ * <pre>
+ * Factors A ~ U^T D U, with U unit upper triangular, keeping only the
+ * blocks in A's own sparsity pattern. Particles are eliminated in store
+ * order, which follows the order geometry was added in, so chains of
+ * springs and bending forces are factored almost exactly. Pinned particles
+ * are left out of the factorization. If a pivot block is not positive
+ * definite, that row falls back to block Jacobi.
+ * </pre>
+ */
+class BlockIncompleteCholesky
+{
+	/** Inverted pivot blocks (D^-1), 9 entries per particle. */
+	private double[] Dinv = new double[0];
+
+	/** Working copy of the diagonal blocks during factorization. */
+	private double[] D = new double[0];
+
+	/** Factor blocks U_kj, per pair slot of A. */
+	private double[] U = new double[0];
+
+	/** Slots of each block row k (pairs (k,j), j &gt; k), sorted by j. */
+	private int[] rowStart = new int[1], rowSlots = new int[0];
+
+	private int n = 0;
+	private int[] col;
+	private final double[] T = new double[9];
+
+	/** Size of the pattern that rowStart/rowSlots were built for. */
+	private int patternN = -1, patternPairs = -1;
+
+	/** Computes the factorization of A, ignoring pinned particles. */
+	void factor(SparseBlockMatrix A, boolean[] pin)
+	{
+		n = A.size();
+		int nPairs = A.getPairCount();
+		if (Dinv.length < 9*n) {
+			Dinv = new double[9*n];
+			D = new double[9*n];
+			rowStart = new int[n+1];
+		}
+		if (U.length < 9*nPairs) {
+			U = new double[9*nPairs];
+			rowSlots = new int[nPairs];
+		}
+		System.arraycopy(A.diag, 0, D, 0, 9*n);
+		System.arraycopy(A.offDiag, 0, U, 0, 9*nPairs);
+		col = A.col;
+
+		/// GROUP PAIR SLOTS BY ROW (COUNTING SORT), THEN SORT EACH ROW BY COLUMN.
+		/// SLOTS ARE NEVER REMOVED, SO THE PATTERN IS UNCHANGED IF ITS SIZE IS:
+		if (n != patternN || nPairs != patternPairs) {
+			buildRows(A.row, nPairs);
+			patternN = n;
+			patternPairs = nPairs;
+		}
+
+		/// ELIMINATE ROWS IN ORDER:
+		for (int k = 0; k < n; k++) {
+			int o = 9*k;
+			if (pin[k]) {
+				identity(Dinv, o);
+				for (int a = rowStart[k]; a < rowStart[k+1]; a++) Arrays.fill(U, 9*rowSlots[a], 9*rowSlots[a] + 9, 0);
+				continue;
+			}
+			if (!isPositiveDefinite(D, o) || !Utils.invert3(D, o, Dinv, o)) {
+				/// BREAKDOWN: USE THE UNMODIFIED DIAGONAL BLOCK, AND DO NOT ELIMINATE THIS ROW
+				if (!Utils.invert3(A.diag, o, Dinv, o)) identity(Dinv, o);
+				for (int a = rowStart[k]; a < rowStart[k+1]; a++) Arrays.fill(U, 9*rowSlots[a], 9*rowSlots[a] + 9, 0);
+				continue;
+			}
+			for (int a = rowStart[k]; a < rowStart[k+1]; a++) {
+				int s1 = rowSlots[a], j1 = col[s1];
+				if (pin[j1]) {
+					Arrays.fill(U, 9*s1, 9*s1 + 9, 0);
+					continue;
+				}
+				/// T = D_k^-1 A_kj1  (THIS ROW'S FACTOR BLOCK, ONCE ALL UPDATES ARE DONE)
+				mul(Dinv, o, U, 9*s1, T);
+				for (int c = a; c < rowStart[k+1]; c++) {
+					int s2 = rowSlots[c], j2 = col[s2];
+					if (pin[j2]) continue;
+					/// A_j1j2 -= A_kj1^T D_k^-1 A_kj2 = T^T A_kj2, WITHIN THE PATTERN ONLY
+					if (j1 == j2) subTransposeMul(T, U, 9*s2, D, 9*j1);
+					else {
+						int s = A.find(j1, j2);
+						if (s >= 0) subTransposeMul(T, U, 9*s2, U, 9*s);
+					}
+				}
+			}
+			for (int a = rowStart[k]; a < rowStart[k+1]; a++) {
+				int s = rowSlots[a];
+				if (pin[col[s]]) continue;
+				mul(Dinv, o, U, 9*s, T);
+				System.arraycopy(T, 0, U, 9*s, 9);
+			}
+		}
+	}
+
+	/** Groups the pair slots by row, each row sorted by column. */
+	private void buildRows(int[] row, int nPairs)
+	{
+		Arrays.fill(rowStart, 0, n+1, 0);
+		for (int s = 0; s < nPairs; s++) rowStart[row[s]+1]++;
+		for (int k = 0; k < n; k++) rowStart[k+1] += rowStart[k];
+		for (int s = 0; s < nPairs; s++) rowSlots[rowStart[row[s]]++] = s;
+		for (int k = n; k > 0; k--) rowStart[k] = rowStart[k-1];
+		rowStart[0] = 0;
+		for (int k = 0; k < n; k++) {
+			for (int a = rowStart[k]+1; a < rowStart[k+1]; a++) {
+				int s = rowSlots[a], b = a;
+				while (b > rowStart[k] && col[rowSlots[b-1]] > col[s]) {
+					rowSlots[b] = rowSlots[b-1];
+					b--;
+				}
+				rowSlots[b] = s;
+			}
+		}
+	}
+
+	/** z = (U^T D U)^-1 r. */
+	void apply(double[] r, double[] z)
+	{
+		System.arraycopy(r, 0, z, 0, 3*n);
+
+		/// FORWARD SUBSTITUTION WITH U^T:
+		for (int k = 0; k < n; k++) {
+			int i = 3*k;
+			double y0 = z[i], y1 = z[i+1], y2 = z[i+2];
+			for (int a = rowStart[k]; a < rowStart[k+1]; a++) {
+				int s = rowSlots[a], o = 9*s, j = 3*col[s];
+				z[j]   -= U[o]  *y0 + U[o+3]*y1 + U[o+6]*y2;
+				z[j+1] -= U[o+1]*y0 + U[o+4]*y1 + U[o+7]*y2;
+				z[j+2] -= U[o+2]*y0 + U[o+5]*y1 + U[o+8]*y2;
+			}
+		}
+
+		/// DIAGONAL:
+		for (int k = 0; k < n; k++) {
+			int o = 9*k, i = 3*k;
+			double y0 = z[i], y1 = z[i+1], y2 = z[i+2];
+			z[i]   = Dinv[o]  *y0 + Dinv[o+1]*y1 + Dinv[o+2]*y2;
+			z[i+1] = Dinv[o+3]*y0 + Dinv[o+4]*y1 + Dinv[o+5]*y2;
+			z[i+2] = Dinv[o+6]*y0 + Dinv[o+7]*y1 + Dinv[o+8]*y2;
+		}
+
+		/// BACKWARD SUBSTITUTION WITH U:
+		for (int k = n-1; k >= 0; k--) {
+			int i = 3*k;
+			for (int a = rowStart[k]; a < rowStart[k+1]; a++) {
+				int s = rowSlots[a], o = 9*s, j = 3*col[s];
+				z[i]   -= U[o]  *z[j] + U[o+1]*z[j+1] + U[o+2]*z[j+2];
+				z[i+1] -= U[o+3]*z[j] + U[o+4]*z[j+1] + U[o+5]*z[j+2];
+				z[i+2] -= U[o+6]*z[j] + U[o+7]*z[j+1] + U[o+8]*z[j+2];
+			}
+		}
+	}
+
+	/** R = M[m..] * B[b..], 3x3 blocks. */
+	private static void mul(double[] M, int m, double[] B, int b, double[] R)
+	{
+		for (int r = 0; r < 3; r++)
+			for (int c = 0; c < 3; c++)
+				R[3*r + c] = M[m + 3*r]*B[b + c] + M[m + 3*r + 1]*B[b + 3 + c] + M[m + 3*r + 2]*B[b + 6 + c];
+	}
+
+	/** C[c..] -= T^T * B[b..], 3x3 blocks. */
+	private static void subTransposeMul(double[] T, double[] B, int b, double[] C, int c)
+	{
+		for (int r = 0; r < 3; r++)
+			for (int q = 0; q < 3; q++)
+				C[c + 3*r + q] -= T[r]*B[b + q] + T[3 + r]*B[b + 3 + q] + T[6 + r]*B[b + 6 + q];
+	}
+
+	private static void identity(double[] M, int o)
+	{
+		for (int k = 0; k < 9; k++) M[o+k] = (k % 4 == 0) ? 1 : 0;
+	}
+
+	/** Tests the leading principal minors of the (symmetric part of the) block. */
+	private static boolean isPositiveDefinite(double[] M, int o)
+	{
+		double a = M[o], b = 0.5*(M[o+1] + M[o+3]), c = 0.5*(M[o+2] + M[o+6]);
+		double e = M[o+4], f = 0.5*(M[o+5] + M[o+7]), i = M[o+8];
+		return a > 0 && a*e - b*b > 0 && a*(e*i - f*f) - b*(b*i - f*c) + c*(b*f - e*c) > 0;
+	}
+}
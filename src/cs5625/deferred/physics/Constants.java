@@ -42,6 +42,15 @@ public class Constants
 	public static final double REPULSION_COEFF = 100;
 
 	public static double WIND_STRENGTH = 0;
+
+    /** XPBD stretch compliance (inverse stiffness); 0 is inextensible. */
+    public static double COMPLIANCE_STRETCH = 0;
+
+    /** XPBD bending compliance per unit rest length; 2/STIFFNESS_BEND matches the bending springs. */
+    public static double COMPLIANCE_BEND = 2.0 / STIFFNESS_BEND;
+
+    /** XPBD constraint-projection iterations per step. */
+    public static int XPBD_ITERATIONS = 10;
     
     /** RESTITUTION_COEFF */
     public static void set_RESTITUTION_COEFF(double num){
@@ -72,4 +81,19 @@ public class Constants
     public static void set_WIND_STRENGTH(double num){
     	WIND_STRENGTH = num;
     }
+    
+    /** COMPLIANCE_STRETCH */
+    public static void set_COMPLIANCE_STRETCH(double num){
+    	COMPLIANCE_STRETCH = num;
+    }
+    
+    /** COMPLIANCE_BEND */
+    public static void set_COMPLIANCE_BEND(double num){
+    	COMPLIANCE_BEND = num;
+    }
+    
+    /** XPBD_ITERATIONS */
+    public static void set_XPBD_ITERATIONS(int num){
+    	XPBD_ITERATIONS = num;
+    }
 }
@@ -0,0 +1,29 @@
+package cs5625.deferred.physics;
+
+/**
+ * Position-level constraint, solved by the XPBD integrator (see XPBDSolver).
+ */
+public interface Constraint
+{
+	/**
+	 * Prepares the constraint for a time step of length dt (e.g., resets
+	 * its Lagrange multiplier). Called once before the first projection.
+	 */
+	public void initialize(double dt);
+
+	/**
+	 * Performs one XPBD projection, moving the (predicted) positions of the
+	 * unpinned particles involved.
+	 */
+	public void project();
+
+	/** Returns true if this constraint depends on the specified particle,
+	 * and false otherwise. */
+	public boolean contains(Particle p);
+
+	/**
+	 * Returns the force this constraint stands in for, which the XPBD
+	 * integrator does not apply, or null.
+	 */
+	public Force getForce();
+}
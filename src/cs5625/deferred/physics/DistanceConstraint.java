@@ -0,0 +1,64 @@
+package cs5625.deferred.physics;
+
+/**
+ * XPBD distance constraint, |x1-x2| = L0, standing in for a SpringForce2Particle.
+ */
+public class DistanceConstraint implements Constraint
+{
+	Particle p1;
+	Particle p2;
+	double L0;
+
+	/** Compliance (inverse stiffness); zero makes the edge inextensible. */
+	public double compliance = Constants.COMPLIANCE_STRETCH;
+
+	/** Spring this constraint stands in for. */
+	SpringForce2Particle f;
+
+	/** Lagrange multiplier, and time-step-scaled compliance. */
+	private double lambda = 0, alpha = 0;
+
+	/** Constructs a constraint with the particles and rest length of the spring f. */
+	public DistanceConstraint(SpringForce2Particle f)
+	{
+		this.f = f;
+		this.p1 = f.p1;
+		this.p2 = f.p2;
+		this.L0 = f.L0;
+	}
+
+	public void initialize(double dt)
+	{
+		lambda = 0;
+		alpha = compliance / (dt*dt);
+	}
+
+	public void project()
+	{
+		ParticleStore s1 = p1.store, s2 = p2.store;
+		int a = p1.index, b = p2.index;
+		double w1 = s1.pin[a] ? 0 : 1/s1.m[a];
+		double w2 = s2.pin[b] ? 0 : 1/s2.m[b];
+		if (w1 + w2 == 0) return;
+
+		double[] x1 = s1.x, x2 = s2.x;
+		int i = 3*a, j = 3*b;
+		double dx = x1[i]-x2[j], dy = x1[i+1]-x2[j+1], dz = x1[i+2]-x2[j+2];
+		double L = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (L == 0) return;
+
+		double dLambda = (L0 - L - alpha*lambda) / (w1 + w2 + alpha);
+		lambda += dLambda;
+
+		double c = dLambda / L;
+		dx *= c;  dy *= c;  dz *= c;
+		x1[i] += w1*dx;  x1[i+1] += w1*dy;  x1[i+2] += w1*dz;
+		x2[j] -= w2*dx;  x2[j+1] -= w2*dy;  x2[j+2] -= w2*dz;
+	}
+
+	public boolean contains(Particle p) { return p == p1 || p == p2; }
+
+	public Force getForce() { return f; }
+
+	public void setCompliance(double c) { this.compliance = c; }
+}
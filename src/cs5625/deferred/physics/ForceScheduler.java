@@ -0,0 +1,229 @@
+package cs5625.deferred.physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a ParticleSystem's forces in parallel on a ForkJoinPool.
+ * <pre>
+ * Forces are greedily colored, in list order, so that no two forces of one
+ * color touch the same particle (see LocalForce). Colors are applied one
+ * after the other, each split into chunks that run in parallel, so no force
+ * accumulator is ever written by two threads at once. Forces that are not
+ * LocalForces, that touch particles outside the system, or that touch a
+ * particle already used by MAX_COLORS colors (e.g., a sphere colliding
+ * with every branch edge) are applied serially at the end.
+ *
+ * Every particle receives its force contributions in the same order (color
+ * by color) whatever the number of threads, so results are bit-for-bit
+ * identical for any thread count, including the serial fallback used for
+ * small systems.
+ * </pre>
+ */
+public class ForceScheduler
+{
+	/** Maximum number of colors (one bit per color in a particle's mask). */
+	static final int MAX_COLORS = 64;
+
+	/** Forces per parallel chunk. */
+	public static int GRAIN = 256;
+
+	/**
+	 * Systems with fewer forces than this are applied on the calling thread,
+	 * as are those where no color spans more than one chunk: the pool would
+	 * then only hand the whole pass to a single worker. (The tree scene, 94
+	 * forces in 5 colors, applies them all in about 2 us per substep, less
+	 * than the hand-off to the pool costs.)
+	 */
+	public static int PARALLEL_THRESHOLD = 2 * GRAIN;
+
+	/** Forces in application order: color 0, color 1, ..., then the serial ones. */
+	private Force[] order = new Force[0];
+
+	/** Color c occupies order[colorStart[c] .. colorStart[c+1]-1]; serial forces follow. */
+	private int[] colorStart = new int[MAX_COLORS + 2];
+	private int nColors = 0;
+
+	/** Chunks of each color (reused every step). */
+	private Chunk[][] chunks = new Chunk[0][];
+
+	/** Whether some color has more than one chunk. */
+	private boolean split = false;
+
+	/** Number of forces the schedule was built for, and whether it must be rebuilt. */
+	private int builtSize = -1;
+	private boolean dirty = true;
+
+	/** Scratch storage for scheduling (reused, so that rescheduling does not allocate). */
+	private long[] used = new long[0];
+	private int[] colorOf = new int[0];
+	private final int[] count = new int[MAX_COLORS + 1];
+	private final int[] next = new int[MAX_COLORS + 1];
+	private final Particle[] touched = new Particle[LocalForce.MAX_PARTICLES];
+
+	private ForkJoinPool pool = null;
+	private int threads;
+
+	/** Forces to skip during the current pass (see ParticleSystem.computeForces()). */
+	private HashSet<Force> skip = null;
+
+	private final Pass pass = new Pass();
+
+	/** Creates a scheduler using one thread per available processor. */
+	public ForceScheduler()
+	{
+		this.threads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/** Sets the number of threads forces are applied with (1 applies them serially). */
+	public void setThreads(int threads)
+	{
+		threads = Math.max(threads, 1);
+		if (threads == this.threads) return;
+		this.threads = threads;
+		if (pool != null) pool.shutdown();
+		pool = null;
+	}
+
+	/** Returns the number of threads forces are applied with. */
+	public int getThreads() { return threads; }
+
+	/** Returns the number of colors in the current schedule. */
+	public int getColorCount() { return nColors; }
+
+	/** Marks the schedule stale; it is rebuilt before the next apply(). */
+	public void invalidate() { dirty = true; }
+
+	/**
+	 * Applies every force in F, except those in skip (may be null), in
+	 * schedule order.
+	 */
+	void apply(ArrayList<Force> F, ParticleStore store, HashSet<Force> skip)
+	{
+		if (dirty || builtSize != F.size()) build(F, store);
+		this.skip = skip;
+
+		if (threads == 1 || builtSize < PARALLEL_THRESHOLD || !split) {
+			applyRange(0, colorStart[nColors]);
+		}
+		else {
+			if (pool == null) pool = new ForkJoinPool(threads);
+			pass.reinitialize();
+			pool.invoke(pass);
+		}
+		applyRange(colorStart[nColors], builtSize);
+		this.skip = null;
+	}
+
+	/** Applies order[lo .. hi-1]. */
+	private void applyRange(int lo, int hi)
+	{
+		HashSet<Force> skip = this.skip;
+		for (int i = lo; i < hi; i++) {
+			Force force = order[i];
+			if (skip != null && skip.contains(force)) continue;
+			force.applyForce();
+		}
+	}
+
+	/** Colors the forces and lays out the schedule. */
+	private void build(ArrayList<Force> F, ParticleStore store)
+	{
+		int n = F.size();
+		if (used.length < store.n) used = new long[Math.max(store.n, 2*used.length)];
+		Arrays.fill(used, 0, store.n, 0);
+		if (colorOf.length < n) colorOf = new int[Math.max(n, 2*colorOf.length)];
+
+		/// GREEDY COLORING (-1 IS SERIAL):
+		Arrays.fill(count, 0);
+		nColors = 0;
+		for (int i = 0; i < n; i++) {
+			int c = color(F.get(i), store);
+			colorOf[i] = c;
+			if (c < 0) count[MAX_COLORS]++;
+			else {
+				count[c]++;
+				nColors = Math.max(nColors, c + 1);
+			}
+		}
+
+		/// COUNTING SORT BY COLOR, KEEPING LIST ORDER WITHIN A COLOR:
+		colorStart[0] = 0;
+		for (int c = 0; c < nColors; c++) colorStart[c+1] = colorStart[c] + count[c];
+		if (order.length < n) order = new Force[Math.max(n, 2*order.length)];
+		Arrays.fill(order, n, order.length, null);
+		System.arraycopy(colorStart, 0, next, 0, nColors + 1);
+		int serial = colorStart[nColors];
+		for (int i = 0; i < n; i++) {
+			int c = colorOf[i];
+			order[(c < 0) ? serial++ : next[c]++] = F.get(i);
+		}
+
+		/// CHUNKS (KEPT FROM THE LAST SCHEDULE WHERE THEIR NUMBER IS UNCHANGED):
+		if (chunks.length < nColors) chunks = Arrays.copyOf(chunks, MAX_COLORS);
+		split = false;
+		for (int c = 0; c < nColors; c++) {
+			int lo = colorStart[c], hi = colorStart[c+1];
+			int nChunks = (hi - lo + GRAIN - 1) / GRAIN;
+			split |= (nChunks > 1);
+			if (chunks[c] == null || chunks[c].length != nChunks) {
+				chunks[c] = new Chunk[nChunks];
+				for (int k = 0; k < nChunks; k++) chunks[c][k] = new Chunk();
+			}
+			for (int k = 0; k < nChunks; k++) {
+				chunks[c][k].lo = lo + k*GRAIN;
+				chunks[c][k].hi = Math.min(lo + (k+1)*GRAIN, hi);
+			}
+		}
+
+		builtSize = n;
+		dirty = false;
+	}
+
+	/** Returns the lowest color free on all of the force's particles (and claims it), or -1. */
+	private int color(Force force, ParticleStore store)
+	{
+		if (!(force instanceof LocalForce)) return -1;
+		int k = ((LocalForce) force).getParticles(touched);
+		long mask = 0;
+		for (int j = 0; j < k; j++) {
+			Particle p = touched[j];
+			if (p.store != store || p.index >= store.n) return -1;
+			mask |= used[p.index];
+		}
+		if (mask == -1L) return -1;
+		int c = Long.numberOfTrailingZeros(~mask);
+		for (int j = 0; j < k; j++) used[touched[j].index] |= 1L << c;
+		return c;
+	}
+
+	/** Applies the colors in order, the chunks of each in parallel. */
+	private class Pass extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		protected void compute()
+		{
+			for (int c = 0; c < nColors; c++) {
+				Chunk[] tasks = chunks[c];
+				for (int k = 0; k < tasks.length; k++) tasks[k].reinitialize();
+				if (tasks.length == 1) tasks[0].compute();
+				else ForkJoinTask.invokeAll(tasks);
+			}
+		}
+	}
+
+	/** A range of forces of one color. */
+	private class Chunk extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		int lo, hi;
+
+		protected void compute() { applyRange(lo, hi); }
+	}
+}
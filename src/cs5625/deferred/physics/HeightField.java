@@ -0,0 +1,23 @@
+package cs5625.deferred.physics;
+
+import javax.vecmath.Vector3d;
+
+/**
+ * Ground surface given as a height y = h(x,z) over the world-space xz plane.
+ * Registered with ParticleSystem.addGround(), it is tested once per particle
+ * per substep by the system's ground-contact stage.
+ */
+public interface HeightField
+{
+	/**
+	 * Returns the world-space height of the surface above (x,z), or NaN if
+	 * (x,z) lies outside the surface.
+	 */
+	public double getHeight(double x, double z);
+
+	/**
+	 * Writes the unit, upward-facing surface normal at (x,z) into `normal`.
+	 * Only called where getHeight() is not NaN.
+	 */
+	public void getNormal(double x, double z, Vector3d normal);
+}
@@ -0,0 +1,16 @@
+package cs5625.deferred.physics;
+
+/**
+ * A force that can also report its derivatives, so that the
+ * BackwardEulerIntegrator can treat it implicitly. Forces that do not
+ * implement this are still applied, but explicitly.
+ */
+public interface ImplicitForce extends Force
+{
+	/**
+	 * Adds this force's position (and, if any, velocity) Jacobian blocks,
+	 * evaluated at the current state, through S.addStiffness() and
+	 * S.addDamping().
+	 */
+	public void addJacobian(BackwardEulerIntegrator S);
+}
@@ -0,0 +1,368 @@
+package cs5625.deferred.physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Simulation islands and sleeping, for the symplectic-Euler integrator.
+ * <pre>
+ * An island is a connected component of the unpinned particles, linked by
+ * the structural LocalForces in F (pinned particles do not link islands;
+ * SpringForceParticleEdge is a contact and does not link them either).
+ * An island whose kinetic energy per unit mass stays below SLEEP_ENERGY for
+ * SLEEP_FRAMES frames is put to sleep: its velocities are zeroed, and its
+ * particles and forces are skipped by force evaluation and integration
+ * until it is woken by
+ * - a contact (any force accumulated on one of its particles by an awake
+ *   body, see wakeTouched()),
+ * - a force being added to or removed from it (e.g., PalmTree.addForce()),
+ * - a pinned particle it is attached to being moved, or
+ * - a change of Constants.WIND_STRENGTH (islands never sleep in wind).
+ * Islands holding a SpringForce1Particle (user interaction) never sleep.
+ * </pre>
+ */
+public class Islands
+{
+	/** Kinetic energy per unit mass below which an island may sleep. */
+	public static double SLEEP_ENERGY = 2e-4;
+
+	/** Consecutive calm frames before an island falls asleep. */
+	public static int SLEEP_FRAMES = 30;
+
+	/** Sleep flag of each particle (by store index). */
+	boolean[] asleep = new boolean[0];
+
+	/** Island of each particle (-1 for pinned particles). */
+	private int[] islandOf = new int[0];
+
+	/** Particles of island c are members[start[c] .. start[c+1]-1]. */
+	private int[] start = new int[1], members = new int[0];
+	private int nIslands = 0;
+
+	/** Per-island calm-frame counters, and islands that never sleep. */
+	private int[] calmFrames = new int[0];
+	private boolean[] restless = new boolean[0];
+
+	/** (pinned particle, island) links, and the pinned positions last seen. */
+	private int[] pinLinks = new int[0];
+	private int nPinLinks = 0;
+	private double[] pinPosition = new double[0];
+
+	/** Pin flags at build time (a change forces a rebuild). */
+	private boolean[] builtPin = new boolean[0];
+
+	/** Forces with at least one awake particle. */
+	private final ArrayList<Force> active = new ArrayList<Force>();
+
+	private int[] parent = new int[0];
+	private final Particle[] touched = new Particle[LocalForce.MAX_PARTICLES];
+	private boolean dirty = true, activeDirty = true;
+	private int nAsleep = 0;
+	private int builtN = -1;
+	private double lastWind = Constants.WIND_STRENGTH;
+
+	/** Marks the islands stale; they are rebuilt at the next beginFrame(). */
+	public void invalidate()
+	{
+		dirty = true;
+		activeDirty = true;
+	}
+
+	/** Returns the number of islands, and how many of them are asleep. */
+	public int getIslandCount() { return nIslands; }
+	public int getSleepingCount() { return nAsleep; }
+
+	/** Returns the sleep flags, grown (with awake entries) to at least n particles. */
+	boolean[] asleep(int n)
+	{
+		if (asleep.length < n) asleep = Arrays.copyOf(asleep, Math.max(n, 2*asleep.length));
+		return asleep;
+	}
+
+	/** Wakes every particle. */
+	public void wakeAll()
+	{
+		if (nAsleep == 0 && !anyAsleep()) return;
+		Arrays.fill(asleep, false);
+		Arrays.fill(calmFrames, 0);
+		nAsleep = 0;
+		activeDirty = true;
+	}
+
+	/** Wakes the islands of the particles touched by f (all of them if f is not a LocalForce). */
+	void wake(Force f, ParticleStore store)
+	{
+		if (!(f instanceof LocalForce)) {
+			wakeAll();
+			return;
+		}
+		int k = ((LocalForce) f).getParticles(touched);
+		for (int j = 0; j < k; j++) {
+			Particle p = touched[j];
+			if (p.store == store) wakeParticle(p.index);
+		}
+	}
+
+	/** Wakes the island of particle i. */
+	private void wakeParticle(int i)
+	{
+		if (i >= asleep.length || !asleep[i]) return;
+		if (dirty || i >= builtN || islandOf[i] < 0) {
+			asleep[i] = false;
+			activeDirty = true;
+			return;
+		}
+		wakeIsland(islandOf[i]);
+	}
+
+	private void wakeIsland(int c)
+	{
+		for (int s = start[c]; s < start[c+1]; s++) asleep[members[s]] = false;
+		calmFrames[c] = 0;
+		nAsleep--;
+		activeDirty = true;
+	}
+
+	/**
+	 * Called before a frame's substeps. Rebuilds stale islands, and wakes
+	 * islands on a wind change or whose pinned attachments moved. With
+	 * sleeping off (or another integrator), just keeps everything awake.
+	 */
+	void beginFrame(ParticleSystem PS, boolean enabled)
+	{
+		if (!enabled) {
+			wakeAll();
+			return;
+		}
+
+		ParticleStore store = PS.store;
+		asleep(store.n);
+		if (!dirty && builtN == store.n) {
+			for (int i = 0; i < store.n; i++) {
+				if (store.pin[i] != builtPin[i]) { dirty = true; break; }
+			}
+		}
+		if (dirty || builtN != store.n) build(PS);
+
+		/// WIND CHANGE:
+		if (Constants.WIND_STRENGTH != lastWind) {
+			lastWind = Constants.WIND_STRENGTH;
+			wakeAll();
+		}
+
+		/// MOVED PINNED ATTACHMENTS:
+		double[] x = store.x;
+		for (int l = 0; l < nPinLinks; l++) {
+			int i = pinLinks[2*l], c = pinLinks[2*l+1], k = 3*i;
+			if (x[k] != pinPosition[k] || x[k+1] != pinPosition[k+1] || x[k+2] != pinPosition[k+2]) {
+				if (asleep[members[start[c]]]) wakeIsland(c);
+			}
+		}
+		for (int l = 0; l < nPinLinks; l++) {
+			int k = 3*pinLinks[2*l];
+			pinPosition[k] = x[k];  pinPosition[k+1] = x[k+1];  pinPosition[k+2] = x[k+2];
+		}
+	}
+
+	/** Called after a frame's substeps: puts islands that stayed calm to sleep. */
+	void endFrame(ParticleSystem PS, boolean enabled)
+	{
+		if (!enabled || dirty || Constants.WIND_STRENGTH != 0) return;
+
+		ParticleStore store = PS.store;
+		double[] v = store.v, m = store.m;
+		for (int c = 0; c < nIslands; c++) {
+			if (restless[c] || asleep[members[start[c]]]) continue;
+
+			double e = 0, mass = 0;
+			for (int s = start[c]; s < start[c+1]; s++) {
+				int i = members[s], k = 3*i;
+				e += 0.5 * m[i] * (v[k]*v[k] + v[k+1]*v[k+1] + v[k+2]*v[k+2]);
+				mass += m[i];
+			}
+			if (e >= SLEEP_ENERGY * mass) {
+				calmFrames[c] = 0;
+				continue;
+			}
+			if (++calmFrames[c] < SLEEP_FRAMES) continue;
+
+			/// FALL ASLEEP:
+			for (int s = start[c]; s < start[c+1]; s++) {
+				int i = members[s], k = 3*i;
+				asleep[i] = true;
+				v[k] = v[k+1] = v[k+2] = 0;
+			}
+			nAsleep++;
+			activeDirty = true;
+		}
+	}
+
+	/**
+	 * Wakes every sleeping island on which a force has been accumulated
+	 * (sleeping islands get none of their own, so this is a contact with an
+	 * awake body). Called after the forces of a substep are gathered.
+	 */
+	void wakeTouched(ParticleStore store)
+	{
+		if (nAsleep == 0) return;
+		double[] f = store.f;
+		for (int i = 0, k = 0; i < store.n && i < builtN; i++, k += 3) {
+			if (asleep[i] && (f[k] != 0 || f[k+1] != 0 || f[k+2] != 0)) wakeParticle(i);
+		}
+	}
+
+	/**
+	 * Returns the forces with at least one awake, unpinned particle (and
+	 * every non-local force), invalidating the scheduler when this changes.
+	 */
+	ArrayList<Force> activeForces(ArrayList<Force> F, ParticleStore store, ForceScheduler scheduler)
+	{
+		if (nAsleep == 0) {
+			if (activeDirty) {
+				activeDirty = false;
+				scheduler.invalidate();
+			}
+			return F;
+		}
+		if (!activeDirty) return active;
+
+		active.clear();
+		for (int f = 0; f < F.size(); f++) {
+			Force force = F.get(f);
+			if (!(force instanceof LocalForce)) {
+				active.add(force);
+				continue;
+			}
+			int k = ((LocalForce) force).getParticles(touched);
+			for (int j = 0; j < k; j++) {
+				Particle p = touched[j];
+				if (p.store != store || (!store.pin[p.index] && !asleep[p.index])) {
+					active.add(force);
+					break;
+				}
+			}
+		}
+		activeDirty = false;
+		scheduler.invalidate();
+		return active;
+	}
+
+	/** Returns true if any particle is flagged asleep. */
+	private boolean anyAsleep()
+	{
+		for (int i = 0; i < asleep.length; i++) if (asleep[i]) return true;
+		return false;
+	}
+
+	/** Computes the islands by union-find over the structural forces. */
+	private void build(ParticleSystem PS)
+	{
+		ParticleStore store = PS.store;
+		ArrayList<Force> F = PS.F;
+		int n = store.n;
+		boolean[] pin = store.pin;
+		if (parent.length < n) {
+			int c = Math.max(n, 2*parent.length);
+			parent = new int[c];  islandOf = new int[c];  members = new int[c];
+			builtPin = new boolean[c];  pinPosition = new double[3*c];
+		}
+		for (int i = 0; i < n; i++) parent[i] = i;
+
+		/// UNION THE UNPINNED PARTICLES OF EACH STRUCTURAL FORCE:
+		for (int f = 0; f < F.size(); f++) {
+			Force force = F.get(f);
+			if (!(force instanceof LocalForce) || force instanceof SpringForceParticleEdge) continue;
+			int k = ((LocalForce) force).getParticles(touched);
+			int first = -1;
+			for (int j = 0; j < k; j++) {
+				Particle p = touched[j];
+				if (p.store != store || pin[p.index]) continue;
+				if (first < 0) first = p.index;
+				else union(first, p.index);
+			}
+		}
+
+		/// NUMBER THE ISLANDS AND LIST THEIR MEMBERS:
+		nIslands = 0;
+		for (int i = 0; i < n; i++) {
+			if (!pin[i] && find(i) == i) islandOf[i] = nIslands++;
+		}
+		if (start.length < nIslands + 1) start = new int[nIslands + 1];
+		Arrays.fill(start, 0, nIslands + 1, 0);
+		for (int i = 0; i < n; i++) {
+			if (pin[i]) islandOf[i] = -1;
+			else {
+				islandOf[i] = islandOf[find(i)];
+				start[islandOf[i] + 1]++;
+			}
+		}
+		for (int c = 0; c < nIslands; c++) start[c+1] += start[c];
+		int[] next = Arrays.copyOf(start, nIslands);
+		for (int i = 0; i < n; i++) {
+			if (!pin[i]) members[next[islandOf[i]]++] = i;
+		}
+
+		/// ISLAND FLAGS (A PARTLY SLEEPING ISLAND IS WOKEN):
+		if (calmFrames.length < nIslands) {
+			calmFrames = new int[Math.max(nIslands, 2*calmFrames.length)];
+			restless = new boolean[calmFrames.length];
+		}
+		Arrays.fill(calmFrames, 0);
+		Arrays.fill(restless, false);
+		nAsleep = 0;
+		for (int c = 0; c < nIslands; c++) {
+			int sleeping = 0;
+			for (int s = start[c]; s < start[c+1]; s++) if (asleep[members[s]]) sleeping++;
+			if (sleeping == start[c+1] - start[c]) nAsleep++;
+			else if (sleeping > 0) {
+				for (int s = start[c]; s < start[c+1]; s++) asleep[members[s]] = false;
+			}
+		}
+		for (int i = 0; i < n; i++) if (pin[i]) asleep[i] = false;
+
+		/// USER SPRINGS KEEP THEIR ISLAND AWAKE; PINNED ATTACHMENTS WAKE IT:
+		nPinLinks = 0;
+		for (int f = 0; f < F.size(); f++) {
+			Force force = F.get(f);
+			if (!(force instanceof LocalForce) || force instanceof SpringForceParticleEdge) continue;
+			int k = ((LocalForce) force).getParticles(touched);
+			int island = -1;
+			for (int j = 0; j < k; j++) {
+				Particle p = touched[j];
+				if (p.store == store && !pin[p.index]) island = islandOf[p.index];
+			}
+			if (island < 0) continue;
+			if (force instanceof SpringForce1Particle) restless[island] = true;
+			for (int j = 0; j < k; j++) {
+				Particle p = touched[j];
+				if (p.store != store || !pin[p.index]) continue;
+				if (2*nPinLinks + 2 > pinLinks.length) pinLinks = Arrays.copyOf(pinLinks, Math.max(16, 2*pinLinks.length));
+				pinLinks[2*nPinLinks] = p.index;
+				pinLinks[2*nPinLinks+1] = island;
+				nPinLinks++;
+			}
+		}
+		System.arraycopy(store.x, 0, pinPosition, 0, 3*n);
+		System.arraycopy(pin, 0, builtPin, 0, n);
+
+		builtN = n;
+		dirty = false;
+		activeDirty = true;
+	}
+
+	private int find(int i)
+	{
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int i, int j)
+	{
+		i = find(i);  j = find(j);
+		if (i < j) parent[j] = i;
+		else if (j < i) parent[i] = j;
+	}
+}
@@ -0,0 +1,19 @@
+package cs5625.deferred.physics;
+
+/**
+ * A force that only ever reads and writes the state of a fixed set of (at
+ * most MAX_PARTICLES) particles, so that the ForceScheduler can apply it
+ * concurrently with forces on other particles. Forces that do not
+ * implement this are applied serially.
+ */
+public interface LocalForce extends Force
+{
+	/** Largest number of particles a LocalForce may touch. */
+	public static final int MAX_PARTICLES = 4;
+
+	/**
+	 * Writes the particles this force touches into `out` and returns how
+	 * many there are.
+	 */
+	public int getParticles(Particle[] out);
+}
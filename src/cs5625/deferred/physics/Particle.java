@@ -1,67 +1,155 @@
 package cs5625.deferred.physics;
 
 import javax.vecmath.Point3d;
-import javax.vecmath.Vector3d;
+import javax.vecmath.Tuple3d;
+import javax.vecmath.Tuple3f;
 
 
 
-/** 
+/**
  * Simple particle implementation.
  * @author Doug James, January 2007
- * 
- * Adapted to cs5625 by 
+ *
+ * Adapted to cs5625 by
  * @author homoflashmanicus
+ *
+ * Particle state now lives in a packed ParticleStore; a Particle is only a
+ * handle (store, index) into it. A particle that has not been added to a
+ * ParticleSystem owns a private single-slot store, and is moved into the
+ * system's store by ParticleSystem.addParticle().
  */
 public class Particle
 {
-	/** Radius of particle's circle graphic. */
-	private  double PARTICLE_RADIUS = 0.1;
+	/** Default radius of particle's circle graphic. */
+	static final double DEFAULT_RADIUS = 0.1;
 
+	/** Store holding this particle's state. */
+	ParticleStore store;
 
-	/** If true, then particle is pinned in space. */
-	private boolean pin = true;
-		
-	/** Default mass. */
-	double   m = Constants.PARTICLE_MASS;
+	/** Index of this particle within its store. */
+	int index;
 
-	/** Deformed Position. */
-	public Point3d  x = new Point3d();
-	
-	/** Undeformed/material Position. */
-	public Point3d  x0 = new Point3d();
-
-	/** Velocity. */
-	public Vector3d v = new Vector3d();
-
-	/** Force accumulator. */
-	public Vector3d f = new Vector3d();
-	
 	/** Another particle to which this particle is pinned. */
 	public Particle p2;
 
-	/** 
+	/**
 	 * Constructs particle with the specified material/undeformed
 	 * coordinate, p0.
 	 */
-	public Particle(Point3d x0) 
+	public Particle(Point3d x0)
 	{
-		this.x0.set(x0);
-		x.set(x0);
+		store = new ParticleStore(1);
+		index = store.allocate(x0.x, x0.y, x0.z);
+		store.handles.add(this);
 	}
 
 	/** Specifies whether or not this particle is fixed in space via a
 	 * pin constraint. (Should probably be elsewhere in a generic
 	 * constraint list). */
-	public void setPin(boolean fix) { pin = fix; }
+	public void setPin(boolean fix) { store.pin[index] = fix; }
 
 	/** Returns true if currently pinned. */
-	public boolean isPinned() { return pin; }
+	public boolean isPinned() { return store.pin[index]; }
+
+	public double getRadius() {return store.radius[index] ; };
+
+	public void setRadius(double r) {store.radius[index] = r ; };
+
+	public double getMass() {return store.m[index] ; };
+
+	public void setMass(double m) {store.m[index] = m ; };
+
+	/** Copies the deformed position into `out`. */
+	public void getPosition(Tuple3d out)
+	{
+		double[] x = store.x; int k = 3*index;
+		out.set(x[k], x[k+1], x[k+2]);
+	}
+
+	/** Copies the deformed position into `out`. */
+	public void getPosition(Tuple3f out)
+	{
+		double[] x = store.x; int k = 3*index;
+		out.set((float)x[k], (float)x[k+1], (float)x[k+2]);
+	}
+
+	/** Sets the deformed position. */
+	public void setPosition(Tuple3d p)
+	{
+		double[] x = store.x; int k = 3*index;
+		x[k] = p.x;  x[k+1] = p.y;  x[k+2] = p.z;
+	}
+
+	/** Sets the deformed position. */
+	public void setPosition(Tuple3f p)
+	{
+		double[] x = store.x; int k = 3*index;
+		x[k] = p.x;  x[k+1] = p.y;  x[k+2] = p.z;
+	}
+
+	/** Copies the undeformed/material position into `out`. */
+	public void getRestPosition(Tuple3d out)
+	{
+		double[] x0 = store.x0; int k = 3*index;
+		out.set(x0[k], x0[k+1], x0[k+2]);
+	}
 
-	public double getRadius() {return PARTICLE_RADIUS ; };
+	/** Copies the velocity into `out`. */
+	public void getVelocity(Tuple3d out)
+	{
+		double[] v = store.v; int k = 3*index;
+		out.set(v[k], v[k+1], v[k+2]);
+	}
 
-	public void setRadius(double r) {PARTICLE_RADIUS = r ; };	
-	
-	public void setMass(double m) {this.m = m ; };	
-	
+	/** Sets the velocity. */
+	public void setVelocity(Tuple3d u)
+	{
+		double[] v = store.v; int k = 3*index;
+		v[k] = u.x;  v[k+1] = u.y;  v[k+2] = u.z;
+	}
 
+	/** Copies the accumulated force into `out`. */
+	public void getForce(Tuple3d out)
+	{
+		double[] f = store.f; int k = 3*index;
+		out.set(f[k], f[k+1], f[k+2]);
+	}
+
+	/** Adds `g` to the force accumulator. */
+	public void addForce(Tuple3d g)
+	{
+		double[] f = store.f; int k = 3*index;
+		f[k] += g.x;  f[k+1] += g.y;  f[k+2] += g.z;
+	}
+
+	/** Adds scale*g to the force accumulator. */
+	public void addForce(double scale, Tuple3d g)
+	{
+		double[] f = store.f; int k = 3*index;
+		f[k] += scale*g.x;  f[k+1] += scale*g.y;  f[k+2] += scale*g.z;
+	}
+
+	/** Returns the squared distance between this particle and the point q. */
+	public double distanceSquared(Tuple3d q)
+	{
+		double[] x = store.x; int k = 3*index;
+		double dx = x[k]-q.x, dy = x[k+1]-q.y, dz = x[k+2]-q.z;
+		return dx*dx + dy*dy + dz*dz;
+	}
+
+	/** Returns the (deformed) distance between this particle and q. */
+	public double distance(Particle q)
+	{
+		double[] x = store.x, y = q.store.x; int k = 3*index, l = 3*q.index;
+		double dx = x[k]-y[l], dy = x[k+1]-y[l+1], dz = x[k+2]-y[l+2];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+
+	/** Returns the undeformed/material distance between this particle and q. */
+	public double restDistance(Particle q)
+	{
+		double[] x = store.x0, y = q.store.x0; int k = 3*index, l = 3*q.index;
+		double dx = x[k]-y[l], dy = x[k+1]-y[l+1], dz = x[k+2]-y[l+2];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
 }
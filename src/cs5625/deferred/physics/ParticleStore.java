@@ -0,0 +1,173 @@
+package cs5625.deferred.physics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Packed structure-of-arrays storage for particle state.
+ * <pre>
+ * Positions, rest positions, velocities and force accumulators are stored
+ * interleaved as (x,y,z) triples in contiguous double[] arrays, so particle
+ * i lives at [3*i, 3*i+2]. Masses, radii and pin flags are stored one entry
+ * per particle. Particle objects are lightweight handles into a store.
+ * </pre>
+ */
+public class ParticleStore
+{
+	/** Deformed positions. */
+	double[] x;
+
+	/** Undeformed/material positions. */
+	double[] x0;
+
+	/** Velocities. */
+	double[] v;
+
+	/** Force accumulators. */
+	double[] f;
+
+	/** Masses. */
+	double[] m;
+
+	/** Radii. */
+	double[] radius;
+
+	/** Pin flags. */
+	boolean[] pin;
+
+	/** Handles, in storage order (handles.get(i).index == i). */
+	final ArrayList<Particle> handles;
+
+	/** Number of live particles. */
+	int n = 0;
+
+	/** Constructs an empty store with room for the specified number of particles. */
+	public ParticleStore(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		x      = new double[3*capacity];
+		x0     = new double[3*capacity];
+		v      = new double[3*capacity];
+		f      = new double[3*capacity];
+		m      = new double[capacity];
+		radius = new double[capacity];
+		pin    = new boolean[capacity];
+		handles = new ArrayList<Particle>(capacity);
+	}
+
+	/** Returns the number of particles in the store. */
+	public int size() { return n; }
+
+	/** Returns the handles of all particles, in storage order. */
+	public ArrayList<Particle> getParticles() { return handles; }
+
+	/** Grows the arrays (by doubling) so that at least `capacity` particles fit. */
+	void ensureCapacity(int capacity)
+	{
+		if (capacity <= m.length) return;
+		int c = Math.max(capacity, 2*m.length);
+		x      = Arrays.copyOf(x,  3*c);
+		x0     = Arrays.copyOf(x0, 3*c);
+		v      = Arrays.copyOf(v,  3*c);
+		f      = Arrays.copyOf(f,  3*c);
+		m      = Arrays.copyOf(m, c);
+		radius = Arrays.copyOf(radius, c);
+		pin    = Arrays.copyOf(pin, c);
+	}
+
+	/** Appends a fresh slot at rest position (px,py,pz), and returns its index. */
+	int allocate(double px, double py, double pz)
+	{
+		ensureCapacity(n+1);
+		int i = n++;
+		int k = 3*i;
+		x[k] = x0[k] = px;  x[k+1] = x0[k+1] = py;  x[k+2] = x0[k+2] = pz;
+		v[k] = v[k+1] = v[k+2] = 0;
+		f[k] = f[k+1] = f[k+2] = 0;
+		m[i] = Constants.PARTICLE_MASS;
+		radius[i] = Particle.DEFAULT_RADIUS;
+		pin[i] = true;
+		return i;
+	}
+
+	/**
+	 * Moves the particle into this store, copying its current state, and
+	 * removes it from the store it previously lived in. Does nothing if the
+	 * particle already lives here.
+	 */
+	void adopt(Particle p)
+	{
+		ParticleStore src = p.store;
+		if (src == this) return;
+
+		int j = p.index;
+		int i = allocate(0, 0, 0);
+		System.arraycopy(src.x,  3*j, x,  3*i, 3);
+		System.arraycopy(src.x0, 3*j, x0, 3*i, 3);
+		System.arraycopy(src.v,  3*j, v,  3*i, 3);
+		System.arraycopy(src.f,  3*j, f,  3*i, 3);
+		m[i]      = src.m[j];
+		radius[i] = src.radius[j];
+		pin[i]    = src.pin[j];
+
+		src.remove(p);
+		p.store = this;
+		p.index = i;
+		handles.add(p);
+	}
+
+	/**
+	 * Removes the particle's slot by moving the last particle into it. Only
+	 * called from adopt(), which rebinds the removed handle afterwards.
+	 */
+	private void remove(Particle p)
+	{
+		int i = p.index;
+		int last = n-1;
+
+		handles.set(i, handles.get(last));
+		handles.remove(last);
+		if (i != last) {
+			System.arraycopy(x,  3*last, x,  3*i, 3);
+			System.arraycopy(x0, 3*last, x0, 3*i, 3);
+			System.arraycopy(v,  3*last, v,  3*i, 3);
+			System.arraycopy(f,  3*last, f,  3*i, 3);
+			m[i]      = m[last];
+			radius[i] = radius[last];
+			pin[i]    = pin[last];
+			handles.get(i).index = i;
+		}
+		n--;
+	}
+
+	/**
+	 * Removes the particle from this store. Its handle is moved into a
+	 * private single-slot store holding its final state, so it stays usable
+	 * (and can be re-added to a system later).
+	 */
+	void detach(Particle p)
+	{
+		if (p.store != this) return;
+		new ParticleStore(1).adopt(p);
+	}
+
+	/** Copies rest positions into positions, and zeroes velocities and forces. */
+	void reset()
+	{
+		System.arraycopy(x0, 0, x, 0, 3*n);
+		Arrays.fill(v, 0, 3*n, 0);
+		Arrays.fill(f, 0, 3*n, 0);
+	}
+
+	/** Returns the inverse mass of particle i, or zero if it is pinned. */
+	double invMass(int i)
+	{
+		return pin[i] ? 0 : 1/m[i];
+	}
+
+	/** Zeroes all force accumulators. */
+	void clearForces()
+	{
+		Arrays.fill(f, 0, 3*n, 0);
+	}
+}
@@ -2,16 +2,29 @@ package cs5625.deferred.physics;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 
 import javax.vecmath.Point3d;
+import javax.vecmath.Vector3d;
 
 
 /**
  * Maintains dynamic lists of Particle and Force objects, and provides
  * access to their state for numerical integration of dynamics.
+ * Particle state is kept in a packed ParticleStore so that the
+ * integrator sweeps contiguous arrays. The forces in F are applied in
+ * parallel by a ForceScheduler, and calm islands of particles are put to
+ * sleep (see Islands).
  * <pre>
- * Symplectic-Euler integrator is hard-coded, with embedded collision
- * processing code.
+ * Symplectic-Euler integrator is the default, with embedded collision
+ * processing code. A linearized backward-Euler integrator (see
+ * BackwardEulerIntegrator) can be selected with setIntegrator(); it is
+ * stable at much larger time steps. advanceFrame() picks the number of
+ * explicit substeps per frame from a stability estimate (see
+ * estimateStableStep()), and takes the frame implicitly when that many do
+ * not fit in the frame budget. The XPBD mode (see XPBDSolver) instead
+ * enforces every registered Constraint by position projection, in place of
+ * the force it was built from.
  * </pre>
  * 
  * Starter code provided for CS5643
@@ -22,11 +35,17 @@ import javax.vecmath.Point3d;
  */
 public class ParticleSystem 
 {
+	/** Available time integrators. */
+	public enum Integrator { SYMPLECTIC_EULER, BACKWARD_EULER, XPBD }
+
 	/** Current simulation time. */
 	double time = 0;
 
-	/** List of Particle objects. */
-	public ArrayList<Particle>   P = new ArrayList<Particle>();
+	/** Packed particle state. */
+	final ParticleStore store = new ParticleStore(64);
+
+	/** List of Particle objects (handles into store, in storage order). */
+	public final ArrayList<Particle>   P = store.getParticles();
 
 	/** List of Force objects. */
 	public ArrayList<Force>      F = new ArrayList<Force>();
@@ -34,9 +53,82 @@ public class ParticleSystem
 	/** List of Particle objects considered for particle particle penalty force. */
 	public ArrayList<Particle>   PP = new ArrayList<Particle>();
 	
+	/** Broadphase over PP, rebuilt every substep. */
+	final SpatialHash ppHash = new SpatialHash();
+	
+	/** Sphere collision forces, handled together by applySphereForces(). */
+	ArrayList<PenaltyForceSphere> S = new ArrayList<PenaltyForceSphere>();
+	
+	/** Broadphase over all of P, shared by every sphere. */
+	final SpatialHash sphereHash = new SpatialHash();
+	
+	/** Marks (by store index) the particles of the spheres, for estimateStableStep(). */
+	int[] sphereMark = new int[0];
+	int sphereStamp = 0;
+	
+	/** Ground surfaces, handled by applyGroundForces(). */
+	ArrayList<HeightField> G = new ArrayList<HeightField>();
+	
+	/** Soft ground thickness. */
+	static final double GROUND_H = 0.1 * Constants.EDGE_COEFF;
+	
+	/** Ground penalty strength, relative to spring stiffness coefficient. */
+	static final double GROUND_REL_STRENGTH = 100;
+	
+	/** Scratch ground normal. */
+	private final Vector3d groundNormal = new Vector3d();
+	
 	/** Number of edges (springs). */
 	int nEdges = 0;
 		
+	/** Integrator used by advanceTime(). */
+	Integrator integrator = Integrator.SYMPLECTIC_EULER;
+	
+	/** Implicit solver, used when integrator is BACKWARD_EULER. */
+	final BackwardEulerIntegrator implicit = new BackwardEulerIntegrator();
+	
+	/** Bounds on the number of symplectic-Euler substeps per frame (see advanceFrame()). */
+	public static int MIN_SUBSTEPS = 4;
+	public static int MAX_SUBSTEPS = 240;
+	
+	/** Fraction of the estimated stable step that is actually taken. */
+	public static double CFL_SAFETY = 0.5;
+	
+	/** Wall-clock budget for one frame of symplectic-Euler substeps, in milliseconds. */
+	public static double FRAME_BUDGET_MS = 20;
+	
+	/** Steps per frame taken by the implicit and XPBD integrators. */
+	public static int IMPLICIT_STEPS_PER_FRAME = 2;
+	public static int XPBD_STEPS_PER_FRAME = 2;
+	
+	/** Substeps taken by the last frame, and running average cost of one substep (ms). */
+	int lastSubsteps = 0;
+	double substepMs = 0;
+	
+	/** Whether the last symplectic-Euler frame was taken implicitly (see advanceFrame()). */
+	boolean overBudget = false;
+	
+	/** Decay of the measured substep cost per implicit frame, so that it is re-measured. */
+	public static double SUBSTEP_COST_DECAY = 0.9;
+	
+	/** Applies F, in parallel, in a thread-count-independent order. */
+	final ForceScheduler scheduler = new ForceScheduler();
+	
+	/** Islands and sleep state (symplectic Euler only). */
+	final Islands islands = new Islands();
+	
+	/** Whether calm islands may be put to sleep. */
+	boolean sleeping = true;
+	
+	/** Constraint solver, used when integrator is XPBD. */
+	final XPBDSolver xpbd = new XPBDSolver();
+	
+	/** Position constraints, enforced in XPBD mode only. */
+	ArrayList<Constraint> C = new ArrayList<Constraint>();
+	
+	/** Forces replaced by a constraint in XPBD mode. */
+	HashSet<Force> replaced = new HashSet<Force>();
+	
 	/** Sorting the particles. */
 	static ParticleSort cmp = new ParticleSort();
 	
@@ -45,18 +137,84 @@ public class ParticleSystem
 
 	/** Adds a force object (until removed) */
 	public synchronized void addForce(Force f) {
-		F.add(f);
+		if (f instanceof PenaltyForceSphere) S.add((PenaltyForceSphere) f);
+		else F.add(f);
+		scheduler.invalidate();
+		islands.invalidate();
+		islands.wake(f, store);
 	}
 
 	/** Useful for removing temporary forces, such as user-interaction
 	 * spring forces. */
 	public synchronized void removeForce(Force f) {
-		F.remove(f);
+		if (f instanceof PenaltyForceSphere) S.remove(f);
+		else F.remove(f);
+		scheduler.invalidate();
+		islands.invalidate();
+		islands.wake(f, store);
+		
+		/// DROP THE CONSTRAINTS THAT REPLACED f, OR XPBD WOULD KEEP ENFORCING IT
+		ArrayList<Constraint> removeC = new ArrayList<Constraint>();
+		for(Constraint c : C) {
+			if(c.getForce() == f)  removeC.add(c);
+		}
+		for(Constraint c : removeC) removeConstraint(c);
+		replaced.remove(f);
 	}
 	
 	
 	
 
+	/**
+	 * Adds a position constraint (until removed). In XPBD mode it is
+	 * enforced in place of its force; in the other modes it is ignored.
+	 */
+	public synchronized void addConstraint(Constraint c) {
+		C.add(c);
+		if (c.getForce() != null) replaced.add(c.getForce());
+	}
+
+	/** Removes a constraint, restoring its force in XPBD mode. */
+	public synchronized void removeConstraint(Constraint c) {
+		C.remove(c);
+		replaced.remove(c.getForce());
+	}
+
+	/** Sets the number of threads used to apply forces (1 applies them serially). */
+	public synchronized void setForceThreads(int threads) {
+		scheduler.setThreads(threads);
+	}
+
+	/** Enables or disables putting calm islands to sleep. */
+	public synchronized void setSleeping(boolean sleeping) {
+		this.sleeping = sleeping;
+	}
+
+	/** Returns the islands (and their sleep state) of the last frame. */
+	public Islands getIslands() {
+		return islands;
+	}
+
+	/** Selects the time integrator used by advanceTime(). */
+	public synchronized void setIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+	}
+
+	/** Returns the time integrator used by advanceTime(). */
+	public Integrator getIntegrator() {
+		return integrator;
+	}
+
+	/** Adds a ground surface that every particle collides with (until removed). */
+	public synchronized void addGround(HeightField g) {
+		if (!G.contains(g)) G.add(g);
+	}
+
+	/** Removes a ground surface. */
+	public synchronized void removeGround(HeightField g) {
+		G.remove(g);
+	}
+
 	/** Creates particle and adds it to the particle system. 
 	 * @param p0 Undeformed/material position. 
 	 * @return Reference to new Particle.
@@ -65,13 +223,14 @@ public class ParticleSystem
 	public synchronized Particle createParticle(Point3d p0) 
 	{
 		Particle newP = new Particle(p0);
-		P.add(newP);
+		store.adopt(newP);
 		return newP;
 	}
 
-	/** Adds a particle object */
+	/** Adds a particle object, moving its state into this system's store. */
 	public synchronized void addParticle(Particle p) {
-		P.add(p);
+		store.adopt(p);
+		islands.invalidate();
 	}
 
 	
@@ -80,7 +239,7 @@ public class ParticleSystem
 	 */
 	public void removeParticle(Particle p) 
 	{
-		P.remove(p);
+		store.detach(p);
 
 		ArrayList<Force> removalList = new ArrayList<Force>();
 		for(Force f : F) {/// REMOVE f IF p IS USED IN FORCE
@@ -88,6 +247,21 @@ public class ParticleSystem
 		}
 
 		F.removeAll(removalList);
+		scheduler.invalidate();
+		islands.invalidate();
+		islands.wakeAll();
+		
+		removalList.clear();
+		for(Force f : S) {
+			if(f.contains(p))  removalList.add(f);
+		}
+		S.removeAll(removalList);
+		
+		ArrayList<Constraint> removeC = new ArrayList<Constraint>();
+		for(Constraint c : C) {
+			if(c.contains(p))  removeC.add(c);
+		}
+		for(Constraint c : removeC) removeConstraint(c);
 	}
 
 	/** 
@@ -100,7 +274,7 @@ public class ParticleSystem
 		Particle minP      = null;
 		double   minDistSq = Double.MAX_VALUE;
 		for(Particle particle : P) {
-			double distSq = x.distanceSquared(particle.x);
+			double distSq = particle.distanceSquared(x);
 			if(distSq < minDistSq) {
 				minDistSq = distSq;
 				minP = particle;
@@ -121,7 +295,7 @@ public class ParticleSystem
 		double   minDistSq = Double.MAX_VALUE;
 		for(Particle particle : P) {
 			if(particle.isPinned() == pinned) {
-				double distSq = x.distanceSquared(particle.x);
+				double distSq = particle.distanceSquared(x);
 				if(distSq < minDistSq) {
 					minDistSq = distSq;
 					minP = particle;
@@ -136,11 +310,7 @@ public class ParticleSystem
 	 * with simultaneous calls to advanceTime(). */
 	public synchronized void reset()
 	{
-		for(Particle p : P)  {
-			p.x.set(p.x0);
-			p.v.set(0,0,0);
-			p.f.set(0,0,0);
-		}
+		store.reset();
 
 		/// WORKAROUND FOR DANGLING MOUSE-SPRING FORCES AFTER PS-INTERNAL RESETS:
 		ArrayList<Force> removeF = new ArrayList<Force>();
@@ -148,53 +318,253 @@ public class ParticleSystem
 			if(f instanceof SpringForce1Particle) removeF.add(f);
 		}
 		F.removeAll(removeF);
+		scheduler.invalidate();
+		islands.invalidate();
+		islands.wakeAll();
 
 		time = 0;
 	}
 
 
 	/**
-	 * MAIN FUNCTION TO IMPLEMENT YOUR ROBUST COLLISION PROCESSING ALGORITHM.
+	 * Advances the system by one frame of length frameDt, in equal substeps.
+	 * The symplectic-Euler integrator takes as many as estimateStableStep()
+	 * asks for, but at least MIN_SUBSTEPS; the other integrators take a
+	 * fixed number. Fewer explicit substeps than the estimate asks for would
+	 * not be stable, so when more are needed than MAX_SUBSTEPS, or than fit
+	 * in FRAME_BUDGET_MS at the recently measured cost per substep, the frame
+	 * is taken with the (unconditionally stable) backward-Euler integrator
+	 * instead (see isOverBudget()). The measured cost decays while frames are
+	 * implicit, so that one slow measurement does not keep them implicit.
+	 * @return Number of substeps taken.
 	 */
-	public synchronized void advanceTime(double dt)
-	{						
-
-//		System.out.println("N PARTUCLE: " +  P.size() );
-//		System.out.println("N FORCES : " +  F.size() );
+	public synchronized int advanceFrame(double frameDt)
+	{
+		Integrator frameIntegrator = integrator;
+		boolean sleep = sleeping && integrator == Integrator.SYMPLECTIC_EULER;
+		islands.beginFrame(this, sleep);
 		
+		int n;
+		if (integrator == Integrator.BACKWARD_EULER) n = IMPLICIT_STEPS_PER_FRAME;
+		else if (integrator == Integrator.XPBD) n = XPBD_STEPS_PER_FRAME;
+		else {
+			double stable = Math.ceil(frameDt / (CFL_SAFETY * estimateStableStep(frameDt)));
+			int budget = MAX_SUBSTEPS;
+			if (substepMs > 0) budget = (int) Math.min(budget, FRAME_BUDGET_MS / substepMs);
+			
+			if (stable > Math.max(budget, MIN_SUBSTEPS)) {
+				/// TOO MANY FOR THE BUDGET, TOO FEW TO BE STABLE: TAKE THIS FRAME IMPLICITLY
+				overBudget = true;
+				frameIntegrator = Integrator.BACKWARD_EULER;
+				n = IMPLICIT_STEPS_PER_FRAME;
+				substepMs *= SUBSTEP_COST_DECAY;
+				sleep = false;
+				islands.wakeAll();
+			}
+			else {
+				overBudget = false;
+				n = Math.max((int) stable, MIN_SUBSTEPS);
+			}
+		}
 		
-		{/// GATHER BASIC FORCES (NO NEED TO MODIFY):
+		long t0 = System.nanoTime();
+		double h = frameDt / n;
+		Integrator selected = integrator;
+		integrator = frameIntegrator;
+		try {
+			for (int i = 0; i < n; i++) advanceTime(h);
+		}
+		finally {
+			integrator = selected;
+		}
+		
+		islands.endFrame(this, sleep);
+		
+		if (frameIntegrator == Integrator.SYMPLECTIC_EULER) {
+			double ms = (System.nanoTime() - t0) / (1e6 * n);
+			substepMs = (substepMs == 0) ? ms : 0.9*substepMs + 0.1*ms;
+		}
+		lastSubsteps = n;
+		return n;
+	}
+	
+	/** Returns the number of substeps taken by the last advanceFrame(). */
+	public int getLastSubsteps() {
+		return lastSubsteps;
+	}
+	
+	/**
+	 * Returns whether the last symplectic-Euler advanceFrame() needed more
+	 * substeps than the budget allowed, and was taken with backward Euler.
+	 */
+	public boolean isOverBudget() {
+		return overBudget;
+	}
+	
+	/**
+	 * CFL-style estimate of the largest stable symplectic-Euler step, at the
+	 * current state. The step is limited by
+	 * <pre>
+	 * - stiffness: every awake StiffForce, and every active contact, with squared
+	 *   natural frequency w2 and damping rate g needs h^2 w2 + 2 h g &lt; 4
+	 *   (each with its own w2 and g: the stiffest force is seldom also the
+	 *   most damped one, and pairing the two maxima shortens the step);
+	 * - velocity: no particle may move further than its radius in one step;
+	 * - collision proximity: ground, sphere and particle-particle contacts
+	 *   that are active, or that closing pairs may reach within the frame,
+	 *   add their penalty stiffness, and a closing pair may cross at most
+	 *   the penalty layer in one step.
+	 * </pre>
+	 * Sleeping islands take no steps, so their forces and contacts with each
+	 * other are left out (islands.beginFrame() has already woken any that move).
+	 * @return The step bound, or frameDt if nothing limits the step.
+	 */
+	double estimateStableStep(double frameDt)
+	{
+		double hMax = frameDt;
+		
+		/// FORCES:
+		ArrayList<Force> active = islands.activeForces(F, store, scheduler);
+		for (int i = 0; i < active.size(); i++) {
+			Force force = active.get(i);
+			if (!(force instanceof StiffForce)) continue;
+			StiffForce sf = (StiffForce) force;
+			hMax = Math.min(hMax, stableStep(sf.getStiffnessRatio(), sf.getDampingRatio()));
+		}
+		
+		/// VELOCITY AND GROUND PROXIMITY:
+		double[] x = store.x, v = store.v, radius = store.radius;
+		boolean[] pin = store.pin, asleep = islands.asleep(store.n);
+		double kGround = GROUND_REL_STRENGTH * Constants.STIFFNESS_STRETCH;
+		double wGround = 0, vMax = 0;
+		Vector3d n = groundNormal;
+		for (int i = 0, k = 0; i < store.n; i++, k += 3) {
+			if (pin[i] || asleep[i]) continue;
+			double speed = Math.sqrt(v[k]*v[k] + v[k+1]*v[k+1] + v[k+2]*v[k+2]);
+			if (speed * hMax > radius[i] && radius[i] > 0) hMax = radius[i] / speed;
+			vMax = Math.max(vMax, speed);
 			
-			/// CLEAR FORCE ACCUMULATORS:
-			for(Particle p : P)  p.f.set(0,0,0);
-
-			/// APPLY FORCES:
-			for(Force force : F) 
-				force.applyForce();
+			for (int g = 0; g < G.size(); g++) {
+				HeightField ground = G.get(g);
+				double height = ground.getHeight(x[k], x[k+2]);
+				if (Double.isNaN(height)) continue;
+				ground.getNormal(x[k], x[k+2], n);
+				double d = (x[k+1] - height) * n.y - radius[i];
+				double vn = v[k]*n.x + v[k+1]*n.y + v[k+2]*n.z;
+				if (d < GROUND_H + Math.max(-vn, 0) * frameDt) {
+					wGround = Math.max(wGround, store.invMass(i));
+				}
+			}
+		}
+		if (wGround > 0) hMax = Math.min(hMax, stableStep(kGround * wGround, Constants.DAMPING_MASS * wGround));
+		
+		/// SPHERE PROXIMITY (PAIRS THAT COULD MEET WITHIN THE FRAME, FROM THE BROADPHASE OF applySphereForces()):
+		if (!S.isEmpty()) {
+			sphereHash.build(P, PenaltyForceSphere.h + 2*vMax*frameDt);
 			
+			/// A SPHERE-SPHERE CONTACT IS APPLIED BY BOTH SPHERES, SO AT TWICE THE STRENGTH
+			if (sphereMark.length < store.n) sphereMark = new int[store.m.length];
+			sphereStamp++;
+			for (int s = 0; s < S.size(); s++) {
+				Particle p1 = S.get(s).p1;
+				if (p1.store == store) sphereMark[p1.index] = sphereStamp;
+			}
 			
-			//APPLY ALL PARTICLE PARICLE SEPERATION FORCES
-			for (Particle p1 : PP){
-				for (Particle p2 : PP){
-					if (! p1.equals(p2) );
-					PenaltyForce2Particle f = new PenaltyForce2Particle(p1,p2);
-					f.applyForce();
+			for (int s = 0; s < S.size(); s++) {
+				Particle p1 = S.get(s).p1;
+				if (p1.store != store) {
+					/// SPHERE PARTICLE NOT IN THIS SYSTEM: FALL BACK TO A FULL SWEEP
+					for (int j = 0; j < P.size(); j++) {
+						hMax = boundPenaltyPair(p1, P.get(j), PenaltyForceSphere.h, PenaltyForceSphere.c, frameDt, hMax);
+					}
+					continue;
+				}
+				int nPairs = sphereHash.findPairs(p1.index, 0);
+				int[] pairs = sphereHash.getPairs();
+				for (int k = 0; k < nPairs; k++) {
+					int j = pairs[2*k+1];
+					if (asleep[p1.index] && asleep[j]) continue;
+					double c = (sphereMark[j] == sphereStamp) ? 2*PenaltyForceSphere.c : PenaltyForceSphere.c;
+					hMax = boundPenaltyPair(p1, P.get(j), PenaltyForceSphere.h, c, frameDt, hMax);
 				}
 			}
-
-
-
-			// ADD SOME MASS-PROPORTIONAL DAMPING (DEFAULT IS ZERO)
-			for(Particle p : P){ 
-				p.f.y -= Constants.GRAVITY * p.m;
-				p.f.x += Constants.WIND_STRENGTH * Math.random() * Math.max(p.x.y,20);
-				Utils.acc(p.f,  -Constants.DAMPING_MASS * p.m, p.v);
-				//if (p.p2 != null){
-				//	p.p2.f.add(p.f);
-				//}
-					
+		}
+		
+		/// PARTICLE-PARTICLE PROXIMITY (PAIRS THAT COULD MEET WITHIN THE FRAME; EACH PAIR'S FORCE IS APPLIED TWICE):
+		if (PP.size() > 1) {
+			ppHash.build(PP, PenaltyForce2Particle.h + 2*vMax*frameDt);
+			int nPairs = ppHash.findPairs();
+			int[] pairs = ppHash.getPairs();
+			for (int k = 0; k < nPairs; k++) {
+				Particle p1 = ppHash.get(pairs[2*k]), p2 = ppHash.get(pairs[2*k+1]);
+				if (p1.isPinned() || p2.isPinned()) continue;
+				if (p1.store == store && p2.store == store && asleep[p1.index] && asleep[p2.index]) continue;
+				hMax = boundPenaltyPair(p1, p2, PenaltyForce2Particle.h, 2*PenaltyForce2Particle.c, frameDt, hMax);
 			}
-			
+		}
+		return hMax;
+	}
+	
+	/**
+	 * Largest h with h^2 w2 + 2 h g &lt;= 4: the stability bound of a force
+	 * with squared natural frequency w2 and damping rate g.
+	 */
+	private static double stableStep(double w2, double g)
+	{
+		if (w2 > 0) return (Math.sqrt(g*g + 4*w2) - g) / w2;
+		if (g > 0) return 2 / g;
+		return Double.MAX_VALUE;
+	}
+	
+	/**
+	 * Applies the proximity bound of estimateStableStep() to a penalty pair
+	 * with force c (layer - gap)^2, and returns the updated step bound.
+	 */
+	private double boundPenaltyPair(Particle p1, Particle p2, double layer, double c, double frameDt, double hMax)
+	{
+		ParticleStore s1 = p1.store, s2 = p2.store;
+		double w = s1.invMass(p1.index) + s2.invMass(p2.index);
+		if (w == 0) return hMax;
+		
+		int i = 3*p1.index, j = 3*p2.index;
+		double[] x1 = s1.x, x2 = s2.x, v1 = s1.v, v2 = s2.v;
+		double dx = x1[i]-x2[j], dy = x1[i+1]-x2[j+1], dz = x1[i+2]-x2[j+2];
+		double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if (d == 0) return hMax;
+		double gap = d - s1.radius[p1.index] - s2.radius[p2.index];
+		double closing = -((v1[i]-v2[j])*dx + (v1[i+1]-v2[j+1])*dy + (v1[i+2]-v2[j+2])*dz) / d;
+		if (gap >= layer + Math.max(closing, 0) * frameDt) return hMax;
+		
+		/// PENALTY SLOPE 2c(layer - gap), ONE LAYER BELOW THE CURRENT DEPTH:
+		double depth = layer - Math.min(gap, 0) + layer;
+		hMax = Math.min(hMax, stableStep(2 * c * depth * w, 0));
+		if (closing > 0) hMax = Math.min(hMax, layer / closing);
+		return hMax;
+	}
+	
+	/**
+	 * MAIN FUNCTION TO IMPLEMENT YOUR ROBUST COLLISION PROCESSING ALGORITHM.
+	 */
+	public synchronized void advanceTime(double dt)
+	{						
+
+//		System.out.println("N PARTUCLE: " +  P.size() );
+//		System.out.println("N FORCES : " +  F.size() );
+		
+		
+		computeForces();
+		
+		if (integrator == Integrator.BACKWARD_EULER) {
+			implicit.step(this, dt);
+			store.clearForces();
+			time += dt;
+			return;
+		}
+		if (integrator == Integrator.XPBD) {
+			xpbd.step(this, dt);
+			store.clearForces();
+			time += dt;
+			return;
 		}
 
 
@@ -204,22 +574,28 @@ public class ParticleSystem
 		///////////////////////////////////////////////
 		/// 1. UPDATE PREDICTOR VELOCITY WITH FORCES
 		///////////////////////////////////////////////
-		for(Particle p : P) {
+		double[] x = store.x, v = store.v, f = store.f, m = store.m;
+		boolean[] pin = store.pin, asleep = islands.asleep(store.n);
+		for(int i = 0, k = 0; i < store.n; i++, k += 3) {
 			/// APPLY PIN CONSTRAINTS (set p=p0, and zero out v):
-			if(p.isPinned()) {
-				p.v.set(0,0,0);
+			if(pin[i]) {
+				v[k] = v[k+1] = v[k+2] = 0;
 			}
-			else {
-				p.v.scaleAdd(dt/p.m, p.f, p.v); // v += dt * f/m;
+			else if(!asleep[i]) {
+				double s = dt/m[i]; // v += dt * f/m;
+				v[k]   += s * f[k];
+				v[k+1] += s * f[k+1];
+				v[k+2] += s * f[k+2];
 				//Impose hard speed limit to stabilize integration
-				if(p.v.length()>50){
-					p.v.scale(50/p.v.length());
+				double speed = Math.sqrt(v[k]*v[k] + v[k+1]*v[k+1] + v[k+2]*v[k+2]);
+				if(speed>50){
+					s = 50/speed;
+					v[k] *= s;  v[k+1] *= s;  v[k+2] *= s;
 				}
 			}
-
-			/// CLEAR FORCE ACCUMULATOR
-			p.f.set(0,0,0);
 		}
+		/// CLEAR FORCE ACCUMULATORS
+		store.clearForces();
 		/////////////////////////////////////////////////////////
 		/// 2.  APPLY PENALTY FORCES TO KEEP THINGS SEPERATED////
 		/////////////////////////////////////////////////////////
@@ -264,12 +640,182 @@ public class ParticleSystem
 		//////////////////////////////////////////////////////////
 		/// 3. ADVANCE POSITIONS USING COLLISION-FEASIBLE VELOCITY
 		//////////////////////////////////////////////////////////
-		for(Particle p : P) {
-			p.x.scaleAdd(dt, p.v, p.x); //p.x += dt * p.v;
+		for(int k = 0; k < 3*store.n; k++) {
+			x[k] += dt * v[k]; //p.x += dt * p.v;
 		}
 
 		time += dt;
 	}
+	
+	/** Accumulates all forces at the current state into the particles' force accumulators. */
+	void computeForces()
+	{
+		{/// GATHER BASIC FORCES (NO NEED TO MODIFY):
+			
+			/// CLEAR FORCE ACCUMULATORS:
+			store.clearForces();
+
+			/// APPLY FORCES (EXCEPT THOSE REPLACED BY CONSTRAINTS IN XPBD MODE):
+			boolean skipReplaced = (integrator == Integrator.XPBD && !replaced.isEmpty());
+			scheduler.apply(islands.activeForces(F, store, scheduler), store, skipReplaced ? replaced : null);
+			
+			
+			/// APPLY SPHERE COLLISIONS:
+			applySphereForces();
+			
+			/// APPLY GROUND CONTACT (XPBD PROJECTS IT INSTEAD):
+			if (integrator != Integrator.XPBD) applyGroundForces();
+			
+			//APPLY ALL PARTICLE PARICLE SEPERATION FORCES (NEARBY PAIRS ONLY)
+			if (PP.size() > 1){
+				ppHash.build(PP, PenaltyForce2Particle.h);
+				int nPairs = ppHash.findPairs();
+				int[] pairs = ppHash.getPairs();
+				boolean[] asleep = islands.asleep(store.n);
+				for (int k = 0; k < nPairs; k++){
+					Particle p1 = ppHash.get(pairs[2*k]), p2 = ppHash.get(pairs[2*k+1]);
+					if (p1.store == store && p2.store == store && asleep[p1.index] && asleep[p2.index]) continue;
+					//THE ALL-PAIRS LOOP THIS REPLACES APPLIED BOTH ORDERINGS OF EVERY PAIR; KEEP THAT STRENGTH
+					PenaltyForce2Particle.applyForce(p1, p2);
+					PenaltyForce2Particle.applyForce(p2, p1);
+				}
+			}
+			
+			/// WAKE SLEEPING ISLANDS THAT SOMETHING HAS BUMPED INTO:
+			islands.wakeTouched(store);
+
+
+
+			// ADD SOME MASS-PROPORTIONAL DAMPING (DEFAULT IS ZERO)
+			double[] x = store.x, v = store.v, f = store.f, m = store.m;
+			boolean[] asleep = islands.asleep(store.n);
+			for(int i = 0, k = 0; i < store.n; i++, k += 3){ 
+				if (asleep[i]) continue;
+				f[k+1] -= Constants.GRAVITY * m[i];
+				f[k]   += Constants.WIND_STRENGTH * Math.random() * Math.max(x[k+1],20);
+				double c = -Constants.DAMPING_MASS * m[i];
+				f[k]   += c * v[k];
+				f[k+1] += c * v[k+1];
+				f[k+2] += c * v[k+2];
+			}
+			
+		}
+	}
+	
+	/**
+	 * Pushes every unpinned particle out of each ground surface, with
+	 * kinetic friction, testing each particle once per surface. This is the
+	 * contact model of PenaltyForceParticlePlane3 against a static surface.
+	 */
+	void applyGroundForces()
+	{
+		if (G.isEmpty()) return;
+		
+		double[] x = store.x, v = store.v, f = store.f, radius = store.radius;
+		boolean[] pin = store.pin, asleep = islands.asleep(store.n);
+		Vector3d n = groundNormal;
+		
+		for (int g = 0; g < G.size(); g++) {
+			HeightField ground = G.get(g);
+			for (int i = 0, k = 0; i < store.n; i++, k += 3) {
+				if (pin[i] || asleep[i]) continue;
+				
+				double height = ground.getHeight(x[k], x[k+2]);
+				if (Double.isNaN(height)) continue;
+				ground.getNormal(x[k], x[k+2], n);
+				
+				//SEPERATION FROM SURFACE (VERTICAL OFFSET PROJECTED ONTO THE NORMAL)
+				double d = (x[k+1] - height) * n.y - radius[i];
+				if (d > GROUND_H) continue;
+				
+				double vn = v[k]*n.x + v[k+1]*n.y + v[k+2]*n.z;
+				if (vn < 0) {
+					//REPULSION FORCE
+					double c = GROUND_REL_STRENGTH * Constants.STIFFNESS_STRETCH * (GROUND_H - d) + Constants.DAMPING_MASS * vn;
+					f[k] += c * n.x;  f[k+1] += c * n.y;  f[k+2] += c * n.z;
+				}
+				
+				//TANGENT VELOCITY DIRECTION FOR FRICTION TERM
+				double tx = v[k] - vn*n.x, ty = v[k+1] - vn*n.y, tz = v[k+2] - vn*n.z;
+				double tl = Math.sqrt(tx*tx + ty*ty + tz*tz);
+				double fn = f[k]*n.x + f[k+1]*n.y + f[k+2]*n.z;
+				if (tl > 0 && fn < 0) {
+					//KINETIC FRICTION FORCE
+					double c = Constants.KINETIC_FRICTION * fn / tl;
+					f[k] += c * tx;  f[k+1] += c * ty;  f[k+2] += c * tz;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Adds the stiffness of the current ground contacts (see
+	 * applyGroundForces()) to the implicit solver.
+	 */
+	void addGroundJacobian(BackwardEulerIntegrator S)
+	{
+		if (G.isEmpty()) return;
+		
+		double[] x = store.x, v = store.v, radius = store.radius;
+		boolean[] pin = store.pin;
+		Vector3d n = groundNormal;
+		double[] J = S.block;
+		double k = GROUND_REL_STRENGTH * Constants.STIFFNESS_STRETCH;
+		
+		for (int g = 0; g < G.size(); g++) {
+			HeightField ground = G.get(g);
+			for (int i = 0, c = 0; i < store.n; i++, c += 3) {
+				if (pin[i]) continue;
+				
+				double height = ground.getHeight(x[c], x[c+2]);
+				if (Double.isNaN(height)) continue;
+				ground.getNormal(x[c], x[c+2], n);
+				
+				double d = (x[c+1] - height) * n.y - radius[i];
+				double vn = v[c]*n.x + v[c+1]*n.y + v[c+2]*n.z;
+				if (d > GROUND_H || vn >= 0) continue;
+				
+				/// df/dx = -k n n^T
+				J[0] = -k*n.x*n.x;  J[1] = -k*n.x*n.y;  J[2] = -k*n.x*n.z;
+				J[3] = J[1];        J[4] = -k*n.y*n.y;  J[5] = -k*n.y*n.z;
+				J[6] = J[2];        J[7] = J[5];        J[8] = -k*n.z*n.z;
+				S.addStiffness(P.get(i), P.get(i), J);
+			}
+		}
+	}
+	
+	/**
+	 * Applies every registered PenaltyForceSphere. The broadphase over all
+	 * particles is built once and then queried around each sphere, so the
+	 * cost is one O(P) rebuild plus the number of actual contacts, instead
+	 * of a full O(P) sweep per sphere. As with the full sweeps, a
+	 * sphere-sphere contact is applied by both spheres.
+	 */
+	void applySphereForces()
+	{
+		if (S.isEmpty()) return;
+		
+		sphereHash.build(P, PenaltyForceSphere.h);
+		boolean[] asleep = islands.asleep(store.n);
+		
+		for (int s = 0; s < S.size(); s++) {
+			Particle p1 = S.get(s).p1;
+			if (p1.store != store) {
+				/// SPHERE PARTICLE NOT IN THIS SYSTEM: FALL BACK TO A FULL SWEEP
+				S.get(s).applyForce();
+				continue;
+			}
+			int i = p1.index;
+			int nPairs = sphereHash.findPairs(i, 0);
+			int[] pairs = sphereHash.getPairs();
+			for (int k = 0; k < nPairs; k++) {
+				int j = pairs[2*k+1];
+				/// (TWO SLEEPING BODIES DO NOT WAKE EACH OTHER)
+				if (asleep[i] && asleep[j]) continue;
+				PenaltyForceSphere.apply(p1, P.get(j));
+			}
+		}
+	}
 }
 
 /**
@@ -289,15 +835,15 @@ class ParticleSort implements Comparator<Particle> {
 		double v1;
 		double v2;
 		if (index == 0){
-			v1 = p1.x.x;
-			v2 = p2.x.x;
+			v1 = p1.store.x[3*p1.index];
+			v2 = p2.store.x[3*p2.index];
 		}
 		else{
-			v1 = p1.x.y;
-			v2 = p2.x.y;
+			v1 = p1.store.x[3*p1.index+1];
+			v2 = p2.store.x[3*p2.index+1];
 		}
 		if(v1 < v2) return 1;
 		if(v1 > v2) return -1;
 		return 0;
 	}
-}
+}
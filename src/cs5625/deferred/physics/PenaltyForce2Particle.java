@@ -3,7 +3,6 @@ package cs5625.deferred.physics;
 import java.util.ArrayList;
 
 import javax.media.opengl.GL2;
-import javax.vecmath.Vector3d;
 
 
 
@@ -22,8 +21,6 @@ public class PenaltyForce2Particle implements Force {
 	/**Length scale of repuslion force. */
 	static double h =   Constants.EDGE_COEFF;
 	
-	/** Allocate storage for force computation. */
-	Vector3d sep = new Vector3d();
 	Particle p1; 
 	Particle p2; //apply penatly to p2
 	
@@ -35,14 +32,25 @@ public class PenaltyForce2Particle implements Force {
 
 	
 	public void applyForce() {		
+		applyForce(p1, p2);
+	}
+
+	/** Applies the repulsion force between p1 and p2 (no force if either is pinned). */
+	static void applyForce(Particle p1, Particle p2) {
 		if (p1.isPinned() || p2.isPinned()) return ;
-		double r = p1.x.distance(p2.x) - p1.getRadius() - p2.getRadius();
+		ParticleStore s1 = p1.store, s2 = p2.store;
+		int i = 3*p1.index, j = 3*p2.index;
+		double[] x1 = s1.x, x2 = s2.x;
+		double dx = x1[i]-x2[j], dy = x1[i+1]-x2[j+1], dz = x1[i+2]-x2[j+2];
+		double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		double r = d - s1.radius[p1.index] - s2.radius[p2.index];
 		if (r<h ){
-			sep.sub(p1.x,p2.x);
-			sep.normalize();
+			double norm = 1.0/d;
+			dx *= norm;  dy *= norm;  dz *= norm;
 			double f = c*Math.pow((h-r),2);
-			p1.f.scaleAdd(f, sep, p1.f);
-			p2.f.scaleAdd(-f, sep, p2.f);
+			double[] f1 = s1.f, f2 = s2.f;
+			f1[i] += f*dx;  f1[i+1] += f*dy;  f1[i+2] += f*dz;
+			f2[j] -= f*dx;  f2[j+1] -= f*dy;  f2[j+2] -= f*dz;
 		}
 	}
 
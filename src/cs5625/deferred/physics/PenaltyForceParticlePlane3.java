@@ -1,5 +1,7 @@
 package cs5625.deferred.physics;
 
+import java.util.ArrayList;
+
 import javax.vecmath.*;
 import javax.media.opengl.*;
 
@@ -35,9 +37,16 @@ public class PenaltyForceParticlePlane3 implements Force
 		this.PS = ps;
 	}
 
+	/** Scratch storage for force computation (avoids per-call allocation). */
+	private final Vector3d p = new Vector3d(), a = new Vector3d(), b = new Vector3d();
+	private final Vector3d n = new Vector3d(), t = new Vector3d(), pn = new Vector3d();
+	private final Vector3d v = new Vector3d(), w = new Vector3d(), bn = new Vector3d();
+	private final Point3d o = new Point3d();
+
 	public void applyForce(){
-		for (Particle p : PS.P){
-			applyForce(p);
+		ArrayList<Particle> P = PS.P;
+		for (int i = 0; i < P.size(); i++){
+			applyForce(P.get(i));
 		}
 	}
 	
@@ -47,23 +56,22 @@ public class PenaltyForceParticlePlane3 implements Force
 		
 		
 		//EVALUATE SEPERATION VECTORS
-		Vector3d p = new Vector3d();
-		Vector3d a = new Vector3d();
-		Vector3d b = new Vector3d();
-		
-		p.sub(p1.x,f1.x);			//between particle and first face point
-		a.sub(f2.x,f1.x);			//between first and second face point
-		b.sub(f3.x,f1.x);			//between first and third face point
+		f1.getPosition(o);
+		p1.getPosition(p);
+		f2.getPosition(a);
+		f3.getPosition(b);
+		p.sub(o);			//between particle and first face point
+		a.sub(o);			//between first and second face point
+		b.sub(o);			//between first and third face point
 		
 
 		//COMPUTE NORMAL VECTOR IN THE DIRECTION OF P
-		Vector3d n = new Vector3d();
 		n.cross(a,b);
 		n.normalize();
 		if (n.dot(p) < 0) n.scale(-1);
 		//PROJECT p ONTO THE PLANE
-		Vector3d t = new Vector3d(); //position of particle projected onto the plane
-		Vector3d pn = new Vector3d(); //seperation vector from plain to face
+		//t: position of particle projected onto the plane
+		//pn: seperation vector from plain to face
 		pn.set(n);
 		pn.normalize();
 		pn.scale(pn.dot(p));
@@ -88,13 +96,16 @@ public class PenaltyForceParticlePlane3 implements Force
 		if(0<alpha && alpha <1 && 0<beta && beta < 1){
 			
 			//COMPUTE RELATIVE VELOCITY AT POINT ABOVE EDGE
-			Vector3d v = new Vector3d(p1.v);
-			v.scaleAdd(-1+alpha+beta, f1.v, v);
-			v.scaleAdd(-alpha, f2.v,v);
-			v.scaleAdd(-beta, f3.v,v);
+			p1.getVelocity(v);
+			f1.getVelocity(w);
+			v.scaleAdd(-1+alpha+beta, w, v);
+			f2.getVelocity(w);
+			v.scaleAdd(-alpha, w,v);
+			f3.getVelocity(w);
+			v.scaleAdd(-beta, w,v);
 			
 			//COMPUTE TANGENT VELOCITY DIRECTION FOR FRICTION TERM
-			Vector3d bn = new Vector3d(v);
+			bn.set(v);
 			bn.scaleAdd(-v.dot(n), n, bn);
 			if(bn.length()>0) bn.normalize();
 			
@@ -104,11 +115,12 @@ public class PenaltyForceParticlePlane3 implements Force
 			if(d<=h){
 				if (v.dot(n)<0){
 					//REPULSION FORCE
-					p1.f.scaleAdd(REL_STRENGTH * Constants.STIFFNESS_STRETCH * (h-d) + Constants.DAMPING_MASS*v.dot(n), n , p1.f);
+					p1.addForce(REL_STRENGTH * Constants.STIFFNESS_STRETCH * (h-d) + Constants.DAMPING_MASS*v.dot(n), n);
 				}
-				if (bn.length()>0 && p1.f.dot(n)<0){	
+				p1.getForce(w);
+				if (bn.length()>0 && w.dot(n)<0){	
 					//KINETIC FRICTION FORCE
-					p1.f.scaleAdd(Constants.KINETIC_FRICTION * p1.f.dot(n) , bn, p1.f);			
+					p1.addForce(Constants.KINETIC_FRICTION * w.dot(n) , bn);			
 				}
 			}			
 		}
@@ -0,0 +1,196 @@
+package cs5625.deferred.physics;
+
+import java.util.Arrays;
+
+/**
+ * Symmetric sparse matrix of 3x3 blocks, indexed by particle (store index).
+ * <pre>
+ * Diagonal blocks are stored densely, one per particle. Off-diagonal blocks
+ * are stored once per unordered pair (i &lt; j), as block (i,j); block (j,i)
+ * is its transpose. Pair slots are found through an open-addressing hash
+ * table, and survive clear(), so once the sparsity pattern has been seen
+ * re-assembling the matrix allocates nothing. The slots used by one
+ * assembly are also recorded in order, so an assembly that adds the same
+ * blocks in the same order as the last one skips the hash lookups.
+ * Blocks are row-major double[9].
+ * </pre>
+ */
+public class SparseBlockMatrix
+{
+	/** Diagonal blocks, 9 entries per particle. */
+	double[] diag = new double[0];
+
+	/** Off-diagonal blocks, 9 entries per pair slot. */
+	double[] offDiag = new double[9*16];
+
+	/** Row (i) and column (j) of each pair slot, i &lt; j. */
+	int[] row = new int[16], col = new int[16];
+
+	/** Open-addressing table of pair keys; -1 marks an empty bucket. */
+	private long[] keys = new long[32];
+	private int[] slots = new int[32];
+
+	/** Slots used by the last assembly, in order, and the position in it. */
+	private int[] trace = new int[16];
+	private int traceLength = 0, cursor = 0;
+
+	private int n = 0;
+	private int nPairs = 0;
+
+	public SparseBlockMatrix() { Arrays.fill(keys, -1); }
+
+	/** Returns the number of block rows. */
+	public int size() { return n; }
+
+	/** Returns the number of off-diagonal pair slots. */
+	public int getPairCount() { return nPairs; }
+
+	/**
+	 * Zeroes all blocks, keeping the sparsity pattern, and resizes to n
+	 * block rows. If n changed the pattern is dropped as well, since
+	 * particle indices no longer mean the same thing.
+	 */
+	public void clear(int n)
+	{
+		if (n != this.n) {
+			this.n = n;
+			if (diag.length < 9*n) diag = new double[9*n];
+			Arrays.fill(keys, -1);
+			nPairs = 0;
+			traceLength = 0;
+		}
+		cursor = 0;
+		Arrays.fill(diag, 0, 9*n, 0);
+		Arrays.fill(offDiag, 0, 9*nPairs, 0);
+	}
+
+	/**
+	 * Adds scale*B to block (i,j), and scale*B^T to block (j,i) when i != j.
+	 */
+	public void add(int i, int j, double[] B, double scale)
+	{
+		if (i == j) {
+			int o = 9*i;
+			for (int k = 0; k < 9; k++) diag[o+k] += scale * B[k];
+		}
+		else if (i < j) {
+			int o = 9*slot(i, j);
+			for (int k = 0; k < 9; k++) offDiag[o+k] += scale * B[k];
+		}
+		else {
+			int o = 9*slot(j, i);
+			for (int r = 0; r < 3; r++)
+				for (int c = 0; c < 3; c++)
+					offDiag[o + 3*r + c] += scale * B[3*c + r];
+		}
+	}
+
+	/** Adds s*I to diagonal block (i,i). */
+	public void addDiagonal(int i, double s)
+	{
+		int o = 9*i;
+		diag[o] += s;  diag[o+4] += s;  diag[o+8] += s;
+	}
+
+	/** y = A*x, where x and y hold 3 entries per block row. */
+	public void multiply(double[] x, double[] y)
+	{
+		for (int i = 0; i < n; i++) {
+			int o = 9*i, k = 3*i;
+			double x0 = x[k], x1 = x[k+1], x2 = x[k+2];
+			y[k]   = diag[o]  *x0 + diag[o+1]*x1 + diag[o+2]*x2;
+			y[k+1] = diag[o+3]*x0 + diag[o+4]*x1 + diag[o+5]*x2;
+			y[k+2] = diag[o+6]*x0 + diag[o+7]*x1 + diag[o+8]*x2;
+		}
+		for (int s = 0; s < nPairs; s++) {
+			int o = 9*s, a = 3*row[s], b = 3*col[s];
+			double[] B = offDiag;
+			/// y_a += B x_b
+			y[a]   += B[o]  *x[b] + B[o+1]*x[b+1] + B[o+2]*x[b+2];
+			y[a+1] += B[o+3]*x[b] + B[o+4]*x[b+1] + B[o+5]*x[b+2];
+			y[a+2] += B[o+6]*x[b] + B[o+7]*x[b+1] + B[o+8]*x[b+2];
+			/// y_b += B^T x_a
+			y[b]   += B[o]  *x[a] + B[o+3]*x[a+1] + B[o+6]*x[a+2];
+			y[b+1] += B[o+1]*x[a] + B[o+4]*x[a+1] + B[o+7]*x[a+2];
+			y[b+2] += B[o+2]*x[a] + B[o+5]*x[a+1] + B[o+8]*x[a+2];
+		}
+	}
+
+	/** Returns the slot of pair (i,j), i &lt; j, creating it if necessary. */
+	private int slot(int i, int j)
+	{
+		/// SAME BLOCK AS IN THE LAST ASSEMBLY?
+		if (cursor < traceLength) {
+			int s = trace[cursor];
+			if (row[s] == i && col[s] == j) {
+				cursor++;
+				return s;
+			}
+		}
+
+		int s = lookup(i, j);
+		if (cursor == trace.length) trace = Arrays.copyOf(trace, 2*trace.length);
+		trace[cursor++] = s;
+		if (cursor > traceLength) traceLength = cursor;
+		return s;
+	}
+
+	/** Finds the slot of pair (i,j) in the hash table, creating it if necessary. */
+	private int lookup(int i, int j)
+	{
+		long key = ((long) i << 32) | j;
+		int mask = keys.length - 1;
+		int b = hash(key) & mask;
+		while (keys[b] != -1) {
+			if (keys[b] == key) return slots[b];
+			b = (b + 1) & mask;
+		}
+
+		/// NEW PAIR:
+		int s = nPairs++;
+		if (row.length <= s) {
+			row = Arrays.copyOf(row, 2*row.length);
+			col = Arrays.copyOf(col, 2*col.length);
+			offDiag = Arrays.copyOf(offDiag, 9*row.length);
+		}
+		row[s] = i;  col[s] = j;
+		Arrays.fill(offDiag, 9*s, 9*s + 9, 0);
+		keys[b] = key;  slots[b] = s;
+		if (2*nPairs > keys.length) rehash();
+		return s;
+	}
+
+	/** Returns the slot of pair (i,j), i &lt; j, or -1 if it is not in the pattern. */
+	int find(int i, int j)
+	{
+		long key = ((long) i << 32) | j;
+		int mask = keys.length - 1;
+		int b = hash(key) & mask;
+		while (keys[b] != -1) {
+			if (keys[b] == key) return slots[b];
+			b = (b + 1) & mask;
+		}
+		return -1;
+	}
+
+	/** Doubles the hash table. */
+	private void rehash()
+	{
+		keys = new long[2*keys.length];
+		slots = new int[keys.length];
+		Arrays.fill(keys, -1);
+		int mask = keys.length - 1;
+		for (int s = 0; s < nPairs; s++) {
+			long key = ((long) row[s] << 32) | col[s];
+			int b = hash(key) & mask;
+			while (keys[b] != -1) b = (b + 1) & mask;
+			keys[b] = key;  slots[b] = s;
+		}
+	}
+
+	private static int hash(long key)
+	{
+		key *= 0x9E3779B97F4A7C15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
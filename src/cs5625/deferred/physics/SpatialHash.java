@@ -0,0 +1,172 @@
+package cs5625.deferred.physics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform-grid spatial hash used as a collision broadphase.
+ * <pre>
+ * Particles are binned into cubic cells whose side is the largest possible
+ * contact distance (2 * max radius + margin), so any contacting pair lies in
+ * the same or in adjacent cells. Cells are hashed into a power-of-two bucket
+ * table and the entries are counting-sorted by bucket, so a rebuild is O(n)
+ * and reuses its arrays from one substep to the next.
+ * </pre>
+ */
+public class SpatialHash
+{
+	/** Particles of the last build, in entry order. */
+	private Particle[] particles = new Particle[16];
+
+	/** Entry positions (x,y,z triples) and radii, copied at build time. */
+	private double[] pos = new double[48];
+	private double[] rad = new double[16];
+
+	/** Bucket of each entry. */
+	private int[] bucketOf = new int[16];
+
+	/** Entries sorted by bucket; bucket b holds sorted[start[b] .. start[b+1]-1]. */
+	private int[] sorted = new int[16];
+	private int[] start = new int[33];
+
+	/** Candidate pairs (entry indices) found by findPairs(). */
+	private int[] pairs = new int[32];
+
+	/** Scratch list of buckets already visited by a neighbourhood scan. */
+	private final int[] visited = new int[27];
+
+	private int n = 0;
+	private int mask = 0;
+	private double cellSize = 1;
+	private double margin = 0;
+
+	/**
+	 * Rebuilds the hash over the given particles.
+	 * @param margin Extra separation (beyond the radii) at which a pair counts as in contact.
+	 */
+	public void build(List<Particle> list, double margin)
+	{
+		n = list.size();
+		this.margin = margin;
+		if (particles.length < n) {
+			int c = Math.max(n, 2*particles.length);
+			particles = new Particle[c];
+			pos = new double[3*c];
+			rad = new double[c];
+			bucketOf = new int[c];
+			sorted = new int[c];
+		}
+
+		/// GATHER POSITIONS AND RADII:
+		double maxR = 0;
+		for (int i = 0; i < n; i++) {
+			Particle p = list.get(i);
+			double[] x = p.store.x;
+			int k = 3*p.index;
+			particles[i] = p;
+			pos[3*i] = x[k];  pos[3*i+1] = x[k+1];  pos[3*i+2] = x[k+2];
+			rad[i] = p.store.radius[p.index];
+			if (rad[i] > maxR) maxR = rad[i];
+		}
+		cellSize = Math.max(2*maxR + margin, 1e-6);
+
+		/// SIZE BUCKET TABLE (POWER OF TWO, ~2 BUCKETS PER ENTRY):
+		int nBuckets = Integer.highestOneBit(Math.max(2*n, 16) - 1) << 1;
+		mask = nBuckets - 1;
+		if (start.length < nBuckets + 1) start = new int[nBuckets + 1];
+		Arrays.fill(start, 0, nBuckets + 1, 0);
+
+		/// COUNTING SORT BY BUCKET:
+		for (int i = 0; i < n; i++) {
+			int b = bucket(cell(pos[3*i]), cell(pos[3*i+1]), cell(pos[3*i+2]));
+			bucketOf[i] = b;
+			start[b+1]++;
+		}
+		for (int b = 0; b < nBuckets; b++) start[b+1] += start[b];
+		for (int i = 0; i < n; i++) {
+			sorted[start[bucketOf[i]]++] = i;
+		}
+		/// (START WAS ADVANCED TO THE END OF EACH BUCKET; SHIFT IT BACK)
+		for (int b = nBuckets; b > 0; b--) start[b] = start[b-1];
+		start[0] = 0;
+	}
+
+	/** Number of particles in the last build. */
+	public int size() { return n; }
+
+	/** Returns the particle stored at entry i. */
+	public Particle get(int i) { return particles[i]; }
+
+	/**
+	 * Finds every unordered pair of distinct particles whose surfaces are
+	 * closer than the margin, and returns the number of pairs. Pair k is
+	 * (getPairs()[2k], getPairs()[2k+1]), as entry indices.
+	 */
+	public int findPairs()
+	{
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			count = collect(i, true, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Finds every particle whose surface is closer than the margin to that
+	 * of entry i, appending the pairs (i, j) to the pair buffer after the
+	 * first `count` pairs. Returns the new number of pairs.
+	 */
+	public int findPairs(int i, int count)
+	{
+		return collect(i, false, count);
+	}
+
+	private int collect(int i, boolean higherOnly, int count)
+	{
+		double xi = pos[3*i], yi = pos[3*i+1], zi = pos[3*i+2];
+		int cx = cell(xi), cy = cell(yi), cz = cell(zi);
+		int nVisited = 0;
+		for (int dx = -1; dx <= 1; dx++)
+		for (int dy = -1; dy <= 1; dy++)
+		for (int dz = -1; dz <= 1; dz++) {
+			int b = bucket(cx+dx, cy+dy, cz+dz);
+			if (wasVisited(b, nVisited)) continue;
+			visited[nVisited++] = b;
+
+			for (int s = start[b], e = start[b+1]; s < e; s++) {
+				int j = sorted[s];
+				if (j == i || (higherOnly && j < i)) continue;
+				double r = rad[i] + rad[j] + margin;
+				double ex = pos[3*j]-xi, ey = pos[3*j+1]-yi, ez = pos[3*j+2]-zi;
+				if (ex*ex + ey*ey + ez*ez < r*r) {
+					if (2*count + 2 > pairs.length) pairs = Arrays.copyOf(pairs, 2*pairs.length);
+					pairs[2*count]   = i;
+					pairs[2*count+1] = j;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Pair buffer filled by findPairs(). */
+	public int[] getPairs() { return pairs; }
+
+	private boolean wasVisited(int b, int nVisited)
+	{
+		for (int k = 0; k < nVisited; k++) {
+			if (visited[k] == b) return true;
+		}
+		return false;
+	}
+
+	private int cell(double x)
+	{
+		return (int) Math.floor(x / cellSize);
+	}
+
+	private int bucket(int ix, int iy, int iz)
+	{
+		return ((ix * 73856093) ^ (iy * 19349663) ^ (iz * 83492791)) & mask;
+	}
+}
@@ -8,7 +8,7 @@ import javax.media.opengl.*;
  * 
  * @author Doug James, January 2007
  */
-public class SpringForce1Particle implements Force
+public class SpringForce1Particle implements StiffForce, LocalForce
 {
     Particle p1;
     Point3d  x2;
@@ -30,22 +30,24 @@ public class SpringForce1Particle implements Force
     public void applyForce()
     {
 	{
-	    Vector3d v = new Vector3d();
-	    v.sub(x2, p1.x);
-	    double L = v.length();
+	    ParticleStore s = p1.store;
+	    int i = 3*p1.index;
+	    double[] x = s.x, v = s.v, f = s.f;
+	    double dx = x2.x-x[i], dy = x2.y-x[i+1], dz = x2.z-x[i+2];
+	    double L = Math.sqrt(dx*dx + dy*dy + dz*dz);
 
-	    v.normalize();
+	    double norm = 1.0/L;
+	    dx *= norm;  dy *= norm;  dz *= norm;
 
-	    double dvDot = - v.dot(p1.v);
+	    double dvDot = - (dx*v[i] + dy*v[i+1] + dz*v[i+2]);
 
 	    double k = this.STIFFNESS * 0.5;
-	    v.scale( (float) (k* ( L + 0.03*dvDot )) );
-	    p1.f.add(v);
+	    double c = (float) (k* ( L + 0.03*dvDot ));
+	    f[i] += c*dx;  f[i+1] += c*dy;  f[i+2] += c*dz;
 
 	    /// STRONGLY DAMP INTERACTION:
-	    v.set(p1.v);
-	    v.scale((float) (- 5. * p1.m));
-	    p1.f.add(v);
+	    c = (float) (- 5. * s.m[p1.index]);
+	    f[i] += c*v[i];  f[i+1] += c*v[i+1];  f[i+2] += c*v[i+2];
 	}
     }
 
@@ -54,12 +56,32 @@ public class SpringForce1Particle implements Force
 	/// DRAW A LINE:
 		gl.glColor4f(color.x, color.y, color.z, color.w);
 		gl.glBegin(GL2.GL_LINES);
-		gl.glVertex2d(p1.x.x, p1.x.y);
+		Point3d x1 = new Point3d();
+	p1.getPosition(x1);
+	gl.glVertex2d(x1.x, x1.y);
 		gl.glVertex2d(x2.x,   x2.y);
 		gl.glEnd();	
     }
 
+    public double getStiffnessRatio()
+    {
+	return 0.5 * this.STIFFNESS * p1.store.invMass(p1.index);
+    }
+
+    /** Spring damping plus the strong (5/s) interaction damping. */
+    public double getDampingRatio()
+    {
+	if(p1.isPinned()) return 0;
+	return 0.03 * getStiffnessRatio() + 5.;
+    }
+
     public boolean contains(Particle p)  { return (p==p1);  }
+
+    public int getParticles(Particle[] out)
+    {
+	out[0] = p1;
+	return 1;
+    }
     
     public void setColor(Color4f c){
     	this.color.set(c);
@@ -8,7 +8,7 @@ import javax.media.opengl.*;
  * 
  * @author Doug James, January 2007 (Revised Feb 2009)
  */
-public class SpringForce2Particle implements Force
+public class SpringForce2Particle implements ImplicitForce, StiffForce, LocalForce
 {
 	public Particle p1;
 	public Particle p2;
@@ -28,9 +28,7 @@ public class SpringForce2Particle implements Force
 		
 		
 		//GET REST LENGTH
-		Vector3d v = new Vector3d();
-		v.sub(p2.x0, p1.x0);
-		L0 = v.length();
+		L0 = p1.restDistance(p2);
 	}
 	
 	public SpringForce2Particle(Particle p1, Particle p2, double restLength, ParticleSystem PS){
@@ -62,7 +60,10 @@ public class SpringForce2Particle implements Force
 		if(p1==S.p1 || p1==S.p2) return false;
 		if(p2==S.p1 || p2==S.p2) return false;
 
-		return overlaps(p1.x, p2.x, S.p1.x, S.p2.x);
+		Point3d a1 = new Point3d(), a2 = new Point3d(), b1 = new Point3d(), b2 = new Point3d();
+		p1.getPosition(a1);  p2.getPosition(a2);
+		S.p1.getPosition(b1);  S.p2.getPosition(b2);
+		return overlaps(a1, a2, b1, b2);
 	}
 
 	private static boolean overlaps(Point3d p1, Point3d p2, 
@@ -93,35 +94,86 @@ public class SpringForce2Particle implements Force
 		if(p1.isPinned() && p2.isPinned()) return;/// no force
 
 		{
-			Vector3d v = new Vector3d();
+			ParticleStore s1 = p1.store, s2 = p2.store;
+			int i = 3*p1.index, j = 3*p2.index;
+			double[] x1 = s1.x, x2 = s2.x, v1 = s1.v, v2 = s2.v;
 
 			/// CURRENT LENGTH:
-			v.sub(p2.x, p1.x);
-			double L = v.length();
+			double dx = x2[j]-x1[i], dy = x2[j+1]-x1[i+1], dz = x2[j+2]-x1[i+2];
+			double L = Math.sqrt(dx*dx + dy*dy + dz*dz);
 
-			v.normalize();
+			double norm = 1.0/L;
+			dx *= norm;  dy *= norm;  dz *= norm;
 
 			// DAMPING: dv-dot-dpHat
-			double dvDot = v.dot(p2.v) - v.dot(p1.v);
+			double dvDot = (dx*v2[j] + dy*v2[j+1] + dz*v2[j+2]) - (dx*v1[i] + dy*v1[i+1] + dz*v1[i+2]);
 
 			double k = this.STIFFNESS;
-			v.scale( k * ((L-L0)  + 0.5*dvDot ) );
-
-			p1.f.add(v);
-			v.negate();
-			p2.f.add(v);
+			double c = k * ((L-L0)  + 0.5*dvDot );
+			dx *= c;  dy *= c;  dz *= c;
 
+			double[] f1 = s1.f, f2 = s2.f;
+			f1[i] += dx;  f1[i+1] += dy;  f1[i+2] += dz;
+			f2[j] -= dx;  f2[j+1] -= dy;  f2[j+2] -= dz;
 		}
 	}
 
+	/**
+	 * Stiffness -k (dd^T + max(1-L0/L,0) (I - dd^T)) and damping -k/2 dd^T.
+	 * The transverse term is dropped under compression to keep the
+	 * implicit system positive definite.
+	 */
+	public void addJacobian(BackwardEulerIntegrator S)
+	{
+		if(p1.isPinned() && p2.isPinned()) return;
+
+		double[] x1 = p1.store.x, x2 = p2.store.x;
+		int i = 3*p1.index, j = 3*p2.index;
+		double dx = x2[j]-x1[i], dy = x2[j+1]-x1[i+1], dz = x2[j+2]-x1[i+2];
+		double L = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		if(L == 0) return;
+		dx /= L;  dy /= L;  dz /= L;
+
+		double k = this.STIFFNESS;
+		double s = Math.max(1 - L0/L, 0);
+		double[] J = S.block;
+		J[0] = dx*dx;  J[1] = dx*dy;  J[2] = dx*dz;
+		J[3] = dy*dx;  J[4] = dy*dy;  J[5] = dy*dz;
+		J[6] = dz*dx;  J[7] = dz*dy;  J[8] = dz*dz;
+
+		/// DAMPING:
+		for(int n = 0; n < 9; n++) J[n] *= -0.5*k;
+		S.addPairDamping(p1, p2, J);
+
+		/// STIFFNESS:
+		for(int n = 0; n < 9; n++) J[n] *= 2*(1-s);
+		J[0] -= k*s;  J[4] -= k*s;  J[8] -= k*s;
+		S.addPairStiffness(p1, p2, J);
+	}
+
+	/** k (1/m1 + 1/m2). */
+	public double getStiffnessRatio()
+	{
+		return this.STIFFNESS * (p1.store.invMass(p1.index) + p2.store.invMass(p2.index));
+	}
+
+	/** k/2 (1/m1 + 1/m2), from the dv-dot-dpHat damping term. */
+	public double getDampingRatio()
+	{
+		return 0.5 * getStiffnessRatio();
+	}
+
 	public void display(GL2 gl)
 	{
 		/// DRAW A LINE:
 		gl.glColor4f(color.x, color.y, color.z, color.w);
 
+		Point3d x1 = new Point3d(), x2 = new Point3d();
+		p1.getPosition(x1);
+		p2.getPosition(x2);
 		gl.glBegin(GL2.GL_LINES);
-		gl.glVertex3d(p1.x.x, p1.x.y, p1.x.z);
-		gl.glVertex3d(p2.x.x, p2.x.y, p1.x.z);
+		gl.glVertex3d(x1.x, x1.y, x1.z);
+		gl.glVertex3d(x2.x, x2.y, x1.z);
 		gl.glEnd();	
 	}
 
@@ -130,6 +182,11 @@ public class SpringForce2Particle implements Force
 	public boolean contains(Particle p)  { 
 		return ((p==p1) || (p==p2));
 	}
+
+	public int getParticles(Particle[] out) {
+		out[0] = p1;  out[1] = p2;
+		return 2;
+	}
 	
     public void setColor(Color4f c){
     	this.color.set(c);
@@ -8,11 +8,15 @@ import javax.media.opengl.*;
  * 
  * @author Doug James, January 2007
  */
-public class SpringForceBending implements Force {
+public class SpringForceBending implements ImplicitForce, StiffForce, LocalForce {
 	Particle p0;
 	Particle p1;
 	Particle p2;
 	public double STIFFNESS = Constants.STIFFNESS_BEND;
+
+	/** Total rest length of the chain. */
+	final double L;
+
 	/**
 	 * Constructs a bending force affecting the angle implied by the
 	 * three-particle chain, p0-p1-p2.
@@ -25,56 +29,135 @@ public class SpringForceBending implements Force {
 		this.p0 = p0;
 		this.p1 = p1;
 		this.p2 = p2;
+		this.L = p1.restDistance(p0) + p2.restDistance(p1);
 	}
 
 	public void applyForce() {
 		{
-			// / VECTORS: a=x1-x0, b=x2-x1:
-			Vector3d a = new Vector3d();
-			a.sub(p1.x, p0.x);
-			Vector3d b = new Vector3d();
-			b.sub(p2.x, p1.x);
+			// VECTORS: a=x1-x0, b=x2-x1:
+			ParticleStore s0 = p0.store, s1 = p1.store, s2 = p2.store;
+			int i0 = 3*p0.index, i1 = 3*p1.index, i2 = 3*p2.index;
+			double[] x0 = s0.x, x1 = s1.x, x2 = s2.x;
+			double ax = x1[i1]-x0[i0], ay = x1[i1+1]-x0[i0+1], az = x1[i1+2]-x0[i0+2];
+			double bx = x2[i2]-x1[i1], by = x2[i2+1]-x1[i1+1], bz = x2[i2+2]-x1[i1+2];
 
-			double L = p1.x0.distance(p0.x0) + p2.x0.distance(p1.x0);
-
-			double A = a.length();
-			double B = b.length();
+			double A = Math.sqrt(ax*ax + ay*ay + az*az);
+			double B = Math.sqrt(bx*bx + by*by + bz*bz);
 			double a2 = A * A;
 			double b2 = B * B;
 
-			// / FORCE CONSTANT:
-			double a_b = a.dot(b);
+			// FORCE CONSTANT:
+			double a_b = ax*bx + ay*by + az*bz;
 			double k = this.STIFFNESS / L;
 			double c = 0.5 * k / (A * B);
 
-			Vector3d f0 = new Vector3d();
-			Vector3d f1 = new Vector3d();
-			Vector3d f2 = new Vector3d();
-
-			// / f0 = c * ( b - a_b/a2 a )
-			Utils.acc(f0, c, b);
-			Utils.acc(f0, -c * a_b / a2, a);
-
-			// / f2 = c * ( -a + a_b/b2 b )
-			Utils.acc(f2, -c, a);
-			Utils.acc(f2, c * a_b / b2, b);
-
-			// f1 = -(f0 + f2)
-			f1.add(f0);
-			f1.add(f2);
-			f1.negate();
-
-			// / MINUS SIGN BUG: NEGATE ALL FORCES:
-			f0.negate();
-			f1.negate();
-			f2.negate();
-
-			// / ACCUMULATE FORCES:
-			p0.f.add(f0);
-			p1.f.add(f1);
-			p2.f.add(f2);
-			// / SKIP DAMPING (YOU MAY WANT TO ADD IT)
+			// f0 = c * ( b - a_b/a2 a )
+			double ca = -c * a_b / a2;
+			double f0x = c*bx + ca*ax, f0y = c*by + ca*ay, f0z = c*bz + ca*az;
+
+			// f2 = c * ( -a + a_b/b2 b )
+			double cb = c * a_b / b2;
+			double f2x = -c*ax + cb*bx, f2y = -c*ay + cb*by, f2z = -c*az + cb*bz;
+
+			// f1 = -(f0 + f2), AND MINUS SIGN BUG: NEGATE ALL FORCES:
+			double[] F0 = s0.f, F1 = s1.f, F2 = s2.f;
+			F0[i0] -= f0x;  F0[i0+1] -= f0y;  F0[i0+2] -= f0z;
+			F1[i1] += f0x + f2x;  F1[i1+1] += f0y + f2y;  F1[i1+2] += f0z + f2z;
+			F2[i2] -= f2x;  F2[i2+1] -= f2y;  F2[i2+2] -= f2z;
+			// SKIP DAMPING (YOU MAY WANT TO ADD IT)
+		}
+	}
+
+	public void addJacobian(BackwardEulerIntegrator S) {
+		double[] x0 = p0.store.x, x1 = p1.store.x, x2 = p2.store.x;
+		int i0 = 3*p0.index, i1 = 3*p1.index, i2 = 3*p2.index;
+		addJacobian(S, p0, p1, p2,
+				x1[i1]-x0[i0], x1[i1+1]-x0[i0+1], x1[i1+2]-x0[i0+2],
+				x2[i2]-x1[i1], x2[i2+1]-x1[i1+1], x2[i2+2]-x1[i1+2],
+				this.STIFFNESS / L);
+	}
+
+	/**
+	 * Adds the Jacobian of the bending force (k/2) d(cos theta)/dx, where
+	 * theta is the angle between a (= x1-x0, up to a constant offset) and
+	 * b = x2-x1. Writing the energy as (k/4)|a/|a| - b/|b||^2 + const, the
+	 * Hessian is replaced by its Gauss-Newton part, which is positive
+	 * semidefinite (so the implicit system stays positive definite) and
+	 * exact in the straight configuration.
+	 */
+	static void addJacobian(BackwardEulerIntegrator S, Particle p0, Particle p1, Particle p2,
+			double ax, double ay, double az, double bx, double by, double bz, double k) {
+		double A = Math.sqrt(ax*ax + ay*ay + az*az);
+		double B = Math.sqrt(bx*bx + by*by + bz*bz);
+		if (A == 0 || B == 0) return;
+
+		// UNIT VECTORS u=a/A, w=b/B, AND PROJECTORS Pu = I-uu^T, Pw = I-ww^T:
+		double[] u = S.u, w = S.w, Pu = S.Pu, Pw = S.Pw;
+		u[0] = ax/A;  u[1] = ay/A;  u[2] = az/A;
+		w[0] = bx/B;  w[1] = by/B;  w[2] = bz/B;
+		for (int r = 0; r < 3; r++) {
+			for (int s = 0; s < 3; s++) {
+				double I = (r == s) ? 1 : 0;
+				Pu[3*r + s] = I - u[r]*u[s];
+				Pw[3*r + s] = I - w[r]*w[s];
+			}
 		}
+
+		// ENERGY HESSIAN IN (a,b): (k/2) [Pu/A, -Pw/B]^T [Pu/A, -Pw/B] = [Xa Y; Y^T Xb]
+		double[] Xa = S.Xa, Xb = S.Xb, Y = S.Y;
+		double ea = 0.5*k / (A*A), eb = 0.5*k / (B*B), eab = -0.5*k / (A*B);
+		for (int r = 0; r < 3; r++) {
+			for (int s = 0; s < 3; s++) {
+				int rs = 3*r + s;
+				Xa[rs] = ea * Pu[rs];
+				Xb[rs] = eb * Pw[rs];
+				Y[rs]  = eab * (Pu[3*r]*Pw[s] + Pu[3*r + 1]*Pw[3 + s] + Pu[3*r + 2]*Pw[6 + s]);
+			}
+		}
+
+		// SCATTER THE NEGATED HESSIAN TO THE PARTICLES (a = x1-x0, b = x2-x1):
+		double[] K = S.block;
+		for (int rs = 0; rs < 9; rs++) K[rs] = -Xa[rs];
+		S.addStiffness(p0, p0, K);
+		for (int rs = 0; rs < 9; rs++) K[rs] = Xa[rs] - Y[rs];
+		S.addStiffness(p0, p1, K);
+		S.addStiffness(p0, p2, Y);
+		for (int r = 0; r < 3; r++)
+			for (int s = 0; s < 3; s++)
+				K[3*r + s] = Y[3*r + s] + Y[3*s + r] - Xa[3*r + s] - Xb[3*r + s];
+		S.addStiffness(p1, p1, K);
+		for (int rs = 0; rs < 9; rs++) K[rs] = Xb[rs] - Y[rs];
+		S.addStiffness(p1, p2, K);
+		for (int rs = 0; rs < 9; rs++) K[rs] = -Xb[rs];
+		S.addStiffness(p2, p2, K);
+	}
+
+	public double getStiffnessRatio() {
+		double[] x0 = p0.store.x, x1 = p1.store.x, x2 = p2.store.x;
+		int i0 = 3*p0.index, i1 = 3*p1.index, i2 = 3*p2.index;
+		return getStiffnessRatio(p0, p1, p2,
+				x1[i1]-x0[i0], x1[i1+1]-x0[i0+1], x1[i1+2]-x0[i0+2],
+				x2[i2]-x1[i1], x2[i2+1]-x1[i1+1], x2[i2+2]-x1[i1+2],
+				this.STIFFNESS / L);
+	}
+
+	public double getDampingRatio() {
+		return 0;
+	}
+
+	/**
+	 * Bounds the largest eigenvalue of M^-1 times the Gauss-Newton Hessian
+	 * used by addJacobian(): (k/2) sum_i |J_i|^2 / m_i, with |J_0| = 1/|a|,
+	 * |J_1| &lt;= 1/|a| + 1/|b| and |J_2| = 1/|b|.
+	 */
+	static double getStiffnessRatio(Particle p0, Particle p1, Particle p2,
+			double ax, double ay, double az, double bx, double by, double bz, double k) {
+		double A = Math.sqrt(ax*ax + ay*ay + az*az);
+		double B = Math.sqrt(bx*bx + by*by + bz*bz);
+		if (A == 0 || B == 0) return 0;
+		double w0 = p0.store.invMass(p0.index), w1 = p1.store.invMass(p1.index), w2 = p2.store.invMass(p2.index);
+		double ab = 1/A + 1/B;
+		return 0.5 * k * (w0/(A*A) + w1*ab*ab + w2/(B*B));
 	}
 
 	public void display(GL2 gl) {
@@ -84,6 +167,11 @@ public class SpringForceBending implements Force {
 	public boolean contains(Particle p) {
 		return ((p == p0) || (p == p1) || (p == p2));
 	}
+
+	public int getParticles(Particle[] out) {
+		out[0] = p0;  out[1] = p1;  out[2] = p2;
+		return 3;
+	}
 	
     public void setStiffness(double s){
     	this.STIFFNESS = s;
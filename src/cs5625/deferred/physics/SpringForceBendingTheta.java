@@ -8,7 +8,7 @@ import javax.media.opengl.*;
  * 
  * @author Doug James, January 2007
  */
-public class SpringForceBendingTheta implements Force
+public class SpringForceBendingTheta implements ImplicitForce, StiffForce, LocalForce
 {
     Particle p0;
     Particle p1;
@@ -16,6 +16,9 @@ public class SpringForceBendingTheta implements Force
     Vector3d v;
     double STIFFNESS = Constants.STIFFNESS_BEND;
 
+    /** Total rest length of the chain. */
+    final double L;
+
     /** 
      * Constructs a bending force affecting the angle implied by the
      * three-particle chain, p0-p1-p2.  
@@ -29,58 +32,72 @@ public class SpringForceBendingTheta implements Force
 	this.p1 = p1;
 	this.p2 = p2;
 	this.v = v;
+	this.L = p1.restDistance(p0) + p2.restDistance(p1);
     }
 
     public void applyForce()
     {
 	{
 	    /// VECTORS: a=x1-x0, b=x2-x1:
-	    Vector3d a  = new Vector3d();  a.sub(p1.x, p0.x);
-	    Vector3d b  = new Vector3d();  b.sub(p2.x, p1.x);
-	    a.sub(v);
-
-	    double L  = p1.x0.distance(p0.x0) + p2.x0.distance(p1.x0);
-
-	    double A  = a.length();
-	    double B  = b.length();
-	    double a2 = A*A;
-	    double b2 = B*B;
+	    ParticleStore s0 = p0.store, s1 = p1.store, s2 = p2.store;
+	    int i0 = 3*p0.index, i1 = 3*p1.index, i2 = 3*p2.index;
+	    double[] x0 = s0.x, x1 = s1.x, x2 = s2.x;
+	    double ax = x1[i1]-x0[i0], ay = x1[i1+1]-x0[i0+1], az = x1[i1+2]-x0[i0+2];
+	    double bx = x2[i2]-x1[i1], by = x2[i2+1]-x1[i1+1], bz = x2[i2+2]-x1[i1+2];
+	    ax -= v.x;  ay -= v.y;  az -= v.z;
+
+	    double A = Math.sqrt(ax*ax + ay*ay + az*az);
+	    double B = Math.sqrt(bx*bx + by*by + bz*bz);
+	    double a2 = A * A;
+	    double b2 = B * B;
 
 	    /// FORCE CONSTANT:
-	    double a_b = a.dot(b) ;
-	    double   k = this.STIFFNESS / L;
-	    double   c = 0.5 * k / (A * B);
-
-	    Vector3d f0 = new Vector3d();
-	    Vector3d f1 = new Vector3d(); 
-	    Vector3d f2 = new Vector3d();
+	    double a_b = ax*bx + ay*by + az*bz;
+	    double k = this.STIFFNESS / L;
+	    double c = 0.5 * k / (A * B);
 
-	    /// f0 = c * ( b - a_b/a2 a ) 
-	    Utils.acc(f0, c, b);
-	    Utils.acc(f0, -c*a_b/a2, a);
+	    /// f0 = c * ( b - a_b/a2 a )
+	    double ca = -c * a_b / a2;
+	    double f0x = c*bx + ca*ax, f0y = c*by + ca*ay, f0z = c*bz + ca*az;
 
 	    /// f2 = c * ( -a + a_b/b2 b )
-	    Utils.acc(f2, -c, a);
-	    Utils.acc(f2, c*a_b/b2, b);
-
-	    // f1 = -(f0 + f2)
-	    f1.add(f0);
-	    f1.add(f2);
-	    f1.negate();
-
-	    /// MINUS SIGN BUG: NEGATE ALL FORCES:
-	    f0.negate();
-	    f1.negate();
-	    f2.negate();
-
-	    /// ACCUMULATE FORCES:
-	    p0.f.add(f0);
-	    p1.f.add(f1);
-	    p2.f.add(f2);
+	    double cb = c * a_b / b2;
+	    double f2x = -c*ax + cb*bx, f2y = -c*ay + cb*by, f2z = -c*az + cb*bz;
+
+	    /// f1 = -(f0 + f2), AND MINUS SIGN BUG: NEGATE ALL FORCES:
+	    double[] F0 = s0.f, F1 = s1.f, F2 = s2.f;
+	    F0[i0] -= f0x;  F0[i0+1] -= f0y;  F0[i0+2] -= f0z;
+	    F1[i1] += f0x + f2x;  F1[i1+1] += f0y + f2y;  F1[i1+2] += f0z + f2z;
+	    F2[i2] -= f2x;  F2[i2+1] -= f2y;  F2[i2+2] -= f2z;
 	    /// SKIP DAMPING (YOU MAY WANT TO ADD IT)
 	}
     }
 
+    public void addJacobian(BackwardEulerIntegrator S)
+    {
+	double[] x0 = p0.store.x, x1 = p1.store.x, x2 = p2.store.x;
+	int i0 = 3*p0.index, i1 = 3*p1.index, i2 = 3*p2.index;
+	SpringForceBending.addJacobian(S, p0, p1, p2,
+		x1[i1]-x0[i0]-v.x, x1[i1+1]-x0[i0+1]-v.y, x1[i1+2]-x0[i0+2]-v.z,
+		x2[i2]-x1[i1], x2[i2+1]-x1[i1+1], x2[i2+2]-x1[i1+2],
+		this.STIFFNESS / L);
+    }
+
+    public double getStiffnessRatio()
+    {
+	double[] x0 = p0.store.x, x1 = p1.store.x, x2 = p2.store.x;
+	int i0 = 3*p0.index, i1 = 3*p1.index, i2 = 3*p2.index;
+	return SpringForceBending.getStiffnessRatio(p0, p1, p2,
+		x1[i1]-x0[i0]-v.x, x1[i1+1]-x0[i0+1]-v.y, x1[i1+2]-x0[i0+2]-v.z,
+		x2[i2]-x1[i1], x2[i2+1]-x1[i1+1], x2[i2+2]-x1[i1+2],
+		this.STIFFNESS / L);
+    }
+
+    public double getDampingRatio()
+    {
+	return 0;
+    }
+
     public void display(GL2 gl)
     {
 	///... 
@@ -90,6 +107,12 @@ public class SpringForceBendingTheta implements Force
     { 
 	return ((p==p0) || (p==p1) || (p==p2));
     }
+
+    public int getParticles(Particle[] out)
+    {
+	out[0] = p0;  out[1] = p1;  out[2] = p2;
+	return 3;
+    }
     
     public void setStiffness(double s){
     	this.STIFFNESS = s;
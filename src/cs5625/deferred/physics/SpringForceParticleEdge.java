@@ -13,7 +13,7 @@ import javax.media.opengl.*;
  * updated to 3d by
  * @author homoflashmanicus
  */
-public class SpringForceParticleEdge implements Force
+public class SpringForceParticleEdge implements LocalForce
 {	
 	/** Free Point */
 	public Particle p1;
@@ -35,6 +35,11 @@ public class SpringForceParticleEdge implements Force
 	
 	ParticleSystem PS;
 
+	/** Scratch storage for force computation (avoids per-call allocation). */
+	private final Point3d x1 = new Point3d(), x2 = new Point3d(), x3 = new Point3d();
+	private final Vector3d a = new Vector3d(), b = new Vector3d(), n = new Vector3d();
+	private final Vector3d v = new Vector3d(), w = new Vector3d(), bn = new Vector3d(), g = new Vector3d();
+
 	public SpringForceParticleEdge(Particle p1, SpringForce2Particle ff, ParticleSystem PS)
 	{
 		this.f = ff;
@@ -47,17 +52,17 @@ public class SpringForceParticleEdge implements Force
 
 	public void applyForce()
 	{
+		//GATHER PARTICLE STATE
+		p1.getPosition(x1);
+		p2.getPosition(x2);
+		p3.getPosition(x3);
 		
 		//EVALUATE SEPERATION VECTORS
-		Vector3d a = new Vector3d();
-		Vector3d b = new Vector3d();
-		
-		a.sub(p3.x,p2.x);			//between first and second edge point
-		b.sub(p1.x,p2.x);			//between particle and first edge point
 
-		//COMPUTE NORMAL VECTOR IN THE DIRECTION OF P
-		Vector3d n = new Vector3d();
+		a.sub(x3,x2);			//between first and second edge point
+		b.sub(x1,x2);			//between particle and first edge point
 
+		//COMPUTE NORMAL VECTOR IN THE DIRECTION OF P
 		n.set(a);
 		n.scaleAdd(-n.dot(b), a, b);
 		n.scale(Math.signum(b.dot(n)));
@@ -69,20 +74,22 @@ public class SpringForceParticleEdge implements Force
 		//COMPUTE SEPERATION DISTANCES
 
 		double d = b.dot(n) - ( p1.getRadius() + alpha * p2.getRadius() + (1-alpha) * p3.getRadius() );
-		double dl = p1.x.distance(p2.x) - ( p1.getRadius() + p2.getRadius() );
-		double dr = p1.x.distance(p3.x) - ( p1.getRadius() + p3.getRadius() );
+		double dl = x1.distance(x2) - ( p1.getRadius() + p2.getRadius() );
+		double dr = x1.distance(x3) - ( p1.getRadius() + p3.getRadius() );
 		
 		//THREE CASES:
 		//CHECK IF PARTICLE IS ABOVE EDGE
 		if(0<=alpha && alpha <=1 ){
 			
 			//COMPUTE RELATIVE VELOCITY AT POINT ABOVE EDGE
-			Vector3d v = new Vector3d(p1.v);
-			v.scaleAdd(-1+alpha, p2.v, v);
-			v.scaleAdd(-alpha, p3.v,v);
+			p1.getVelocity(v);
+			p2.getVelocity(w);
+			v.scaleAdd(-1+alpha, w, v);
+			p3.getVelocity(w);
+			v.scaleAdd(-alpha, w,v);
 			
 			//COMPUTE TANGENT VELOCITY DIRECTION FOR FRICTION TERM
-			Vector3d bn = new Vector3d(v);
+			bn.set(v);
 			bn.scaleAdd(-v.dot(n), n, bn);
 			if(bn.length()>0) bn.normalize();
 			
@@ -92,19 +99,20 @@ public class SpringForceParticleEdge implements Force
 			if(d<=h){
 				if (v.dot(n)<0){
 					//REPULSION FORCE
-					Vector3d f = new Vector3d(n);
+					g.set(n);
 					n.scale(REL_STRENGTH * Constants.STIFFNESS_STRETCH * Math.pow((h-d),2));
-					p1.f.add(f, p1.f);
-					p2.f.scaleAdd(-alpha, f, p2.f);
-					p3.f.scaleAdd(-(1-alpha),f, p3.f);
+					p1.addForce(g);
+					p2.addForce(-alpha, g);
+					p3.addForce(-(1-alpha),g);
 				}
-				if (bn.length()>0 && p1.f.dot(n)<0){	
+				p1.getForce(w);
+				if (bn.length()>0 && w.dot(n)<0){	
 					//KINETIC FRICTION FORCE
-					Vector3d f = new Vector3d(bn);
-					f.scale(Constants.KINETIC_FRICTION * p1.f.dot(n));
-					p1.f.add(f, p1.f);	
-					p2.f.scaleAdd(-alpha , f, p1.f);
-					p3.f.scaleAdd(-(1-alpha),f, p3.f);
+					g.set(bn);
+					g.scale(Constants.KINETIC_FRICTION * w.dot(n));
+					p1.addForce(g);	
+					p2.addForce(-alpha , g);
+					p3.addForce(-(1-alpha),g);
 				}
 				
 			}			
@@ -112,30 +120,32 @@ public class SpringForceParticleEdge implements Force
 		//CHECK IF PARTICLE IS NEAR THE LEFT EDGE ENDPOINT
 		else if(dl<h){
 			//COMPUTE NORMAL VECTOR AND RELATIVE VELOCITY OF THE TWO POINTS
-			n.sub(p1.x,p2.x);
-			Vector3d v = new Vector3d(p1.v);
-			v.sub(p2.v);
+			n.sub(x1,x2);
+			p1.getVelocity(v);
+			p2.getVelocity(w);
+			v.sub(w);
 			//SEPERATION BETWEEN POINTS
 			if(v.dot(n)<0){
-				Vector3d f = new Vector3d(n);
-				f.scale(REL_STRENGTH * Constants.STIFFNESS_STRETCH * Math.pow((h-dl),2)+ Constants.DAMPING_MASS*v.dot(n));
-				p1.f.add(f , p1.f);
-				p2.f.scaleAdd(-1, f, p2.f);
+				g.set(n);
+				g.scale(REL_STRENGTH * Constants.STIFFNESS_STRETCH * Math.pow((h-dl),2)+ Constants.DAMPING_MASS*v.dot(n));
+				p1.addForce(g);
+				p2.addForce(-1, g);
 			}
 		}
 		//CHECK IF PARTICLE IS NEAR THE RIGHT EDGE ENDPOINT
 		else if(dr<h){
 			//COMPUTE NORMAL VECTOR AND RELATIVE VELOCITY OF THE TWO POINTS
-			n.sub(p1.x,p3.x);
-			Vector3d v = new Vector3d(p1.v);
-			v.sub(p3.v);
+			n.sub(x1,x3);
+			p1.getVelocity(v);
+			p3.getVelocity(w);
+			v.sub(w);
 			
 			//SEPERATION BETWEEN POINTS
 			if(v.dot(n)<0){
-				Vector3d f = new Vector3d(n);
-				f.scale(REL_STRENGTH * Constants.STIFFNESS_STRETCH * Math.pow((h-dr),2)+ Constants.DAMPING_MASS*v.dot(n));
-				p1.f.add(f , p1.f);
-				p3.f.scaleAdd(-1, f, p3.f);
+				g.set(n);
+				g.scale(REL_STRENGTH * Constants.STIFFNESS_STRETCH * Math.pow((h-dr),2)+ Constants.DAMPING_MASS*v.dot(n));
+				p1.addForce(g);
+				p3.addForce(-1, g);
 
 			}
 		}
@@ -146,6 +156,11 @@ public class SpringForceParticleEdge implements Force
 
 	}
 
+	public int getParticles(Particle[] out) {
+		out[0] = p1;  out[1] = p2;  out[2] = p3;
+		return 3;
+	}
+
 	public boolean contains(Particle p)  { 
 		return ((p==p1) || (p==p2));
 	}
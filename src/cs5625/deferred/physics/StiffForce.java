@@ -0,0 +1,19 @@
+package cs5625.deferred.physics;
+
+/**
+ * A force that can report how stiff it currently is, so that
+ * ParticleSystem.advanceFrame() can bound the stable time step of the
+ * explicit integrator. Forces that do not implement this do not limit the
+ * step.
+ */
+public interface StiffForce extends Force
+{
+	/**
+	 * Returns the largest squared natural frequency (stiffness over mass)
+	 * of the force at the current state, ignoring pinned particles.
+	 */
+	public double getStiffnessRatio();
+
+	/** Returns the largest velocity damping rate (damping over mass). */
+	public double getDampingRatio();
+}
@@ -56,4 +56,23 @@ public class Utils
 
 	return result;
     }
+
+    /**
+     * Inverts the 3x3 matrix stored row-major in M[o..o+8], writing the
+     * result into R[p..p+8]. Returns false (leaving R unchanged) if M is singular.
+     */
+    public static boolean invert3(double[] M, int o, double[] R, int p)
+    {
+	double a = M[o],   b = M[o+1], c = M[o+2];
+	double d = M[o+3], e = M[o+4], f = M[o+5];
+	double g = M[o+6], h = M[o+7], i = M[o+8];
+	double A = e*i - f*h, B = f*g - d*i, C = d*h - e*g;
+	double det = a*A + b*B + c*C;
+	if(det == 0 || Double.isNaN(det)) return false;
+	double s = 1.0 / det;
+	R[p]   = s*A;  R[p+1] = s*(c*h - b*i);  R[p+2] = s*(b*f - c*e);
+	R[p+3] = s*B;  R[p+4] = s*(a*i - c*g);  R[p+5] = s*(c*d - a*f);
+	R[p+6] = s*C;  R[p+7] = s*(b*g - a*h);  R[p+8] = s*(a*e - b*d);
+	return true;
+    }
 }
@@ -0,0 +1,111 @@
+package cs5625.deferred.physics;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Vector3d;
+
+/**
+ * Extended position-based dynamics (Macklin et al. 2016) time step.
+ * <pre>
+ * Velocities are advanced with the forces that are not replaced by a
+ * constraint, positions are predicted, and then every Constraint and the
+ * ground contacts are projected, Gauss-Seidel style, for a fixed number of
+ * iterations (Constants.XPBD_ITERATIONS). Velocities are finally taken as
+ * the change in position over the step. Because stiffness enters through
+ * the compliance rather than the force, the step stays stable at one step
+ * per frame; the iteration count trades stiffness for speed.
+ * </pre>
+ */
+public class XPBDSolver
+{
+	/** Positions at the start of the step. */
+	private double[] xPrev = new double[0];
+
+	/** Scratch ground normal. */
+	private final Vector3d n = new Vector3d();
+
+	/**
+	 * Advances the system by h. Expects the forces at the current state
+	 * (without the replaced ones) to be accumulated in the store already.
+	 */
+	void step(ParticleSystem PS, double h)
+	{
+		ParticleStore store = PS.store;
+		int N = 3*store.n;
+		double[] x = store.x, v = store.v, f = store.f, m = store.m;
+		boolean[] pin = store.pin;
+		if (xPrev.length < N) xPrev = new double[Math.max(N, 2*xPrev.length)];
+
+		/// PREDICT:
+		System.arraycopy(x, 0, xPrev, 0, N);
+		for (int i = 0, k = 0; i < store.n; i++, k += 3) {
+			if (pin[i]) {
+				v[k] = v[k+1] = v[k+2] = 0;
+				continue;
+			}
+			double s = h/m[i];
+			v[k]   += s * f[k];
+			v[k+1] += s * f[k+1];
+			v[k+2] += s * f[k+2];
+			x[k]   += h * v[k];
+			x[k+1] += h * v[k+1];
+			x[k+2] += h * v[k+2];
+		}
+
+		/// PROJECT CONSTRAINTS:
+		ArrayList<Constraint> C = PS.C;
+		for (int c = 0; c < C.size(); c++) C.get(c).initialize(h);
+		for (int it = 0; it < Constants.XPBD_ITERATIONS; it++) {
+			for (int c = 0; c < C.size(); c++) C.get(c).project();
+			projectGround(PS);
+		}
+
+		/// UPDATE VELOCITIES:
+		double s = 1/h;
+		for (int i = 0, k = 0; i < store.n; i++, k += 3) {
+			if (pin[i]) continue;
+			v[k]   = s * (x[k]   - xPrev[k]);
+			v[k+1] = s * (x[k+1] - xPrev[k+1]);
+			v[k+2] = s * (x[k+2] - xPrev[k+2]);
+		}
+	}
+
+	/**
+	 * Moves unpinned particles out of each ground surface along its normal,
+	 * and removes part of their tangential motion over the step (kinetic
+	 * friction, proportional to the penetration depth).
+	 */
+	private void projectGround(ParticleSystem PS)
+	{
+		ArrayList<HeightField> G = PS.G;
+		if (G.isEmpty()) return;
+
+		ParticleStore store = PS.store;
+		double[] x = store.x, radius = store.radius;
+		boolean[] pin = store.pin;
+		for (int g = 0; g < G.size(); g++) {
+			HeightField ground = G.get(g);
+			for (int i = 0, k = 0; i < store.n; i++, k += 3) {
+				if (pin[i]) continue;
+
+				double height = ground.getHeight(x[k], x[k+2]);
+				if (Double.isNaN(height)) continue;
+				ground.getNormal(x[k], x[k+2], n);
+				double d = (x[k+1] - height) * n.y - radius[i];
+				if (d >= 0) continue;
+
+				x[k] -= d * n.x;  x[k+1] -= d * n.y;  x[k+2] -= d * n.z;
+
+				/// FRICTION: SHORTEN THE TANGENTIAL DISPLACEMENT OVER THE STEP
+				double dx = x[k]-xPrev[k], dy = x[k+1]-xPrev[k+1], dz = x[k+2]-xPrev[k+2];
+				double dn = dx*n.x + dy*n.y + dz*n.z;
+				dx -= dn*n.x;  dy -= dn*n.y;  dz -= dn*n.z;
+				double t = Math.sqrt(dx*dx + dy*dy + dz*dz);
+				if (t > 0) {
+					double c = Math.min(1, Constants.KINETIC_FRICTION * (-d) / t);
+					x[k] -= c*dx;  x[k+1] -= c*dy;  x[k+2] -= c*dz;
+				}
+			}
+		}
+	}
+}
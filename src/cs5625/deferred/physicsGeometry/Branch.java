@@ -8,6 +8,8 @@ import cs5625.deferred.materials.BarkMaterial;
 import cs5625.deferred.materials.Texture2D;
 import cs5625.deferred.physics.Particle;
 import cs5625.deferred.physics.ParticleSystem;
+import cs5625.deferred.physics.BendingConstraint;
+import cs5625.deferred.physics.DistanceConstraint;
 import cs5625.deferred.physics.SpringForce2Particle;
 import cs5625.deferred.physics.SpringForceBendingTheta;
 import cs5625.deferred.physics.SpringForceParticleEdge;
@@ -27,6 +29,10 @@ public class Branch extends PhysicsGeometry
 	private int nControlPoints;
 	public Particle topParticle;
 	private boolean addLeaves = false;
+	/** Picks the subdivision level from screen size; the control mesh is refined at that level every frame. */
+	private SubdivisionLOD lod;
+	/** Control mesh, rewritten in place from the control points every frame. */
+	private Branchmesh cage;
 	
 	public Branch(int nControlPoints,float baseRadius, float tipRadious, int numSubdivisions ){
 
@@ -41,10 +47,12 @@ public class Branch extends PhysicsGeometry
 		this.baseRadius = baseRadius;
 		this.nControlPoints = nControlPoints;
 		this.numSubdivisions = numSubdivisions;
-		Branchmesh branchmesh = new Branchmesh(getControlPoints(), baseRadius, tipRadius);		
-		branchmesh.subdivide(numSubdivisions);
-		branchmesh.calculateTangentVectors();
-		this.mMeshes.add( branchmesh );
+		cage = new Branchmesh(getControlPoints(), baseRadius, tipRadius);
+		lod = SubdivisionLOD.catmullClark(numSubdivisions);
+		Mesh mesh = lod.refine(cage);
+		bindSkin(mesh);
+		mesh.calculateTangentVectors();
+		this.mMeshes.add( mesh );
 		((Mesh) this.mMeshes.get(0)).setMaterial(material);
 		
 		//Optionally add leaves to the the branch 
@@ -70,6 +78,7 @@ public class Branch extends PhysicsGeometry
 		for (int i = 0; i<getControlParticles().size() - 1; i++){
 			SpringForce2Particle f = new SpringForce2Particle(getControlParticles().get(i), getControlParticles().get(i+1), PS);
 			PS.addForce(f);
+			PS.addConstraint(new DistanceConstraint(f));
 			for (PhysicsGeometry pg : getInteractsWith()){
 				PS.addForce(new SpringForceParticleEdge(pg.getOriginParticle(),f ,PS) );
 			}
@@ -79,6 +88,7 @@ public class Branch extends PhysicsGeometry
 		for (int i = 1; i<getControlParticles().size() - 1; i++){
 			SpringForceBendingTheta f = new SpringForceBendingTheta(getControlParticles().get(i-1), getControlParticles().get(i), getControlParticles().get(i+1), new Vector3d(-0.05 + Math.random()*0.1,-0.05 + Math.random()*0.1,-0.05 + Math.random()*0.1) );
 			PS.addForce(f);
+			PS.addConstraint(new BendingConstraint(f));
 		}
 		
 		//Store quick reference to top Particle
@@ -109,11 +119,16 @@ public class Branch extends PhysicsGeometry
 	{
 		super.animateHelper(dt);
 
-		this.mMeshes.clear();
-		Branchmesh newMesh = new Branchmesh(this.getControlPoints(), baseRadius, tipRadius);
-		newMesh.subdivide(numSubdivisions);
-		newMesh.calculateTangentVectors();
-		this.mMeshes.add( newMesh );
-		((Mesh) this.mMeshes.get(0)).setMaterial(material);	
+		Mesh mesh;
+		if (isSkinned()){
+			mesh = deformSkin();
+		}
+		else{
+			cage.update(this.getControlPoints(), baseRadius, tipRadius);
+			lod.update(this);
+			mesh = lod.refine(cage);
+			showMesh(mesh);
+		}
+		mesh.calculateTangentVectors();
 	}
 }
\ No newline at end of file
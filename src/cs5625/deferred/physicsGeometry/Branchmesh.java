@@ -1,6 +1,8 @@
 package cs5625.deferred.physicsGeometry;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import javax.vecmath.Point3f;
 import javax.vecmath.Vector3f;
@@ -20,13 +22,28 @@ import cs5625.deferred.scenegraph.Quadmesh;
  */
 public class Branchmesh extends Quadmesh {
 
+	/** Polygons of branches, by number of control points; shared, never written. */
+	private static final HashMap<Integer, IntBuffer> polygons = new HashMap<Integer, IntBuffer>();
+
+	private int nControlPoints = -1;
+
 	public Branchmesh(ArrayList<Point3f> ControlPoints, float bottomRadius , float topRadius ) {
+		update(ControlPoints, bottomRadius, topRadius);
+		setName("TreeTrunk");
+	}
 
-		// Allocate buffers for all data.
-		mVertexData   = Buffers.newDirectFloatBuffer(3 * 4 * ControlPoints.size());
-		mNormalData   = Buffers.newDirectFloatBuffer(3 * 4 * ControlPoints.size());
-		mTexCoordData = Buffers.newDirectFloatBuffer(2 * 4 * ControlPoints.size());
-		mPolygonData  = Buffers.newDirectIntBuffer(4 * 4 * (ControlPoints.size() -1 ) + 4); //+1 for the top and bottom
+	/**
+	 * Rewrites positions and normals for new control points (and radii), into
+	 * the buffers this branch already has. Buffers are only allocated when the
+	 * number of control points changes; texture coordinates and polygons
+	 * depend on nothing else.
+	 */
+	public void update(ArrayList<Point3f> ControlPoints, float bottomRadius , float topRadius ) {
+		if (ControlPoints.size() != nControlPoints){
+			allocate(ControlPoints.size());
+		}
+		mVertexData.rewind();
+		mNormalData.rewind();
 
 		// Getting normals
 		int n = ControlPoints.size();
@@ -137,7 +154,27 @@ public class Branchmesh extends Quadmesh {
 				mNormalData.put(normalDir.y);
 				mNormalData.put(normalDir.z);
 			}
-			
+		}
+
+		mVertexData.rewind();
+		mNormalData.rewind();
+		markVertexDataDirty();
+	}
+
+	/**
+	 * Allocates position, normal and texture coordinate buffers for n control
+	 * points, fills in the texture coordinates and picks up the shared polygons.
+	 */
+	private void allocate(int n) {
+		nControlPoints = n;
+
+		// Allocate buffers for all data.
+		mVertexData   = Buffers.newDirectFloatBuffer(3 * 4 * n);
+		mNormalData   = Buffers.newDirectFloatBuffer(3 * 4 * n);
+		mTexCoordData = Buffers.newDirectFloatBuffer(2 * 4 * n);
+		mPolygonData  = getPolygons(n);
+
+		for (int i = 0; i<n; i++){
 			//ADD TEXTURE COORDINATES.  THE BOUND TEXTURE WILL BE MAPPED TO EACH FACE OF THE BRANCH (BEFORE SUBDIVISION)
 			if (i % 2 == 0){
 				mTexCoordData.put(0f);
@@ -160,31 +197,33 @@ public class Branchmesh extends Quadmesh {
 				mTexCoordData.put(1f);
 			}
 		}
+		mTexCoordData.rewind();
+	}
 
-		for (int i = 0; i<ControlPoints.size()-1; i++){
-			for(int j = 0; j<4; j++){
+	private static synchronized IntBuffer getPolygons(int n) {
+		IntBuffer polygonData = polygons.get(n);
+		if (polygonData == null){
+			polygonData = Buffers.newDirectIntBuffer(4 * 4 * (n -1 ) + 4); //+1 for the top and bottom
+			for (int i = 0; i<n-1; i++){
+				for(int j = 0; j<4; j++){
 
-				int jj = (j+1)%4;
-				mPolygonData.put(i*4+j); 
-				mPolygonData.put(i*4+jj); 	
-				mPolygonData.put((i+1)*4+jj);	
-				mPolygonData.put((i+1)*4+j); 
+					int jj = (j+1)%4;
+					polygonData.put(i*4+j); 
+					polygonData.put(i*4+jj); 	
+					polygonData.put((i+1)*4+jj);	
+					polygonData.put((i+1)*4+j); 
 
+				}
 			}
-		}
-
-		mPolygonData.put(4 * ControlPoints.size()-1);
-		mPolygonData.put(4 * ControlPoints.size()-2);
-		mPolygonData.put(4 * ControlPoints.size()-3);
-		mPolygonData.put(4 * ControlPoints.size()-4);
-
-
-		setName("TreeTrunk");
-		mVertexData.rewind();
-		mNormalData.rewind();
-		mTexCoordData.rewind();
-		mPolygonData.rewind();
 
+			polygonData.put(4 * n-1);
+			polygonData.put(4 * n-2);
+			polygonData.put(4 * n-3);
+			polygonData.put(4 * n-4);
+			polygonData.rewind();
+			polygons.put(n, polygonData);
+		}
+		return polygonData;
 	}
 
 }
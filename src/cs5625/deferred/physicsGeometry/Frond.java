@@ -7,7 +7,9 @@ import javax.vecmath.Vector3d;
 
 import cs5625.deferred.materials.LambertianMaterial;
 import cs5625.deferred.materials.Material;
+import cs5625.deferred.physics.BendingConstraint;
 import cs5625.deferred.physics.Constants;
+import cs5625.deferred.physics.DistanceConstraint;
 import cs5625.deferred.physics.Particle;
 import cs5625.deferred.physics.ParticleSystem;
 import cs5625.deferred.physics.SpringForce2Particle;
@@ -22,6 +24,11 @@ public class Frond extends PhysicsGeometry
 	private Material material = new LambertianMaterial(new Color3f(110f/255f , 139f/255f, 61f/255f));
 	private float bottomtopWidth  = 0.1f;
 	private float topWidth = 0.01f;
+	/** Picks the subdivision level from screen size; the control mesh is refined at that level every frame. */
+	private SubdivisionLOD lod;
+	/** Control mesh, rewritten in place from the control points every frame. */
+	private Branchmesh cage;
+
 	public Frond(int nLeavesPerFrond, int numSubdivisions){
 		
 		this.numSubdivisions = numSubdivisions;
@@ -33,9 +40,11 @@ public class Frond extends PhysicsGeometry
 			this.addControlPoint(new Point3f(point));
 		}
 		
-		Branchmesh branchmesh = new Branchmesh(this.getControlPoints(), bottomtopWidth, topWidth);
-		branchmesh.subdivide(numSubdivisions);
-		this.mMeshes.add( branchmesh );
+		cage = new Branchmesh(this.getControlPoints(), bottomtopWidth, topWidth);
+		lod = SubdivisionLOD.catmullClark(numSubdivisions);
+		Mesh mesh = lod.refine(cage);
+		bindSkin(mesh);
+		this.mMeshes.add( mesh );
 		((Mesh) this.mMeshes.get(0)).setMaterial(material);
 		
         for (int i =0; i<getControlPoints().size(); i++ ){
@@ -64,12 +73,14 @@ public class Frond extends PhysicsGeometry
 		for (int i = 0; i<getControlParticles().size() - 1; i++){
 			SpringForce2Particle f = new SpringForce2Particle(getControlParticles().get(i), getControlParticles().get(i+1), PS);
 			PS.addForce(f);
+			PS.addConstraint(new DistanceConstraint(f));
 		}
 		
 		for (int i = 1; i<getControlParticles().size() - 1; i++){
 			SpringForceBendingTheta f = new SpringForceBendingTheta(getControlParticles().get(i-1), getControlParticles().get(i), getControlParticles().get(i+1), new Vector3d(0,0,0) );
 			f.setStiffness(Constants.STIFFNESS_BEND * 0.5);
 			PS.addForce(f);
+			PS.addConstraint(new BendingConstraint(f));
 		}
 	}
 	
@@ -78,10 +89,15 @@ public class Frond extends PhysicsGeometry
 	{
 		super.animateHelper(dt);
 
-		this.mMeshes.clear();
-		Branchmesh newtree = new Branchmesh(this.getControlPoints(), bottomtopWidth, topWidth);
-		newtree.subdivide(numSubdivisions);
-		this.mMeshes.add( newtree );
-		((Mesh) this.mMeshes.get(0)).setMaterial(material);		
+		Mesh mesh;
+		if (isSkinned()){
+			mesh = deformSkin();
+		}
+		else{
+			cage.update(this.getControlPoints(), bottomtopWidth, topWidth);
+			lod.update(this);
+			mesh = lod.refine(cage);
+			showMesh(mesh);
+		}
 	}
 }
\ No newline at end of file
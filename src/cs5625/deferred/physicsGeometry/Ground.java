@@ -2,48 +2,110 @@ package cs5625.deferred.physicsGeometry;
 
 import java.io.IOException;
 
+import javax.vecmath.Point3d;
 import javax.vecmath.Point3f;
+import javax.vecmath.Vector3d;
 
 import cs5625.deferred.materials.SandDuneMaterial;
+import cs5625.deferred.physics.HeightField;
 import cs5625.deferred.physics.Particle;
 import cs5625.deferred.physics.ParticleSystem;
-import cs5625.deferred.physics.PenaltyForceParticlePlane3;
 import cs5625.deferred.rendering.Renderer;
-import cs5625.deferred.scenegraph.Mesh;
 import cs5625.deferred.scenegraph.Quadmesh;
 
-public class Ground extends PhysicsGeometry {
-		
+/**
+ * Ground plane. Collides with particles as a HeightField: the plane through
+ * its first three control particles, bounded by the xz extent of all of them.
+ * 
+ * The plane model is refined into a regular grid of resolution x resolution
+ * quads directly (Quadmesh.subdivideToGrid); a non-planar model falls back to
+ * Catmull-Clark subdivision to at least that resolution.
+ */
+public class Ground extends PhysicsGeometry implements HeightField {
+
+	/** World-space contact plane (point and upward unit normal) and its xz bounds. */
+	private Point3d planePoint = new Point3d();
+	private Vector3d planeNormal = new Vector3d(0, 1, 0);
+	private double minX, maxX, minZ, maxZ;
+
+	/** Default grid resolution, as 8 levels of subdivision used to give. */
+	public static final int DEFAULT_RESOLUTION = 256;
+
 	public Ground(Renderer mRenderer){
+		this(mRenderer, DEFAULT_RESOLUTION);
+	}
+
+	public Ground(Renderer mRenderer, int resolution){
 		try {
-			Mesh groundMesh = Ground.load("models/bigplane.obj", false, true).get(0).getMeshes().get(0);
-			((Quadmesh) groundMesh).subdivide(8);
+			Quadmesh groundMesh = (Quadmesh) Ground.load("models/bigplane.obj", false, true).get(0).getMeshes().get(0);
+			if (!groundMesh.subdivideToGrid(resolution)){
+				int levels = 0;
+				while ((1 << levels) < resolution) levels++;
+				groundMesh.subdivide(levels);
+			}
 			groundMesh.setMaterial(new SandDuneMaterial(mRenderer));
 			this.addMesh(groundMesh);
-			
-			addControlPoint( new Point3f(60,0,0)); 
-			addControlPoint(new Point3f(-60,0,0)); 
-			addControlPoint(new Point3f(0,0,-60)); 
-			addControlPoint(new Point3f(-60,0,60)); 
-			
+
+			addControlPoint( new Point3f(60,0,0));
+			addControlPoint(new Point3f(-60,0,0));
+			addControlPoint(new Point3f(0,0,-60));
+			addControlPoint(new Point3f(-60,0,60));
+
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-	
-	
+
+
 	public void addToParticleSystemHelper(ParticleSystem PS){
 		super.addToParticleSystemHelper(PS);
-		for (PhysicsGeometry pg : getInteractsWith()){
-			for(Particle p : pg.getControlParticles()){
-				PS.addForce(new PenaltyForceParticlePlane3(p, getControlParticles().get(0), getControlParticles().get(1), getControlParticles().get(2), PS )  );
-				PS.addForce(new PenaltyForceParticlePlane3(p, getControlParticles().get(2), getControlParticles().get(3), getControlParticles().get(0), PS )  );
-			}
-			//Initialize global face particle forces
-			PS.addForce(new PenaltyForceParticlePlane3(pg.getOriginParticle(), getControlParticles().get(0), getControlParticles().get(1), getControlParticles().get(2), PS ) );
-			PS.addForce(new PenaltyForceParticlePlane3(pg.getOriginParticle(), getControlParticles().get(2), getControlParticles().get(3), getControlParticles().get(0), PS ) );
+		updateContactPlane();
+		PS.addGround(this);
+	}
+
+	@Override
+	public void animateHelper(float dt){
+		super.animateHelper(dt);
+		updateContactPlane();
+	}
+
+	/** Recomputes the contact plane from the (world-space) control particles. */
+	private void updateContactPlane(){
+		if (getControlParticles().size() < 3) return;
+
+		Point3d a = new Point3d(), b = new Point3d(), c = new Point3d();
+		getControlParticles().get(0).getPosition(a);
+		getControlParticles().get(1).getPosition(b);
+		getControlParticles().get(2).getPosition(c);
+
+		Vector3d ab = new Vector3d(), ac = new Vector3d(), n = new Vector3d();
+		ab.sub(b, a);
+		ac.sub(c, a);
+		n.cross(ab, ac);
+		n.normalize();
+		if (n.y < 0) n.negate();
+
+		minX = minZ = Double.MAX_VALUE;
+		maxX = maxZ = -Double.MAX_VALUE;
+		Point3d x = new Point3d();
+		for (Particle p : getControlParticles()){
+			p.getPosition(x);
+			minX = Math.min(minX, x.x);  maxX = Math.max(maxX, x.x);
+			minZ = Math.min(minZ, x.z);  maxZ = Math.max(maxZ, x.z);
 		}
+
+		planePoint.set(a);
+		planeNormal.set(n);
 	}
 
+	@Override
+	public double getHeight(double x, double z){
+		if (x < minX || x > maxX || z < minZ || z > maxZ || planeNormal.y <= 0) return Double.NaN;
+		return planePoint.y - (planeNormal.x * (x - planePoint.x) + planeNormal.z * (z - planePoint.z)) / planeNormal.y;
+	}
 
+	@Override
+	public void getNormal(double x, double z, Vector3d normal){
+		normal.set(planeNormal);
+	}
 }
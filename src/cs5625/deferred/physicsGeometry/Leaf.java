@@ -6,6 +6,8 @@ import javax.vecmath.Vector3d;
 
 import cs5625.deferred.materials.LambertianMaterial;
 import cs5625.deferred.materials.Material;
+import cs5625.deferred.physics.BendingConstraint;
+import cs5625.deferred.physics.DistanceConstraint;
 import cs5625.deferred.physics.Particle;
 import cs5625.deferred.physics.ParticleSystem;
 import cs5625.deferred.physics.SpringForce2Particle;
@@ -18,6 +20,10 @@ public class Leaf extends PhysicsGeometry
 	private int numSubdivisions = 1;
 	private float width = 0f;
 	private Material material = new LambertianMaterial(new Color3f(0.10f, 0.70f, 0.10f)) ;
+	/** Picks the subdivision level from screen size; the control mesh is refined at that level every frame. */
+	private SubdivisionLOD lod;
+	/** Control mesh, rewritten in place from the control points every frame. */
+	private Leafmesh cage;
 	
 	public Leaf(float height, float width, int lod){
 		this.width = width;
@@ -30,9 +36,12 @@ public class Leaf extends PhysicsGeometry
 		// Middle point
 		this.addControlPoint(new Point3f(0f,-height*width/10f,height/4f));
 		
-		Leafmesh newleaf = new Leafmesh(getControlPoints(), width);
-		newleaf.subdivide(numSubdivisions);
-		this.mMeshes.add( newleaf );
+		cage = new Leafmesh(getControlPoints(), width);
+		this.lod = SubdivisionLOD.loop(numSubdivisions);
+		Mesh mesh = this.lod.refine(cage);
+		//the stem runs bottom, middle, top
+		bindSkin(mesh, new int[] {0, 2, 1});
+		this.mMeshes.add( mesh );
 		((Mesh) this.mMeshes.get(0)).setMaterial(material);
 	}
 
@@ -53,23 +62,30 @@ public class Leaf extends PhysicsGeometry
 		// Adding spring force bottom -> middle, middle -> top
 		SpringForce2Particle f = new SpringForce2Particle(getControlParticles().get(0), getControlParticles().get(2), PS);
 		PS.addForce(f);
+		PS.addConstraint(new DistanceConstraint(f));
 		f = new SpringForce2Particle(getControlParticles().get(2), getControlParticles().get(1), PS);
 		PS.addForce(f);
+		PS.addConstraint(new DistanceConstraint(f));
 		
 		//Bending on the stem. Angle can be changed
 		SpringForceBendingTheta ff = new SpringForceBendingTheta(getControlParticles().get(0), getControlParticles().get(2), getControlParticles().get(1), new Vector3d(0,1,0));
 		PS.addForce(ff);
+		PS.addConstraint(new BendingConstraint(ff));
 	}
 	
 	@Override
 	public void animateHelper(float dt)
 	{
 		super.animateHelper(dt);
-		this.mMeshes.clear();
-		Leafmesh newtree = new Leafmesh(getControlPoints(), width);
-
-		newtree.subdivide(numSubdivisions);
-		this.mMeshes.add( newtree );
-		((Mesh) this.mMeshes.get(0)).setMaterial(material);
+		Mesh mesh;
+		if (isSkinned()){
+			mesh = deformSkin();
+		}
+		else{
+			cage.update(getControlPoints(), width);
+			lod.update(this);
+			mesh = lod.refine(cage);
+			showMesh(mesh);
+		}
 	}
 }
\ No newline at end of file
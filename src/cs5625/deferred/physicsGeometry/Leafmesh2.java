@@ -1,5 +1,6 @@
 package cs5625.deferred.physicsGeometry;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import javax.vecmath.Point3f;
@@ -7,14 +8,32 @@ import javax.vecmath.Vector3f;
 
 import com.jogamp.common.nio.Buffers;
 
-import cs5625.deferred.datastruct.EdgeDS;
+import cs5625.deferred.datastruct.HalfEdgeMesh;
 import cs5625.deferred.loop.LoopSubdiv;
 import cs5625.deferred.scenegraph.Mesh;
 import cs5625.deferred.scenegraph.Trimesh;
 
 public class Leafmesh2 extends Trimesh {
 	
+	/** Polygons of every leaf (they do not depend on the control points); shared, never written. */
+	private static final IntBuffer POLYGONS = createPolygons();
+	
 	public Leafmesh2(ArrayList<Point3f>list2, float width) {
+		// Allocate buffers for all data.
+		mVertexData   = Buffers.newDirectFloatBuffer(3 * 5);
+		mNormalData   = Buffers.newDirectFloatBuffer(3 * 5);
+		mTexCoordData = Buffers.newDirectFloatBuffer(2 * 5);
+		mPolygonData  = POLYGONS;
+		
+		update(list2, width);
+		setName("TreeLeave");
+	}
+	
+	/**
+	 * Rewrites positions and normals for new control points (and width),
+	 * into the buffers this leaf already has.
+	 */
+	public void update(ArrayList<Point3f>list2, float width) {
 		Point3f vt1 = new Point3f(list2.get(0));
 		Point3f vt2 = new Point3f(list2.get(1));
 		Point3f vt3 = new Point3f(list2.get(2));
@@ -56,11 +75,8 @@ public class Leafmesh2 extends Trimesh {
 			list.add(vt3);
 		}
 
-		// Allocate buffers for all data.
-		mVertexData   = Buffers.newDirectFloatBuffer(3 * 5);
-		mNormalData   = Buffers.newDirectFloatBuffer(3 * 5);
-		mTexCoordData = Buffers.newDirectFloatBuffer(2 * 5);
-		mPolygonData  = Buffers.newDirectIntBuffer( 4 * 3 ); 
+		mVertexData.rewind();
+		mNormalData.rewind();
 		
 		mVertexData.put(list.get(0).x);
 		mVertexData.put(list.get(0).y);
@@ -140,33 +156,38 @@ public class Leafmesh2 extends Trimesh {
 		mNormalData.put(v5.y);
 		mNormalData.put(v5.z);
 		
-		mPolygonData.put(2);
-		mPolygonData.put(4);
-		mPolygonData.put(1);
+		mVertexData.rewind();
+		mNormalData.rewind();
+		markVertexDataDirty();
+	}
+	
+	private static IntBuffer createPolygons() {
+		IntBuffer polygons = Buffers.newDirectIntBuffer( 4 * 3 );
 		
-		mPolygonData.put(0);
-		mPolygonData.put(1);
-		mPolygonData.put(4);
+		polygons.put(2);
+		polygons.put(4);
+		polygons.put(1);
 		
-		mPolygonData.put(2);
-		mPolygonData.put(3);
-		mPolygonData.put(4);
+		polygons.put(0);
+		polygons.put(1);
+		polygons.put(4);
 		
-		mPolygonData.put(0);
-		mPolygonData.put(4);
-		mPolygonData.put(3);
+		polygons.put(2);
+		polygons.put(3);
+		polygons.put(4);
 		
-		setName("TreeLeave");
-		mVertexData.rewind();
-		mNormalData.rewind();
-		mTexCoordData.rewind();
-		mPolygonData.rewind();
+		polygons.put(0);
+		polygons.put(4);
+		polygons.put(3);
+		
+		polygons.rewind();
+		return polygons;
 	}
 	
 	public void subdivide(int numberofSub){
 		for (int i = 0; i< numberofSub; i++){
-			EdgeDS edgeDS = new EdgeDS(this);
-			LoopSubdiv ccSubdiv = new LoopSubdiv(edgeDS);
+			HalfEdgeMesh hem = new HalfEdgeMesh(this);
+			LoopSubdiv ccSubdiv = new LoopSubdiv(hem);
 			Mesh newMesh = (Trimesh)ccSubdiv.getNewMesh();
 			this.setVertexData(newMesh.getVertexData());
 			this.setEdgeData(newMesh.getEdgeData());
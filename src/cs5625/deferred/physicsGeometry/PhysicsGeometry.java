@@ -9,12 +9,19 @@ import cs5625.deferred.misc.ScenegraphException;
 import cs5625.deferred.physics.Particle;
 import cs5625.deferred.physics.ParticleSystem;
 import cs5625.deferred.scenegraph.Geometry;
+import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.SceneObject;
 
 public class PhysicsGeometry extends Geometry {
 	/** Control points. Used fro creating phyiscs particles. */
 	private ArrayList<Point3f> controlPoints = new ArrayList<Point3f>();	//List of control points in model space
 	private ArrayList<Particle> controlParticles = new ArrayList<Particle>();  //List of particles to be dragged around by geometry 
 	private ArrayList<PhysicsGeometry> interactsWith = new ArrayList<PhysicsGeometry>();	
+	/** Skinned mesh mode: the rest-pose mesh, deformed every frame to follow the control points (see Skin). */
+	private Skin skin = null;
+	private boolean skinned = false;
+	/** Temp space for moving control points to and from world space. */
+	private Point3f tempPoint = new Point3f();
 	
 	public ArrayList<Point3f> getControlPoints(){ return controlPoints; };
 	public ArrayList<Particle> getControlParticles(){ return controlParticles; };
@@ -29,6 +36,60 @@ public class PhysicsGeometry extends Geometry {
 		controlPoints.addAll(pts);
 	}
 	
+	/**
+	 * Turns skinned mesh mode on or off, for this geometry and every
+	 * PhysicsGeometry below it. Geometry that bound a skin then deforms it
+	 * with deformSkin() instead of rebuilding its mesh every frame.
+	 */
+	public void setSkinned(boolean skinned){
+		this.skinned = skinned;
+		for (SceneObject child : getChildren()){
+			if (child instanceof PhysicsGeometry) ((PhysicsGeometry) child).setSkinned(skinned);
+		}
+	}
+	
+	public boolean isSkinned(){
+		return skinned;
+	}
+	
+	/**
+	 * Binds restMesh, refined from the control points as they are now, to
+	 * the control points taken in chain order.
+	 */
+	protected void bindSkin(Mesh restMesh, int[] chain){
+		skin = new Skin(restMesh, controlPoints, chain);
+	}
+	
+	/**
+	 * Binds restMesh to the control points in their own order.
+	 */
+	protected void bindSkin(Mesh restMesh){
+		int[] chain = new int[controlPoints.size()];
+		for (int i = 0; i < chain.length; i++) chain[i] = i;
+		bindSkin(restMesh, chain);
+	}
+	
+	/**
+	 * Deforms the skinned mesh to the current control points, shows it and
+	 * returns it. Requires bindSkin() first.
+	 */
+	protected Mesh deformSkin(){
+		skin.deform(controlPoints);
+		showMesh(skin.getMesh());
+		return skin.getMesh();
+	}
+	
+	/**
+	 * Makes mesh this geometry's (only) mesh, with the material of the one it replaces.
+	 */
+	protected void showMesh(Mesh mesh){
+		Mesh current = mMeshes.get(0);
+		if (mesh != current){
+			mesh.setMaterial(current.getMaterial());
+			mMeshes.set(0, mesh);
+		}
+	}
+	
 	public void pinToPhysicsGeometry(PhysicsGeometry pg, Point3f attachmentPoint){
 		try {
 			this.addChild(pg);
@@ -66,10 +127,11 @@ public class PhysicsGeometry extends Geometry {
 		for (int i = 0; i < n; i++){
 			Particle cp = controlParticles.get(i);
 			if (cp.isPinned() ){
-				controlParticles.get(i).x.set(this.transformPointToWorldSpace(controlPoints.get(i)));
+				cp.setPosition(this.transformPointToWorldSpace(controlPoints.get(i), tempPoint));
 			}
 			else{
-				controlPoints.get(i).set(this.transformPointFromWorldSpace(new Point3f(cp.x)));
+				cp.getPosition(tempPoint);
+				this.transformPointFromWorldSpace(tempPoint, controlPoints.get(i));
 			}
 		}
 	}
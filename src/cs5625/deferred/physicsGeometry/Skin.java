@@ -0,0 +1,303 @@
+package cs5625.deferred.physicsGeometry;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+import javax.vecmath.Point3f;
+
+import cs5625.deferred.scenegraph.Mesh;
+
+/**
+ * Skin.java
+ *
+ * Linear-blend skinning of a refined mesh to the control points of a
+ * PhysicsGeometry, used in place of rebuilding and refining the control mesh
+ * every frame (see PhysicsGeometry.setSkinned).
+ *
+ * The control points, taken in `chain` order, are the joints of a polyline
+ * skeleton. Binding (once, in the rest pose) attaches every vertex to the
+ * nearest point of the rest polyline, with weights 1-s and s on the two
+ * joints of that segment. Each frame, every joint gets the rotation that
+ * turns its rest frame into its current one, about the joint, plus the
+ * joint's displacement; deform() blends the two transforms of each vertex and
+ * writes positions and (renormalized) normals in place into the mesh's own
+ * buffers. Nothing is allocated per frame.
+ *
+ * A joint's frame is its tangent (the direction of the polyline there) and
+ * the normal of its bend plane, through the joint and its neighbouring
+ * control points (the nearest interior joint's, at the ends). The rotation is
+ * the smallest one that turns the rest tangent into the current one, followed
+ * by the twist about the current tangent that carries the rest bend plane
+ * into the current one, so a Leaf turning about its stem turns its blade (as
+ * Leafmesh, which spans the blade across that plane, does). A straight
+ * polyline has no bend plane, and no twist can be read from its points: the
+ * twist fades out as either bend flattens below BEND_MIN, leaving the
+ * smallest rotation (the trunk and fronds, straight at rest, never twist,
+ * just as their rebuilt meshes do not).
+ */
+public class Skin {
+
+	private final Mesh mMesh;
+	private final int[] chain;
+	private final int nJoints, nVertices;
+
+	//rest pose: vertex positions and normals, joints and joint tangents (3 floats each)
+	private final float[] restPositions, restNormals, restJoints, restTangents;
+	//per vertex: first joint (chain index) and weight of the next one
+	private final int[] joint;
+	private final float[] weight;
+
+	//rest bend-plane normals (3 floats each) and sines of the bend angles, per joint
+	private final float[] restBinormals, restBends;
+
+	//current pose, rewritten every frame: joints, tangents, bend-plane normals,
+	//sines of the bend angles and rotations (3x3, row major)
+	private final float[] joints, tangents, binormals, bends, rotations;
+
+	/** Sine of the bend angle below which a bend plane is ignored, as too ill-defined to twist to. */
+	public static float BEND_MIN = 0.05f;
+
+	/**
+	 * Binds mesh, as it is now, to the control points as they are now. The
+	 * mesh is made dynamic, since deform() rewrites it every frame.
+	 */
+	public Skin(Mesh mesh, ArrayList<Point3f> controlPoints, int[] chain)
+	{
+		this.mMesh = mesh;
+		this.mMesh.setDynamic(true);
+		this.chain = chain;
+		this.nJoints = chain.length;
+		this.nVertices = mesh.getVertexCount();
+
+		restPositions = toArray(mesh.getVertexData(), 3 * nVertices);
+		restNormals = (mesh.getNormalData() == null) ? null : toArray(mesh.getNormalData(), 3 * nVertices);
+
+		restJoints = new float[3 * nJoints];
+		restTangents = new float[3 * nJoints];
+		restBinormals = new float[3 * nJoints];
+		restBends = new float[nJoints];
+		joints = new float[3 * nJoints];
+		tangents = new float[3 * nJoints];
+		binormals = new float[3 * nJoints];
+		bends = new float[nJoints];
+		rotations = new float[9 * nJoints];
+		readJoints(controlPoints, restJoints);
+		computeTangents(restJoints, restTangents);
+		computeBinormals(restJoints, restBinormals, restBends);
+
+		//ATTACH EVERY VERTEX TO THE NEAREST SEGMENT OF THE REST SKELETON
+		joint = new int[nVertices];
+		weight = new float[nVertices];
+		for (int i = 0; i < nVertices; i++){
+			float best = Float.MAX_VALUE;
+			for (int k = 0; k + 1 < nJoints; k++){
+				float[] p = restPositions, j = restJoints;
+				float ex = j[3*k+3] - j[3*k], ey = j[3*k+4] - j[3*k+1], ez = j[3*k+5] - j[3*k+2];
+				float dx = p[3*i] - j[3*k], dy = p[3*i+1] - j[3*k+1], dz = p[3*i+2] - j[3*k+2];
+				float len2 = ex*ex + ey*ey + ez*ez;
+				float s = (len2 > 0f) ? Math.max(0f, Math.min(1f, (dx*ex + dy*ey + dz*ez) / len2)) : 0f;
+				dx -= s*ex;  dy -= s*ey;  dz -= s*ez;
+				float dist2 = dx*dx + dy*dy + dz*dz;
+				if (dist2 < best){
+					best = dist2;
+					joint[i] = k;
+					weight[i] = s;
+				}
+			}
+		}
+	}
+
+	public Mesh getMesh()
+	{
+		return mMesh;
+	}
+
+	/**
+	 * Deforms the mesh to the current control points.
+	 */
+	public void deform(ArrayList<Point3f> controlPoints)
+	{
+		readJoints(controlPoints, joints);
+		computeTangents(joints, tangents);
+		computeBinormals(joints, binormals, bends);
+		for (int k = 0; k < nJoints; k++){
+			rotation(restTangents, tangents, k, rotations);
+			twist(k);
+		}
+
+		FloatBuffer positions = mMesh.getVertexData();
+		FloatBuffer normals = (restNormals == null) ? null : mMesh.getNormalData();
+		float[] R = rotations, P0 = restJoints, P = joints;
+		for (int i = 0; i < nVertices; i++){
+			int a = joint[i], b = Math.min(a + 1, nJoints - 1);
+			float wb = weight[i], wa = 1f - wb;
+			int o = 3*i, ra = 9*a, rb = 9*b;
+
+			//x' = wa (Ra (x - P0a) + Pa) + wb (Rb (x - P0b) + Pb)
+			float ax = restPositions[o] - P0[3*a], ay = restPositions[o+1] - P0[3*a+1], az = restPositions[o+2] - P0[3*a+2];
+			float bx = restPositions[o] - P0[3*b], by = restPositions[o+1] - P0[3*b+1], bz = restPositions[o+2] - P0[3*b+2];
+			positions.put(o,   wa*(R[ra]  *ax + R[ra+1]*ay + R[ra+2]*az + P[3*a])   + wb*(R[rb]  *bx + R[rb+1]*by + R[rb+2]*bz + P[3*b]));
+			positions.put(o+1, wa*(R[ra+3]*ax + R[ra+4]*ay + R[ra+5]*az + P[3*a+1]) + wb*(R[rb+3]*bx + R[rb+4]*by + R[rb+5]*bz + P[3*b+1]));
+			positions.put(o+2, wa*(R[ra+6]*ax + R[ra+7]*ay + R[ra+8]*az + P[3*a+2]) + wb*(R[rb+6]*bx + R[rb+7]*by + R[rb+8]*bz + P[3*b+2]));
+
+			if (normals != null){
+				float nx = restNormals[o], ny = restNormals[o+1], nz = restNormals[o+2];
+				float x = wa*(R[ra]  *nx + R[ra+1]*ny + R[ra+2]*nz) + wb*(R[rb]  *nx + R[rb+1]*ny + R[rb+2]*nz);
+				float y = wa*(R[ra+3]*nx + R[ra+4]*ny + R[ra+5]*nz) + wb*(R[rb+3]*nx + R[rb+4]*ny + R[rb+5]*nz);
+				float z = wa*(R[ra+6]*nx + R[ra+7]*ny + R[ra+8]*nz) + wb*(R[rb+6]*nx + R[rb+7]*ny + R[rb+8]*nz);
+				float l = (float) Math.sqrt(x*x + y*y + z*z);
+				if (l > 0f){
+					x /= l;  y /= l;  z /= l;
+				}
+				normals.put(o, x);
+				normals.put(o+1, y);
+				normals.put(o+2, z);
+			}
+		}
+		mMesh.markVertexDataDirty();
+	}
+
+	private void readJoints(ArrayList<Point3f> controlPoints, float[] dst)
+	{
+		for (int k = 0; k < nJoints; k++){
+			Point3f p = controlPoints.get(chain[k]);
+			dst[3*k] = p.x;
+			dst[3*k+1] = p.y;
+			dst[3*k+2] = p.z;
+		}
+	}
+
+	/**
+	 * Unit polyline directions at the joints: central differences inside,
+	 * one-sided at the ends (as Branchmesh orients its rings).
+	 */
+	private void computeTangents(float[] j, float[] t)
+	{
+		for (int k = 0; k < nJoints; k++){
+			int k0 = Math.max(k - 1, 0), k1 = Math.min(k + 1, nJoints - 1);
+			float x = j[3*k1] - j[3*k0], y = j[3*k1+1] - j[3*k0+1], z = j[3*k1+2] - j[3*k0+2];
+			float l = (float) Math.sqrt(x*x + y*y + z*z);
+			if (l > 0f){
+				x /= l;  y /= l;  z /= l;
+			}
+			t[3*k] = x;
+			t[3*k+1] = y;
+			t[3*k+2] = z;
+		}
+	}
+
+	/**
+	 * Unit normals of the bend planes at the joints, the cross product of the
+	 * two polyline edges meeting at the joint (at the nearest interior joint,
+	 * for the ends), and the sines of the bend angles. A straight (or too
+	 * short) polyline gets a zero normal and sine.
+	 */
+	private void computeBinormals(float[] j, float[] b, float[] bend)
+	{
+		for (int k = 0; k < nJoints; k++){
+			int m = Math.max(1, Math.min(k, nJoints - 2));
+			float x = 0f, y = 0f, z = 0f, s = 0f;
+			if (m + 1 < nJoints){
+				float ax = j[3*m] - j[3*m-3], ay = j[3*m+1] - j[3*m-2], az = j[3*m+2] - j[3*m-1];
+				float cx = j[3*m+3] - j[3*m], cy = j[3*m+4] - j[3*m+1], cz = j[3*m+5] - j[3*m+2];
+				x = ay*cz - az*cy;  y = az*cx - ax*cz;  z = ax*cy - ay*cx;
+				float l = (float) Math.sqrt(x*x + y*y + z*z);
+				float la = (float) Math.sqrt(ax*ax + ay*ay + az*az), lc = (float) Math.sqrt(cx*cx + cy*cy + cz*cz);
+				if (l > 0f && la > 0f && lc > 0f){
+					x /= l;  y /= l;  z /= l;
+					s = l / (la * lc);
+				}
+				else{
+					x = y = z = 0f;
+				}
+			}
+			b[3*k] = x;
+			b[3*k+1] = y;
+			b[3*k+2] = z;
+			bend[k] = s;
+		}
+	}
+
+	/**
+	 * Turns rotation k further about the current tangent, so that it takes
+	 * the rest bend-plane normal to the current one, by the fraction of that
+	 * twist that both bends (relative to BEND_MIN) allow.
+	 */
+	private void twist(int k)
+	{
+		float fade = Math.min(1f, restBends[k] / BEND_MIN) * Math.min(1f, bends[k] / BEND_MIN);
+		if (fade <= 0f){
+			return;
+		}
+
+		//REST NORMAL AFTER THE SMALLEST ROTATION (PERPENDICULAR TO THE TANGENT, LIKE THE CURRENT ONE)
+		float[] R = rotations;
+		int r = 9*k;
+		float nx = restBinormals[3*k], ny = restBinormals[3*k+1], nz = restBinormals[3*k+2];
+		float px = R[r]  *nx + R[r+1]*ny + R[r+2]*nz;
+		float py = R[r+3]*nx + R[r+4]*ny + R[r+5]*nz;
+		float pz = R[r+6]*nx + R[r+7]*ny + R[r+8]*nz;
+		float tx = tangents[3*k], ty = tangents[3*k+1], tz = tangents[3*k+2];
+		float bx = binormals[3*k], by = binormals[3*k+1], bz = binormals[3*k+2];
+
+		//ANGLE FROM p TO b ABOUT t
+		float cos = px*bx + py*by + pz*bz;
+		float sin = tx*(py*bz - pz*by) + ty*(pz*bx - px*bz) + tz*(px*by - py*bx);
+		double angle = fade * Math.atan2(sin, cos);
+		float c = (float) Math.cos(angle), s = (float) Math.sin(angle), C = 1f - c;
+
+		//R = T R, T = c I + s [t]x + (1 - c) t t^T
+		float t00 = c + C*tx*tx,     t01 = C*tx*ty - s*tz,  t02 = C*tx*tz + s*ty;
+		float t10 = C*ty*tx + s*tz,  t11 = c + C*ty*ty,     t12 = C*ty*tz - s*tx;
+		float t20 = C*tz*tx - s*ty,  t21 = C*tz*ty + s*tx,  t22 = c + C*tz*tz;
+		for (int col = 0; col < 3; col++){
+			float r0 = R[r+col], r1 = R[r+3+col], r2 = R[r+6+col];
+			R[r+col]   = t00*r0 + t01*r1 + t02*r2;
+			R[r+3+col] = t10*r0 + t11*r1 + t12*r2;
+			R[r+6+col] = t20*r0 + t21*r1 + t22*r2;
+		}
+	}
+
+	/**
+	 * Smallest rotation taking unit vector from[k] to unit vector to[k]
+	 * (Rodrigues' formula), stored row major in R at 9k.
+	 */
+	private static void rotation(float[] from, float[] to, int k, float[] R)
+	{
+		float ax = from[3*k], ay = from[3*k+1], az = from[3*k+2];
+		float bx = to[3*k], by = to[3*k+1], bz = to[3*k+2];
+		float vx = ay*bz - az*by, vy = az*bx - ax*bz, vz = ax*by - ay*bx;
+		float c = ax*bx + ay*by + az*bz;
+		int r = 9*k;
+
+		if (c < -0.9999f){
+			//OPPOSITE (OR DEGENERATE) DIRECTIONS: HALF TURN ABOUT AN AXIS PERPENDICULAR TO from
+			float ux = -ay, uy = ax, uz = 0f;
+			if (Math.abs(az) > Math.abs(ax)){
+				ux = 0f;  uy = -az;  uz = ay;
+			}
+			float l = (float) Math.sqrt(ux*ux + uy*uy + uz*uz);
+			if (l == 0f){
+				ux = 1f;  uy = 0f;  uz = 0f;  l = 1f;
+			}
+			ux /= l;  uy /= l;  uz /= l;
+			R[r]   = 2*ux*ux - 1;  R[r+1] = 2*ux*uy;      R[r+2] = 2*ux*uz;
+			R[r+3] = 2*uy*ux;      R[r+4] = 2*uy*uy - 1;  R[r+5] = 2*uy*uz;
+			R[r+6] = 2*uz*ux;      R[r+7] = 2*uz*uy;      R[r+8] = 2*uz*uz - 1;
+			return;
+		}
+
+		//R = I + [v]x + [v]x^2 / (1 + c)
+		float h = 1f / (1f + c);
+		R[r]   = 1f - h*(vy*vy + vz*vz);  R[r+1] = -vz + h*vx*vy;          R[r+2] = vy + h*vx*vz;
+		R[r+3] = vz + h*vx*vy;            R[r+4] = 1f - h*(vx*vx + vz*vz); R[r+5] = -vx + h*vy*vz;
+		R[r+6] = -vy + h*vx*vz;           R[r+7] = vx + h*vy*vz;           R[r+8] = 1f - h*(vx*vx + vy*vy);
+	}
+
+	private static float[] toArray(FloatBuffer buf, int size)
+	{
+		float[] a = new float[size];
+		for (int i = 0; i < size; i++) a[i] = buf.get(i);
+		return a;
+	}
+}
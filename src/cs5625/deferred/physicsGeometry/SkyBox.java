@@ -1,5 +1,8 @@
 package cs5625.deferred.physicsGeometry;
 
+import java.io.IOException;
+
+import javax.media.opengl.GL2;
 import javax.vecmath.AxisAngle4f;
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
@@ -11,6 +14,7 @@ import cs5625.deferred.misc.ScenegraphException;
 import cs5625.deferred.misc.Util;
 import cs5625.deferred.rendering.Camera;
 import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.MeshRegistry;
 import cs5625.deferred.scenegraph.PointLight;
 
 /**
@@ -31,6 +35,9 @@ public class SkyBox extends PhysicsGeometry {
 	private float mShadowCameraLongitude = (float)(Math.PI/2.0), mShadowCameraLatitude = 0f;
 	private float mShadowCameraRadius = 40.f;
 	
+	/** Whether this sky holds a reference to the shared sphere model (see MeshRegistry). */
+	private boolean acquired = false;
+	
 	public SkyBox(Color3f diffuseColor, float skyDomeRadius, Texture2D skyTexture, Texture2D starTexture, Camera shadowCamera ){
 		this.getOriginParticle().setRadius(0);
 		
@@ -43,9 +50,16 @@ public class SkyBox extends PhysicsGeometry {
 		if (starTexture != null){
 			skyMaterial.setStarTexture(starTexture);
 		}
-		Sphere skySphere = new Sphere(new Point3f(0.0f,0.0f,0.0f));
-		this.mMeshes.add( skySphere.getMeshes().get(0));
-		((Mesh) this.mMeshes.get(0)).setMaterial(skyMaterial);
+		try {
+			/* The dome is the shared sphere model, as in Sphere. */
+			Mesh skyMesh = MeshRegistry.acquireMesh("models/sphere.obj", true, false);
+			acquired = true;
+			skyMesh.setMaterial(skyMaterial);
+			this.mMeshes.add(skyMesh);
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
 		
 		// The Sun ...
 		sunLight = new PointLight();
@@ -70,6 +84,16 @@ public class SkyBox extends PhysicsGeometry {
 	}
 
 	
+	@Override
+	public void releaseGPUResources(GL2 gl){
+		super.releaseGPUResources(gl);
+		/* Give back the reference to the shared model, once. */
+		if (acquired){
+			MeshRegistry.release("models/sphere.obj", true, false);
+			acquired = false;
+		}
+	}
+	
 	@Override
 	public void animateHelper(float dt)
 	{
@@ -120,5 +144,6 @@ public class SkyBox extends PhysicsGeometry {
 		/* Set the camera's position so that it looks towards the origin. */
 		mShadowCamera.setPosition(new Point3f(0.0f, 0.0f, 4f*mShadowCameraRadius));
 		Util.rotateTuple(mShadowCamera.getOrientation(), mShadowCamera.getPosition());
+		mShadowCamera.markTransformDirty();
 	}
 }
\ No newline at end of file
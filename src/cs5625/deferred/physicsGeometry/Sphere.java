@@ -2,6 +2,7 @@ package cs5625.deferred.physicsGeometry;
 
 import java.io.IOException;
 
+import javax.media.opengl.GL2;
 import javax.vecmath.Color3f;
 import javax.vecmath.Point3f;
 
@@ -9,6 +10,7 @@ import cs5625.deferred.materials.LambertianMaterial;
 import cs5625.deferred.physics.ParticleSystem;
 import cs5625.deferred.physics.PenaltyForceSphere;
 import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.MeshRegistry;
 
 
 public class Sphere extends PhysicsGeometry {
@@ -18,6 +20,8 @@ public class Sphere extends PhysicsGeometry {
 	private float timeScale = 25f;
 	private float time = 0;
 	private LambertianMaterial material = new LambertianMaterial(color);
+	/** Whether this sphere holds a reference to the shared sphere model (see MeshRegistry). */
+	private boolean acquired = false;
 	
 	public Sphere(){
 		init();
@@ -28,7 +32,9 @@ public class Sphere extends PhysicsGeometry {
 	}
 	private void init(){
         try {
-			Mesh sphereMesh = Sphere.load("models/sphere.obj", true, false).get(0).getMeshes().get(0);
+			/* Every sphere shares the buffers of one loaded model. */
+			Mesh sphereMesh = MeshRegistry.acquireMesh("models/sphere.obj", true, false);
+			acquired = true;
 			sphereMesh.setMaterial(material);
 			this.addMesh(sphereMesh);
 		} catch (IOException e) {
@@ -37,6 +43,16 @@ public class Sphere extends PhysicsGeometry {
 		}
 	}
 	
+	@Override
+	public void releaseGPUResources(GL2 gl){
+		super.releaseGPUResources(gl);
+		/* Give back the reference to the shared model, once. */
+		if (acquired){
+			MeshRegistry.release("models/sphere.obj", true, false);
+			acquired = false;
+		}
+	}
+	
 	public void addToParticleSystemHelper(ParticleSystem PS){
 		super.addToParticleSystemHelper(PS);
 		this.getOriginParticle().setRadius(1.0);
@@ -0,0 +1,167 @@
+package cs5625.deferred.physicsGeometry;
+
+import java.util.ArrayList;
+
+import javax.vecmath.Point3f;
+
+import cs5625.deferred.catmullclark.CCStencil;
+import cs5625.deferred.datastruct.Stencil;
+import cs5625.deferred.loop.LoopStencil;
+import cs5625.deferred.rendering.Camera;
+import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.Quadmesh;
+import cs5625.deferred.scenegraph.Trimesh;
+
+/**
+ * SubdivisionLOD.java
+ *
+ * Picks the subdivision level of an animated PhysicsGeometry from its size on
+ * screen, and keeps one stencil and one refined mesh per level it has used.
+ *
+ * The level is the one that brings the longest control segment of the
+ * geometry (between consecutive control points, in world space, at the
+ * distance of its nearest point) down to about TARGET_EDGE_PIXELS pixels,
+ * each level halving edge lengths, clamped to [0, maxLevel]. The level only
+ * changes once the ideal level is more than HYSTERESIS levels past the
+ * rounding point, so a geometry near a threshold does not pop back and forth.
+ * Until a camera is set with setCamera(), every geometry uses maxLevel.
+ *
+ * Subclasses supply the stencils; catmullClark() and loop() give the usual ones.
+ */
+public abstract class SubdivisionLOD {
+
+	/** Projected length, in pixels, that refined edges should have. */
+	public static float TARGET_EDGE_PIXELS = 8f;
+	/** Fraction of a level the ideal level must pass the rounding point by before the level changes. */
+	public static float HYSTERESIS = 0.3f;
+
+	private static Camera camera = null;
+	private static float viewportHeight = 600f;
+
+	private final int maxLevel;
+	private int level;
+	private final Stencil[] stencils;
+	private final Mesh[] meshes;
+
+	public SubdivisionLOD(int maxLevel)
+	{
+		this.maxLevel = Math.max(maxLevel, 0);
+		this.level = this.maxLevel;
+		this.stencils = new Stencil[this.maxLevel + 1];
+		this.meshes = new Mesh[this.maxLevel + 1];
+	}
+
+	/**
+	 * Level of detail for a Quadmesh, refined with CCStencil.
+	 */
+	public static SubdivisionLOD catmullClark(int maxLevel)
+	{
+		return new SubdivisionLOD(maxLevel) {
+			protected Stencil getStencil(Mesh cage, int level)
+			{
+				return CCStencil.get((Quadmesh) cage, level);
+			}
+		};
+	}
+
+	/**
+	 * Level of detail for a Trimesh, refined with LoopStencil.
+	 */
+	public static SubdivisionLOD loop(int maxLevel)
+	{
+		return new SubdivisionLOD(maxLevel) {
+			protected Stencil getStencil(Mesh cage, int level)
+			{
+				return LoopStencil.get((Trimesh) cage, level);
+			}
+		};
+	}
+
+	/**
+	 * Sets the camera levels are chosen for (null to always use maxLevel).
+	 */
+	public static void setCamera(Camera c)
+	{
+		camera = c;
+	}
+
+	/**
+	 * Sets the height of the viewport, in pixels.
+	 */
+	public static void setViewportHeight(float height)
+	{
+		if (height > 0f) viewportHeight = height;
+	}
+
+	/**
+	 * Returns the stencil of `level` levels of subdivision of cage.
+	 */
+	protected abstract Stencil getStencil(Mesh cage, int level);
+
+	public int getLevel()
+	{
+		return level;
+	}
+
+	public int getMaxLevel()
+	{
+		return maxLevel;
+	}
+
+	/**
+	 * Updates the level of g from the current camera, and returns it.
+	 */
+	public int update(PhysicsGeometry g)
+	{
+		if (camera == null)
+		{
+			level = maxLevel;
+			return level;
+		}
+
+		ArrayList<Point3f> controlPoints = g.getControlPoints();
+		if (controlPoints.size() < 2) return level;
+
+		//NEAREST DISTANCE TO THE CAMERA AND LONGEST SEGMENT, IN WORLD SPACE
+		Point3f eye = camera.getWorldspacePosition();
+		Point3f previous = null;
+		float segment = 0f, distance = Float.MAX_VALUE;
+		for (Point3f cp : controlPoints)
+		{
+			Point3f p = g.transformPointToWorldSpace(cp);
+			distance = Math.min(distance, p.distance(eye));
+			if (previous != null) segment = Math.max(segment, p.distance(previous));
+			previous = p;
+		}
+		distance = Math.max(distance, camera.getNear());
+
+		float pixels = segment * 0.5f * viewportHeight / (distance * (float) Math.tan(Math.toRadians(camera.getFOV() * 0.5)));
+		double ideal = (pixels > 0f) ? Math.log(pixels / TARGET_EDGE_PIXELS) / Math.log(2) : 0;
+
+		if (ideal > level + 0.5 + HYSTERESIS || ideal < level - 0.5 - HYSTERESIS)
+		{
+			level = (int) Math.max(0, Math.min(maxLevel, Math.round(ideal)));
+		}
+		return level;
+	}
+
+	/**
+	 * Refines cage at the current level and returns the refined mesh. Each
+	 * level's stencil and mesh (a copy of the cage, with buffers of its own
+	 * once refined) are created the first time it is used, and refined in
+	 * place afterwards. The cage itself is left unchanged, so it can be
+	 * updated and refined again every frame; its topology must stay the same.
+	 * Refined meshes are dynamic (see Mesh.setDynamic()).
+	 */
+	public Mesh refine(Mesh cage)
+	{
+		if (meshes[level] == null)
+		{
+			stencils[level] = getStencil(cage, level);
+			meshes[level] = cage.clone();
+			meshes[level].setDynamic(true);
+		}
+		stencils[level].refine(cage, meshes[level]);
+		return meshes[level];
+	}
+}
@@ -0,0 +1,247 @@
+package cs5625.deferred.rendering;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.media.opengl.GL2;
+
+import cs5625.deferred.misc.OpenGLResourceObject;
+
+/**
+ * BufferObject.java
+ *
+ * An OpenGL buffer object holding a copy of one float or int buffer (e.g. the vertex positions or
+ * polygon indices of a mesh), so that the data is drawn from GPU memory instead of being sent from
+ * a client-side array on every draw call.
+ *
+ * The buffer object is created and filled by the first update(), and afterwards only uploaded
+ * again when it is given a different buffer, or when the source buffer was modified in place and
+ * the modified range marked with markDirty(). A buffer object starts out as GL_STATIC_DRAW, and is
+ * reallocated as GL_DYNAMIC_DRAW once it has been marked dirty after its first upload.
+ *
+ * Meshes cloned from one another share the buffer objects of the buffers they share (see
+ * Mesh.clone()); a buffer object counts the meshes sharing it, so that one given other data can
+ * leave it to the rest (see share() and unshare()).
+ */
+public class BufferObject implements OpenGLResourceObject
+{
+	/* Binding target (GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER), usage hint and OpenGL handle. */
+	private int mTarget;
+	private int mUsage = GL2.GL_STATIC_DRAW;
+	private int mHandle = -1;
+
+	/* The buffer last uploaded and its size, in floats or ints, and the range of it (in the same
+	 * units) modified in place since; the range is empty when mDirtyStart >= mDirtyEnd. */
+	private Buffer mData = null;
+	private int mCapacity = 0;
+	private int mDirtyStart = 0, mDirtyEnd = 0;
+
+	/* The buffer this object holds a copy of (kept across releaseGPUResources(), unlike mData), and
+	 * the number of meshes sharing this object. */
+	private Buffer mSource = null;
+	private int mOwners = 1;
+
+	/* Ids handed out so far, and this buffer object's (see getId()). */
+	private static final AtomicInteger sLastId = new AtomicInteger();
+	private final int mId = sLastId.incrementAndGet();
+
+	/**
+	 * Creates a buffer object for the given binding target. No OpenGL object is created until update().
+	 */
+	public BufferObject(int target)
+	{
+		mTarget = target;
+	}
+
+	/**
+	 * Creates a buffer object for the given binding target, to hold a copy of source; see holds().
+	 */
+	public BufferObject(int target, Buffer source)
+	{
+		mTarget = target;
+		mSource = source;
+	}
+
+	/**
+	 * Returns true if this buffer object holds (or is to hold) a copy of data, the buffer it was
+	 * created for or last given to update().
+	 */
+	public boolean holds(Buffer data)
+	{
+		return data == mSource;
+	}
+
+	/**
+	 * Adds a mesh to the ones sharing this buffer object, and returns it.
+	 */
+	public BufferObject share()
+	{
+		++mOwners;
+		return this;
+	}
+
+	/**
+	 * Removes a mesh from the ones sharing this buffer object; it stays with the others.
+	 */
+	public void unshare()
+	{
+		if (mOwners > 1)
+		{
+			--mOwners;
+		}
+	}
+
+	/**
+	 * Returns true if more than one mesh shares this buffer object.
+	 */
+	public boolean isShared()
+	{
+		return mOwners > 1;
+	}
+
+	/**
+	 * Returns a positive id, unique to this buffer object and fixed for its lifetime (unlike the
+	 * OpenGL handle, which only exists once uploaded and changes when released).
+	 */
+	public int getId()
+	{
+		return mId;
+	}
+
+	/**
+	 * Returns the OpenGL handle of this buffer object (-1 before the first update()).
+	 */
+	public int getHandle()
+	{
+		return mHandle;
+	}
+
+	/**
+	 * Marks the whole buffer dirty, so it is uploaded again by the next update().
+	 */
+	public void markDirty()
+	{
+		markDirty(0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Marks `count` elements (floats or ints) starting at `first` dirty, so they are uploaded
+	 * again by the next update(). Successive ranges are merged into one.
+	 */
+	public void markDirty(int first, int count)
+	{
+		if (count <= 0)
+		{
+			return;
+		}
+
+		int end = (count > Integer.MAX_VALUE - first) ? Integer.MAX_VALUE : first + count;
+
+		if (mDirtyStart >= mDirtyEnd)
+		{
+			mDirtyStart = first;
+			mDirtyEnd = end;
+		}
+		else
+		{
+			mDirtyStart = Math.min(mDirtyStart, first);
+			mDirtyEnd = Math.max(mDirtyEnd, end);
+		}
+
+		/* Data that changes after it was uploaded is likely to keep changing. */
+		if (mData != null)
+		{
+			mUsage = GL2.GL_DYNAMIC_DRAW;
+		}
+	}
+
+	/**
+	 * Makes this buffer object hold the contents of data (a FloatBuffer or IntBuffer), creating it
+	 * if needed, and leaves it bound to its target.
+	 *
+	 * All of data is uploaded if it is not the buffer last uploaded or its size changed; otherwise
+	 * only the dirty range is, if any.
+	 */
+	public void update(GL2 gl, Buffer data)
+	{
+		if (mHandle < 0)
+		{
+			int names[] = new int[1];
+			gl.glGenBuffers(1, names, 0);
+			mHandle = names[0];
+			mData = null;
+		}
+
+		gl.glBindBuffer(mTarget, mHandle);
+
+		int start = Math.max(mDirtyStart, 0), end = Math.min(mDirtyEnd, data.capacity());
+
+		if (data != mData || data.capacity() != mCapacity || (start == 0 && end == mCapacity))
+		{
+			/* Respecifying all the storage also lets the driver orphan any copy still in use. */
+			gl.glBufferData(mTarget, 4L * data.capacity(), from(data, 0), mUsage);
+			mData = mSource = data;
+			mCapacity = data.capacity();
+		}
+		else if (start < end)
+		{
+			gl.glBufferSubData(mTarget, 4L * start, 4L * (end - start), from(data, start));
+		}
+
+		mDirtyStart = mDirtyEnd = 0;
+	}
+
+	/**
+	 * Binds this buffer object to its target, without uploading anything.
+	 */
+	public void bind(GL2 gl)
+	{
+		gl.glBindBuffer(mTarget, mHandle);
+	}
+
+	/**
+	 * Returns a view of data starting at element `first`, leaving the position of data unchanged
+	 * (buffers are read from their position on).
+	 */
+	private static Buffer from(Buffer data, int first)
+	{
+		Buffer view;
+
+		if (data instanceof FloatBuffer)
+		{
+			view = ((FloatBuffer)data).duplicate();
+		}
+		else if (data instanceof IntBuffer)
+		{
+			view = ((IntBuffer)data).duplicate();
+		}
+		else
+		{
+			throw new IllegalArgumentException("Buffer objects hold float or int data, not " + data.getClass().getName() + ".");
+		}
+
+		view.clear();
+		view.position(first);
+		return view;
+	}
+
+	/**
+	 * Destroys the OpenGL buffer object. A later update() creates a new one.
+	 */
+	public void releaseGPUResources(GL2 gl)
+	{
+		if (mHandle >= 0)
+		{
+			int names[] = new int[1];
+			names[0] = mHandle;
+			gl.glDeleteBuffers(1, names, 0);
+			mHandle = -1;
+		}
+
+		mData = null;
+		mCapacity = 0;
+		mDirtyStart = mDirtyEnd = 0;
+	}
+}
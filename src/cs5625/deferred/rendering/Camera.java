@@ -165,5 +165,8 @@ public class Camera extends SceneObject
 		else if(keyRIGHT == true){
 			this.mPosition.add(side);			
 		}
+		if (keyUP || keyDOWN || keyLEFT || keyRIGHT){
+			markTransformDirty();
+		}
 	}	
 }
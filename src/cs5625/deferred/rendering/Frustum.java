@@ -0,0 +1,69 @@
+package cs5625.deferred.rendering;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+
+/**
+ * Frustum.java
+ *
+ * The view frustum of a camera, as six world-space planes, for culling bounding spheres that
+ * cannot be seen (see Renderer.queueObject()).
+ */
+public class Frustum
+{
+	/* Left, right, bottom, top, near and far planes, 4 floats (a, b, c, d) each, with unit normals
+	 * pointing into the frustum: a point p is on the inner side of a plane if a*x + b*y + c*z + d >= 0. */
+	private float[] mPlanes = new float[24];
+
+	/* Temp space for the view-projection matrix. */
+	private Matrix4f mViewProjection = new Matrix4f();
+
+	/**
+	 * Sets this frustum to the one of the given camera, rendering to a viewport of the given size.
+	 */
+	public void set(Camera camera, float viewportWidth, float viewportHeight)
+	{
+		mViewProjection.mul(camera.getProjectionMatrix(viewportWidth, viewportHeight), camera.getViewMatrix());
+		Matrix4f m = mViewProjection;
+
+		/* Each plane is the last row of the view-projection matrix plus or minus one of the others. */
+		setPlane(0, m.m30 + m.m00, m.m31 + m.m01, m.m32 + m.m02, m.m33 + m.m03);
+		setPlane(1, m.m30 - m.m00, m.m31 - m.m01, m.m32 - m.m02, m.m33 - m.m03);
+		setPlane(2, m.m30 + m.m10, m.m31 + m.m11, m.m32 + m.m12, m.m33 + m.m13);
+		setPlane(3, m.m30 - m.m10, m.m31 - m.m11, m.m32 - m.m12, m.m33 - m.m13);
+		setPlane(4, m.m30 + m.m20, m.m31 + m.m21, m.m32 + m.m22, m.m33 + m.m23);
+		setPlane(5, m.m30 - m.m20, m.m31 - m.m21, m.m32 - m.m22, m.m33 - m.m23);
+	}
+
+	private void setPlane(int index, float a, float b, float c, float d)
+	{
+		float invLength = 1.0f / (float)Math.sqrt(a * a + b * b + c * c);
+
+		mPlanes[4 * index + 0] = a * invLength;
+		mPlanes[4 * index + 1] = b * invLength;
+		mPlanes[4 * index + 2] = c * invLength;
+		mPlanes[4 * index + 3] = d * invLength;
+	}
+
+	/**
+	 * Returns false if the given world-space sphere lies entirely outside this frustum, true if it
+	 * may be (partly) inside. A sphere with negative radius is empty, and never inside.
+	 */
+	public boolean intersectsSphere(Point3f center, float radius)
+	{
+		if (radius < 0.0f)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < 24; i += 4)
+		{
+			if (mPlanes[i] * center.x + mPlanes[i + 1] * center.y + mPlanes[i + 2] * center.z + mPlanes[i + 3] < -radius)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,115 @@
+package cs5625.deferred.rendering;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.vecmath.Matrix4f;
+
+import cs5625.deferred.scenegraph.Mesh;
+
+/**
+ * RenderQueue.java
+ *
+ * A flat list of meshes to draw in one pass, each with the modelview matrix to draw it with, which
+ * the renderer fills by traversing the scene (see Renderer.queueObject()) and then sorts and draws
+ * (see Renderer.renderQueue()).
+ *
+ * Items are sorted by shader, then material, then vertex buffer, so that meshes sharing a shader or
+ * a material are drawn one after the other and the renderer only changes the state that differs.
+ * Materials and vertex buffers are ordered by their ids (see Material.getId() and
+ * Mesh.getVertexBufferId()), so the order is the same from run to run.
+ * Textures belong to materials here, so sorting by material also groups texture binds. Items are
+ * pooled and reused from frame to frame.
+ */
+public class RenderQueue
+{
+	/** One mesh to draw. */
+	public static class Item
+	{
+		public Mesh mesh;
+
+		/** Modelview matrix, column-major (as glLoadMatrixf() takes it). */
+		public float[] modelview = new float[16];
+	}
+
+	private Item[] mItems = new Item[64];
+	private int mSize = 0;
+
+	/**
+	 * Orders items by shader handle, then material id, then vertex buffer id. Materials must have
+	 * retrieved their shader (see Material.retrieveShader()) before items are sorted.
+	 */
+	private static final Comparator<Item> ORDER = new Comparator<Item>()
+	{
+		public int compare(Item a, Item b)
+		{
+			int result = compareInts(a.mesh.getMaterial().getShaderProgram().getHandle(), b.mesh.getMaterial().getShaderProgram().getHandle());
+
+			if (result == 0)
+			{
+				result = compareInts(a.mesh.getMaterial().getId(), b.mesh.getMaterial().getId());
+			}
+			if (result == 0)
+			{
+				result = compareInts(a.mesh.getVertexBufferId(), b.mesh.getVertexBufferId());
+			}
+
+			return result;
+		}
+	};
+
+	private static int compareInts(int a, int b)
+	{
+		return (a < b) ? -1 : ((a == b) ? 0 : 1);
+	}
+
+	/**
+	 * Empties the queue.
+	 */
+	public void clear()
+	{
+		mSize = 0;
+	}
+
+	/**
+	 * Adds a mesh to draw with the given modelview matrix.
+	 */
+	public void add(Mesh mesh, Matrix4f modelview)
+	{
+		if (mSize == mItems.length)
+		{
+			mItems = Arrays.copyOf(mItems, 2 * mItems.length);
+		}
+		if (mItems[mSize] == null)
+		{
+			mItems[mSize] = new Item();
+		}
+
+		Item item = mItems[mSize++];
+		item.mesh = mesh;
+
+		float[] m = item.modelview;
+		m[0] = modelview.m00; m[4] = modelview.m01; m[8]  = modelview.m02; m[12] = modelview.m03;
+		m[1] = modelview.m10; m[5] = modelview.m11; m[9]  = modelview.m12; m[13] = modelview.m13;
+		m[2] = modelview.m20; m[6] = modelview.m21; m[10] = modelview.m22; m[14] = modelview.m23;
+		m[3] = modelview.m30; m[7] = modelview.m31; m[11] = modelview.m32; m[15] = modelview.m33;
+	}
+
+	/**
+	 * Sorts the items for drawing. The sort is stable, so equal items keep the order they were added in.
+	 */
+	public void sort()
+	{
+		Arrays.sort(mItems, 0, mSize, ORDER);
+	}
+
+	public int size()
+	{
+		return mSize;
+	}
+
+	public Item get(int index)
+	{
+		return mItems[index];
+	}
+}
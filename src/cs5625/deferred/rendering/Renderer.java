@@ -28,10 +28,10 @@ import cs5625.deferred.misc.ScenegraphException;
 import cs5625.deferred.misc.Util;
 import cs5625.deferred.physics.Particle;
 import cs5625.deferred.physicsGeometry.PhysicsGeometry;
-import cs5625.deferred.physicsGeometry.Sphere;
 import cs5625.deferred.scenegraph.Geometry;
 import cs5625.deferred.scenegraph.Light;
 import cs5625.deferred.scenegraph.Mesh;
+import cs5625.deferred.scenegraph.MeshRegistry;
 import cs5625.deferred.scenegraph.PointLight;
 import cs5625.deferred.scenegraph.SceneObject;
 
@@ -196,6 +196,28 @@ public class Renderer
 	/* Enable phsics sphere rendering .*/
 	private boolean mShowPenaltyForces = false;
 	private Mesh sphereMesh;
+	
+	/* View frustum culling: the frustum of the camera being rendered, and the number of meshes 
+	 * drawn and culled in the current frame (over all passes). */
+	private boolean mEnableFrustumCulling = true;
+	private Frustum mFrustum = new Frustum();
+	private int mMeshesDrawn = 0;
+	private int mMeshesCulled = 0;
+	private Point3f mTempCenter = new Point3f();
+	
+	/* Render queue filled by queueObject() and drawn by renderQueue(), the view matrix of the camera 
+	 * being rendered, and the number of shader and material binds in the current frame. */
+	private RenderQueue mRenderQueue = new RenderQueue();
+	private Matrix4f mViewMatrix = new Matrix4f();
+	private Matrix4f mTempWorldMatrix = new Matrix4f();
+	private Matrix4f mTempLocalMatrix = new Matrix4f();
+	private Matrix4f mTempModelviewMatrix = new Matrix4f();
+	private Vector3f mTempTranslation = new Vector3f();
+	private int mShaderBinds = 0;
+	private int mMaterialBinds = 0;
+	
+	/* Ring buffer through which dynamic meshes stream their positions and normals (see Mesh.setDynamic()). */
+	private StreamingVertexBuffer mStreamingBuffer = new StreamingVertexBuffer(4 << 20);
 
 	
 	/**
@@ -213,6 +235,14 @@ public class Renderer
 		{
 			/* Reset lights array. It will be re-filled as the scene is traversed. */
 			
+			/* 0. Update the bounds culled against each camera's frustum, and reset the cull counters. */
+			sceneRoot.updateWorldBounds();
+			mMeshesDrawn = 0;
+			mMeshesCulled = 0;
+			mShaderBinds = 0;
+			mMaterialBinds = 0;
+			mStreamingBuffer.beginFrame();
+			
 			/* 0.5. Compute sand dune buffer */
 			if (simulateSandDune){
 				int steps = (mInitialize==1 ? mSimulationSetupSteps: mSimulationSteps);
@@ -445,8 +475,14 @@ public class Renderer
 		/* Check for errors before rendering, to help isolate. */
 		OpenGLException.checkOpenGLError(gl);
 		
-		/* Render the scene. */
-		renderObject(gl, camera, sceneRoot);
+		/* Render the scene: queue the objects in this camera's frustum, then draw them sorted 
+		 * by shader and material. Queued meshes are drawn with the camera transform (as applied 
+		 * above) times their world transform. */
+		camera.getWorldToLocalMatrix4f(mViewMatrix);
+		mFrustum.set(camera, mViewportWidth, mViewportHeight);
+		mRenderQueue.clear();
+		queueObject(gl, camera, sceneRoot);
+		renderQueue(gl);
 
 		/* GBuffer is filled, so unbind it. */
 		if (!camera.getIsShadowMapCamera()) 
@@ -782,65 +818,67 @@ public class Renderer
 	}
 	
 	/**
-	 * Renders a scenegraph node and its children.
+	 * Adds a scenegraph node and its children to the render queue (see renderQueue()).
 	 * 
 	 * @param gl The OpenGL state.
 	 * @param camera The camera rendering the scene.
-	 * @param obj The object to render. If this is a Geometry object, its meshes are rendered.
+	 * @param obj The object to render. If this is a Geometry object, its meshes are queued.
 	 *        If this is a Light object, it is added to the list of lights. Other objects are ignored.
-	 * @param dcm The dynamic cub map that we are rendering to. If it is not equal to null, we check to
-	 *        see if the object being rendered is the same as the one stored in the DCM. If it is, then
-	 *        we don't render it.
 	 */
-	private void renderObject(GL2 gl, Camera camera, SceneObject obj) throws OpenGLException
+	private void queueObject(GL2 gl, Camera camera, SceneObject obj) throws OpenGLException
 	{
 		/* If the object is not visible, we skip the rendition of it and all its children */
 		if (!obj.isVisible()) {
 			return;
 		}
 		
-		/* Save matrix before applying this object's transformation. */
-		gl.glPushMatrix();
-		
-		/* Get this object's transformation. */
-		float scale = obj.getScale();
-		Point3f position = obj.getPosition();
-		AxisAngle4f orientation = new AxisAngle4f();
-		orientation.set(obj.getOrientation());
-		
-		/* Apply this object's transformation. */
-		gl.glTranslatef(position.x, position.y, position.z);
-		gl.glRotatef(orientation.angle * 180.0f / (float)Math.PI, orientation.x, orientation.y, orientation.z);
-		gl.glScalef(scale, scale, scale);
+		/* Skip objects whose whole subtree lies outside the view frustum. */
+		if (mEnableFrustumCulling && !mFrustum.intersectsSphere(obj.getWorldBoundsCenter(), obj.getWorldBoundsRadius()))
+		{
+			cullObject(obj);
+			return;
+		}
 		
-		/* Render this object as appropriate for its type. */
+		/* Queue this object as appropriate for its type. */
 		if (obj instanceof Geometry)
 		{
+			/* Meshes are drawn with this object's world transform. */
+			obj.getLocalToWorldMatrix4f(mTempWorldMatrix);
+			
 			for (Mesh mesh : ((Geometry)obj).getMeshes())
 			{				
+				/* Meshes of an object can also be culled one by one. */
+				if (mEnableFrustumCulling)
+				{
+					float radius = mesh.getBoundingSphere(mTempCenter);
+					obj.transformPointToWorldSpace(mTempCenter, mTempCenter);
+					
+					if (!mFrustum.intersectsSphere(mTempCenter, obj.transformDistanceToWorldSpace(radius)))
+					{
+						++mMeshesCulled;
+						continue;
+					}
+				}
+				++mMeshesDrawn;
+				
 				if (mShowPenaltyForces){
 					if(obj instanceof PhysicsGeometry){
 						PhysicsGeometry physobj = (PhysicsGeometry) obj;
-						gl.glPushMatrix();
 						float sc = (float) physobj.getOriginParticle().getRadius();
-						gl.glScalef(sc,sc,sc);
-						renderMesh(gl, sphereMesh);
-						gl.glPopMatrix();
+						mTempLocalMatrix.set(sc);
+						queueMesh(gl, sphereMesh, mTempLocalMatrix);
 						for (int i=0; i < physobj.getControlParticles().size() ; i++){
 							Point3f cp  = physobj.getControlPoints().get(i);
 							Particle p = physobj.getControlParticles().get(i);
-							gl.glPushMatrix();
-							gl.glTranslatef(cp.x, cp.y, cp.z);
-							gl.glScaled(p.getRadius(), p.getRadius(), p.getRadius());
-							renderMesh(gl, sphereMesh);
-							gl.glPopMatrix();							
+							mTempTranslation.set(cp);
+							mTempLocalMatrix.set((float) p.getRadius(), mTempTranslation);
+							queueMesh(gl, sphereMesh, mTempLocalMatrix);
 						}	
 					}
 				}
-				//else {
-				renderMesh(gl, mesh);
-				//}
-
+				
+				mTempLocalMatrix.setIdentity();
+				queueMesh(gl, mesh, mTempLocalMatrix);
 			}
 		}
 		else if (obj instanceof Light)
@@ -848,117 +886,276 @@ public class Renderer
 			mLights.add((Light)obj);
 		}
 		
-		/* Render this object's children. */
+		/* Queue this object's children. */
 		for (SceneObject child : obj.getChildren())
 		{
-			renderObject(gl, camera, child);
+			queueObject(gl, camera, child);
 		}
+	}
+	
+	/**
+	 * Adds a mesh of the object being queued to the render queue, with modelview matrix 
+	 * view * world * local (the world matrix being the object's, in mTempWorldMatrix).
+	 */
+	private void queueMesh(GL2 gl, Mesh mesh, Matrix4f local)
+	{
+		/* The queue is sorted by shader, so make sure the material has its shader. */
+		mesh.getMaterial().retrieveShader(gl, mShaderCache);
 		
-		/* Restore transformation matrix and check for errors. */
-		gl.glPopMatrix();
-		OpenGLException.checkOpenGLError(gl);
+		mTempModelviewMatrix.mul(mViewMatrix, mTempWorldMatrix);
+		mTempModelviewMatrix.mul(local);
+		mRenderQueue.add(mesh, mTempModelviewMatrix);
+	}
+	
+	/**
+	 * Skips rendering a culled scenegraph node and its children: lights are still added to the 
+	 * list of lights (they light what is visible), and meshes are counted as culled.
+	 */
+	private void cullObject(SceneObject obj)
+	{
+		if (!obj.isVisible()) {
+			return;
+		}
+		
+		if (obj instanceof Geometry)
+		{
+			mMeshesCulled += ((Geometry)obj).getMeshes().size();
+		}
+		else if (obj instanceof Light)
+		{
+			mLights.add((Light)obj);
+		}
+		
+		for (SceneObject child : obj.getChildren())
+		{
+			cullObject(child);
+		}
 	}
 
 	/**
-	 * Renders a single trimesh.
+	 * Sorts and draws the render queue.
+	 * 
+	 * A shader stays bound for as long as consecutive meshes use it, and a material (with the save 
+	 * and restore of OpenGL state around it) for as long as consecutive meshes use that material, 
+	 * so only the state that differs from one mesh to the next is changed.
 	 * 
 	 * @param gl The OpenGL state.
-	 * @param mesh The mesh to render.
 	 */
-	private void renderMesh(GL2 gl, Mesh mesh) throws OpenGLException
+	private void renderQueue(GL2 gl) throws OpenGLException
 	{
-		/* Save all state to isolate any changes made by this mesh's material. */
-		gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+		mRenderQueue.sort();
+		
+		/* Save the camera transform and vertex array state for the whole queue. */
+		gl.glPushMatrix();
 		gl.glPushClientAttrib((int)GL2.GL_CLIENT_ALL_ATTRIB_BITS);
 		
-		/* Activate the material. */
-		mesh.getMaterial().retrieveShader(gl, mShaderCache);
-		mesh.getMaterial().bind(gl);
+		ShaderProgram currentShader = null;
+		Material currentMaterial = null;
 		
+		for (int i = 0; i < mRenderQueue.size(); ++i)
+		{
+			RenderQueue.Item item = mRenderQueue.get(i);
+			Material material = item.mesh.getMaterial();
 			
-		/* Enable the required vertex arrays and send data. */
-		if (mesh.getVertexData() == null)
+			if (material != currentMaterial)
+			{
+				/* Deactivate the previous material and restore the state it changed. */
+				if (currentMaterial != null)
+				{
+					currentMaterial.unbind(gl);
+					gl.glPopAttrib();
+				}
+				
+				/* Switch shaders only when the shader changes; the material's own bind nests inside. */
+				if (material.getShaderProgram() != currentShader)
+				{
+					if (currentShader != null)
+					{
+						currentShader.unbind(gl);
+					}
+					
+					currentShader = material.getShaderProgram();
+					currentShader.bind(gl);
+					++mShaderBinds;
+				}
+				
+				/* Save all state to isolate any changes made by this material, and activate it. */
+				gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+				material.bind(gl);
+				currentMaterial = material;
+				++mMaterialBinds;
+			}
+			
+			gl.glLoadMatrixf(item.modelview, 0);
+			drawMesh(gl, item.mesh);
+		}
+		
+		if (currentMaterial != null)
 		{
-			throw new OpenGLException("Mesh must have non-null vertex data to render!");
+			currentMaterial.unbind(gl);
+			gl.glPopAttrib();
+			currentShader.unbind(gl);
 		}
-		else
+		
+		/* Render mesh wireframes if we're supposed to. */
+		if (mRenderWireframes)
 		{
-			gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
-			gl.glVertexPointer(3, GL2.GL_FLOAT, 0, mesh.getVertexData());
+			renderQueueWireframes(gl);
 		}
+		
+		/* Leave no buffer object bound, for code drawing from client-side arrays. */
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL2.GL_ELEMENT_ARRAY_BUFFER, 0);
+		
+		gl.glPopClientAttrib();
+		gl.glPopMatrix();
+		
+		/* Check for errors. */
+		OpenGLException.checkOpenGLError(gl);
+	}
+	
+	/**
+	 * Sends a mesh's vertex data to OpenGL and draws its polygons, with whatever material is bound.
+	 * 
+	 * @param gl The OpenGL state.
+	 * @param mesh The mesh to render.
+	 */
+	private void drawMesh(GL2 gl, Mesh mesh) throws OpenGLException
+	{
+		/* Enable the required vertex arrays, sourced from the mesh's buffer objects (which upload 
+		 * only what changed since the last draw). Each getter leaves its buffer bound. */
+		setVertexPointer(gl, mesh);
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
 
 		if (mesh.getNormalData() == null)
 		{
 			gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
 		}
+		else if (mesh.isDynamic())
+		{
+			/* Streamed right after the positions by setVertexPointer(), and the ring is still bound. */
+			gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+			gl.glNormalPointer(GL2.GL_FLOAT, 0, mesh.getStreamedNormalOffset());
+		}
 		else
 		{
+			mesh.getNormalBuffer(gl);
 			gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
-			gl.glNormalPointer(GL2.GL_FLOAT, 0, mesh.getNormalData());
+			gl.glNormalPointer(GL2.GL_FLOAT, 0, 0L);
 		}
 		
-		if (mesh.getTexCoordData() == null)
+		if (mesh.getTexCoordBuffer(gl) == null)
 		{
 			gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
 		}
 		else
 		{
 			gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
-			gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, mesh.getTexCoordData());
+			gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, 0L);
 		}
 
 		/* Send custom vertex attributes (if any) to OpenGL. */
 		bindRequiredMeshAttributes(gl, mesh);
 		
 		/* Render polygons. */
+		mesh.getPolygonBuffer(gl);
 		gl.glDrawElements(getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()), 
 						  mesh.getVerticesPerPolygon() * mesh.getPolygonCount(), 
 						  GL2.GL_UNSIGNED_INT, 
-						  mesh.getPolygonData());
+						  0L);
 		
-		/* Deactivate material and restore state. */
-		mesh.getMaterial().unbind(gl);
-
+		/* The next mesh may not supply (or need) the same custom attributes. */
+		unbindRequiredMeshAttributes(gl, mesh);
+	}
+	
+	/**
+	 * Points the vertex array at a mesh's positions on the GPU: the streaming buffer for dynamic 
+	 * meshes (which also get their normals streamed), or the mesh's own vertex buffer object.
+	 * 
+	 * @param gl The OpenGL state.
+	 * @param mesh The mesh to render.
+	 */
+	private void setVertexPointer(GL2 gl, Mesh mesh) throws OpenGLException
+	{
+		if (mesh.getVertexData() == null)
+		{
+			throw new OpenGLException("Mesh must have non-null vertex data to render!");
+		}
+		else if (mesh.isDynamic())
+		{
+			mesh.streamVertexData(gl, mStreamingBuffer);
+			gl.glVertexPointer(3, GL2.GL_FLOAT, 0, mesh.getStreamedVertexOffset());
+		}
+		else
+		{
+			mesh.getVertexBuffer(gl);
+			gl.glVertexPointer(3, GL2.GL_FLOAT, 0, 0L);
+		}
+	}
+	
+	/**
+	 * Renders the wireframes of all queued meshes, and their marked edges (e.g. for subdiv creases).
+	 * 
+	 * @param gl The OpenGL state.
+	 */
+	private void renderQueueWireframes(GL2 gl) throws OpenGLException
+	{
+		gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+		
+		/* Only positions are needed; don't leave other arrays pointing at some other mesh's data. */
+		gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+		gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+		gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
 		
-		/* Render mesh wireframe if we're supposed to. */
-		if (mRenderWireframes && mesh.getVerticesPerPolygon() > 2)
+		gl.glPolygonOffset(0.0f, 1.0f);
+		gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
+		
+		/* Polygon outlines. */
+		mWireframeMaterial.retrieveShader(gl, mShaderCache);
+		mWireframeMaterial.bind(gl);
+		gl.glLineWidth(1.0f);
+		gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_LINE);
+		
+		for (int i = 0; i < mRenderQueue.size(); ++i)
 		{
-			mWireframeMaterial.retrieveShader(gl, mShaderCache);
-			mWireframeMaterial.bind(gl);
-
-			gl.glLineWidth(1.0f);
-			gl.glPolygonOffset(0.0f, 1.0f);
-			gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
-			gl.glPolygonMode(GL2.GL_FRONT_AND_BACK, GL2.GL_LINE);
-
-			/* Render polygons. */
-			gl.glDrawElements(getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()), 
-					  mesh.getVerticesPerPolygon() * mesh.getPolygonCount(), 
-					  GL2.GL_UNSIGNED_INT, 
-					  mesh.getPolygonData());					
+			RenderQueue.Item item = mRenderQueue.get(i);
+			Mesh mesh = item.mesh;
 			
-			mWireframeMaterial.unbind(gl);
+			if (mesh.getVerticesPerPolygon() > 2)
+			{
+				gl.glLoadMatrixf(item.modelview, 0);
+				setVertexPointer(gl, mesh);
+				mesh.getPolygonBuffer(gl);
+				gl.glDrawElements(getOpenGLPrimitiveType(mesh.getVerticesPerPolygon()), 
+						  mesh.getVerticesPerPolygon() * mesh.getPolygonCount(), 
+						  GL2.GL_UNSIGNED_INT, 
+						  0L);
+			}
 		}
-
-		/* Render marked edges (e.g. for subdiv creases), if we're supposed to and if they exist. */
-		if (mRenderWireframes && mesh.getEdgeData() != null)
+		
+		mWireframeMaterial.unbind(gl);
+		
+		/* Marked edges. */
+		mWireframeMarkedEdgeMaterial.retrieveShader(gl, mShaderCache);
+		mWireframeMarkedEdgeMaterial.bind(gl);
+		gl.glLineWidth(5.0f);
+		
+		for (int i = 0; i < mRenderQueue.size(); ++i)
 		{
-			mWireframeMarkedEdgeMaterial.retrieveShader(gl, mShaderCache);
-			mWireframeMarkedEdgeMaterial.bind(gl);
-
-			gl.glLineWidth(5.0f);
-			gl.glPolygonOffset(0.0f, 1.0f);
-			gl.glEnable(GL2.GL_POLYGON_OFFSET_LINE);
-			gl.glDrawElements(GL2.GL_LINES, mesh.getEdgeData().capacity(), GL2.GL_UNSIGNED_INT, mesh.getEdgeData());
+			RenderQueue.Item item = mRenderQueue.get(i);
+			Mesh mesh = item.mesh;
 			
-			mWireframeMarkedEdgeMaterial.unbind(gl);
+			if (mesh.getEdgeData() != null)
+			{
+				gl.glLoadMatrixf(item.modelview, 0);
+				setVertexPointer(gl, mesh);
+				mesh.getEdgeBuffer(gl);
+				gl.glDrawElements(GL2.GL_LINES, mesh.getEdgeData().capacity(), GL2.GL_UNSIGNED_INT, 0L);
+			}
 		}
 		
-		gl.glPopClientAttrib();
+		mWireframeMarkedEdgeMaterial.unbind(gl);
 		gl.glPopAttrib();
-		
-		/* Check for errors. */
-		OpenGLException.checkOpenGLError(gl);
 	}
 	
 	/**
@@ -994,8 +1191,29 @@ public class Renderer
 			}
 			else
 			{
+				mesh.getVertexAttribBuffer(gl, attrib);
 				gl.glEnableVertexAttribArray(location);
-				gl.glVertexAttribPointer(location, attribData.capacity() / mesh.getVertexCount(), GL2.GL_FLOAT, false, 0, attribData);
+				gl.glVertexAttribPointer(location, attribData.capacity() / mesh.getVertexCount(), GL2.GL_FLOAT, false, 0, 0L);
+			}
+		}
+	}
+	
+	/**
+	 * Disables the custom vertex attribute arrays enabled by `bindRequiredMeshAttributes()`.
+	 * 
+	 * @param gl The OpenGL state.
+	 * @param mesh The mesh whose attributes were bound.
+	 */
+	void unbindRequiredMeshAttributes(GL2 gl, Mesh mesh)
+	{
+		ShaderProgram shader = mesh.getMaterial().getShaderProgram();
+		
+		for (String attrib : mesh.getMaterial().getRequiredVertexAttributes())
+		{
+			int location = shader.getAttribLocation(gl, attrib);
+			if (location >= 0)
+			{
+				gl.glDisableVertexAttribArray(location);
 			}
 		}
 	}
@@ -1200,6 +1418,70 @@ public class Renderer
 		mShowPenaltyForces = !mShowPenaltyForces;
 	}
 	
+	/**
+	 * Enables or disables culling objects outside the view frustum.
+	 */
+	public void setFrustumCulling(boolean enable)
+	{
+		mEnableFrustumCulling = enable;
+	}
+	
+	/**
+	 * Returns true if objects outside the view frustum are culled.
+	 */
+	public boolean getFrustumCulling()
+	{
+		return mEnableFrustumCulling;
+	}
+	
+	/**
+	 * Returns the number of meshes drawn in the last frame, over all passes.
+	 */
+	public int getMeshesDrawn()
+	{
+		return mMeshesDrawn;
+	}
+	
+	/**
+	 * Returns the number of meshes culled (outside the view frustum) in the last frame, over all passes.
+	 */
+	public int getMeshesCulled()
+	{
+		return mMeshesCulled;
+	}
+	
+	/**
+	 * Returns the number of times a shader was bound to draw meshes in the last frame, over all passes.
+	 */
+	public int getShaderBinds()
+	{
+		return mShaderBinds;
+	}
+	
+	/**
+	 * Returns the number of times a material was bound to draw meshes in the last frame, over all passes.
+	 */
+	public int getMaterialBinds()
+	{
+		return mMaterialBinds;
+	}
+	
+	/**
+	 * Returns the number of bytes of positions and normals dynamic meshes streamed in the last frame.
+	 */
+	public long getBytesStreamed()
+	{
+		return mStreamingBuffer.getBytesUploaded();
+	}
+	
+	/**
+	 * Returns the number of times the streaming buffer was orphaned (its storage respecified) in the last frame.
+	 */
+	public int getStreamingBufferOrphans()
+	{
+		return mStreamingBuffer.getOrphanCount();
+	}
+	
 	/**
 	 * Sets the shadow map bias
 	 */
@@ -1485,7 +1767,7 @@ public class Renderer
 			mWireframeMaterial = new UnshadedMaterial(new Color3f(0.8f, 0.8f, 0.8f));
 			mWireframeMarkedEdgeMaterial = new UnshadedMaterial(new Color3f(1.0f, 0.0f, 1.0f));
 			
-			sphereMesh = Sphere.load("models/lowpolysphere.obj", true, false).get(0).getMeshes().get(0);
+			sphereMesh = MeshRegistry.acquireMesh("models/lowpolysphere.obj", true, false);
 			sphereMesh.setMaterial(new LambertianMaterial(new Color3f(0.5f,0.5f,0.5f)));
 			
 			/* Do a resize to instatiate framebuffer objecs. */
@@ -1557,5 +1839,14 @@ public class Renderer
 		mShadowMapFBO.releaseGPUResources(gl);
 		mSandDuneShader.releaseGPUResources(gl);
 		mSBufferFBO.releaseGPUResources(gl);
+		
+		mStreamingBuffer.releaseGPUResources(gl);
+		
+		if (sphereMesh != null)
+		{
+			sphereMesh.releaseGPUResources(gl);
+			MeshRegistry.release("models/lowpolysphere.obj", true, false);
+			sphereMesh = null;
+		}
 	}
 }
@@ -27,7 +27,7 @@ public class ShaderProgram implements OpenGLResourceObject
 	/* Internal variables of the shader. */
 	private int mHandle = -1;
 	private int mPreviousBinding[] = new int[1];
-	private boolean mIsBound = false;
+	private int mBindDepth = 0;
 	
 	/**
 	 * Loads a shader resource named by the given identifier.
@@ -175,6 +175,10 @@ public class ShaderProgram implements OpenGLResourceObject
 	 * Activates this shader so it will be used for subsequent rendering.
 	 * 
 	 * You must also bind a shader to update its uniforms (other than bindable uniform buffers).
+	 * 
+	 * Binds nest: binding a shader that is already bound does nothing but has to be matched by an 
+	 * extra `unbind()`. This lets the renderer keep a shader bound across all the materials that 
+	 * use it, while each material still binds and unbinds it.
 	 */
 	public void bind(GL2 gl)
 	{
@@ -183,8 +187,8 @@ public class ShaderProgram implements OpenGLResourceObject
 			/* Remember the shader bound before us. */
 			gl.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, mPreviousBinding, 0);
 			gl.glUseProgram(mHandle);
-			mIsBound = true;
 		}
+		++mBindDepth;
 	}
 	
 	/**
@@ -192,21 +196,26 @@ public class ShaderProgram implements OpenGLResourceObject
 	 */
 	public boolean isBound()
 	{
-		return mIsBound;
+		return mBindDepth > 0;
 	}
 
 	/**
 	 * Unbinds this shader, so it will not be used for subsequent rendering.
 	 * 
 	 * This will restore whatever shader was bound when this shader's `bind()` function was called, 
-	 * which might be none, in which case you're back to the fixed-functionality pipeline.
+	 * which might be none, in which case you're back to the fixed-functionality pipeline. If the 
+	 * binds are nested, only the outermost unbind does so.
 	 */
 	public void unbind(GL2 gl)
 	{
 		if (isBound())
 		{
-			gl.glUseProgram(mPreviousBinding[0]);
-			mIsBound = false;
+			--mBindDepth;
+			
+			if (mBindDepth == 0)
+			{
+				gl.glUseProgram(mPreviousBinding[0]);
+			}
 		}
 	}
 	
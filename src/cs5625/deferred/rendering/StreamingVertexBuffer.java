@@ -0,0 +1,192 @@
+package cs5625.deferred.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL2;
+
+import cs5625.deferred.misc.OpenGLResourceObject;
+
+/**
+ * StreamingVertexBuffer.java
+ *
+ * One GL_ARRAY_BUFFER used as a ring, through which dynamic meshes (whose positions and normals
+ * change every frame, see Mesh.setDynamic()) stream their vertex data, instead of reallocating
+ * buffer objects of their own.
+ *
+ * Each upload takes the next free range of the ring, maps it unsynchronized and writes into it:
+ * no draw call issued so far reads that range, so there is nothing to wait for. When the ring is
+ * full, its storage is orphaned (respecified with no data): draw calls already issued keep the
+ * old storage, and writing starts over at the beginning of the new one. Offsets returned before
+ * an orphaning refer to the old storage, so users must upload again once getGeneration() changes.
+ */
+public class StreamingVertexBuffer implements OpenGLResourceObject
+{
+	/* Uploads start at multiples of this many bytes. */
+	private static final int ALIGNMENT = 64;
+
+	/* Size of the ring in bytes (doubled when one upload does not fit), OpenGL handle, next free byte,
+	 * and the number of times storage was (re)allocated. */
+	private int mSize;
+	private int mHandle = -1;
+	private int mOffset = 0;
+	private int mGeneration = 0;
+
+	/* Bytes written and storage (re)allocations since beginFrame(). */
+	private long mBytesUploaded = 0;
+	private int mOrphans = 0;
+
+	/**
+	 * Creates a streaming buffer with a ring of the given size, in bytes. No OpenGL object is
+	 * created until the first upload.
+	 */
+	public StreamingVertexBuffer(int size)
+	{
+		mSize = Math.max(size, ALIGNMENT);
+	}
+
+	/**
+	 * Resets the per-frame counters; call once at the start of every frame.
+	 */
+	public void beginFrame()
+	{
+		mBytesUploaded = 0;
+		mOrphans = 0;
+	}
+
+	/**
+	 * Returns the number of bytes uploaded since beginFrame().
+	 */
+	public long getBytesUploaded()
+	{
+		return mBytesUploaded;
+	}
+
+	/**
+	 * Returns the number of times the ring's storage was orphaned (or first allocated) since beginFrame().
+	 */
+	public int getOrphanCount()
+	{
+		return mOrphans;
+	}
+
+	/**
+	 * Returns the generation of the ring's storage; offsets returned by upload() are only valid while
+	 * it stays the same.
+	 */
+	public int getGeneration()
+	{
+		return mGeneration;
+	}
+
+	/**
+	 * Binds the ring to GL_ARRAY_BUFFER.
+	 */
+	public void bind(GL2 gl)
+	{
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mHandle);
+	}
+
+	/**
+	 * Writes all of positions, followed by all of normals (if not null), into the next free range of
+	 * the ring, and returns the byte offset of the positions; the normals start right after them. The
+	 * ring is left bound to GL_ARRAY_BUFFER.
+	 */
+	public long upload(GL2 gl, FloatBuffer positions, FloatBuffer normals)
+	{
+		int nPositions = positions.capacity();
+		int nNormals = (normals == null) ? 0 : normals.capacity();
+		int bytes = 4 * (nPositions + nNormals);
+
+		if (mHandle < 0)
+		{
+			int names[] = new int[1];
+			gl.glGenBuffers(1, names, 0);
+			mHandle = names[0];
+			mOffset = -1;
+		}
+		gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, mHandle);
+
+		/* Grow the ring if this upload alone does not fit, and start over in new storage when full. */
+		if (bytes > mSize)
+		{
+			while (mSize < bytes)
+			{
+				mSize *= 2;
+			}
+			orphan(gl);
+		}
+		else if (mOffset < 0 || mOffset + bytes > mSize)
+		{
+			orphan(gl);
+		}
+
+		/* Nothing issued so far reads this range, so it can be written without synchronizing. */
+		ByteBuffer mapped = gl.glMapBufferRange(GL2.GL_ARRAY_BUFFER, mOffset, bytes,
+				GL2.GL_MAP_WRITE_BIT | GL2.GL_MAP_INVALIDATE_RANGE_BIT | GL2.GL_MAP_UNSYNCHRONIZED_BIT);
+		boolean written = false;
+
+		if (mapped != null)
+		{
+			FloatBuffer out = mapped.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			out.put(whole(positions));
+			if (normals != null)
+			{
+				out.put(whole(normals));
+			}
+			written = gl.glUnmapBuffer(GL2.GL_ARRAY_BUFFER);
+		}
+
+		/* Mapping failed (or the mapped data was lost): copy the data in instead. */
+		if (!written)
+		{
+			gl.glBufferSubData(GL2.GL_ARRAY_BUFFER, mOffset, 4L * nPositions, whole(positions));
+			if (normals != null)
+			{
+				gl.glBufferSubData(GL2.GL_ARRAY_BUFFER, mOffset + 4L * nPositions, 4L * nNormals, whole(normals));
+			}
+		}
+
+		long offset = mOffset;
+		mOffset += (bytes + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+		mBytesUploaded += bytes;
+		return offset;
+	}
+
+	/**
+	 * Gives the ring new storage, leaving the old one to draw calls already issued.
+	 */
+	private void orphan(GL2 gl)
+	{
+		gl.glBufferData(GL2.GL_ARRAY_BUFFER, mSize, null, GL2.GL_STREAM_DRAW);
+		mOffset = 0;
+		++mGeneration;
+		++mOrphans;
+	}
+
+	/**
+	 * Returns a view of all of buf, leaving its position unchanged.
+	 */
+	private static FloatBuffer whole(FloatBuffer buf)
+	{
+		FloatBuffer view = buf.duplicate();
+		view.clear();
+		return view;
+	}
+
+	/**
+	 * Destroys the OpenGL buffer. A later upload creates a new one.
+	 */
+	public void releaseGPUResources(GL2 gl)
+	{
+		if (mHandle >= 0)
+		{
+			int names[] = new int[1];
+			names[0] = mHandle;
+			gl.glDeleteBuffers(1, names, 0);
+			mHandle = -1;
+			++mGeneration;
+		}
+	}
+}
@@ -41,6 +41,9 @@ public class Geometry extends SceneObject
 	/* List of meshes in this object. */
 	protected ArrayList<Mesh> mMeshes = new ArrayList<Mesh>();
 	
+	/* Temp space for updating bounds. */
+	private Point3f tempCenter = new Point3f();
+	
 	/**
 	 * Returns the list of meshes in this geometry object.
 	 */
@@ -111,6 +114,20 @@ public class Geometry extends SceneObject
 		}
 	}
 	
+	@Override
+	public void updateWorldBounds()
+	{
+		super.updateWorldBounds();
+		
+		/* Add the bounding sphere of each mesh, moved to world space. */
+		for (Mesh mesh : mMeshes)
+		{
+			float radius = mesh.getBoundingSphere(tempCenter);
+			transformPointToWorldSpace(tempCenter, tempCenter);
+			includeInWorldBounds(tempCenter, transformDistanceToWorldSpace(radius));
+		}
+	}
+	
 	@Override
 	public void calculateTangentVectorsForAllGeometry()
 	{
@@ -139,6 +156,9 @@ public class Geometry extends SceneObject
 	 * The 'mtllib' command will look for material files in the same directory as the model file, loading them
 	 * with `Material.load()`.
 	 * 
+	 * The parsed model is saved in a binary cache file (see MeshCache), and later loads of the same,
+	 * unchanged file map that instead of parsing it again.
+	 * 
 	 * @param identifier The identifier, or package path, to the model file to load. 
 	 *        Typically of the form "models/foo.obj".
 	 * @param loadMaterials If true, material and texture files referenced from the .obj model will be loaded, and
@@ -152,6 +172,97 @@ public class Geometry extends SceneObject
 	 * @return A list of geometry objects from the model file. Null if the file doesn't exist.
 	 */
 	public static List<Geometry> load(String identifier, boolean loadMaterials, boolean centerObjects) throws IOException
+	{
+		URL url = Geometry.class.getClassLoader().getResource(identifier);
+		if (url == null)
+		{
+			throw new IOException("Could not find model file '" + identifier + "'.");
+		}
+		
+		/* Parse the file, unless it has an up-to-date binary cache. */
+		ArrayList<String> materialLibraries = new ArrayList<String>();
+		List<Geometry> results = MeshCache.read(identifier, url, materialLibraries);
+		
+		if (results == null)
+		{
+			results = parseOBJ(identifier, url, materialLibraries);
+			MeshCache.write(identifier, url, results, materialLibraries);
+		}
+		
+		/* Load the material files referenced by the model, and assign materials by mesh name. */
+		if (loadMaterials)
+		{
+			HashMap<String, Material> allMaterials = new HashMap<String, Material>();
+			allMaterials.put("", new BlinnPhongMaterial());
+			
+			for (String library : materialLibraries)
+			{
+				allMaterials.putAll(Material.load(library));
+			}
+			
+			for (Geometry object : results)
+			{
+				for (Mesh mesh : object.getMeshes())
+				{
+					if (allMaterials.containsKey(mesh.getName()))
+					{
+						mesh.setMaterial(allMaterials.get(mesh.getName()));
+					}
+				}
+			}
+		}
+		
+		/* If we are supposed to re-center each object, do that now. */
+		if (centerObjects)
+		{
+			for (Geometry object : results)
+			{
+				/* Find the average vertex position in this object. */
+				Point3f currentPositionAverage = new Point3f(0.0f, 0.0f, 0.0f);
+				int currentPositionCount = 0;
+				
+				for (Mesh mesh : object.getMeshes())
+				{
+					FloatBuffer vertices = mesh.getVertexData();
+					
+					for (int v = 0; v < mesh.getVertexCount(); ++v)
+					{
+						currentPositionAverage.x += vertices.get(3 * v + 0);
+						currentPositionAverage.y += vertices.get(3 * v + 1);
+						currentPositionAverage.z += vertices.get(3 * v + 2);
+					}
+					currentPositionCount += mesh.getVertexCount();
+				}
+				
+				currentPositionAverage.scale(1.0f / currentPositionCount);
+				
+				for (Mesh mesh : object.getMeshes())
+				{
+					FloatBuffer vertices = mesh.getVertexData();
+					
+					for (int v = 0; v < mesh.getVertexCount(); ++v)
+					{
+						vertices.put(3 * v + 0, vertices.get(3 * v + 0) - currentPositionAverage.x);
+						vertices.put(3 * v + 1, vertices.get(3 * v + 1) - currentPositionAverage.y);
+						vertices.put(3 * v + 2, vertices.get(3 * v + 2) - currentPositionAverage.z);
+					}
+					mesh.markVertexDataDirty();
+				}
+				
+				object.getPosition().set(currentPositionAverage);
+				object.markTransformDirty();
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Parses a wavefront object file into geometry objects, as described for load(), but without
+	 * loading materials or centering objects. The identifiers of the material files it references
+	 * are added to materialLibraries.
+	 */
+	private static List<Geometry> parseOBJ(String identifier, URL url, List<String> materialLibraries) throws IOException
 	{
 		/* Declare temporary lists used to store all the data read from the file before indexing 
 		 * and breaking up into individual meshes. */
@@ -170,14 +281,11 @@ public class Geometry extends SceneObject
 		ArrayList<String> meshMaterialNames = new ArrayList<String>();
 		ArrayList<Integer> edgeDelimeters = new ArrayList<Integer>();
 
-		/* Map to store all materials loaded from the file. */
-		HashMap<String, Material> allMaterials = new HashMap<String, Material>();
-		
 		/* Read the file into those temporary buffers. */
 		parseRawOBJfile(
-				identifier, loadMaterials, 
+				identifier, url, 
 				allVertices, allNormals, allTexcoords, allPolygons, allEdges, 
-				objectDelimeters, objectNames, meshDelimeters, meshMaterialNames, edgeDelimeters, allMaterials);
+				objectDelimeters, objectNames, meshDelimeters, meshMaterialNames, edgeDelimeters, materialLibraries);
 		
 		/* PHASE 2 -- reassemble temporary buffers into our desired data structures. */
 		
@@ -195,10 +303,6 @@ public class Geometry extends SceneObject
 			currentObject.setName(objectNames.get(objectIndex));
 			int objectLastIndex = objectDelimeters.get(objectIndex + 1);
 			
-			/* Keep track of the average vertex position in this object. */
-			Point3f currentPositionAverage = new Point3f(0.0f, 0.0f, 0.0f);
-			int currentPositionCount = 0;
-			
 			/* Loop over each mesh in this object. */
 			while (meshIndex < meshDelimeters.size() - 1 && meshDelimeters.get(meshIndex + 1) <= objectLastIndex)
 			{
@@ -296,10 +400,6 @@ public class Geometry extends SceneObject
 					meshNormals.put(3 * vIndex + 0, normal.x);
 					meshNormals.put(3 * vIndex + 1, normal.y);
 					meshNormals.put(3 * vIndex + 2, normal.z);
-					
-					/* Accumulate in position average. */
-					currentPositionAverage.add(vertex);
-					++currentPositionCount;
 				}
 				
 				/* Since these nio buffers are (sort of) stream oriented, rewind them. */
@@ -379,14 +479,9 @@ public class Geometry extends SceneObject
 					mesh.setEdgeData(meshEdges);
 				}
 				
-				/* Assign the mesh's name and material. */
+				/* Name the mesh after its material. */
 				mesh.setName(meshMaterialNames.get(meshIndex));
 				
-				if (loadMaterials && allMaterials.containsKey(mesh.getName()))
-				{
-					mesh.setMaterial(allMaterials.get(mesh.getName()));
-				}
-				
 				/* Now that we have the mesh, add it to the current object. */
 				currentObject.addMesh(mesh);
 				
@@ -394,26 +489,6 @@ public class Geometry extends SceneObject
 				++meshIndex;
 			}
 			
-			/* If we are supposed to re-center each object, do that now. */
-			if (centerObjects)
-			{
-				currentPositionAverage.scale(1.0f / currentPositionCount);
-				
-				for (Mesh mesh : currentObject.getMeshes())
-				{
-					FloatBuffer vertices = mesh.getVertexData();
-					
-					for (int v = 0; v < mesh.getVertexCount(); ++v)
-					{
-						vertices.put(3 * v + 0, vertices.get(3 * v + 0) - currentPositionAverage.x);
-						vertices.put(3 * v + 1, vertices.get(3 * v + 1) - currentPositionAverage.y);
-						vertices.put(3 * v + 2, vertices.get(3 * v + 2) - currentPositionAverage.z);
-					}
-				}
-				
-				currentObject.getPosition().set(currentPositionAverage);
-			}
-			
 			/* Add the finished object if it's not empty. */
 			if (currentObject.getMeshes().size() > 0)
 			{
@@ -426,7 +501,7 @@ public class Geometry extends SceneObject
 	
 	private static void parseRawOBJfile(
 		String identifier, 
-		boolean loadMaterials,
+		URL url,
 		ArrayList<Vector3f> allVertices, 
 		ArrayList<Vector3f> allNormals, 
 		ArrayList<Vector2f> allTexcoords,
@@ -437,15 +512,9 @@ public class Geometry extends SceneObject
 		ArrayList<Integer> meshDelimeters,
 		ArrayList<String> meshMaterialNames,
 		ArrayList<Integer> edgeDelimeters,
-		HashMap<String, Material> allMaterials) throws IOException
+		List<String> materialLibraries) throws IOException
 	{
 		/* Open the file. */
-		URL url = Geometry.class.getClassLoader().getResource(identifier);
-		if (url == null)
-		{
-			throw new IOException("Could not find model file '" + identifier + "'.");
-		}
-
 		BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()));
 
 		/* Dummy entries at index 0 so that the 1-based indexing of the OBJ format can be used directly. */
@@ -461,7 +530,6 @@ public class Geometry extends SceneObject
 		edgeDelimeters.add(allEdges.size());
 
 		meshMaterialNames.add("");
-		allMaterials.put("", new BlinnPhongMaterial());
 		
 		/* Read each line and add the parsed data to the appropriate temporary list. */
 		String line = reader.readLine();
@@ -533,11 +601,11 @@ public class Geometry extends SceneObject
 					/* Remember which edges go to which mesh. */
 					edgeDelimeters.add(allEdges.size());
 				}
-				else if (words[0].equals("mtllib") && loadMaterials)
+				else if (words[0].equals("mtllib"))
 				{
-					/* Try to load the named material file, assumed to be in the same directory as the model. */
+					/* Remember the named material file, assumed to be in the same directory as the model. */
 					String mtlFileName = line.substring("mtllib".length()).trim();
-					allMaterials.putAll(Material.load(Util.makeIdentifierOfSibling(identifier, mtlFileName)));
+					materialLibraries.add(Util.makeIdentifierOfSibling(identifier, mtlFileName));
 				}
 				else if (words[0].equals("usemtl"))
 				{
@@ -1,19 +1,22 @@
 package cs5625.deferred.scenegraph;
 
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.HashMap;
+import java.util.Map;
 
 import javax.media.opengl.GL2;
-import javax.vecmath.GMatrix;
-import javax.vecmath.GVector;
-import javax.vecmath.Vector3f;
+import javax.vecmath.Point3f;
 
 import com.jogamp.common.nio.Buffers;
 
 import cs5625.deferred.materials.BlinnPhongMaterial;
 import cs5625.deferred.materials.Material;
 import cs5625.deferred.misc.OpenGLResourceObject;
+import cs5625.deferred.misc.ParallelLoop;
+import cs5625.deferred.rendering.BufferObject;
+import cs5625.deferred.rendering.StreamingVertexBuffer;
 
 /**
  * Mesh.java
@@ -47,6 +50,34 @@ public abstract class Mesh implements OpenGLResourceObject
 	 */
 	public HashMap<String, FloatBuffer> vertexAttribData = new HashMap<String, FloatBuffer>();
 	
+	/* Scratch space of computeTangentVectors(), kept from call to call: per-triangle tangents,
+	 * the triangles around each vertex (for polygon buffer mTangentTopology), and the tangent
+	 * buffer this mesh owns. Not shared by clones. */
+	private float[] mTriangleTangents;
+	private int[] mVertexTriangleStart, mVertexTriangles;
+	private IntBuffer mTangentTopology;
+	private FloatBuffer mTangentData;
+	
+	/* Object-space bounding sphere of the vertices, computed when first needed after the vertex 
+	 * data changes; see getBoundingSphere(). */
+	private Point3f mBoundsCenter = new Point3f();
+	private float mBoundsRadius = 0.0f;
+	private boolean mBoundsValid = false;
+	
+	/* OpenGL buffer objects holding copies of the buffers above, and of the vertex attributes by name, 
+	 * created the first time they are drawn (see getVertexBuffer() and friends). Shared by clones 
+	 * for as long as they hold the same buffers (see shareBufferObjects()). */
+	private BufferObject mVertexBuffer, mNormalBuffer, mTexCoordBuffer, mPolygonBuffer, mEdgeBuffer;
+	private HashMap<String, BufferObject> mAttribBuffers = new HashMap<String, BufferObject>();
+	
+	/* Dynamic meshes stream positions and normals through a StreamingVertexBuffer instead (see 
+	 * setDynamic()): byte offsets of their last upload, the generation of the streaming buffer 
+	 * storage it went to, and whether they changed since. */
+	private boolean mDynamic = false;
+	private long mStreamedVertexOffset = 0, mStreamedNormalOffset = 0;
+	private int mStreamedGeneration = -1;
+	private boolean mStreamDirty = true;
+	
 	/**
 	 * Implemented by subclasses to specify how many vertices per polygon this type of mesh has.
 	 */
@@ -62,195 +93,277 @@ public abstract class Mesh implements OpenGLResourceObject
 	public abstract FloatBuffer calculateTangentVectors();
 	
 	/**
-	 * Computes the tangent and bitangent vectors of triangle with vertex indices (i1, i2, i3). 
-	 * using the idea described in  http://www.terathon.com/code/tangent.html
+	 * Computes tangent vectors for the triangles of this mesh, as described in
+	 * http://www.terathon.com/code/tangent.html, and returns them (4 floats per
+	 * vertex, as for calculateTangentVectors()). Every polygon is split into a
+	 * fan of triangles around its first vertex.
 	 * 
-	 * The computed tangent vectors should be accumulated in the array tan1[], and the
-	 * computed bitangent vectors should be accumulated in the array tan2[].	 
-	 */
-	protected void computeAndAccumulateTangentVectors(int i1, int i2, int i3, float tan1[], float[] tan2) {
-		/* Get vertex coordinates of this triangle. */
-		Vector3f p0 = new Vector3f(mVertexData.get(3 * i1 + 0), mVertexData.get(3 * i1 + 1), mVertexData.get(3 * i1 + 2));
-		Vector3f p1 = new Vector3f(mVertexData.get(3 * i2 + 0), mVertexData.get(3 * i2 + 1), mVertexData.get(3 * i2 + 2));
-		Vector3f p2 = new Vector3f(mVertexData.get(3 * i3 + 0), mVertexData.get(3 * i3 + 1), mVertexData.get(3 * i3 + 2));		
-
-		/* Get texture coordinates of this triangle. */
-		float u1 = mTexCoordData.get(2 * i1 + 0);
-		float v1 = mTexCoordData.get(2 * i1 + 1);
-
-		float u2 = mTexCoordData.get(2 * i2 + 0);
-		float v2 = mTexCoordData.get(2 * i2 + 1);
-
-		float u3 = mTexCoordData.get(2 * i3 + 0);
-		float v3 = mTexCoordData.get(2 * i3 + 1);			
+	 * The tangent of every triangle is computed first, then each vertex sums
+	 * those of the triangles around it and orthonormalizes the sum against its
+	 * normal; both passes run in parallel (see ParallelLoop), over
+	 * primitive arrays kept from call to call. The result is written into this
+	 * mesh's own "VertexTangent" vertex attribute buffer, which is only
+	 * allocated the first time (or when the vertex count changes), so animated
+	 * meshes can call this every frame.
+	 */
+	protected FloatBuffer computeTangentVectors()
+	{
+		final int nVertices = getVertexCount();
+		final int vpp = getVerticesPerPolygon();
+		final int tpp = vpp - 2;
+		final int nTriangles = getPolygonCount() * tpp;
+		if (nVertices == 0 || nTriangles <= 0 || mNormalData == null)
+		{
+			return null;
+		}
+		
+		/* (Re)build the triangles around each vertex when the topology changes. */
+		if (mTangentTopology != mPolygonData || mVertexTriangleStart == null || mVertexTriangleStart.length != nVertices + 1)
+		{
+			buildVertexTriangles(nVertices, nTriangles, vpp);
+		}
+		if (mTriangleTangents == null || mTriangleTangents.length != 3 * nTriangles)
+		{
+			mTriangleTangents = new float[3 * nTriangles];
+		}
+		if (mTangentData == null || mTangentData.capacity() != 4 * nVertices)
+		{
+			mTangentData = Buffers.newDirectFloatBuffer(4 * nVertices);
+		}
+		vertexAttribData.put("VertexTangent", mTangentData);
+		
+		final FloatBuffer positions = mVertexData, texCoords = mTexCoordData, normals = mNormalData;
+		final IntBuffer polygons = mPolygonData;
+		final float[] tan1 = mTriangleTangents;
+		final int[] start = mVertexTriangleStart, triangles = mVertexTriangles;
+		final FloatBuffer result = mTangentData;
+		
+		ParallelLoop.run(nTriangles, new ParallelLoop.Body() {
+			public void run(int lo, int hi) {
+				for (int t = lo; t < hi; ++t)
+				{
+					int p = vpp * (t / tpp), k = t % tpp;
+					computeTriangleTangents(polygons.get(p), polygons.get(p + k + 1), polygons.get(p + k + 2),
+							positions, texCoords, tan1, 3 * t);
+				}
+			}
+		});
+		
+		ParallelLoop.run(nVertices, new ParallelLoop.Body() {
+			public void run(int lo, int hi) {
+				for (int v = lo; v < hi; ++v)
+				{
+					orthonormalizeTangent(v, start, triangles, tan1, normals, result);
+				}
+			}
+		});
+		
+		markVertexAttribDirty("VertexTangent");
+		return result;
+	}
+	
+	/**
+	 * Lists, for every vertex, the triangles (of the polygon fans) it is a corner of, in compressed rows.
+	 */
+	private void buildVertexTriangles(int nVertices, int nTriangles, int vpp)
+	{
+		int tpp = vpp - 2;
+		int[] start = new int[nVertices + 1];
+		int[] triangles = new int[3 * nTriangles];
 		
+		for (int t = 0; t < nTriangles; ++t)
+		{
+			int p = vpp * (t / tpp), k = t % tpp;
+			start[mPolygonData.get(p) + 1]++;
+			start[mPolygonData.get(p + k + 1) + 1]++;
+			start[mPolygonData.get(p + k + 2) + 1]++;
+		}
+		for (int v = 0; v < nVertices; ++v)
+		{
+			start[v + 1] += start[v];
+		}
+		
+		int[] fill = new int[nVertices];
+		for (int t = 0; t < nTriangles; ++t)
+		{
+			int p = vpp * (t / tpp), k = t % tpp;
+			int i1 = mPolygonData.get(p), i2 = mPolygonData.get(p + k + 1), i3 = mPolygonData.get(p + k + 2);
+			triangles[start[i1] + fill[i1]++] = t;
+			triangles[start[i2] + fill[i2]++] = t;
+			triangles[start[i3] + fill[i3]++] = t;
+		}
+		
+		mVertexTriangleStart = start;
+		mVertexTriangles = triangles;
+		mTangentTopology = mPolygonData;
+	}
+	
+	/**
+	 * Computes the tangent vector of triangle with vertex indices (i1, i2, i3), and stores it
+	 * in tan1[o..o+2] (zeros if the texture coordinates are degenerate).
+	 */
+	private static void computeTriangleTangents(int i1, int i2, int i3, FloatBuffer positions, FloatBuffer texCoords,
+			float[] tan1, int o)
+	{
 		/* Get positions of vertices relative to the first vertex. */
-		Vector3f q1 = new Vector3f();
-		Vector3f q2 = new Vector3f();
+		float x1 = positions.get(3 * i2 + 0) - positions.get(3 * i1 + 0);
+		float y1 = positions.get(3 * i2 + 1) - positions.get(3 * i1 + 1);
+		float z1 = positions.get(3 * i2 + 2) - positions.get(3 * i1 + 2);
+		float x2 = positions.get(3 * i3 + 0) - positions.get(3 * i1 + 0);
+		float y2 = positions.get(3 * i3 + 1) - positions.get(3 * i1 + 1);
+		float z2 = positions.get(3 * i3 + 2) - positions.get(3 * i1 + 2);
 		
-		q1.sub(p1, p0);
-		q2.sub(p2, p0);
-
-		/* TODO PA3 Prereq (Optional): Construct the Q matrix */
-		GMatrix matQ = new GMatrix(2, 3);
-		GVector Q1 = new GVector(q1);
-		GVector Q2 = new GVector(q2);
-		matQ.setRow(0, Q1);
-		matQ.setRow(1, Q2);
-
 		/* Get texture coordinates relative to the first vertex. */
-        float s1 = u2 - u1;
-        float s2 = u3 - u1;
-        float t1 = v2 - v1;
-        float t2 = v3 - v1;
-        
-        /* This can happen because of (1) missing texture
-         * (2) broken texture coordinates, so we skip it. */
-        if (Math.abs(s1 * t2 - s2 * t1) < EPS) {
-        	return;
-        }
-
-		/* TODO PA3 Prereq (Optional): Construct the inverse (s,t) matrix, and compute 
-		 * tangent and bitangent vectors as explained on Lengyel's site. */       
-        
-        /* Allocate space for the tangent and bitangent vectors */
-		GMatrix inverseST = new GMatrix(2,2);
-		float inverseConst = 1.0f/(t2*s1-t1*s2);
-		inverseST.setElement(0, 0, t2*inverseConst); 
-		inverseST.setElement(0, 1, -t1*inverseConst); 
-		inverseST.setElement(1, 0, -s2*inverseConst); 
-		inverseST.setElement(1, 1, s1*inverseConst); 
-		
-		matQ.mul(inverseST, matQ);
-		
-		GVector tangent = new GVector(3);
-		GVector bi_tangent = new GVector(3);
-		
-		matQ.getRow(0, tangent);
-		matQ.getRow(1, bi_tangent);
-//		tangent.normalize();
-//		bi_tangent.normalize();
-		
-		/* Accumulate into temporary arrays. */
-		tan1[3 * i1 + 0] += tangent.getElement(0);
-		tan1[3 * i1 + 1] += tangent.getElement(1);
-		tan1[3 * i1 + 2] += tangent.getElement(2);
-		
-		tan1[3 * i2 + 0] += tangent.getElement(0);
-		tan1[3 * i2 + 1] += tangent.getElement(1);
-		tan1[3 * i2 + 2] += tangent.getElement(2);
-
-		tan1[3 * i3 + 0] += tangent.getElement(0);
-		tan1[3 * i3 + 1] += tangent.getElement(1);
-		tan1[3 * i3 + 2] += tangent.getElement(2);
-
-		tan2[3 * i1 + 0] += bi_tangent.getElement(0);
-		tan2[3 * i1 + 1] += bi_tangent.getElement(1);
-		tan2[3 * i1 + 2] += bi_tangent.getElement(2);
+		float s1 = 0f, s2 = 0f, t1 = 0f, t2 = 0f;
+		if (texCoords != null)
+		{
+			s1 = texCoords.get(2 * i2 + 0) - texCoords.get(2 * i1 + 0);
+			s2 = texCoords.get(2 * i3 + 0) - texCoords.get(2 * i1 + 0);
+			t1 = texCoords.get(2 * i2 + 1) - texCoords.get(2 * i1 + 1);
+			t2 = texCoords.get(2 * i3 + 1) - texCoords.get(2 * i1 + 1);
+		}
 		
-		tan2[3 * i2 + 0] += bi_tangent.getElement(0);
-		tan2[3 * i2 + 1] += bi_tangent.getElement(1);
-		tan2[3 * i2 + 2] += bi_tangent.getElement(2);
-
-		tan2[3 * i3 + 0] += bi_tangent.getElement(0);
-		tan2[3 * i3 + 1] += bi_tangent.getElement(1);
-		tan2[3 * i3 + 2] += bi_tangent.getElement(2);
+		/* This can happen because of (1) missing texture
+		 * (2) broken texture coordinates, so we skip it. */
+		if (Math.abs(s1 * t2 - s2 * t1) < EPS)
+		{
+			tan1[o] = tan1[o + 1] = tan1[o + 2] = 0f;
+			return;
+		}
+		
+		/* T = first row of inverse([s1 t1; s2 t2]) * [q1; q2] (the bitangent, the second row,
+		 * is not needed: it is rebuilt from the normal and tangent). */
+		float r = 1.0f / (t2 * s1 - t1 * s2);
+		tan1[o + 0] = (t2 * x1 - t1 * x2) * r;
+		tan1[o + 1] = (t2 * y1 - t1 * y2) * r;
+		tan1[o + 2] = (t2 * z1 - t1 * z2) * r;
 	}
 	
 	/**
-	 * Averages and normalizes all tangent vectors, previously accumulated by computeAndAccumulateTangentVectors()
-	 * for every triangle. The input arrays tan1 and tan2 should be the same arrays, passed to the above function.
-	 * 	 
-	 * The output is a 4-vector for each vertex, storing the handedness in the w component. Bitangents 
-	 * can be computed from normals and tangents as `cross(normal, tangent.xyz) * tangent.w`. 	 
+	 * Sums the tangents of the triangles around vertex v, orthonormalizes the sum against the
+	 * vertex normal and stores it, with its handedness in the w component, in result.
 	 */
-	protected FloatBuffer averageAndNormalizeAllTangentVectors(float tan1[], float[] tan2) {
-		/* Allocate result buffer and loop over vertices. */
-		FloatBuffer result = Buffers.newDirectFloatBuffer(4 * getVertexCount());
+	private static void orthonormalizeTangent(int v, int[] start, int[] triangles, float[] tan1,
+			FloatBuffer normals, FloatBuffer result)
+	{
+		/* Get vertex normal. */
+		float nx = normals.get(3 * v + 0), ny = normals.get(3 * v + 1), nz = normals.get(3 * v + 2);
+		float nl = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+		nx /= nl;
+		ny /= nl;
+		nz /= nl;
 		
-		for (int vIndex = 0; vIndex < getVertexCount(); ++vIndex)
+		/* Get tentative tangent vector at this vertex. */
+		float tx = 0f, ty = 0f, tz = 0f;
+		for (int k = start[v]; k < start[v + 1]; ++k)
 		{
-			/* Get vertex normal. */
-			Vector3f normal = new Vector3f(mNormalData.get(3 * vIndex + 0), mNormalData.get(3 * vIndex + 1), mNormalData.get(3 * vIndex + 2));
-			normal.normalize();
-			
-			/* Get tentative tangent and bitangent vectors at this vertex. */
-			Vector3f tangent = new Vector3f(tan1[3 * vIndex + 0], tan1[3 * vIndex + 1], tan1[3 * vIndex + 2]);
-			Vector3f bitangent = new Vector3f(tan2[3 * vIndex + 0], tan2[3 * vIndex + 1], tan2[3 * vIndex + 2]);
-						
-			/* If the tangent is the zero vector, then there were no valid texture coordinates,
-			 * so we generate a tangent space starting from an arbitrary vector: e.g. (1, 0, 0) */			
-			if (tangent.length() < EPS) {
-				/* This computes 'n cross (1, 0, 0)' */
-				tangent = new Vector3f(0, normal.z, -normal.y);				
-				
-				/* If this coincides with the normal, pick (0, 1, 0) */
-				if (tangent.length() < EPS) {
-					/* This computes 'n cross (0, 1, 0)' */
-					tangent = new Vector3f(-normal.z, 0, normal.x);				
-				}
-				
-				/* Make sure this is all zeros as well */
-				bitangent = new Vector3f(0, 0, 0);
-			}
-			
-			tangent.normalize();
-			bitangent.normalize();
-			
-			/* TODO PA3 Prereq (Optional): Orthogonalize and normalize (aka. create orthonormal basis), based on
-			 * the current normal and tangent vectors, as explained on Lengyel's site. */   
-			
-			Vector3f tangent_orth = new Vector3f();
-			Vector3f bitangent_orth = new Vector3f();
-			
-			tangent_orth.set(normal);
-			tangent_orth.scale(-normal.dot(tangent));
-			tangent_orth.add(tangent);			
-			tangent_orth.normalize();
-			
-			//bitangent_orth.set(bitangent);
-			//bitangent_orth.scaleAdd(-normal.dot(bitangent), normal, bitangent_orth);
-			//bitangent_orth.scaleAdd(-tangent_orth.dot(bitangent), tangent_orth, bitangent_orth);
-			//bitangent_orth.normalize();
-			
-			bitangent_orth.cross(normal, tangent_orth);
-			bitangent_orth.normalize();
-			
-			/* TODO PA3 Prereq (Optional): Compute handedness of bitangent, as explained on Lengyel's site. */			
-			float handedness = 1.0f;
+			int o = 3 * triangles[k];
+			tx += tan1[o];
+			ty += tan1[o + 1];
+			tz += tan1[o + 2];
+		}
+		
+		/* If the tangent is the zero vector, then there were no valid texture coordinates,
+		 * so we generate a tangent space starting from an arbitrary vector: e.g. (1, 0, 0) */
+		if (Math.sqrt(tx * tx + ty * ty + tz * tz) < EPS)
+		{
+			/* This computes 'n cross (1, 0, 0)' */
+			tx = 0f;
+			ty = nz;
+			tz = -ny;
 			
-			float dnt = tangent_orth.x*bitangent_orth.y*normal.z+
-					tangent_orth.y*bitangent_orth.z*normal.x+
-					tangent_orth.z*bitangent_orth.x*normal.y-
-					tangent_orth.z*bitangent_orth.y*normal.x-
-					tangent_orth.y*bitangent_orth.x*normal.z-
-					tangent_orth.x*bitangent_orth.z*normal.y;
-
-			if (dnt > 0){
-				handedness = 1.0f;
+			/* If this coincides with the normal, pick (0, 1, 0) */
+			if (Math.sqrt(tx * tx + ty * ty + tz * tz) < EPS)
+			{
+				/* This computes 'n cross (0, 1, 0)' */
+				tx = -nz;
+				ty = 0f;
+				tz = nx;
 			}
-			else{
-				handedness = -1.0f;
-			}
-			
-			/* Store the normalized result in the first 3 components, and the handedness in the last one */		
-			result.put(4 * vIndex + 0, tangent_orth.x);
-			result.put(4 * vIndex + 1, tangent_orth.y);
-			result.put(4 * vIndex + 2, tangent_orth.z);
-			result.put(4 * vIndex + 3, handedness);				
 		}
 		
-		return result;
+		float tl = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+		tx /= tl;
+		ty /= tl;
+		tz /= tl;
+		
+		/* Gram-Schmidt: remove the normal component and normalize. */
+		float d = nx * tx + ny * ty + nz * tz;
+		tx -= d * nx;
+		ty -= d * ny;
+		tz -= d * nz;
+		tl = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+		tx /= tl;
+		ty /= tl;
+		tz /= tl;
+		
+		/* Bitangent = n x t, normalized; handedness is the sign of det(t, b, n). */
+		float bx = ny * tz - nz * ty, by = nz * tx - nx * tz, bz = nx * ty - ny * tx;
+		float bl = (float) Math.sqrt(bx * bx + by * by + bz * bz);
+		bx /= bl;
+		by /= bl;
+		bz /= bl;
+		
+		float dnt = tx * by * nz + ty * bz * nx + tz * bx * ny - tz * by * nx - ty * bx * nz - tx * bz * ny;
+		
+		/* Store the normalized result in the first 3 components, and the handedness in the last one */
+		result.put(4 * v + 0, tx);
+		result.put(4 * v + 1, ty);
+		result.put(4 * v + 2, tz);
+		result.put(4 * v + 3, (dnt > 0) ? 1.0f : -1.0f);
 	}
 	
-	
-	
 	/**
 	 * Creates a shallow copy of the given mesh (it will share references to all member data).
 	 * This allows us to do useful things like create many instances of some object with
 	 * different names and materials but only one set of float buffers for all instances.
+	 * The copy also shares the buffer objects, so the buffers are only uploaded once.
 	 */
 	public abstract Mesh clone();
+	
+	/**
+	 * Makes this mesh, a copy of source, share source's buffer objects for every buffer the two 
+	 * hold in common (creating them in source if it was never drawn), so the data is on the GPU 
+	 * once for all copies. Called by clone(), after copying the buffers. A copy later given other 
+	 * data leaves the shared buffer object to the rest (see update()).
+	 */
+	protected void shareBufferObjects(Mesh source)
+	{
+		source.mVertexBuffer = prepare(source.mVertexBuffer, GL2.GL_ARRAY_BUFFER, source.mVertexData);
+		mVertexBuffer = share(source.mVertexBuffer, mVertexData);
+		source.mNormalBuffer = prepare(source.mNormalBuffer, GL2.GL_ARRAY_BUFFER, source.mNormalData);
+		mNormalBuffer = share(source.mNormalBuffer, mNormalData);
+		source.mTexCoordBuffer = prepare(source.mTexCoordBuffer, GL2.GL_ARRAY_BUFFER, source.mTexCoordData);
+		mTexCoordBuffer = share(source.mTexCoordBuffer, mTexCoordData);
+		source.mPolygonBuffer = prepare(source.mPolygonBuffer, GL2.GL_ELEMENT_ARRAY_BUFFER, source.mPolygonData);
+		mPolygonBuffer = share(source.mPolygonBuffer, mPolygonData);
+		source.mEdgeBuffer = prepare(source.mEdgeBuffer, GL2.GL_ELEMENT_ARRAY_BUFFER, source.mEdgeData);
+		mEdgeBuffer = share(source.mEdgeBuffer, mEdgeData);
+		
+		for (Map.Entry<String, FloatBuffer> attrib : source.vertexAttribData.entrySet())
+		{
+			BufferObject buffer = prepare(source.mAttribBuffers.get(attrib.getKey()), GL2.GL_ARRAY_BUFFER, attrib.getValue());
+			source.mAttribBuffers.put(attrib.getKey(), buffer);
+			
+			buffer = share(buffer, vertexAttribData.get(attrib.getKey()));
+			if (buffer != null)
+			{
+				mAttribBuffers.put(attrib.getKey(), buffer);
+			}
+		}
+	}
+	
+	/* Returns buffer, or a new buffer object for data if it is null (and data is not). */
+	private static BufferObject prepare(BufferObject buffer, int target, Buffer data)
+	{
+		return (buffer == null && data != null) ? new BufferObject(target, data) : buffer;
+	}
+	
+	/* Returns buffer, with one more mesh sharing it, if it holds data; null otherwise. */
+	private static BufferObject share(BufferObject buffer, Buffer data)
+	{
+		return (buffer != null && data != null && buffer.holds(data)) ? buffer.share() : null;
+	}
 
 	/**
 	 * Returns the name of this mesh, which can be specified by a model file or set in code.
@@ -318,6 +431,75 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setVertexData(FloatBuffer vertices)
 	{
 		mVertexData = vertices;
+		mBoundsValid = false;
+		mStreamDirty = true;
+		markReplaced(mVertexBuffer, vertices);
+	}
+	
+	/**
+	 * Stores in center the center of a sphere containing all vertices of this mesh, in object space, 
+	 * and returns its radius (0 for a mesh without vertices).
+	 * 
+	 * The sphere is recomputed only after setVertexData(), markVertexDataDirty() or invalidateBounds(), 
+	 * so code that modifies the vertex buffer in place must call one of the latter afterwards.
+	 */
+	public float getBoundingSphere(Point3f center)
+	{
+		if (!mBoundsValid)
+		{
+			computeBoundingSphere();
+		}
+		
+		center.set(mBoundsCenter);
+		return mBoundsRadius;
+	}
+	
+	/**
+	 * Marks the bounding sphere out of date, after the vertex data was modified in place.
+	 */
+	public void invalidateBounds()
+	{
+		mBoundsValid = false;
+	}
+	
+	/**
+	 * Bounding sphere centered on the vertices' bounding box, with the distance to the farthest vertex as radius.
+	 */
+	private void computeBoundingSphere()
+	{
+		int nVertices = getVertexCount();
+		mBoundsCenter.set(0.0f, 0.0f, 0.0f);
+		mBoundsRadius = 0.0f;
+		mBoundsValid = true;
+		
+		if (nVertices == 0)
+		{
+			return;
+		}
+		
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+		
+		for (int v = 0; v < nVertices; ++v)
+		{
+			float x = mVertexData.get(3 * v), y = mVertexData.get(3 * v + 1), z = mVertexData.get(3 * v + 2);
+			minX = Math.min(minX, x); maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y); maxY = Math.max(maxY, y);
+			minZ = Math.min(minZ, z); maxZ = Math.max(maxZ, z);
+		}
+		
+		mBoundsCenter.set(0.5f * (minX + maxX), 0.5f * (minY + maxY), 0.5f * (minZ + maxZ));
+		
+		float maxDistanceSquared = 0.0f;
+		for (int v = 0; v < nVertices; ++v)
+		{
+			float dx = mVertexData.get(3 * v) - mBoundsCenter.x;
+			float dy = mVertexData.get(3 * v + 1) - mBoundsCenter.y;
+			float dz = mVertexData.get(3 * v + 2) - mBoundsCenter.z;
+			maxDistanceSquared = Math.max(maxDistanceSquared, dx * dx + dy * dy + dz * dz);
+		}
+		
+		mBoundsRadius = (float)Math.sqrt(maxDistanceSquared);
 	}
 
 	/**
@@ -336,6 +518,8 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setNormalData(FloatBuffer normals)
 	{
 		mNormalData = normals;
+		mStreamDirty = true;
+		markReplaced(mNormalBuffer, normals);
 	}
 
 	/**
@@ -354,6 +538,7 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setTexCoordData(FloatBuffer texcoords)
 	{
 		mTexCoordData = texcoords;
+		markReplaced(mTexCoordBuffer, texcoords);
 	}
 
 	/**
@@ -391,6 +576,7 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setPolygonData(IntBuffer polys)
 	{
 		mPolygonData = polys;
+		markReplaced(mPolygonBuffer, polys);
 	}
 
 	/**
@@ -410,14 +596,245 @@ public abstract class Mesh implements OpenGLResourceObject
 	public void setEdgeData(IntBuffer edges)
 	{
 		mEdgeData = edges;
+		markReplaced(mEdgeBuffer, edges);
+	}
+	
+	/**
+	 * Marks the vertex positions and normals modified in place, so they are uploaded to the GPU 
+	 * again before this mesh is next drawn. Also invalidates the bounding sphere.
+	 */
+	public void markVertexDataDirty()
+	{
+		markVertexDataDirty(0, getVertexCount());
+	}
+	
+	/**
+	 * Marks the positions and normals of `vertexCount` vertices starting at `firstVertex` modified 
+	 * in place; see markVertexDataDirty().
+	 */
+	public void markVertexDataDirty(int firstVertex, int vertexCount)
+	{
+		if (mVertexBuffer != null)
+		{
+			mVertexBuffer.markDirty(3 * firstVertex, 3 * vertexCount);
+		}
+		if (mNormalBuffer != null)
+		{
+			mNormalBuffer.markDirty(3 * firstVertex, 3 * vertexCount);
+		}
+		mStreamDirty = true;
+		mBoundsValid = false;
+	}
+	
+	/**
+	 * Marks the texture coordinates modified in place, so they are uploaded to the GPU again.
+	 */
+	public void markTexCoordDataDirty()
+	{
+		markDirty(mTexCoordBuffer);
+	}
+	
+	/**
+	 * Marks the named vertex attribute buffer modified in place, so it is uploaded to the GPU again.
+	 */
+	public void markVertexAttribDirty(String name)
+	{
+		markDirty(mAttribBuffers.get(name));
+	}
+	
+	private static void markDirty(BufferObject buffer)
+	{
+		if (buffer != null)
+		{
+			buffer.markDirty();
+		}
+	}
+	
+	/* Marks buffer dirty after its buffer was set to data, unless clones share it and still hold 
+	 * the old data (update() then gives this mesh a buffer object of its own). */
+	private static void markReplaced(BufferObject buffer, Buffer data)
+	{
+		if (buffer != null && (!buffer.isShared() || buffer.holds(data)))
+		{
+			buffer.markDirty();
+		}
+	}
+	
+	/**
+	 * Returns the buffer object holding the vertex data, bound to GL_ARRAY_BUFFER, after uploading 
+	 * whatever changed since the last call; or null if there is no vertex data.
+	 */
+	public BufferObject getVertexBuffer(GL2 gl)
+	{
+		return mVertexBuffer = update(gl, mVertexBuffer, GL2.GL_ARRAY_BUFFER, mVertexData);
+	}
+	
+	/**
+	 * Returns the id of the buffer object holding the vertex data (see BufferObject.getId()), which 
+	 * clones sharing it have in common, or 0 if it was not created yet (or this mesh is dynamic).
+	 */
+	public int getVertexBufferId()
+	{
+		return (mVertexBuffer == null) ? 0 : mVertexBuffer.getId();
+	}
+	
+	/**
+	 * Returns the buffer object holding the normal data, bound to GL_ARRAY_BUFFER; see getVertexBuffer().
+	 */
+	public BufferObject getNormalBuffer(GL2 gl)
+	{
+		return mNormalBuffer = update(gl, mNormalBuffer, GL2.GL_ARRAY_BUFFER, mNormalData);
+	}
+	
+	/**
+	 * Returns the buffer object holding the texture coordinates, bound to GL_ARRAY_BUFFER; see getVertexBuffer().
+	 */
+	public BufferObject getTexCoordBuffer(GL2 gl)
+	{
+		return mTexCoordBuffer = update(gl, mTexCoordBuffer, GL2.GL_ARRAY_BUFFER, mTexCoordData);
+	}
+	
+	/**
+	 * Returns the buffer object holding the polygon indices, bound to GL_ELEMENT_ARRAY_BUFFER; see getVertexBuffer().
+	 */
+	public BufferObject getPolygonBuffer(GL2 gl)
+	{
+		return mPolygonBuffer = update(gl, mPolygonBuffer, GL2.GL_ELEMENT_ARRAY_BUFFER, mPolygonData);
+	}
+	
+	/**
+	 * Returns the buffer object holding the edge indices, bound to GL_ELEMENT_ARRAY_BUFFER; see getVertexBuffer().
+	 */
+	public BufferObject getEdgeBuffer(GL2 gl)
+	{
+		return mEdgeBuffer = update(gl, mEdgeBuffer, GL2.GL_ELEMENT_ARRAY_BUFFER, mEdgeData);
+	}
+	
+	/**
+	 * Returns the buffer object holding the named vertex attribute, bound to GL_ARRAY_BUFFER; see getVertexBuffer().
+	 */
+	public BufferObject getVertexAttribBuffer(GL2 gl, String name)
+	{
+		BufferObject buffer = update(gl, mAttribBuffers.get(name), GL2.GL_ARRAY_BUFFER, vertexAttribData.get(name));
+		
+		if (buffer == null)
+		{
+			mAttribBuffers.remove(name);
+		}
+		else
+		{
+			mAttribBuffers.put(name, buffer);
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Returns true if this mesh is dynamic; see setDynamic().
+	 */
+	public boolean isDynamic()
+	{
+		return mDynamic;
+	}
+	
+	/**
+	 * Makes this mesh dynamic or not. The positions and normals of a dynamic mesh, which are expected 
+	 * to change (nearly) every frame, are streamed through the renderer's StreamingVertexBuffer (see 
+	 * streamVertexData()) rather than kept in buffer objects of its own; its other buffers (indices, 
+	 * texture coordinates, vertex attributes) are still buffer objects, uploaded only when changed.
+	 */
+	public void setDynamic(boolean dynamic)
+	{
+		mDynamic = dynamic;
+		mStreamDirty = true;
+	}
+	
+	/**
+	 * Writes the positions and normals of this dynamic mesh to stream, unless they are unchanged since 
+	 * the last call and still in its current storage, and leaves stream bound to GL_ARRAY_BUFFER. 
+	 * Their offsets are then given by getStreamedVertexOffset() and getStreamedNormalOffset().
+	 */
+	public void streamVertexData(GL2 gl, StreamingVertexBuffer stream)
+	{
+		if (mStreamDirty || mStreamedGeneration != stream.getGeneration())
+		{
+			mStreamedVertexOffset = stream.upload(gl, mVertexData, mNormalData);
+			mStreamedNormalOffset = mStreamedVertexOffset + 4L * mVertexData.capacity();
+			mStreamedGeneration = stream.getGeneration();
+			mStreamDirty = false;
+		}
+		else
+		{
+			stream.bind(gl);
+		}
+	}
+	
+	/**
+	 * Returns the byte offset of the positions in the streaming buffer, after streamVertexData().
+	 */
+	public long getStreamedVertexOffset()
+	{
+		return mStreamedVertexOffset;
+	}
+	
+	/**
+	 * Returns the byte offset of the normals in the streaming buffer, after streamVertexData().
+	 */
+	public long getStreamedNormalOffset()
+	{
+		return mStreamedNormalOffset;
+	}
+	
+	/**
+	 * Brings buffer (created if null) up to date with data, or releases it and returns null if there is no data.
+	 * A buffer object shared with clones (see shareBufferObjects()) that holds other data is left to them.
+	 */
+	private static BufferObject update(GL2 gl, BufferObject buffer, int target, Buffer data)
+	{
+		if (buffer != null && buffer.isShared() && !buffer.holds(data))
+		{
+			buffer.unshare();
+			buffer = null;
+		}
+		
+		if (data == null)
+		{
+			if (buffer != null)
+			{
+				buffer.releaseGPUResources(gl);
+			}
+			return null;
+		}
+		
+		if (buffer == null)
+		{
+			buffer = new BufferObject(target);
+		}
+		buffer.update(gl, data);
+		return buffer;
 	}
 	
 	/** 
-	 * Releases OpenGL resources owned by this mesh or its material.
+	 * Releases OpenGL resources owned by this mesh or its material. Buffer objects shared with clones 
+	 * are released for all of them; each creates them again when next drawn, still shared.
 	 */
 	public void releaseGPUResources(GL2 gl)
 	{
 		mMaterial.releaseGPUResources(gl);
+		
+		BufferObject buffers[] = {mVertexBuffer, mNormalBuffer, mTexCoordBuffer, mPolygonBuffer, mEdgeBuffer};
+		for (BufferObject buffer : buffers)
+		{
+			if (buffer != null)
+			{
+				buffer.releaseGPUResources(gl);
+			}
+		}
+		for (BufferObject buffer : mAttribBuffers.values())
+		{
+			buffer.releaseGPUResources(gl);
+		}
+		
+		mStreamDirty = true;
 	}
 	
 	/**
@@ -0,0 +1,341 @@
+package cs5625.deferred.scenegraph;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MeshCache.java
+ *
+ * Binary cache of loaded .obj models (see Geometry.load), so a model is only parsed the first
+ * time it is loaded. The cache file holds, for every object of the model, its name and meshes,
+ * and for every mesh its material name and its already-indexed vertex, normal, texture coordinate,
+ * polygon and edge buffers, plus the material libraries the model references. Objects are stored
+ * as parsed: not centered, without materials.
+ *
+ * Cache files are written in native byte order, and read by memory-mapping them (copy-on-write,
+ * so meshes may still modify their data); mesh buffers are views of the mapping, in the direct
+ * buffer form Mesh uses, with no copying. A cache file is ignored (and rewritten) when its format
+ * version, byte order or model identifier differ, or when the source file's modification time or
+ * length changed. Cache file names include a hash of the source file's URL, so models with the same
+ * identifier in different places (e.g. two checkouts sharing the temporary directory) do not keep
+ * overwriting each other's cache files.
+ */
+public class MeshCache
+{
+	/** Set to false to always parse models. */
+	public static boolean enabled = true;
+
+	/** Directory cache files are kept in. */
+	public static File directory = new File(System.getProperty("java.io.tmpdir"), "cs5625-meshcache");
+
+	private static final int MAGIC = 0x4d455348; // "MESH"
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Returns the cached objects of model `identifier` (found at `source`), and adds the material
+	 * libraries it references to materialLibraries; or returns null if there is no valid cache file.
+	 */
+	public static List<Geometry> read(String identifier, URL source, List<String> materialLibraries)
+	{
+		if (!enabled)
+		{
+			return null;
+		}
+
+		File file = getFile(identifier, source);
+		if (!file.isFile())
+		{
+			return null;
+		}
+
+		try
+		{
+			/* A copy-on-write mapping needs a writable channel, though the file itself is never written. */
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			MappedByteBuffer map;
+			try
+			{
+				map = raf.getChannel().map(FileChannel.MapMode.PRIVATE, 0, raf.length());
+			}
+			finally
+			{
+				/* The mapping stays valid after the file is closed. */
+				raf.close();
+			}
+			map.order(ByteOrder.nativeOrder());
+
+			/* Header: reject files of another version, byte order, model or source file. */
+			long[] stamp = getStamp(source);
+			if (map.getInt() != MAGIC || map.getInt() != VERSION || !getString(map).equals(identifier)
+					|| map.getLong() != stamp[0] || map.getLong() != stamp[1])
+			{
+				return null;
+			}
+
+			ArrayList<String> libraries = new ArrayList<String>();
+			int nLibraries = getCount(map, 4);
+			for (int i = 0; i < nLibraries; ++i)
+			{
+				libraries.add(getString(map));
+			}
+
+			ArrayList<Geometry> results = new ArrayList<Geometry>();
+			int nObjects = getCount(map, 8);
+			for (int o = 0; o < nObjects; ++o)
+			{
+				Geometry object = new Geometry();
+				object.setName(getString(map));
+
+				int nMeshes = getCount(map, 20);
+				for (int m = 0; m < nMeshes; ++m)
+				{
+					String name = getString(map);
+					int verticesPerPolygon = map.getInt();
+					int nVertices = getCount(map, 4 * 8);
+					int nPolygonIndices = getCount(map, 4);
+					int nEdgeIndices = getCount(map, 4);
+
+					Mesh mesh = (verticesPerPolygon == 4) ? new Quadmesh() : new Trimesh();
+					mesh.setName(name);
+					mesh.setVertexData(getFloats(map, 3 * nVertices));
+					mesh.setNormalData(getFloats(map, 3 * nVertices));
+					mesh.setTexCoordData(getFloats(map, 2 * nVertices));
+					mesh.setPolygonData(getInts(map, nPolygonIndices));
+					if (nEdgeIndices > 0)
+					{
+						mesh.setEdgeData(getInts(map, nEdgeIndices));
+					}
+					object.addMesh(mesh);
+				}
+
+				results.add(object);
+			}
+
+			materialLibraries.addAll(libraries);
+			return results;
+		}
+		catch (Exception e)
+		{
+			/* Truncated or otherwise unreadable: parse the model instead. */
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache file of model `identifier` (found at `source`), holding objects (not centered)
+	 * and the material libraries it references. Failing to write is reported, not thrown: the cache
+	 * is only an optimization.
+	 */
+	public static void write(String identifier, URL source, List<Geometry> objects, List<String> materialLibraries)
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		try
+		{
+			/* Size everything first, so the file is written with a single buffer. */
+			int size = 3 * 4 + 2 * 8 + stringSize(identifier);
+			size += 4;
+			for (String library : materialLibraries)
+			{
+				size += stringSize(library);
+			}
+			size += 4;
+			for (Geometry object : objects)
+			{
+				size += stringSize(object.getName()) + 4;
+				for (Mesh mesh : object.getMeshes())
+				{
+					size += stringSize(mesh.getName()) + 4 * 4;
+					size += 4 * (8 * mesh.getVertexCount() + capacity(mesh.getPolygonData()) + capacity(mesh.getEdgeData()));
+				}
+			}
+
+			ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+			long[] stamp = getStamp(source);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			putString(out, identifier);
+			out.putLong(stamp[0]);
+			out.putLong(stamp[1]);
+
+			out.putInt(materialLibraries.size());
+			for (String library : materialLibraries)
+			{
+				putString(out, library);
+			}
+
+			out.putInt(objects.size());
+			for (Geometry object : objects)
+			{
+				putString(out, object.getName());
+				out.putInt(object.getMeshes().size());
+				for (Mesh mesh : object.getMeshes())
+				{
+					putString(out, mesh.getName());
+					out.putInt(mesh.getVerticesPerPolygon());
+					out.putInt(mesh.getVertexCount());
+					out.putInt(capacity(mesh.getPolygonData()));
+					out.putInt(capacity(mesh.getEdgeData()));
+					putFloats(out, mesh.getVertexData(), 3 * mesh.getVertexCount());
+					putFloats(out, mesh.getNormalData(), 3 * mesh.getVertexCount());
+					putFloats(out, mesh.getTexCoordData(), 2 * mesh.getVertexCount());
+					putInts(out, mesh.getPolygonData());
+					putInts(out, mesh.getEdgeData());
+				}
+			}
+			out.flip();
+
+			/* Write to a temporary file and rename it, so a reader never sees a partial file. */
+			directory.mkdirs();
+			File file = getFile(identifier, source);
+			File temp = new File(directory, file.getName() + ".tmp");
+			FileOutputStream stream = new FileOutputStream(temp);
+			try
+			{
+				FileChannel channel = stream.getChannel();
+				while (out.hasRemaining())
+				{
+					channel.write(out);
+				}
+			}
+			finally
+			{
+				stream.close();
+			}
+			file.delete();
+			if (!temp.renameTo(file))
+			{
+				temp.delete();
+				throw new IOException("could not rename " + temp);
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("Could not write mesh cache for '" + identifier + "': " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the cache file of model `identifier`, found at `source`.
+	 */
+	public static File getFile(String identifier, URL source)
+	{
+		String hash = String.format("%08x", source.toExternalForm().hashCode());
+		return new File(directory, identifier.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + hash + ".mesh");
+	}
+
+	/**
+	 * Returns {last modified time, length} of the source file, which a cache file must match.
+	 */
+	private static long[] getStamp(URL source) throws IOException
+	{
+		URLConnection connection = source.openConnection();
+		try
+		{
+			return new long[] {connection.getLastModified(), connection.getContentLengthLong()};
+		}
+		finally
+		{
+			/* Opening a connection may open the file; close it again. */
+			connection.getInputStream().close();
+		}
+	}
+
+	private static int capacity(IntBuffer buf)
+	{
+		return (buf == null) ? 0 : buf.capacity();
+	}
+
+	/* Strings are stored as a byte count and UTF-8 bytes, padded to 4 bytes so that all
+	 * buffers stay aligned. */
+
+	private static int stringSize(String str)
+	{
+		return 4 + ((str.getBytes(UTF8).length + 3) & ~3);
+	}
+
+	private static void putString(ByteBuffer out, String str)
+	{
+		byte[] bytes = str.getBytes(UTF8);
+		out.putInt(bytes.length);
+		out.put(bytes);
+		for (int i = bytes.length; (i & 3) != 0; ++i)
+		{
+			out.put((byte) 0);
+		}
+	}
+
+	private static String getString(ByteBuffer in) throws IOException
+	{
+		byte[] bytes = new byte[getCount(in, 1)];
+		in.get(bytes);
+		in.position(in.position() + ((4 - (bytes.length & 3)) & 3));
+		return new String(bytes, UTF8);
+	}
+
+	private static void putFloats(ByteBuffer out, FloatBuffer buf, int count)
+	{
+		for (int i = 0; i < count; ++i)
+		{
+			out.putFloat(buf == null ? 0f : buf.get(i));
+		}
+	}
+
+	private static void putInts(ByteBuffer out, IntBuffer buf)
+	{
+		for (int i = 0; i < capacity(buf); ++i)
+		{
+			out.putInt(buf.get(i));
+		}
+	}
+
+	/**
+	 * Reads a count of items of `size` bytes or more each, and checks that as many can still follow
+	 * in the file, so that a corrupt count is a cache miss rather than a huge or negative allocation.
+	 */
+	private static int getCount(ByteBuffer in, int size) throws IOException
+	{
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / size)
+		{
+			throw new IOException("corrupt mesh cache file");
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the next `count` floats of the mapping as a direct FloatBuffer view, and skips them.
+	 */
+	private static FloatBuffer getFloats(ByteBuffer in, int count)
+	{
+		ByteBuffer view = in.slice().order(ByteOrder.nativeOrder());
+		view.limit(4 * count);
+		in.position(in.position() + 4 * count);
+		return view.asFloatBuffer();
+	}
+
+	private static IntBuffer getInts(ByteBuffer in, int count)
+	{
+		ByteBuffer view = in.slice().order(ByteOrder.nativeOrder());
+		view.limit(4 * count);
+		in.position(in.position() + 4 * count);
+		return view.asIntBuffer();
+	}
+}
@@ -0,0 +1,109 @@
+package cs5625.deferred.scenegraph;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * MeshRegistry.java
+ *
+ * Process-wide registry of loaded models, so that objects built from the same model file (every
+ * Sphere, for instance) load it once and share its buffers.
+ *
+ * acquire() loads a model with Geometry.load() the first time it is asked for, and keeps the result;
+ * every call returns new Geometry objects holding Mesh.clone() copies of its meshes, which share the
+ * vertex, normal, texture coordinate and index buffers but have their own name and material. Since
+ * buffers are shared, acquired meshes must not be modified in place (replacing a buffer is fine).
+ *
+ * Entries are reference counted: each acquire() must eventually be matched by a release() with the
+ * same arguments, and a model is dropped once nothing holds it; the next acquire() loads it again.
+ */
+public class MeshRegistry
+{
+	/* Loaded models and the number of acquire() calls not yet released, by key(). */
+	private static HashMap<String, List<Geometry>> mModels = new HashMap<String, List<Geometry>>();
+	private static HashMap<String, Integer> mReferences = new HashMap<String, Integer>();
+
+	/**
+	 * Returns copies of the objects of a model, loading it as Geometry.load(identifier, loadMaterials,
+	 * centerObjects) would if it is not loaded yet, and adds a reference to it.
+	 */
+	public static synchronized List<Geometry> acquire(String identifier, boolean loadMaterials, boolean centerObjects) throws IOException
+	{
+		String key = key(identifier, loadMaterials, centerObjects);
+		List<Geometry> model = mModels.get(key);
+
+		if (model == null)
+		{
+			model = Geometry.load(identifier, loadMaterials, centerObjects);
+			mModels.put(key, model);
+			mReferences.put(key, 0);
+		}
+		mReferences.put(key, mReferences.get(key) + 1);
+
+		/* Hand out copies, so callers can reposition objects and change materials freely. */
+		ArrayList<Geometry> results = new ArrayList<Geometry>(model.size());
+		for (Geometry object : model)
+		{
+			Geometry copy = new Geometry();
+			copy.setName(object.getName());
+			copy.getPosition().set(object.getPosition());
+
+			for (Mesh mesh : object.getMeshes())
+			{
+				copy.addMesh(mesh.clone());
+			}
+			results.add(copy);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Convenience function returning the first mesh of the first object of a model; see acquire().
+	 */
+	public static Mesh acquireMesh(String identifier, boolean loadMaterials, boolean centerObjects) throws IOException
+	{
+		return acquire(identifier, loadMaterials, centerObjects).get(0).getMeshes().get(0);
+	}
+
+	/**
+	 * Drops a reference taken by acquire() with the same arguments, and the model itself if that was
+	 * the last one. Meshes already handed out keep working; they still hold the buffers.
+	 */
+	public static synchronized void release(String identifier, boolean loadMaterials, boolean centerObjects)
+	{
+		String key = key(identifier, loadMaterials, centerObjects);
+		Integer references = mReferences.get(key);
+
+		if (references == null)
+		{
+			return;
+		}
+		else if (references > 1)
+		{
+			mReferences.put(key, references - 1);
+		}
+		else
+		{
+			mReferences.remove(key);
+			mModels.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the number of references to a model (0 if it is not loaded).
+	 */
+	public static synchronized int getReferenceCount(String identifier, boolean loadMaterials, boolean centerObjects)
+	{
+		Integer references = mReferences.get(key(identifier, loadMaterials, centerObjects));
+		return (references == null) ? 0 : references;
+	}
+
+	/* The same file loaded with different options gives different objects. */
+	private static String key(String identifier, boolean loadMaterials, boolean centerObjects)
+	{
+		return identifier + (loadMaterials ? "|materials" : "") + (centerObjects ? "|centered" : "");
+	}
+}
@@ -1,10 +1,15 @@
 package cs5625.deferred.scenegraph;
 
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.HashMap;
 
+import javax.vecmath.Vector3f;
+
+import com.jogamp.common.nio.Buffers;
+
 import cs5625.deferred.catmullclark.CCSubdiv;
-import cs5625.deferred.datastruct.EdgeDS;
+import cs5625.deferred.datastruct.HalfEdgeMesh;
 
 /**
  * Quadmesh.java
@@ -28,34 +33,9 @@ public class Quadmesh extends Mesh
 	@Override
 	public FloatBuffer calculateTangentVectors()
 	{
-		if (getVertexCount() == 0 || getPolygonCount() == 0)
-		{
-			return null;
-		}
-		
-		/* This is a very direct port of Eric Lengyel's code, so I leave most of the explanation
-		 * to him. Go read his page if you don't understand! */
-		
-		/* Allocate temporary buffers and loop over triangles. */
-		float tan1[] = new float[getVertexCount() * 3];
-		float tan2[] = new float[getVertexCount() * 3];
-		
-		for (int quadIndex = 0; quadIndex < getPolygonCount(); ++quadIndex)
-		{
-			/* Treat this quad as being made of two triangles. */
-			for (int triVertex = 1; triVertex <= 2; ++triVertex)
-			{
-				/* Get vertex indices of this triangle. */
-				int i1 = mPolygonData.get(3 * quadIndex + 0);
-				int i2 = mPolygonData.get(3 * quadIndex + triVertex);
-				int i3 = mPolygonData.get(3 * quadIndex + triVertex + 1);				
-				
-				computeAndAccumulateTangentVectors(i1, i2, i3, tan1, tan2);				
-			}
-		}		
-		
-		/* Average and normalize the accumulated tangent vectors. */
-		return averageAndNormalizeAllTangentVectors(tan1, tan2);
+		/* Lengyel's method over the fan triangles of each polygon, written into
+		 * the mesh's reusable "VertexTangent" buffer (see Mesh.computeTangentVectors). */
+		return computeTangentVectors();
 	}
 	
 	/**
@@ -75,14 +55,15 @@ public class Quadmesh extends Mesh
 		copy.setVertexData(getVertexData());
 		copy.setNormalData(getNormalData());
 		copy.vertexAttribData = (HashMap<String, FloatBuffer>) vertexAttribData.clone();
+		copy.shareBufferObjects(this);
 		
 		return copy;
 	}
 	
 	public void subdivide(int numberofSub){
 		for (int i = 0; i< numberofSub; i++){
-			EdgeDS edgeDS = new EdgeDS(this);
-			CCSubdiv ccSubdiv = new CCSubdiv(edgeDS);
+			HalfEdgeMesh hem = new HalfEdgeMesh(this);
+			CCSubdiv ccSubdiv = new CCSubdiv(hem);
 			Mesh newMesh = (Quadmesh)ccSubdiv.getNewMesh();
 			this.setVertexData(newMesh.getVertexData());
 			this.setEdgeData(newMesh.getEdgeData());
@@ -90,4 +71,124 @@ public class Quadmesh extends Mesh
 			this.setPolygonData(newMesh.getPolygonData());
 		}
 	}
+	
+	/**
+	 * If this mesh is a single planar quad, replaces it with a regular grid of
+	 * resolution x resolution quads spanning it, in one pass: positions,
+	 * normals and texture coordinates are interpolated bilinearly across the
+	 * quad (normals then normalized), and every cell keeps the winding of the
+	 * original quad. This gives the dense flat mesh that subdivide(levels)
+	 * gives for resolution = 2^levels, with the same vertex and face counts,
+	 * without building the intermediate levels; unlike Catmull-Clark, the
+	 * corners are not rounded off, so the grid covers the whole quad.
+	 * Crease edges are dropped.
+	 * 
+	 * Returns false, leaving the mesh unchanged, if it is not a single planar
+	 * quad (use subdivide() for those).
+	 */
+	public boolean subdivideToGrid(int resolution)
+	{
+		if (getPolygonCount() != 1 || getVertexCount() < 4 || resolution < 1 || !isPlanar())
+		{
+			return false;
+		}
+		
+		int[] corner = new int[4];
+		for (int c = 0; c < 4; c++)
+		{
+			corner[c] = mPolygonData.get(c);
+		}
+		
+		int side = resolution + 1;
+		FloatBuffer vertexBuf = Buffers.newDirectFloatBuffer(3 * side * side);
+		FloatBuffer normalBuf = (mNormalData == null) ? null : Buffers.newDirectFloatBuffer(3 * side * side);
+		FloatBuffer texCoordBuf = (mTexCoordData == null) ? null : Buffers.newDirectFloatBuffer(2 * side * side);
+		IntBuffer polygonBuf = Buffers.newDirectIntBuffer(4 * resolution * resolution);
+		
+		/* Vertex (i, j) sits at u = i / resolution from corner 0 towards corner 1,
+		 * and v = j / resolution from corner 0 towards corner 3. */
+		for (int j = 0; j < side; ++j)
+		{
+			float v = (float) j / resolution;
+			for (int i = 0; i < side; ++i)
+			{
+				float u = (float) i / resolution;
+				float w0 = (1 - u) * (1 - v), w1 = u * (1 - v), w2 = u * v, w3 = (1 - u) * v;
+				
+				putBilinear(vertexBuf, mVertexData, 3, corner, w0, w1, w2, w3);
+				if (normalBuf != null)
+				{
+					int n = normalBuf.position();
+					putBilinear(normalBuf, mNormalData, 3, corner, w0, w1, w2, w3);
+					float x = normalBuf.get(n), y = normalBuf.get(n + 1), z = normalBuf.get(n + 2);
+					float l = (float) Math.sqrt(x * x + y * y + z * z);
+					if (l > 0f)
+					{
+						normalBuf.put(n, x / l).put(n + 1, y / l).put(n + 2, z / l);
+					}
+				}
+				if (texCoordBuf != null)
+				{
+					putBilinear(texCoordBuf, mTexCoordData, 2, corner, w0, w1, w2, w3);
+				}
+			}
+		}
+		
+		for (int j = 0; j < resolution; ++j)
+		{
+			for (int i = 0; i < resolution; ++i)
+			{
+				int k = j * side + i;
+				polygonBuf.put(k).put(k + 1).put(k + 1 + side).put(k + side);
+			}
+		}
+		
+		vertexBuf.rewind();
+		polygonBuf.rewind();
+		if (normalBuf != null) normalBuf.rewind();
+		if (texCoordBuf != null) texCoordBuf.rewind();
+		
+		setVertexData(vertexBuf);
+		setNormalData(normalBuf);
+		setTexCoordData(texCoordBuf);
+		setPolygonData(polygonBuf);
+		setEdgeData(Buffers.newDirectIntBuffer(0));
+		return true;
+	}
+	
+	/**
+	 * True if the corners of the first quad lie in one plane (relative to the quad's size).
+	 */
+	private boolean isPlanar()
+	{
+		Vector3f[] p = new Vector3f[4];
+		for (int c = 0; c < 4; c++)
+		{
+			int i = mPolygonData.get(c);
+			p[c] = new Vector3f(mVertexData.get(3 * i), mVertexData.get(3 * i + 1), mVertexData.get(3 * i + 2));
+		}
+		
+		Vector3f a = new Vector3f(), b = new Vector3f(), n = new Vector3f(), d = new Vector3f();
+		a.sub(p[2], p[0]);
+		b.sub(p[3], p[1]);
+		n.cross(a, b);
+		if (n.length() == 0f) return false;
+		n.normalize();
+		
+		d.sub(p[1], p[0]);
+		float size = Math.max(a.length(), b.length());
+		return Math.abs(n.dot(d)) <= 1e-4f * size;
+	}
+	
+	/**
+	 * Appends w0 * src[corner 0] + ... + w3 * src[corner 3] (`dim` floats per vertex) to dst.
+	 */
+	private static void putBilinear(FloatBuffer dst, FloatBuffer src, int dim, int[] corner, float w0, float w1, float w2, float w3)
+	{
+		for (int d = 0; d < dim; ++d)
+		{
+			dst.put(w0 * src.get(dim * corner[0] + d) + w1 * src.get(dim * corner[1] + d)
+					+ w2 * src.get(dim * corner[2] + d) + w3 * src.get(dim * corner[3] + d));
+		}
+	}
 }
@@ -24,6 +24,11 @@ import cs5625.deferred.physics.ParticleSystem;
  * position and orientation information, and methods for manipulating the hierarchy 
  * and for transforming between different spaces.
  * 
+ * Each object caches its local-to-world and world-to-local matrices, so transforming to 
+ * or from world space is a single matrix multiply; see updateWorldTransform(). Code that 
+ * modifies the position or orientation in place (through getPosition() or getOrientation()) 
+ * rather than through the setters must call markTransformDirty() afterwards.
+ * 
  * Written for Cornell CS 5625 (Interactive Computer Graphics).
  * Copyright (c) 2012, Computer Science Department, Cornell University.
  * 
@@ -48,6 +53,20 @@ public class SceneObject implements OpenGLResourceObject
 	/* Temp space for common operations*/
 	Point3f tempPosition = new Point3f();
 	
+	/* Cached local-to-world and world-to-local transforms (see updateWorldTransform()), the world 
+	 * space scale, and whether they are out of date. */
+	private Matrix4f mLocalToWorld = new Matrix4f();
+	private Matrix4f mWorldToLocal = new Matrix4f();
+	private float mWorldScale = 1.0f;
+	private boolean mTransformDirty = true;
+	private Quat4f tempOrientation = new Quat4f();
+	private Vector3f tempTranslation = new Vector3f();
+	
+	/* World-space bounding sphere of the geometry in this subtree, as of the last updateWorldBounds(). 
+	 * A negative radius means the subtree has no geometry. */
+	private Point3f mWorldBoundsCenter = new Point3f();
+	private float mWorldBoundsRadius = -1.0f;
+	
 	/**
 	 * Updates any animation for this node at each frame, if any.
 	 * Default implementation calls `animate(dt)` on children.
@@ -154,6 +173,7 @@ public class SceneObject implements OpenGLResourceObject
 		
 		mChildren.add(child);
 		child.mParent = this;
+		child.markTransformDirty();
 	}
 
 	/**
@@ -202,6 +222,7 @@ public class SceneObject implements OpenGLResourceObject
 		}
 
 		child.mParent = null;
+		child.markTransformDirty();
 	}
 	
 	/**
@@ -273,7 +294,79 @@ public class SceneObject implements OpenGLResourceObject
 	}
 
 	/**
-	 * Returns the position of this object in its parent's space.
+	 * Recomputes the world-space bounding spheres of this object and all its descendants, from 
+	 * their current transforms and mesh bounds. The renderer calls this once per frame, before 
+	 * culling against the view frustum.
+	 */
+	public void updateWorldBounds()
+	{
+		mWorldBoundsRadius = -1.0f;
+		
+		for (SceneObject child : mChildren)
+		{
+			child.updateWorldBounds();
+			includeInWorldBounds(child.mWorldBoundsCenter, child.mWorldBoundsRadius);
+		}
+	}
+	
+	/**
+	 * Grows this object's world-space bounding sphere to contain the given sphere (ignored if its 
+	 * radius is negative). Used by updateWorldBounds().
+	 */
+	protected void includeInWorldBounds(Point3f center, float radius)
+	{
+		if (radius < 0.0f)
+		{
+			return;
+		}
+		else if (mWorldBoundsRadius < 0.0f)
+		{
+			mWorldBoundsCenter.set(center);
+			mWorldBoundsRadius = radius;
+			return;
+		}
+		
+		float distance = mWorldBoundsCenter.distance(center);
+		
+		if (distance + radius <= mWorldBoundsRadius)
+		{
+			/* Already contained. */
+		}
+		else if (distance + mWorldBoundsRadius <= radius)
+		{
+			/* Contains the current sphere. */
+			mWorldBoundsCenter.set(center);
+			mWorldBoundsRadius = radius;
+		}
+		else
+		{
+			/* Smallest sphere containing both, centered on the line between their centers. */
+			float newRadius = 0.5f * (distance + mWorldBoundsRadius + radius);
+			mWorldBoundsCenter.interpolate(center, (newRadius - mWorldBoundsRadius) / distance);
+			mWorldBoundsRadius = newRadius;
+		}
+	}
+	
+	/**
+	 * Returns the center of the world-space bounding sphere of this subtree; see updateWorldBounds().
+	 */
+	public Point3f getWorldBoundsCenter()
+	{
+		return mWorldBoundsCenter;
+	}
+	
+	/**
+	 * Returns the radius of the world-space bounding sphere of this subtree, or a negative number 
+	 * if the subtree has no geometry; see updateWorldBounds().
+	 */
+	public float getWorldBoundsRadius()
+	{
+		return mWorldBoundsRadius;
+	}
+
+	/**
+	 * Returns the position of this object in its parent's space. Call markTransformDirty() 
+	 * after modifying it in place.
 	 */
 	public Point3f getPosition()
 	{
@@ -285,7 +378,8 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f getWorldspacePosition()
 	{
-		return transformPointToWorldSpace(new Point3f(0.0f, 0.0f, 0.0f));
+		updateWorldTransform();
+		return new Point3f(mLocalToWorld.m03, mLocalToWorld.m13, mLocalToWorld.m23);
 	}
 
 	
@@ -296,33 +390,38 @@ public class SceneObject implements OpenGLResourceObject
 	public void setPosition(Point3f position)
 	{
 		mPosition = position;
-		mParticle.x.set(new Point3d(getWorldspacePosition()));
+		markTransformDirty();
+		mParticle.setPosition(getWorldspacePosition());
 	}
 	
 	/**
 	 * Sets the position of this object in its parent's space based on the control particle's postion in world space.
 	 */
 	public void setPositionFromControlParticle(){
-		mPosition.set(this.transformPointToParentSpace(transformPointFromWorldSpace( new Point3f(mParticle.x))));
+		mParticle.getPosition(tempPosition);
+		mPosition.set(this.transformPointToParentSpace(transformPointFromWorldSpace(tempPosition)));
+		markTransformDirty();
 	}
 	
 	public void setPositionFromControlParticle(Point3f cp, Particle p){
-		cp.set(this.transformPointToParentSpace(transformPointFromWorldSpace( new Point3f(p.x))));
+		p.getPosition(tempPosition);
+		cp.set(this.transformPointToParentSpace(transformPointFromWorldSpace(tempPosition)));
 	}
 	
 	/**
 	 * Sets the position of this object in its parent's space based on the control particle's postion in world space.
 	 */
 	public void setPositionFromControlPoint(){
-		mParticle.x.set(getWorldspacePosition());
+		mParticle.setPosition(getWorldspacePosition());
 	}
 	
 	public void setPositionFromControlPoint(Particle p, Point3f cp){
-		p.x.set(this.transformPointToWorldSpace(cp));
+		p.setPosition(this.transformPointToWorldSpace(cp));
 	}	
 	
 	/**
-	 * Returns the orientation of this object in its parent's space.
+	 * Returns the orientation of this object in its parent's space. Call markTransformDirty() 
+	 * after modifying it in place.
 	 */
 	public Quat4f getOrientation()
 	{
@@ -360,22 +459,103 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Matrix4f getWorldSpaceTransformationMatrix4f() 
 	{
-		Matrix4f mat = new Matrix4f();
+		updateWorldTransform();
 		
-		/* Set the rotational component of this matrix */
-		mat.set(getEyeSpaceRotationMatrix3f());
+		/* The cached transform, with the scale factored out of its rotational component. */
+		Matrix4f mat = new Matrix4f(mLocalToWorld);
+		float invScale = 1.0f / mWorldScale;
 		
-		/* Get the world space position of this object */
-		Point3f worldSpacePos = getWorldspacePosition();
-		
-		/* Set the translation component of this matrix */
-		mat.m03 = (worldSpacePos.x);
-		mat.m13 = (worldSpacePos.y);
-		mat.m23 = (worldSpacePos.z);
-		mat.m33 = (1);
+		mat.m00 *= invScale; mat.m01 *= invScale; mat.m02 *= invScale;
+		mat.m10 *= invScale; mat.m11 *= invScale; mat.m12 *= invScale;
+		mat.m20 *= invScale; mat.m21 *= invScale; mat.m22 *= invScale;
 		
 		return mat;
 	}
+	
+	/**
+	 * Stores in result the matrix taking points from this object's local space to world space.
+	 */
+	public void getLocalToWorldMatrix4f(Matrix4f result)
+	{
+		updateWorldTransform();
+		result.set(mLocalToWorld);
+	}
+	
+	/**
+	 * Stores in result the matrix taking points from world space to this object's local space.
+	 */
+	public void getWorldToLocalMatrix4f(Matrix4f result)
+	{
+		updateWorldTransform();
+		result.set(mWorldToLocal);
+	}
+	
+	/**
+	 * Marks the cached world transforms of this object and all its descendants out of date.
+	 * Called by the setters and when the object is added to or removed from a parent, and 
+	 * to be called after modifying getPosition() or getOrientation() in place.
+	 * 
+	 * The descendants of a dirty object are always dirty too (an object is only brought up to 
+	 * date after its parent), so marking stops at objects that already are.
+	 */
+	public void markTransformDirty()
+	{
+		if (mTransformDirty)
+		{
+			return;
+		}
+		mTransformDirty = true;
+		
+		for (SceneObject child : mChildren)
+		{
+			child.markTransformDirty();
+		}
+	}
+	
+	/**
+	 * Brings the cached local-to-world and world-to-local transforms of this object up to date, 
+	 * recomputing them (and first its ancestors') only if they were marked dirty; querying an 
+	 * up-to-date object costs nothing.
+	 */
+	private void updateWorldTransform()
+	{
+		if (!mTransformDirty)
+		{
+			return;
+		}
+		
+		if (mParent != null)
+		{
+			mParent.updateWorldTransform();
+		}
+		mTransformDirty = false;
+		
+		/* Local to parent: scale, rotate, then translate, as in transformPointToParentSpace(). */
+		tempOrientation.normalize(mOrientation);
+		tempTranslation.set(mPosition);
+		mLocalToWorld.set(tempOrientation, tempTranslation, mScale);
+		
+		/* Parent to local: the inverse rotation and scale, applied after undoing the translation. */
+		tempOrientation.conjugate();
+		tempTranslation.set(0.0f, 0.0f, 0.0f);
+		mWorldToLocal.set(tempOrientation, tempTranslation, 1.0f / mScale);
+		tempTranslation.set(mPosition);
+		tempTranslation.negate();
+		mWorldToLocal.transform(tempTranslation);
+		mWorldToLocal.setTranslation(tempTranslation);
+		
+		/* Compose with the parent's world transforms. */
+		if (mParent != null)
+		{
+			mLocalToWorld.mul(mParent.mLocalToWorld, mLocalToWorld);
+			mWorldToLocal.mul(mWorldToLocal, mParent.mWorldToLocal);
+			mWorldScale = mParent.mWorldScale * mScale;
+		}
+		else
+		{
+			mWorldScale = mScale;
+		}
+	}
 
 	/**
 	 * Sets the orientation of this object in its parent's space.
@@ -383,6 +563,7 @@ public class SceneObject implements OpenGLResourceObject
 	public void setOrientation(Quat4f orientation)
 	{
 		mOrientation = orientation;
+		markTransformDirty();
 	}
 	
 	/**
@@ -399,6 +580,7 @@ public class SceneObject implements OpenGLResourceObject
 	public void setScale(float scale)
 	{
 		mScale = scale;
+		markTransformDirty();
 	}
 	
 	/**
@@ -458,14 +640,18 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f transformPointToWorldSpace(Point3f point)
 	{
-		if (mParent == null)
-		{
-			return transformPointToParentSpace(point);
-		}
-		else
-		{
-			return mParent.transformPointToWorldSpace(transformPointToParentSpace(point));
-		}
+		return transformPointToWorldSpace(point, new Point3f());
+	}
+	
+	/**
+	 * Transforms a point in this object's local space into world space, storing it in result 
+	 * (which may be point itself), and returns result.
+	 */
+	public Point3f transformPointToWorldSpace(Point3f point, Point3f result)
+	{
+		updateWorldTransform();
+		mLocalToWorld.transform(point, result);
+		return result;
 	}
 	
 
@@ -474,15 +660,9 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f transformParticlePointToWorldSpace(Particle p)
 	{
-		Point3f point = new Point3f(p.x);
-		if (mParent == null)
-		{
-			return transformPointToParentSpace(point);
-		}
-		else
-		{
-			return mParent.transformPointToWorldSpace(transformPointToParentSpace(point));
-		}
+		Point3f point = new Point3f();
+		p.getPosition(point);
+		return transformPointToWorldSpace(point, point);
 	}
 	
 	
@@ -491,14 +671,18 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f transformPointFromWorldSpace(Point3f point)
 	{
-		if (mParent == null)
-		{
-			return transformPointFromParentSpace(point);
-		}
-		else
-		{
-			return transformPointFromParentSpace(mParent.transformPointFromWorldSpace(point));
-		}
+		return transformPointFromWorldSpace(point, new Point3f());
+	}
+	
+	/**
+	 * Transforms a point in world space into this object's local space, storing it in result 
+	 * (which may be point itself), and returns result.
+	 */
+	public Point3f transformPointFromWorldSpace(Point3f point, Point3f result)
+	{
+		updateWorldTransform();
+		mWorldToLocal.transform(point, result);
+		return result;
 	}
 	
 	/**
@@ -506,15 +690,9 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Point3f transformParticlePointFromWorldSpace(Particle p)
 	{
-		Point3f point = new Point3f(p.x);
-		if (mParent == null)
-		{
-			return transformPointFromParentSpace(point);
-		}
-		else
-		{
-			return transformPointFromParentSpace(mParent.transformPointFromWorldSpace(point));
-		}
+		Point3f point = new Point3f();
+		p.getPosition(point);
+		return transformPointFromWorldSpace(point, point);
 	}
 	
 	/**
@@ -551,14 +729,10 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Vector3f transformVectorToWorldSpace(Vector3f direction)
 	{
-		if (mParent == null)
-		{
-			return transformVectorToParentSpace(direction);
-		}
-		else
-		{
-			return mParent.transformVectorToWorldSpace(transformVectorToParentSpace(direction));
-		}
+		updateWorldTransform();
+		Vector3f result = new Vector3f(direction);
+		mLocalToWorld.transform(result);
+		return result;
 	}
 	
 	/**
@@ -566,14 +740,10 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public Vector3f transformVectorFromWorldSpace(Vector3f direction)
 	{
-		if (mParent == null)
-		{
-			return transformVectorFromParentSpace(direction);
-		}
-		else
-		{
-			return transformVectorFromParentSpace(mParent.transformVectorFromWorldSpace(direction));
-		}
+		updateWorldTransform();
+		Vector3f result = new Vector3f(direction);
+		mWorldToLocal.transform(result);
+		return result;
 	}
 	
 	/**
@@ -597,14 +767,8 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public float transformDistanceToWorldSpace(float distance)
 	{
-		if (mParent == null)
-		{
-			return transformDistanceToParentSpace(distance);
-		}
-		else
-		{
-			return mParent.transformDistanceToWorldSpace(transformDistanceToParentSpace(distance));
-		}
+		updateWorldTransform();
+		return distance * mWorldScale;
 	}
 	
 	/**
@@ -612,14 +776,8 @@ public class SceneObject implements OpenGLResourceObject
 	 */
 	public float transformDistanceFromWorldSpace(float distance)
 	{
-		if (mParent == null)
-		{
-			return transformDistanceFromParentSpace(distance);
-		}
-		else
-		{
-			return transformDistanceFromParentSpace(mParent.transformDistanceFromWorldSpace(distance));
-		}
+		updateWorldTransform();
+		return distance / mWorldScale;
 	}
 	
 	/**
@@ -3,7 +3,7 @@ package cs5625.deferred.scenegraph;
 import java.nio.FloatBuffer;
 import java.util.HashMap;
 
-import cs5625.deferred.datastruct.EdgeDS;
+import cs5625.deferred.datastruct.HalfEdgeMesh;
 import cs5625.deferred.loop.LoopSubdiv;
 import cs5625.deferred.misc.OpenGLResourceObject;
 
@@ -35,30 +35,9 @@ public class Trimesh extends Mesh implements OpenGLResourceObject
 	@Override
 	public FloatBuffer calculateTangentVectors()
 	{
-		if (getVertexCount() == 0 || getPolygonCount() == 0)
-		{
-			return null;
-		}
-		
-		/* This is a very direct port of Eric Lengyel's code, so I leave most of the explanation
-		 * to him. Go read his page if you don't understand! */
-		
-		/* Allocate temporary buffers and loop over triangles. */
-		float tan1[] = new float[getVertexCount() * 3];
-		float tan2[] = new float[getVertexCount() * 3];
-		
-		for (int triIndex = 0; triIndex < getPolygonCount(); ++triIndex)
-		{
-			/* Get vertex indices of this triangle. */
-			int i1 = mPolygonData.get(3 * triIndex + 0);
-			int i2 = mPolygonData.get(3 * triIndex + 1);
-			int i3 = mPolygonData.get(3 * triIndex + 2);
-			
-			computeAndAccumulateTangentVectors(i1, i2, i3, tan1, tan2);			
-		}
-
-		/* Average and normalize the accumulated tangent vectors. */
-		return averageAndNormalizeAllTangentVectors(tan1, tan2);
+		/* Lengyel's method over the fan triangles of each polygon, written into
+		 * the mesh's reusable "VertexTangent" buffer (see Mesh.computeTangentVectors). */
+		return computeTangentVectors();
 	}
 	
 	/**
@@ -78,14 +57,15 @@ public class Trimesh extends Mesh implements OpenGLResourceObject
 		copy.setVertexData(getVertexData());
 		copy.setNormalData(getNormalData());
 		copy.vertexAttribData = (HashMap<String, FloatBuffer>) vertexAttribData.clone();
+		copy.shareBufferObjects(this);
 		
 		return copy;
 	}
 	
 	public void subdivide(int numberofSub){
 		for (int i = 0; i< numberofSub; i++){
-			EdgeDS edgeDS = new EdgeDS(this);
-			LoopSubdiv loopsubdiv = new LoopSubdiv(edgeDS);
+			HalfEdgeMesh hem = new HalfEdgeMesh(this);
+			LoopSubdiv loopsubdiv = new LoopSubdiv(hem);
 			Mesh newMesh = (Trimesh)loopsubdiv.getNewMesh();
 			this.setVertexData(newMesh.getVertexData());
 			this.setEdgeData(newMesh.getEdgeData());